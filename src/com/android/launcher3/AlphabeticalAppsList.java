@@ -3,16 +3,21 @@ package com.android.launcher3;
 import android.content.ComponentName;
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
+import android.util.Pair;
 import com.android.launcher3.compat.AlphabeticIndexCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.ComponentKey;
 
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -24,13 +29,15 @@ class AppNameComparator {
     private HashMap<UserHandleCompat, Long> mUserSerialCache = new HashMap<>();
 
     public AppNameComparator(Context context) {
-        final Collator collator = Collator.getInstance();
+        this(context, Collator.getInstance());
+    }
+
+    AppNameComparator(Context context, final Collator collator) {
         mUserManager = UserManagerCompat.getInstance(context);
         mAppNameComparator = new Comparator<AppInfo>() {
             public final int compare(AppInfo a, AppInfo b) {
-                // Order by the title
-                int result = collator.compare(a.title.toString().trim(),
-                        b.title.toString().trim());
+                // Order by the title, using the collation keys cached in the apps
+                int result = a.getCollationKey(collator).compareTo(b.getCollationKey(collator));
                 if (result == 0) {
                     // If two apps have the same title, then order by the component name
                     result = a.componentName.compareTo(b.componentName);
@@ -78,6 +85,11 @@ class AppNameComparator {
  */
 public class AlphabeticalAppsList {
 
+    // The name of the section of the predicted apps, which is not drawn
+    private static final String PREDICTED_SECTION_NAME = "";
+    // Identifies the predicted apps section across updates
+    private static final Object PREDICTED_SECTION_KEY = new Object();
+
     /**
      * Info about a section in the alphabetic list
      */
@@ -108,6 +120,8 @@ public class AlphabeticalAppsList {
         public AppInfo appInfo;
         // The index of this app (not including sections), or -1 if this adapter item is a section
         public int appIndex;
+        // Whether this item is in the predicted apps section, whose apps also have their own item
+        public boolean isPredicted;
 
         public static AdapterItem asSection(int pos, String name) {
             AdapterItem item = new AdapterItem();
@@ -128,6 +142,18 @@ public class AlphabeticalAppsList {
             item.appIndex = appIndex;
             return item;
         }
+
+        public static AdapterItem asPredictedApp(int pos, AppInfo appInfo, int appIndex) {
+            AdapterItem item = asApp(pos, PREDICTED_SECTION_NAME, appInfo, appIndex);
+            item.isPredicted = true;
+            return item;
+        }
+
+        public static AdapterItem asPredictedSection(int pos) {
+            AdapterItem item = asSection(pos, PREDICTED_SECTION_NAME);
+            item.isPredicted = true;
+            return item;
+        }
     }
 
     /**
@@ -144,10 +170,14 @@ public class AlphabeticalAppsList {
     private RecyclerView.Adapter mAdapter;
     private Filter mFilter;
     private AlphabeticIndexCompat mIndexer;
+    private AppSearchIndex mSearchIndex;
     private AppNameComparator mAppNameComparator;
+    private Map<ComponentKey, Float> mPredictionScores = new HashMap<>();
+    private int mNumPredictedApps;
 
     public AlphabeticalAppsList(Context context) {
         mIndexer = new AlphabeticIndexCompat(context);
+        mSearchIndex = new AppSearchIndex(mIndexer);
         mAppNameComparator = new AppNameComparator(context);
     }
 
@@ -186,6 +216,13 @@ public class AlphabeticalAppsList {
         return (mFilter != null) && mFilteredApps.isEmpty();
     }
 
+    /**
+     * Returns a filter retaining the apps whose title or section name contain {@param query}.
+     */
+    public Filter createSearchFilter(String query) {
+        return mSearchIndex.search(query);
+    }
+
     /**
      * Sets the current filter for this list of apps.
      */
@@ -195,6 +232,28 @@ public class AlphabeticalAppsList {
         mAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Sets the launch scores of the apps. The best scored apps are shown at the top of the list,
+     * and at the top of the search results.
+     */
+    public void setPredictionScores(Map<ComponentKey, Float> scores) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mSectionedFilteredApps);
+        mPredictionScores = scores;
+        onAppsUpdated();
+        dispatchChanges(oldItems, null);
+    }
+
+    /**
+     * Sets the number of predicted apps to show, usually a row.
+     */
+    public void setNumPredictedApps(int numPredictedApps) {
+        if (mNumPredictedApps != numPredictedApps) {
+            mNumPredictedApps = numPredictedApps;
+            onAppsUpdated();
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
     /**
      * Sets the current set of apps.
      */
@@ -202,6 +261,7 @@ public class AlphabeticalAppsList {
         Collections.sort(apps, mAppNameComparator.getComparator());
         mApps.clear();
         mApps.addAll(apps);
+        mSearchIndex.setApps(mApps);
         onAppsUpdated();
         mAdapter.notifyDataSetChanged();
     }
@@ -210,40 +270,47 @@ public class AlphabeticalAppsList {
      * Adds new apps to the list.
      */
     public void addApps(List<AppInfo> apps) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mSectionedFilteredApps);
         // We add it in place, in alphabetical order
         for (AppInfo info : apps) {
             addApp(info);
         }
+        onAppsUpdated();
+        dispatchChanges(oldItems, null);
     }
 
     /**
      * Updates existing apps in the list
      */
     public void updateApps(List<AppInfo> apps) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mSectionedFilteredApps);
+        HashSet<AppInfo> updatedApps = new HashSet<>();
         for (AppInfo info : apps) {
             int index = mApps.indexOf(info);
             if (index != -1) {
-                mApps.set(index, info);
-                onAppsUpdated();
-                mAdapter.notifyItemChanged(index);
-            } else {
-                addApp(info);
+                // Re-insert the app, in case its title changed
+                mSearchIndex.removeApp(mApps.remove(index));
+                updatedApps.add(info);
             }
+            addApp(info);
         }
+        onAppsUpdated();
+        dispatchChanges(oldItems, updatedApps);
     }
 
     /**
      * Removes some apps from the list.
      */
     public void removeApps(List<AppInfo> apps) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mSectionedFilteredApps);
         for (AppInfo info : apps) {
             int removeIndex = findAppByComponent(mApps, info);
             if (removeIndex != -1) {
-                mApps.remove(removeIndex);
-                onAppsUpdated();
-                mAdapter.notifyDataSetChanged();
+                mSearchIndex.removeApp(mApps.remove(removeIndex));
             }
         }
+        onAppsUpdated();
+        dispatchChanges(oldItems, null);
     }
 
     /**
@@ -269,9 +336,194 @@ public class AlphabeticalAppsList {
         int index = Collections.binarySearch(mApps, info, mAppNameComparator.getComparator());
         if (index < 0) {
             mApps.add(-(index + 1), info);
-            onAppsUpdated();
-            mAdapter.notifyDataSetChanged();
+            mSearchIndex.addApp(info);
+        }
+    }
+
+    /**
+     * Receives the changes which turn a list of adapter items into another, in the order they
+     * have to be applied.
+     */
+    interface ChangeListener {
+        void onItemRangeRemoved(int positionStart, int itemCount);
+        void onItemMoved(int fromPosition, int toPosition);
+        void onItemRangeInserted(int positionStart, int itemCount);
+    }
+
+    /**
+     * Notifies the adapter of the items removed, moved and inserted between {@param oldItems}
+     * and the current adapter items, and of the items of {@param updatedApps} which changed in
+     * place, instead of rebinding the whole list.
+     */
+    private void dispatchChanges(List<AdapterItem> oldItems, Set<AppInfo> updatedApps) {
+        final RecyclerView.Adapter adapter = mAdapter;
+        List<AdapterItem> newItems = mSectionedFilteredApps;
+        List<Object> newKeys = getItemKeys(newItems);
+        Set<Object> keptKeys = diffItems(getItemKeys(oldItems), newKeys, new ChangeListener() {
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                adapter.notifyItemRangeRemoved(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemMoved(int fromPosition, int toPosition) {
+                adapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                adapter.notifyItemRangeInserted(positionStart, itemCount);
+            }
+        });
+
+        if (updatedApps != null && !updatedApps.isEmpty()) {
+            for (int i = 0; i < newItems.size(); i++) {
+                AppInfo info = newItems.get(i).appInfo;
+                if (info != null && updatedApps.contains(info)
+                        && keptKeys.contains(newKeys.get(i))) {
+                    adapter.notifyItemChanged(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands to {@param listener} the items removed, moved and inserted to turn the items keyed
+     * by {@param oldKeys} into the items keyed by {@param newKeys}, and returns the keys of the
+     * items which are in both. The keys of each list must be unique.
+     */
+    static Set<Object> diffItems(List<Object> oldKeys, List<Object> newKeys,
+            ChangeListener listener) {
+        HashMap<Object, Integer> newPositions = new HashMap<>();
+        for (int i = 0; i < newKeys.size(); i++) {
+            newPositions.put(newKeys.get(i), i);
+        }
+
+        // Remove the items which are gone, from the end so that the positions stay valid. The
+        // remaining items are kept in their current order.
+        ArrayList<Object> current = new ArrayList<>(oldKeys.size());
+        HashSet<Object> keptKeys = new HashSet<>();
+        int removeEnd = -1;
+        for (int i = oldKeys.size() - 1; i >= 0; i--) {
+            Object key = oldKeys.get(i);
+            if (!newPositions.containsKey(key)) {
+                if (removeEnd < 0) {
+                    removeEnd = i + 1;
+                }
+                continue;
+            }
+            if (removeEnd >= 0) {
+                listener.onItemRangeRemoved(i + 1, removeEnd - i - 1);
+                removeEnd = -1;
+            }
+            keptKeys.add(key);
+            current.add(key);
+        }
+        if (removeEnd >= 0) {
+            listener.onItemRangeRemoved(0, removeEnd);
+        }
+        Collections.reverse(current);
+
+        // The items in the longest run already in the new order stay, the others are moved
+        // next to the item preceding them in the new order.
+        int[] targets = new int[current.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = newPositions.get(current.get(i));
+        }
+        boolean[] stays = getLongestIncreasingSubsequence(targets);
+        ArrayList<Object> sortedKeys = new ArrayList<>(current.size());
+        for (Object key : newKeys) {
+            if (keptKeys.contains(key)) {
+                sortedKeys.add(key);
+            }
+        }
+        HashSet<Object> movedKeys = new HashSet<>();
+        for (int i = 0; i < targets.length; i++) {
+            if (!stays[i]) {
+                movedKeys.add(current.get(i));
+            }
+        }
+        for (int i = 0; i < sortedKeys.size() && !movedKeys.isEmpty(); i++) {
+            Object key = sortedKeys.get(i);
+            if (movedKeys.remove(key)) {
+                int from = current.indexOf(key);
+                current.remove(from);
+                int to = (i == 0) ? 0 : current.indexOf(sortedKeys.get(i - 1)) + 1;
+                current.add(to, key);
+                if (from != to) {
+                    listener.onItemMoved(from, to);
+                }
+            }
+        }
+
+        // Insert the new items, in order so that the positions are final.
+        int insertStart = -1;
+        for (int i = 0; i <= newKeys.size(); i++) {
+            boolean inserted = i < newKeys.size() && !keptKeys.contains(newKeys.get(i));
+            if (inserted && insertStart < 0) {
+                insertStart = i;
+            } else if (!inserted && insertStart >= 0) {
+                listener.onItemRangeInserted(insertStart, i - insertStart);
+                insertStart = -1;
+            }
+        }
+        return keptKeys;
+    }
+
+    /**
+     * Returns the keys identifying {@param items} across updates: the app, or for a section
+     * header its name and its first app, as a name can head more than one section when the
+     * sort order and the sections disagree. The predicted items have keys of their own.
+     */
+    static List<Object> getItemKeys(List<AdapterItem> items) {
+        ArrayList<Object> keys = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            AdapterItem item = items.get(i);
+            if (item.isPredicted) {
+                keys.add(item.isSectionHeader
+                        ? PREDICTED_SECTION_KEY : Pair.create(PREDICTED_SECTION_KEY, item.appInfo));
+            } else if (item.isSectionHeader) {
+                // A section is never empty, its first app follows the header.
+                AppInfo firstApp = i + 1 < items.size() ? items.get(i + 1).appInfo : null;
+                keys.add(Pair.create(item.sectionName, firstApp));
+            } else {
+                keys.add(item.appInfo);
+            }
         }
+        return keys;
+    }
+
+    /**
+     * Returns which of {@param values} are part of a longest increasing subsequence.
+     */
+    private static boolean[] getLongestIncreasingSubsequence(int[] values) {
+        int n = values.length;
+        boolean[] result = new boolean[n];
+        // tails[k] is the index of the smallest tail of an increasing subsequence of length k + 1
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
     }
 
     /**
@@ -285,13 +537,33 @@ public class AlphabeticalAppsList {
         SectionInfo lastSectionInfo = null;
         int position = 0;
         int appIndex = 0;
+
+        // Check which apps we want to retain
+        ArrayList<AppInfo> retainedApps = new ArrayList<>(mApps.size());
         for (AppInfo info : mApps) {
-            String sectionName = mIndexer.computeSectionName(info.title.toString().trim());
+            if (mFilter == null || mFilter.retainApp(info, mSearchIndex.getSectionName(info))) {
+                retainedApps.add(info);
+            }
+        }
 
-            // Check if we want to retain this app
-            if (mFilter != null && !mFilter.retainApp(info, sectionName)) {
-                continue;
+        // Create the predicted apps section, unless the search results fit in it anyway
+        List<AppInfo> predictedApps = getPredictedApps(retainedApps);
+        if (!predictedApps.isEmpty()) {
+            SectionInfo predictedSectionInfo = new SectionInfo(PREDICTED_SECTION_NAME);
+            mSections.add(predictedSectionInfo);
+            mSectionedFilteredApps.add(AdapterItem.asPredictedSection(position++));
+            for (AppInfo info : predictedApps) {
+                AdapterItem appItem = AdapterItem.asPredictedApp(position++, info, appIndex++);
+                predictedSectionInfo.numAppsInSection++;
+                if (predictedSectionInfo.firstAppItem == null) {
+                    predictedSectionInfo.firstAppItem = appItem;
+                }
+                mSectionedFilteredApps.add(appItem);
             }
+        }
+
+        for (AppInfo info : retainedApps) {
+            String sectionName = mSearchIndex.getSectionName(info);
 
             // Create a new section if necessary
             if (lastSectionInfo == null || !lastSectionInfo.sectionName.equals(sectionName)) {
@@ -313,4 +585,32 @@ public class AlphabeticalAppsList {
             mFilteredApps.add(info);
         }
     }
+
+    /**
+     * Returns the apps of {@param apps} to show in the predicted apps section, best scored first.
+     */
+    private List<AppInfo> getPredictedApps(List<AppInfo> apps) {
+        if (mNumPredictedApps <= 0 || mPredictionScores.isEmpty()
+                || (mFilter != null && apps.size() <= mNumPredictedApps)) {
+            return Collections.emptyList();
+        }
+        final HashMap<AppInfo, Float> scores = new HashMap<>();
+        ArrayList<AppInfo> predictedApps = new ArrayList<>();
+        for (AppInfo info : apps) {
+            Float score = mPredictionScores.get(new ComponentKey(info.componentName, info.user));
+            if (score != null) {
+                scores.put(info, score);
+                predictedApps.add(info);
+            }
+        }
+        // The sort is stable, so apps with the same score stay in alphabetical order
+        Collections.sort(predictedApps, new Comparator<AppInfo>() {
+            @Override
+            public int compare(AppInfo a, AppInfo b) {
+                return Float.compare(scores.get(b), scores.get(a));
+            }
+        });
+        return predictedApps.size() > mNumPredictedApps
+                ? predictedApps.subList(0, mNumPredictedApps) : predictedApps;
+    }
 }
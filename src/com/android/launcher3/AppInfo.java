@@ -26,6 +26,8 @@ import com.android.launcher3.compat.LauncherActivityInfoCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -62,6 +64,13 @@ public class AppInfo extends ItemInfo {
 
     int flags = 0;
 
+    /**
+     * The collation key of the title, and the title and collator it was computed with.
+     */
+    private CollationKey mCollationKey;
+    private CharSequence mCollationKeyTitle;
+    private Collator mCollationKeyCollator;
+
     AppInfo() {
         itemType = LauncherSettings.BaseLauncherColumns.ITEM_TYPE_SHORTCUT;
     }
@@ -112,6 +121,20 @@ public class AppInfo extends ItemInfo {
         iconBitmap = info.iconBitmap;
     }
 
+    /**
+     * Returns the collation key of the trimmed title, computed again only if the title or the
+     * collator (e.g. after a locale change) changed since the last call.
+     */
+    CollationKey getCollationKey(Collator collator) {
+        if (mCollationKey == null || mCollationKeyTitle != title
+                || mCollationKeyCollator != collator) {
+            mCollationKey = collator.getCollationKey(title == null ? "" : title.toString().trim());
+            mCollationKeyTitle = title;
+            mCollationKeyCollator = collator;
+        }
+        return mCollationKey;
+    }
+
     @Override
     public String toString() {
         return "ApplicationInfo(title=" + title.toString() + " id=" + this.id
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import com.android.launcher3.compat.AlphabeticIndexCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * An index of the app titles and section names, to search the apps list without going through
+ * all the titles on every keystroke.
+ *
+ * An app matches a query if its title or its section name contains the query, ignoring case and
+ * whitespace. The index maps every substring of up to {@link #MAX_GRAM_LENGTH} characters of the
+ * normalized titles to the apps containing it, so a short query is a single lookup, and a longer
+ * one only checks the apps containing its rarest trigram.
+ */
+public class AppSearchIndex {
+
+    private static final int MAX_GRAM_LENGTH = 3;
+
+    /**
+     * The indexed data of an app.
+     */
+    private static class Entry {
+        final AppInfo app;
+        final String normalizedTitle;
+        final String sectionName;
+
+        Entry(AppInfo app, String normalizedTitle, String sectionName) {
+            this.app = app;
+            this.normalizedTitle = normalizedTitle;
+            this.sectionName = sectionName;
+        }
+    }
+
+    /**
+     * The apps of a section.
+     */
+    private static class Section {
+        final String normalizedName;
+        final ArrayList<Entry> entries = new ArrayList<>();
+
+        Section(String normalizedName) {
+            this.normalizedName = normalizedName;
+        }
+    }
+
+    private final AlphabeticIndexCompat mIndexer;
+
+    private final HashMap<AppInfo, Entry> mEntries = new HashMap<>();
+    // Substrings of the normalized titles to the apps containing them.
+    private final HashMap<String, ArrayList<Entry>> mPostings = new HashMap<>();
+    // Section names to the apps in them.
+    private final HashMap<String, Section> mSections = new HashMap<>();
+
+    public AppSearchIndex(AlphabeticIndexCompat indexer) {
+        mIndexer = indexer;
+    }
+
+    /**
+     * Returns {@param s} in lower case and without whitespace, the form in which titles and
+     * queries are compared.
+     */
+    public static String normalize(String s) {
+        return s.toLowerCase().replaceAll("\\s+", "");
+    }
+
+    /**
+     * Replaces the indexed apps, which are expected to be sorted by title.
+     */
+    public void setApps(List<AppInfo> apps) {
+        mEntries.clear();
+        mPostings.clear();
+        mSections.clear();
+
+        ArrayList<String> titles = new ArrayList<>(apps.size());
+        for (AppInfo app : apps) {
+            titles.add(app.title.toString().trim());
+        }
+        String[] sectionNames = mIndexer.computeSectionNames(titles);
+        for (int i = 0; i < sectionNames.length; i++) {
+            addEntry(apps.get(i), titles.get(i), sectionNames[i]);
+        }
+    }
+
+    /**
+     * Indexes an app, or re-indexes it if its title changed.
+     */
+    public void addApp(AppInfo app) {
+        if (mEntries.containsKey(app)) {
+            removeApp(app);
+        }
+        String title = app.title.toString().trim();
+        addEntry(app, title, mIndexer.computeSectionName(title));
+    }
+
+    private void addEntry(AppInfo app, String title, String sectionName) {
+        Entry entry = new Entry(app, normalize(title), sectionName);
+        mEntries.put(app, entry);
+
+        HashSet<String> grams = new HashSet<>();
+        collectGrams(entry.normalizedTitle, grams);
+        for (String gram : grams) {
+            ArrayList<Entry> posting = mPostings.get(gram);
+            if (posting == null) {
+                posting = new ArrayList<>(1);
+                mPostings.put(gram, posting);
+            }
+            posting.add(entry);
+        }
+
+        Section section = mSections.get(entry.sectionName);
+        if (section == null) {
+            section = new Section(normalize(entry.sectionName));
+            mSections.put(entry.sectionName, section);
+        }
+        section.entries.add(entry);
+    }
+
+    /**
+     * Removes an app from the index.
+     */
+    public void removeApp(AppInfo app) {
+        Entry entry = mEntries.remove(app);
+        if (entry == null) {
+            return;
+        }
+
+        HashSet<String> grams = new HashSet<>();
+        collectGrams(entry.normalizedTitle, grams);
+        for (String gram : grams) {
+            ArrayList<Entry> posting = mPostings.get(gram);
+            if (posting != null) {
+                posting.remove(entry);
+                if (posting.isEmpty()) {
+                    mPostings.remove(gram);
+                }
+            }
+        }
+
+        Section section = mSections.get(entry.sectionName);
+        if (section != null) {
+            section.entries.remove(entry);
+            if (section.entries.isEmpty()) {
+                mSections.remove(entry.sectionName);
+            }
+        }
+    }
+
+    /**
+     * Returns the section name of an indexed app, or null if the app is not indexed.
+     */
+    public String getSectionName(AppInfo app) {
+        Entry entry = mEntries.get(app);
+        return entry == null ? null : entry.sectionName;
+    }
+
+    /**
+     * Returns a filter retaining the apps matching {@param query}.
+     */
+    public AlphabeticalAppsList.Filter search(String query) {
+        final HashSet<AppInfo> matches = new HashSet<>();
+        String normalizedQuery = normalize(query);
+
+        for (Section section : mSections.values()) {
+            if (section.normalizedName.contains(normalizedQuery)) {
+                for (Entry entry : section.entries) {
+                    matches.add(entry.app);
+                }
+            }
+        }
+
+        if (normalizedQuery.isEmpty()) {
+            matches.addAll(mEntries.keySet());
+        } else if (normalizedQuery.length() <= MAX_GRAM_LENGTH) {
+            ArrayList<Entry> posting = mPostings.get(normalizedQuery);
+            if (posting != null) {
+                for (Entry entry : posting) {
+                    matches.add(entry.app);
+                }
+            }
+        } else {
+            // Only the apps containing every trigram of the query can match, so it is enough to
+            // check the ones containing the rarest trigram.
+            ArrayList<Entry> candidates = null;
+            for (int i = 0; i + MAX_GRAM_LENGTH <= normalizedQuery.length(); i++) {
+                ArrayList<Entry> posting = mPostings.get(
+                        normalizedQuery.substring(i, i + MAX_GRAM_LENGTH));
+                if (posting == null) {
+                    candidates = null;
+                    break;
+                }
+                if (candidates == null || posting.size() < candidates.size()) {
+                    candidates = posting;
+                }
+            }
+            if (candidates != null) {
+                for (Entry entry : candidates) {
+                    if (entry.normalizedTitle.contains(normalizedQuery)) {
+                        matches.add(entry.app);
+                    }
+                }
+            }
+        }
+
+        return new AlphabeticalAppsList.Filter() {
+            @Override
+            public boolean retainApp(AppInfo info, String sectionName) {
+                return matches.contains(info);
+            }
+        };
+    }
+
+    /**
+     * Adds all the substrings of up to {@link #MAX_GRAM_LENGTH} characters of {@param s}.
+     */
+    private static void collectGrams(String s, HashSet<String> out) {
+        int length = s.length();
+        for (int start = 0; start < length; start++) {
+            int maxEnd = Math.min(length, start + MAX_GRAM_LENGTH);
+            for (int end = start + 1; end <= maxEnd; end++) {
+                out.add(s.substring(start, end));
+            }
+        }
+    }
+}
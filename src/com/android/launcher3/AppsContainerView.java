@@ -35,9 +35,11 @@ import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.Thunk;
 
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -111,6 +113,7 @@ public class AppsContainerView extends FrameLayout implements DragSource, Insett
             mAdapter = adapter;
         }
         mApps.setAdapter(mAdapter);
+        mApps.setNumPredictedApps(mNumAppsPerRow);
     }
 
     /**
@@ -134,6 +137,13 @@ public class AppsContainerView extends FrameLayout implements DragSource, Insett
         mApps.updateApps(apps);
     }
 
+    /**
+     * Sets the launch scores of the apps, which rank the predicted apps.
+     */
+    public void setPredictionScores(Map<ComponentKey, Float> scores) {
+        mApps.setPredictionScores(scores);
+    }
+
     /**
      * Removes some apps from the list.
      */
@@ -225,6 +235,7 @@ public class AppsContainerView extends FrameLayout implements DragSource, Insett
             if (grid.updateAppsViewNumCols(context.getResources(), fixedBounds.width())) {
                 mNumAppsPerRow = grid.appsViewNumCols;
                 mAppsRecyclerView.setNumAppsPerRow(mNumAppsPerRow);
+                mApps.setNumPredictedApps(mNumAppsPerRow);
                 if (USE_LAYOUT == GRID_LAYOUT) {
                     ((AppsGridAdapter) mAdapter).setNumAppsPerRow(mNumAppsPerRow);
                 }
@@ -375,15 +386,7 @@ public class AppsContainerView extends FrameLayout implements DragSource, Insett
                         s.toString()));
             }
 
-            final String filterText = s.toString().toLowerCase().replaceAll("\\s+", "");
-            mApps.setFilter(new AlphabeticalAppsList.Filter() {
-                @Override
-                public boolean retainApp(AppInfo info, String sectionName) {
-                    String title = info.title.toString();
-                    return sectionName.toLowerCase().contains(filterText) ||
-                            title.toLowerCase().replaceAll("\\s+", "").contains(filterText);
-                }
-            });
+            mApps.setFilter(mApps.createSearchFilter(s.toString()));
         }
     }
 
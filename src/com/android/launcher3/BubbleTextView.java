@@ -34,8 +34,6 @@ import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 import android.widget.TextView;
 
-import com.android.launcher3.IconCache.IconLoadRequest;
-
 /**
  * TextView that draws a bubble behind the text. We cannot use a LineBackgroundSpan
  * because we want to make the bubble taller than the text and TextView's clip is
@@ -76,7 +74,11 @@ public class BubbleTextView extends TextView {
     private boolean mStayPressed;
     private boolean mIgnorePressedStateChange;
 
-    private IconLoadRequest mIconLoadRequest;
+    private IconUpgradeScheduler.Request mIconLoadRequest;
+    // The priority of the last high-res icon load, and whether detaching the view cancelled it
+    // before it completed, so that it is requested again when the view is attached.
+    private int mIconLoadPriority;
+    private boolean mIconLoadCancelledOnDetach;
 
     public BubbleTextView(Context context) {
         this(context, null, 0);
@@ -212,6 +214,14 @@ public class BubbleTextView extends TextView {
         return mLayoutHorizontal;
     }
 
+    /**
+     * Returns whether the drop shadow of this view only depends on its icon, as no background is
+     * drawn behind the icon.
+     */
+    boolean isShadowOfIconOnly() {
+        return mBackground == null;
+    }
+
     private void updateIconState() {
         if (mIcon instanceof FastBitmapDrawable) {
             ((FastBitmapDrawable) mIcon).setPressed(isPressed() || mStayPressed);
@@ -359,12 +369,23 @@ public class BubbleTextView extends TextView {
             ((PreloadIconDrawable) mIcon).applyPreloaderTheme(getPreloaderTheme());
         }
         mSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+
+        // The request is cancelled on detach, and the view may be attached again without being
+        // rebound, e.g. from the RecyclerView cache or when it is moved during a drag.
+        if (mIconLoadCancelledOnDetach) {
+            verifyHighRes(mIconLoadPriority);
+        }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         if (mBackground != null) mBackground.setCallback(null);
+        // The view scrolled off or was removed, don't spend a worker on its icon.
+        if (mIconLoadRequest != null) {
+            cancelHighResRequest();
+            mIconLoadCancelledOnDetach = true;
+        }
     }
 
     @Override
@@ -472,22 +493,41 @@ public class BubbleTextView extends TextView {
      * Verifies that the current icon is high-res otherwise posts a request to load the icon.
      */
     public void verifyHighRes() {
-        if (mIconLoadRequest != null) {
-            mIconLoadRequest.cancel();
-            mIconLoadRequest = null;
-        }
+        verifyHighRes(getTag() instanceof AppInfo ? IconUpgradeScheduler.PRIORITY_ALL_APPS
+                : IconUpgradeScheduler.PRIORITY_WORKSPACE);
+    }
+
+    /**
+     * Verifies that the current icon is high-res otherwise posts a request to load the icon.
+     *
+     * @param priority one of the {@link IconUpgradeScheduler} PRIORITY_ constants.
+     */
+    public void verifyHighRes(int priority) {
+        cancelHighResRequest();
+        mIconLoadPriority = priority;
         if (getTag() instanceof AppInfo) {
             AppInfo info = (AppInfo) getTag();
             if (info.usingLowResIcon) {
                 mIconLoadRequest = LauncherAppState.getInstance().getIconCache()
-                        .updateIconInBackground(BubbleTextView.this, info);
+                        .updateIconInBackground(BubbleTextView.this, info, priority);
             }
         } else if (getTag() instanceof ShortcutInfo) {
             ShortcutInfo info = (ShortcutInfo) getTag();
             if (info.usingLowResIcon) {
                 mIconLoadRequest = LauncherAppState.getInstance().getIconCache()
-                        .updateIconInBackground(BubbleTextView.this, info);
+                        .updateIconInBackground(BubbleTextView.this, info, priority);
             }
         }
     }
+
+    /**
+     * Cancels the pending high-res icon load, if any.
+     */
+    public void cancelHighResRequest() {
+        mIconLoadCancelledOnDetach = false;
+        if (mIconLoadRequest != null) {
+            mIconLoadRequest.cancel();
+            mIconLoadRequest = null;
+        }
+    }
 }
@@ -54,16 +54,18 @@ import android.view.animation.LayoutAnimationController;
 
 import com.android.launcher3.FolderIcon.FolderRingAnimator;
 import com.android.launcher3.LauncherAccessibilityDelegate.DragType;
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.ReorderSolver;
+import com.android.launcher3.util.ReorderSolver.CellAndSpan;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.PendingAddWidgetInfo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 
 public class CellLayout extends ViewGroup {
     static final String TAG = "CellLayout";
@@ -91,8 +93,8 @@ public class CellLayout extends ViewGroup {
     @Thunk final int[] mTmpPoint = new int[2];
     int[] mTempLocation = new int[2];
 
-    boolean[][] mOccupied;
-    boolean[][] mTmpOccupied;
+    GridOccupancy mOccupied;
+    GridOccupancy mTmpOccupied;
     private boolean mLastDownOnOccupiedCell = false;
 
     private OnTouchListener mInterceptTouchListener;
@@ -135,6 +137,9 @@ public class CellLayout extends ViewGroup {
     private final Paint mDragOutlinePaint = new Paint();
 
     private final FastBitmapView mTouchFeedbackView;
+    // The icon whose shadow is shown by mTouchFeedbackView. The shadows are shared by the icons
+    // showing the same app, so the bitmap alone does not tell when the icon changes.
+    private BubbleTextView mPressedIcon;
 
     @Thunk HashMap<CellLayout.LayoutParams, Animator> mReorderAnimators = new
             HashMap<CellLayout.LayoutParams, Animator>();
@@ -170,8 +175,12 @@ public class CellLayout extends ViewGroup {
     @Thunk float mReorderPreviewAnimationMagnitude;
 
     private ArrayList<View> mIntersectingViews = new ArrayList<View>();
-    private Rect mOccupiedRect = new Rect();
     private int[] mDirectionVector = new int[2];
+
+    // The share of a frame the reorder solver can take while previewing a drag over.
+    private static final long REORDER_FRAME_BUDGET_NANOS = 8 * 1000 * 1000;
+    private ReorderSolver<View> mReorderSolver;
+    private final ReorderSolutionCache mReorderSolutionCache = new ReorderSolutionCache();
     int[] mPreviousReorderDirection = new int[2];
     private static final int INVALID_DIRECTION = -100;
     private DropTarget.DragEnforcer mDragEnforcer;
@@ -217,8 +226,10 @@ public class CellLayout extends ViewGroup {
         mMaxGap = Integer.MAX_VALUE;
         mCountX = (int) grid.numColumns;
         mCountY = (int) grid.numRows;
-        mOccupied = new boolean[mCountX][mCountY];
-        mTmpOccupied = new boolean[mCountX][mCountY];
+        mOccupied = new GridOccupancy(mCountX, mCountY);
+        mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+        mReorderSolver = new ReorderSolver<View>(mCountX, mCountY);
+        mValidRegions = new int[mCountX * mCountY * 4];
         mPreviousReorderDirection[0] = INVALID_DIRECTION;
         mPreviousReorderDirection[1] = INVALID_DIRECTION;
 
@@ -428,7 +439,6 @@ public class CellLayout extends ViewGroup {
             if (dragInfo.dragType == DragType.WIDGET) {
                 // For a widget, every cell must be vacant. In addition, we will return any valid
                 // drop target by which the passed id is contained.
-                boolean fits = false;
 
                 // These represent the amount that we can back off if we hit a problem. They
                 // get consumed as we move up and to the right, trying new regions.
@@ -437,23 +447,12 @@ public class CellLayout extends ViewGroup {
 
                 for (int m = 0; m < spanX; m++) {
                     for (int n = 0; n < spanY; n++) {
-
-                        fits = true;
                         int x0 = x - m;
                         int y0 = y - n;
 
                         if (x0 < 0 || y0 < 0) continue;
 
-                        for (int i = x0; i < x0 + spanX; i++) {
-                            if (!fits) break;
-                            for (int j = y0; j < y0 + spanY; j++) {
-                                if (i >= mCountX || j >= mCountY || mOccupied[i][j]) {
-                                    fits = false;
-                                    break;
-                                }
-                            }
-                        }
-                        if (fits) {
+                        if (mOccupied.isRegionVacant(x0, y0, spanX, spanY)) {
                             return x0 * mCountY + y0;
                         }
                     }
@@ -630,9 +629,10 @@ public class CellLayout extends ViewGroup {
     public void setGridSize(int x, int y) {
         mCountX = x;
         mCountY = y;
-        mOccupied = new boolean[mCountX][mCountY];
-        mTmpOccupied = new boolean[mCountX][mCountY];
-        mTempRectStack.clear();
+        mOccupied = new GridOccupancy(mCountX, mCountY);
+        mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+        mReorderSolver = new ReorderSolver<View>(mCountX, mCountY);
+        mValidRegions = new int[mCountX * mCountY * 4];
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mWidthGap, mHeightGap,
                 mCountX, mCountY);
         requestLayout();
@@ -668,13 +668,16 @@ public class CellLayout extends ViewGroup {
         if (icon == null || background == null) {
             mTouchFeedbackView.setBitmap(null);
             mTouchFeedbackView.animate().cancel();
+            mPressedIcon = null;
         } else {
             int offset = getMeasuredWidth() - getPaddingLeft() - getPaddingRight()
                     - (mCountX * mCellWidth);
             mTouchFeedbackView.setTranslationX(icon.getLeft() + (int) Math.ceil(offset / 2f)
                     - padding);
             mTouchFeedbackView.setTranslationY(icon.getTop() - padding);
-            if (mTouchFeedbackView.setBitmap(background)) {
+            boolean iconChanged = icon != mPressedIcon;
+            mPressedIcon = icon;
+            if (mTouchFeedbackView.setBitmap(background) || iconChanged) {
                 mTouchFeedbackView.setAlpha(0);
                 mTouchFeedbackView.animate().alpha(1)
                     .setDuration(FastBitmapDrawable.CLICK_FEEDBACK_DURATION)
@@ -753,7 +756,7 @@ public class CellLayout extends ViewGroup {
             cd.setBounds(0, 0,  mCellWidth, mCellHeight);
             for (int i = 0; i < mCountX; i++) {
                 for (int j = 0; j < mCountY; j++) {
-                    if (mOccupied[i][j]) {
+                    if (mOccupied.isOccupied(i, j)) {
                         cellToPoint(i, j, pt);
                         canvas.save();
                         canvas.translate(pt[0], pt[1]);
@@ -1279,7 +1282,7 @@ public class CellLayout extends ViewGroup {
     public boolean animateChildToPosition(final View child, int cellX, int cellY, int duration,
             int delay, boolean permanent, boolean adjustOccupied) {
         ShortcutAndWidgetContainer clc = getShortcutsAndWidgets();
-        boolean[][] occupied = mOccupied;
+        GridOccupancy occupied = mOccupied;
         if (!permanent) {
             occupied = mTmpOccupied;
         }
@@ -1297,8 +1300,8 @@ public class CellLayout extends ViewGroup {
             final int oldX = lp.x;
             final int oldY = lp.y;
             if (adjustOccupied) {
-                occupied[lp.cellX][lp.cellY] = false;
-                occupied[cellX][cellY] = true;
+                occupied.markCells(lp.cellX, lp.cellY, 1, 1, false);
+                occupied.markCells(cellX, cellY, 1, 1, true);
             }
             lp.isLockedToGrid = true;
             if (permanent) {
@@ -1395,7 +1398,8 @@ public class CellLayout extends ViewGroup {
         final int oldDragCellX = mDragCell[0];
         final int oldDragCellY = mDragCell[1];
 
-        if (dragOutline == null && v == null) {
+        // The outline may still be generated, the location is visualized once it is ready.
+        if (dragOutline == null) {
             return;
         }
 
@@ -1519,20 +1523,9 @@ public class CellLayout extends ViewGroup {
                 spanX, spanY, ignoreView, ignoreOccupied, result, null, mOccupied);
     }
 
-    private final Stack<Rect> mTempRectStack = new Stack<Rect>();
-    private void lazyInitTempRectStack() {
-        if (mTempRectStack.isEmpty()) {
-            for (int i = 0; i < mCountX * mCountY; i++) {
-                mTempRectStack.push(new Rect());
-            }
-        }
-    }
-
-    private void recycleTempRects(Stack<Rect> used) {
-        while (!used.isEmpty()) {
-            mTempRectStack.push(used.pop());
-        }
-    }
+    // The regions found by findNearestArea(), as left, top, right, bottom quadruples. There is at
+    // most one region per cell.
+    private int[] mValidRegions;
 
     /**
      * Find a vacant area that will fit the given bounds nearest the requested
@@ -1552,8 +1545,15 @@ public class CellLayout extends ViewGroup {
      */
     int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
             View ignoreView, boolean ignoreOccupied, int[] result, int[] resultSpan,
-            boolean[][] occupied) {
-        lazyInitTempRectStack();
+            GridOccupancy occupied) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+
+        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
+                spanX < minSpanX || spanY < minSpanY) {
+            return bestXY;
+        }
+
         // mark space take by ignoreView as available (method checks if ignoreView is null)
         markCellsAsUnoccupiedForView(ignoreView, occupied);
 
@@ -1563,33 +1563,28 @@ public class CellLayout extends ViewGroup {
         pixelX -= (mCellWidth + mWidthGap) * (spanX - 1) / 2f;
         pixelY -= (mCellHeight + mHeightGap) * (spanY - 1) / 2f;
 
-        // Keep track of best-scoring drop area
-        final int[] bestXY = result != null ? result : new int[2];
         double bestDistance = Double.MAX_VALUE;
-        final Rect bestRect = new Rect(-1, -1, -1, -1);
-        final Stack<Rect> validRegions = new Stack<Rect>();
+        int bestLeft = -1;
+        int bestTop = -1;
+        int bestRight = -1;
+        int bestBottom = -1;
+        final int[] validRegions = mValidRegions;
+        int validRegionsEnd = 0;
 
         final int countX = mCountX;
         final int countY = mCountY;
 
-        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
-                spanX < minSpanX || spanY < minSpanY) {
-            return bestXY;
-        }
-
         for (int y = 0; y < countY - (minSpanY - 1); y++) {
-            inner:
+            // The columns of this row at which the minimum span fits
+            final long fits = ignoreOccupied ?
+                    occupied.getVacantRegions(y, minSpanX, minSpanY) : 0;
             for (int x = 0; x < countX - (minSpanX - 1); x++) {
                 int ySize = -1;
                 int xSize = -1;
                 if (ignoreOccupied) {
                     // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (occupied[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
+                    if ((fits & (1L << x)) == 0) {
+                        continue;
                     }
                     xSize = minSpanX;
                     ySize = minSpanY;
@@ -1602,23 +1597,17 @@ public class CellLayout extends ViewGroup {
                     boolean hitMaxY = ySize >= spanY;
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
-                            for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX -1 || occupied[x + xSize][y + j]) {
-                                    // We can't move out horizontally
-                                    hitMaxX = true;
-                                }
-                            }
-                            if (!hitMaxX) {
+                            if (!occupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
+                            } else {
                                 xSize++;
                             }
                         } else if (!hitMaxY) {
-                            for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || occupied[x + i][y + ySize]) {
-                                    // We can't move out vertically
-                                    hitMaxY = true;
-                                }
-                            }
-                            if (!hitMaxY) {
+                            if (!occupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
+                            } else {
                                 ySize++;
                             }
                         }
@@ -1626,9 +1615,6 @@ public class CellLayout extends ViewGroup {
                         hitMaxY |= ySize >= spanY;
                         incX = !incX;
                     }
-                    incX = true;
-                    hitMaxX = xSize >= spanX;
-                    hitMaxY = ySize >= spanY;
                 }
                 final int[] cellXY = mTmpXY;
                 cellToCenterPoint(x, y, cellXY);
@@ -1636,21 +1622,29 @@ public class CellLayout extends ViewGroup {
                 // We verify that the current rect is not a sub-rect of any of our previous
                 // candidates. In this case, the current rect is disqualified in favour of the
                 // containing rect.
-                Rect currentRect = mTempRectStack.pop();
-                currentRect.set(x, y, x + xSize, y + ySize);
+                final int right = x + xSize;
+                final int bottom = y + ySize;
                 boolean contained = false;
-                for (Rect r : validRegions) {
-                    if (r.contains(currentRect)) {
+                for (int i = 0; i < validRegionsEnd; i += 4) {
+                    if (containsRect(validRegions[i], validRegions[i + 1], validRegions[i + 2],
+                            validRegions[i + 3], x, y, right, bottom)) {
                         contained = true;
                         break;
                     }
                 }
-                validRegions.push(currentRect);
-                double distance = Math.sqrt(Math.pow(cellXY[0] - pixelX, 2)
-                        + Math.pow(cellXY[1] - pixelY, 2));
+                // An empty rect can not contain any other, no need to keep it.
+                if (xSize > 0 && ySize > 0) {
+                    validRegions[validRegionsEnd++] = x;
+                    validRegions[validRegionsEnd++] = y;
+                    validRegions[validRegionsEnd++] = right;
+                    validRegions[validRegionsEnd++] = bottom;
+                }
+                double dx = cellXY[0] - pixelX;
+                double dy = cellXY[1] - pixelY;
+                double distance = Math.sqrt(dx * dx + dy * dy);
 
-                if ((distance <= bestDistance && !contained) ||
-                        currentRect.contains(bestRect)) {
+                if ((distance <= bestDistance && !contained) || containsRect(x, y, right, bottom,
+                        bestLeft, bestTop, bestRight, bestBottom)) {
                     bestDistance = distance;
                     bestXY[0] = x;
                     bestXY[1] = y;
@@ -1658,7 +1652,10 @@ public class CellLayout extends ViewGroup {
                         resultSpan[0] = xSize;
                         resultSpan[1] = ySize;
                     }
-                    bestRect.set(currentRect);
+                    bestLeft = x;
+                    bestTop = y;
+                    bestRight = right;
+                    bestBottom = bottom;
                 }
             }
         }
@@ -1670,709 +1667,75 @@ public class CellLayout extends ViewGroup {
             bestXY[0] = -1;
             bestXY[1] = -1;
         }
-        recycleTempRects(validRegions);
-        return bestXY;
-    }
-
-     /**
-     * Find a vacant area that will fit the given bounds nearest the requested
-     * cell location, and will also weigh in a suggested direction vector of the
-     * desired location. This method computers distance based on unit grid distances,
-     * not pixel distances.
-     *
-     * @param cellX The X cell nearest to which you want to search for a vacant area.
-     * @param cellY The Y cell nearest which you want to search for a vacant area.
-     * @param spanX Horizontal span of the object.
-     * @param spanY Vertical span of the object.
-     * @param direction The favored direction in which the views should move from x, y
-     * @param exactDirectionOnly If this parameter is true, then only solutions where the direction
-     *        matches exactly. Otherwise we find the best matching direction.
-     * @param occoupied The array which represents which cells in the CellLayout are occupied
-     * @param blockOccupied The array which represents which cells in the specified block (cellX,
-     *        cellY, spanX, spanY) are occupied. This is used when try to move a group of views.
-     * @param result Array in which to place the result, or null (in which case a new array will
-     *        be allocated)
-     * @return The X, Y cell of a vacant area that can contain this object,
-     *         nearest the requested location.
-     */
-    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            boolean[][] occupied, boolean blockOccupied[][], int[] result) {
-        // Keep track of best-scoring drop area
-        final int[] bestXY = result != null ? result : new int[2];
-        float bestDistance = Float.MAX_VALUE;
-        int bestDirectionScore = Integer.MIN_VALUE;
-
-        final int countX = mCountX;
-        final int countY = mCountY;
-
-        for (int y = 0; y < countY - (spanY - 1); y++) {
-            inner:
-            for (int x = 0; x < countX - (spanX - 1); x++) {
-                // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
-                }
-
-                float distance = (float)
-                        Math.sqrt((x - cellX) * (x - cellX) + (y - cellY) * (y - cellY));
-                int[] curDirection = mTmpPoint;
-                computeDirectionVector(x - cellX, y - cellY, curDirection);
-                // The direction score is just the dot product of the two candidate direction
-                // and that passed in.
-                int curDirectionScore = direction[0] * curDirection[0] +
-                        direction[1] * curDirection[1];
-                boolean exactDirectionOnly = false;
-                boolean directionMatches = direction[0] == curDirection[0] &&
-                        direction[0] == curDirection[0];
-                if ((directionMatches || !exactDirectionOnly) &&
-                        Float.compare(distance,  bestDistance) < 0 || (Float.compare(distance,
-                        bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
-                    bestDistance = distance;
-                    bestDirectionScore = curDirectionScore;
-                    bestXY[0] = x;
-                    bestXY[1] = y;
-                }
-            }
-        }
-
-        // Return -1, -1 if no suitable location found
-        if (bestDistance == Float.MAX_VALUE) {
-            bestXY[0] = -1;
-            bestXY[1] = -1;
-        }
         return bestXY;
     }
 
-    private boolean addViewToTempLocation(View v, Rect rectOccupiedByPotentialDrop,
-            int[] direction, ItemConfiguration currentState) {
-        CellAndSpan c = currentState.map.get(v);
-        boolean success = false;
-        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
-
-        findNearestArea(c.x, c.y, c.spanX, c.spanY, direction, mTmpOccupied, null, mTempLocation);
-
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            c.x = mTempLocation[0];
-            c.y = mTempLocation[1];
-            success = true;
-        }
-        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        return success;
-    }
-
     /**
-     * This helper class defines a cluster of views. It helps with defining complex edges
-     * of the cluster and determining how those edges interact with other views. The edges
-     * essentially define a fine-grained boundary around the cluster of views -- like a more
-     * precise version of a bounding box.
+     * Same as {@link Rect#contains(Rect)}, without the rects.
      */
-    private class ViewCluster {
-        final static int LEFT = 0;
-        final static int TOP = 1;
-        final static int RIGHT = 2;
-        final static int BOTTOM = 3;
-
-        ArrayList<View> views;
-        ItemConfiguration config;
-        Rect boundingRect = new Rect();
-
-        int[] leftEdge = new int[mCountY];
-        int[] rightEdge = new int[mCountY];
-        int[] topEdge = new int[mCountX];
-        int[] bottomEdge = new int[mCountX];
-        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty, boundingRectDirty;
-
-        @SuppressWarnings("unchecked")
-        public ViewCluster(ArrayList<View> views, ItemConfiguration config) {
-            this.views = (ArrayList<View>) views.clone();
-            this.config = config;
-            resetEdges();
-        }
-
-        void resetEdges() {
-            for (int i = 0; i < mCountX; i++) {
-                topEdge[i] = -1;
-                bottomEdge[i] = -1;
-            }
-            for (int i = 0; i < mCountY; i++) {
-                leftEdge[i] = -1;
-                rightEdge[i] = -1;
-            }
-            leftEdgeDirty = true;
-            rightEdgeDirty = true;
-            bottomEdgeDirty = true;
-            topEdgeDirty = true;
-            boundingRectDirty = true;
-        }
-
-        void computeEdge(int which, int[] edge) {
-            int count = views.size();
-            for (int i = 0; i < count; i++) {
-                CellAndSpan cs = config.map.get(views.get(i));
-                switch (which) {
-                    case LEFT:
-                        int left = cs.x;
-                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
-                            if (left < edge[j] || edge[j] < 0) {
-                                edge[j] = left;
-                            }
-                        }
-                        break;
-                    case RIGHT:
-                        int right = cs.x + cs.spanX;
-                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
-                            if (right > edge[j]) {
-                                edge[j] = right;
-                            }
-                        }
-                        break;
-                    case TOP:
-                        int top = cs.y;
-                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
-                            if (top < edge[j] || edge[j] < 0) {
-                                edge[j] = top;
-                            }
-                        }
-                        break;
-                    case BOTTOM:
-                        int bottom = cs.y + cs.spanY;
-                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
-                            if (bottom > edge[j]) {
-                                edge[j] = bottom;
-                            }
-                        }
-                        break;
-                }
-            }
-        }
-
-        boolean isViewTouchingEdge(View v, int whichEdge) {
-            CellAndSpan cs = config.map.get(v);
-
-            int[] edge = getEdge(whichEdge);
-
-            switch (whichEdge) {
-                case LEFT:
-                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
-                        if (edge[i] == cs.x + cs.spanX) {
-                            return true;
-                        }
-                    }
-                    break;
-                case RIGHT:
-                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
-                        if (edge[i] == cs.x) {
-                            return true;
-                        }
-                    }
-                    break;
-                case TOP:
-                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
-                        if (edge[i] == cs.y + cs.spanY) {
-                            return true;
-                        }
-                    }
-                    break;
-                case BOTTOM:
-                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
-                        if (edge[i] == cs.y) {
-                            return true;
-                        }
-                    }
-                    break;
-            }
-            return false;
-        }
-
-        void shift(int whichEdge, int delta) {
-            for (View v: views) {
-                CellAndSpan c = config.map.get(v);
-                switch (whichEdge) {
-                    case LEFT:
-                        c.x -= delta;
-                        break;
-                    case RIGHT:
-                        c.x += delta;
-                        break;
-                    case TOP:
-                        c.y -= delta;
-                        break;
-                    case BOTTOM:
-                    default:
-                        c.y += delta;
-                        break;
-                }
-            }
-            resetEdges();
-        }
-
-        public void addView(View v) {
-            views.add(v);
-            resetEdges();
-        }
-
-        public Rect getBoundingRect() {
-            if (boundingRectDirty) {
-                boolean first = true;
-                for (View v: views) {
-                    CellAndSpan c = config.map.get(v);
-                    if (first) {
-                        boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-                        first = false;
-                    } else {
-                        boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-                    }
-                }
-            }
-            return boundingRect;
-        }
-
-        public int[] getEdge(int which) {
-            switch (which) {
-                case LEFT:
-                    return getLeftEdge();
-                case RIGHT:
-                    return getRightEdge();
-                case TOP:
-                    return getTopEdge();
-                case BOTTOM:
-                default:
-                    return getBottomEdge();
-            }
-        }
-
-        public int[] getLeftEdge() {
-            if (leftEdgeDirty) {
-                computeEdge(LEFT, leftEdge);
-            }
-            return leftEdge;
-        }
-
-        public int[] getRightEdge() {
-            if (rightEdgeDirty) {
-                computeEdge(RIGHT, rightEdge);
-            }
-            return rightEdge;
-        }
-
-        public int[] getTopEdge() {
-            if (topEdgeDirty) {
-                computeEdge(TOP, topEdge);
-            }
-            return topEdge;
-        }
-
-        public int[] getBottomEdge() {
-            if (bottomEdgeDirty) {
-                computeEdge(BOTTOM, bottomEdge);
-            }
-            return bottomEdge;
-        }
-
-        PositionComparator comparator = new PositionComparator();
-        class PositionComparator implements Comparator<View> {
-            int whichEdge = 0;
-            public int compare(View left, View right) {
-                CellAndSpan l = config.map.get(left);
-                CellAndSpan r = config.map.get(right);
-                switch (whichEdge) {
-                    case LEFT:
-                        return (r.x + r.spanX) - (l.x + l.spanX);
-                    case RIGHT:
-                        return l.x - r.x;
-                    case TOP:
-                        return (r.y + r.spanY) - (l.y + l.spanY);
-                    case BOTTOM:
-                    default:
-                        return l.y - r.y;
-                }
-            }
-        }
-
-        public void sortConfigurationForEdgePush(int edge) {
-            comparator.whichEdge = edge;
-            Collections.sort(config.sortedViews, comparator);
-        }
+    private static boolean containsRect(int left, int top, int right, int bottom,
+            int otherLeft, int otherTop, int otherRight, int otherBottom) {
+        return left < right && top < bottom
+                && left <= otherLeft && top <= otherTop
+                && right >= otherRight && bottom >= otherBottom;
     }
 
-    private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-            int[] direction, View dragView, ItemConfiguration currentState) {
-
-        ViewCluster cluster = new ViewCluster(views, currentState);
-        Rect clusterRect = cluster.getBoundingRect();
-        int whichEdge;
-        int pushDistance;
-        boolean fail = false;
-
-        // Determine the edge of the cluster that will be leading the push and how far
-        // the cluster must be shifted.
-        if (direction[0] < 0) {
-            whichEdge = ViewCluster.LEFT;
-            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
-        } else if (direction[0] > 0) {
-            whichEdge = ViewCluster.RIGHT;
-            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
-        } else if (direction[1] < 0) {
-            whichEdge = ViewCluster.TOP;
-            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
-        } else {
-            whichEdge = ViewCluster.BOTTOM;
-            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
-        }
-
-        // Break early for invalid push distance.
-        if (pushDistance <= 0) {
-            return false;
-        }
-
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        }
-
-        // We save the current configuration -- if we fail to find a solution we will revert
-        // to the initial state. The process of finding a solution modifies the configuration
-        // in place, hence the need for revert in the failure case.
-        currentState.save();
-
-        // The pushing algorithm is simplified by considering the views in the order in which
-        // they would be pushed by the cluster. For example, if the cluster is leading with its
-        // left edge, we consider sort the views by their right edge, from right to left.
-        cluster.sortConfigurationForEdgePush(whichEdge);
-
-        while (pushDistance > 0 && !fail) {
-            for (View v: currentState.sortedViews) {
-                // For each view that isn't in the cluster, we see if the leading edge of the
-                // cluster is contacting the edge of that view. If so, we add that view to the
-                // cluster.
-                if (!cluster.views.contains(v) && v != dragView) {
-                    if (cluster.isViewTouchingEdge(v, whichEdge)) {
-                        LayoutParams lp = (LayoutParams) v.getLayoutParams();
-                        if (!lp.canReorder) {
-                            // The push solution includes the all apps button, this is not viable.
-                            fail = true;
-                            break;
-                        }
-                        cluster.addView(v);
-                        CellAndSpan c = currentState.map.get(v);
-
-                        // Adding view to cluster, mark it as not occupied.
-                        markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-                    }
-                }
-            }
-            pushDistance--;
-
-            // The cluster has been completed, now we move the whole thing over in the appropriate
-            // direction.
-            cluster.shift(whichEdge, 1);
-        }
-
-        boolean foundSolution = false;
-        clusterRect = cluster.getBoundingRect();
-
-        // Due to the nature of the algorithm, the only check required to verify a valid solution
-        // is to ensure that completed shifted cluster lies completely within the cell layout.
-        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX && clusterRect.top >= 0 &&
-                clusterRect.bottom <= mCountY) {
-            foundSolution = true;
-        } else {
-            currentState.restore();
-        }
-
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v: cluster.views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        }
-
-        return foundSolution;
-    }
-
-    private boolean addViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-            int[] direction, View dragView, ItemConfiguration currentState) {
-        if (views.size() == 0) return true;
-
-        boolean success = false;
-        Rect boundingRect = null;
-        // We construct a rect which represents the entire group of views passed in
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            if (boundingRect == null) {
-                boundingRect = new Rect(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            } else {
-                boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            }
-        }
-
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, false);
-        }
-
-        boolean[][] blockOccupied = new boolean[boundingRect.width()][boundingRect.height()];
-        int top = boundingRect.top;
-        int left = boundingRect.left;
-        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
-        // for interlocking.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x - left, c.y - top, c.spanX, c.spanY, blockOccupied, true);
-        }
-
-        markCellsForRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
-
-        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
-                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
-
-        // If we successfuly found a location by pushing the block of views, we commit it
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            int deltaX = mTempLocation[0] - boundingRect.left;
-            int deltaY = mTempLocation[1] - boundingRect.top;
-            for (View v: views) {
-                CellAndSpan c = currentState.map.get(v);
-                c.x += deltaX;
-                c.y += deltaY;
-            }
-            success = true;
-        }
-
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
-            markCellsForView(c.x, c.y, c.spanX, c.spanY, mTmpOccupied, true);
-        }
-        return success;
-    }
-
-    private void markCellsForRect(Rect r, boolean[][] occupied, boolean value) {
-        markCellsForView(r.left, r.top, r.width(), r.height(), occupied, value);
-    }
-
-    // This method tries to find a reordering solution which satisfies the push mechanic by trying
-    // to push items in each of the cardinal directions, in an order based on the direction vector
-    // passed.
-    private boolean attemptPushInDirection(ArrayList<View> intersectingViews, Rect occupied,
-            int[] direction, View ignoreView, ItemConfiguration solution) {
-        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
-            // If the direction vector has two non-zero components, we try pushing
-            // separately in each of the components.
-            int temp = direction[1];
-            direction[1] = 0;
-
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
-
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Revert the direction
-            direction[0] = temp;
-
-            // Now we try pushing in each component of the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            temp = direction[1];
-            direction[1] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // revert the direction
-            direction[0] = temp;
-            direction[0] *= -1;
-            direction[1] *= -1;
-
-        } else {
-            // If the direction vector has a single non-zero component, we push first in the
-            // direction of the vector
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
-
-            // If we have failed to find a push solution with the above, then we try
-            // to find a solution by pushing along the perpendicular axis.
-
-            // Swap the components
-            int temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
-            }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
-
-            // Swap the components back
-            temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-        }
-        return false;
-    }
-
-    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            View ignoreView, ItemConfiguration solution) {
-        // Return early if get invalid cell positions
-        if (cellX < 0 || cellY < 0) return false;
-
-        mIntersectingViews.clear();
-        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
-
-        // Mark the desired location of the view currently being dragged.
-        if (ignoreView != null) {
-            CellAndSpan c = solution.map.get(ignoreView);
-            if (c != null) {
-                c.x = cellX;
-                c.y = cellY;
-            }
-        }
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
-        for (View child: solution.map.keySet()) {
-            if (child == ignoreView) continue;
-            CellAndSpan c = solution.map.get(child);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            r1.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
-            if (Rect.intersects(r0, r1)) {
-                if (!lp.canReorder) {
-                    return false;
-                }
-                mIntersectingViews.add(child);
-            }
-        }
-
-        solution.intersectingViews = new ArrayList<View>(mIntersectingViews);
-
-        // First we try to find a solution which respects the push mechanic. That is,
-        // we try to find a solution such that no displaced item travels through another item
-        // without also displacing that item.
-        if (attemptPushInDirection(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
-        }
-
-        // Next we try moving the views as a block, but without requiring the push mechanic.
-        if (addViewsToTempLocation(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
-        }
-
-        // Ok, they couldn't move as a block, let's move them individually
-        for (View v : mIntersectingViews) {
-            if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    /*
-     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
-     * the provided point and the provided cell
+    /**
+     * Finds a reordering of the views in which the dragged view fits at the cell nearest to
+     * (pixelX, pixelY), shrinking it down to the min span if it does not.
+     *
+     * The attempts are memoized in {@link #mReorderSolutionCache}, so that dragging over the
+     * same cell again returns the previous solution, which must not be modified.
+     *
+     * @param solution the configuration to fill in if the first attempt needs to be computed
+     * @return the solution, which is not necessarily {@param solution}
      */
-    private void computeDirectionVector(float deltaX, float deltaY, int[] result) {
-        double angle = Math.atan(((float) deltaY) / deltaX);
-
-        result[0] = 0;
-        result[1] = 0;
-        if (Math.abs(Math.cos(angle)) > 0.5f) {
-            result[0] = (int) Math.signum(deltaX);
-        }
-        if (Math.abs(Math.sin(angle)) > 0.5f) {
-            result[1] = (int) Math.signum(deltaY);
-        }
-    }
-
-    private void copyOccupiedArray(boolean[][] occupied) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                occupied[i][j] = mOccupied[i][j];
-            }
-        }
-    }
-
     ItemConfiguration findReorderSolution(int pixelX, int pixelY, int minSpanX, int minSpanY,
             int spanX, int spanY, int[] direction, View dragView, boolean decX,
             ItemConfiguration solution) {
-        // Copy the current state into the solution. This solution will be manipulated as necessary.
-        copyCurrentStateToSolution(solution, false);
-        // Copy the current occupied array into the temporary occupied array. This array will be
-        // manipulated as necessary to find a solution.
-        copyOccupiedArray(mTmpOccupied);
-
         // We find the nearest cell into which we would place the dragged item, assuming there's
         // nothing in its way.
         int result[] = new int[2];
         result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
 
-        boolean success = false;
         // First we try the exact nearest position of the item being dragged,
         // we will then want to try to move this around to other neighbouring positions
-        success = rearrangementExists(result[0], result[1], spanX, spanY, direction, dragView,
-                solution);
-
-        if (!success) {
+        ItemConfiguration attempt = mReorderSolutionCache.get(result[0], result[1], spanX, spanY,
+                direction, dragView);
+        if (attempt == null) {
+            attempt = solution;
+            // Copy the current state into the solution. This solution will be manipulated as
+            // necessary.
+            copyCurrentStateToSolution(attempt, false);
+
+            attempt.isSolution = mReorderSolver.rearrangementExists(result[0], result[1],
+                    spanX, spanY, direction, dragView, mOccupied, attempt);
+            if (attempt.isSolution) {
+                attempt.dragViewX = result[0];
+                attempt.dragViewY = result[1];
+                attempt.dragViewSpanX = spanX;
+                attempt.dragViewSpanY = spanY;
+            }
+            // An attempt cut short by the frame budget may have missed a solution, so only keep
+            // the failures which went through all the strategies.
+            if (attempt.isSolution || !mReorderSolver.isOverBudget()) {
+                mReorderSolutionCache.put(result[0], result[1], spanX, spanY, direction,
+                        attempt);
+            }
+        }
+
+        if (!attempt.isSolution && !mReorderSolver.isOverBudget()) {
             // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
             // x, then 1 in y etc.
             if (spanX > minSpanX && (minSpanY == spanY || decX)) {
                 return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY,
-                        direction, dragView, false, solution);
+                        direction, dragView, false, new ItemConfiguration());
             } else if (spanY > minSpanY) {
                 return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1,
-                        direction, dragView, true, solution);
+                        direction, dragView, true, new ItemConfiguration());
             }
-            solution.isSolution = false;
-        } else {
-            solution.isSolution = true;
-            solution.dragViewX = result[0];
-            solution.dragViewY = result[1];
-            solution.dragViewSpanX = spanX;
-            solution.dragViewSpanY = spanY;
         }
-        return solution;
+        return attempt;
     }
 
     private void copyCurrentStateToSolution(ItemConfiguration solution, boolean temp) {
@@ -2386,16 +1749,12 @@ public class CellLayout extends ViewGroup {
             } else {
                 c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
             }
-            solution.add(child, c);
+            solution.add(child, c, lp.canReorder);
         }
     }
 
     private void copySolutionToTempState(ItemConfiguration solution, View dragView) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                mTmpOccupied[i][j] = false;
-            }
-        }
+        mTmpOccupied.clear();
 
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
@@ -2418,12 +1777,8 @@ public class CellLayout extends ViewGroup {
     private void animateItemsToSolution(ItemConfiguration solution, View dragView, boolean
             commitDragView) {
 
-        boolean[][] occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                occupied[i][j] = false;
-            }
-        }
+        GridOccupancy occupied = DESTRUCTIVE_REORDER ? mOccupied : mTmpOccupied;
+        occupied.clear();
 
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
@@ -2597,11 +1952,9 @@ public class CellLayout extends ViewGroup {
     }
 
     private void commitTempPlacement() {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                mOccupied[i][j] = mTmpOccupied[i][j];
-            }
-        }
+        // The solutions were computed from the previous placement.
+        mReorderSolutionCache.clear();
+        mTmpOccupied.copyTo(mOccupied);
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2696,7 +2049,7 @@ public class CellLayout extends ViewGroup {
             resultDirection[0] = 1;
             resultDirection[1] = 0;
         } else {
-            computeDirectionVector(deltaX, deltaY, resultDirection);
+            ReorderSolver.computeDirectionVector(deltaX, deltaY, resultDirection);
         }
     }
 
@@ -2808,9 +2161,19 @@ public class CellLayout extends ViewGroup {
             mPreviousReorderDirection[1] = mDirectionVector[1];
         }
 
-        // Find a solution involving pushing / displacing any items in the way
-        ItemConfiguration swapSolution = findReorderSolution(pixelX, pixelY, minSpanX, minSpanY,
-                 spanX,  spanY, mDirectionVector, dragView,  true,  new ItemConfiguration());
+        // Find a solution involving pushing / displacing any items in the way. The previews are
+        // computed on every drag over, so they only get a share of the frame, while the drop
+        // takes the time needed to find the best solution.
+        if (mode == MODE_DRAG_OVER || mode == MODE_SHOW_REORDER_HINT) {
+            mReorderSolver.setDeadline(System.nanoTime() + REORDER_FRAME_BUDGET_NANOS);
+        }
+        ItemConfiguration swapSolution;
+        try {
+            swapSolution = findReorderSolution(pixelX, pixelY, minSpanX, minSpanY,
+                    spanX,  spanY, mDirectionVector, dragView,  true,  new ItemConfiguration());
+        } finally {
+            mReorderSolver.setDeadline(0);
+        }
 
         // We attempt the approach which doesn't shuffle views at all
         ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
@@ -2891,64 +2254,120 @@ public class CellLayout extends ViewGroup {
         return mItemPlacementDirty;
     }
 
-    @Thunk class ItemConfiguration {
-        HashMap<View, CellAndSpan> map = new HashMap<View, CellAndSpan>();
-        private HashMap<View, CellAndSpan> savedMap = new HashMap<View, CellAndSpan>();
-        ArrayList<View> sortedViews = new ArrayList<View>();
-        ArrayList<View> intersectingViews;
-        boolean isSolution = false;
-        int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+    @Thunk static class ItemConfiguration extends ReorderSolver.ItemConfiguration<View> {
+    }
 
-        void save() {
-            // Copy current state into savedMap
-            for (View v: map.keySet()) {
-                map.get(v).copy(savedMap.get(v));
-            }
-        }
+    /**
+     * The reorder solutions found for the current placement of the views, by dragged cell, span
+     * and direction. While an item is dragged over the layout, the placement only changes when
+     * the reorder is committed, so the solver only runs when the dragged item reaches a cell it
+     * was not dragged over yet.
+     *
+     * The placement the solutions were computed from is kept, and checked before the solutions
+     * are used, so the cache does not rely on every change to the views being reported.
+     */
+    private class ReorderSolutionCache {
+        private static final int MAX_SOLUTIONS = 16;
+
+        private final LinkedHashMap<Long, ItemConfiguration> mSolutions =
+                new LinkedHashMap<Long, ItemConfiguration>(MAX_SOLUTIONS, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Long, ItemConfiguration> eldest) {
+                        return size() > MAX_SOLUTIONS;
+                    }
+                };
 
-        void restore() {
-            // Restore current state from savedMap
-            for (View v: savedMap.keySet()) {
-                savedMap.get(v).copy(map.get(v));
+        // The placement the solutions were computed from.
+        private View mDragView;
+        private GridOccupancy mOccupiedSnapshot;
+        private final ArrayList<View> mViews = new ArrayList<View>();
+        // The cell, span and reorder flag of each of mViews.
+        private int[] mViewCells = new int[0];
+
+        /**
+         * @return the solution previously found for the arguments, or null if the solver needs to
+         *         run.
+         */
+        ItemConfiguration get(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                View dragView) {
+            if (!isPlacementUnchanged(dragView)) {
+                clear();
+                savePlacement(dragView);
+                return null;
             }
+            return mSolutions.get(getKey(cellX, cellY, spanX, spanY, direction));
         }
 
-        void add(View v, CellAndSpan cs) {
-            map.put(v, cs);
-            savedMap.put(v, new CellAndSpan());
-            sortedViews.add(v);
+        /**
+         * Saves a solution found for the placement checked by the last call to {@link #get}.
+         */
+        void put(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                ItemConfiguration solution) {
+            mSolutions.put(getKey(cellX, cellY, spanX, spanY, direction), solution);
         }
 
-        int area() {
-            return dragViewSpanX * dragViewSpanY;
+        void clear() {
+            mSolutions.clear();
+            mViews.clear();
+            mDragView = null;
         }
-    }
-
-    private class CellAndSpan {
-        int x, y;
-        int spanX, spanY;
 
-        public CellAndSpan() {
+        private long getKey(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+            // The cells may be -1 and the direction components are in {-1, 0, 1}.
+            return ((long) (cellX + 1) & 0xFF)
+                    | ((long) (cellY + 1) & 0xFF) << 8
+                    | ((long) spanX & 0xFF) << 16
+                    | ((long) spanY & 0xFF) << 24
+                    | ((long) (direction[0] + 1) & 0xFF) << 32
+                    | ((long) (direction[1] + 1) & 0xFF) << 40;
         }
 
-        public void copy(CellAndSpan copy) {
-            copy.x = x;
-            copy.y = y;
-            copy.spanX = spanX;
-            copy.spanY = spanY;
+        private boolean isPlacementUnchanged(View dragView) {
+            if (mDragView != dragView || mOccupiedSnapshot == null
+                    || !mOccupiedSnapshot.equals(mOccupied)) {
+                return false;
+            }
+            int childCount = mShortcutsAndWidgets.getChildCount();
+            if (childCount != mViews.size()) {
+                return false;
+            }
+            for (int i = 0, j = 0; i < childCount; i++) {
+                View child = mShortcutsAndWidgets.getChildAt(i);
+                LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                if (child != mViews.get(i)
+                        || mViewCells[j++] != lp.cellX || mViewCells[j++] != lp.cellY
+                        || mViewCells[j++] != lp.cellHSpan || mViewCells[j++] != lp.cellVSpan
+                        || mViewCells[j++] != (lp.canReorder ? 1 : 0)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        public CellAndSpan(int x, int y, int spanX, int spanY) {
-            this.x = x;
-            this.y = y;
-            this.spanX = spanX;
-            this.spanY = spanY;
-        }
+        private void savePlacement(View dragView) {
+            mDragView = dragView;
+            if (mOccupiedSnapshot == null || mOccupiedSnapshot.getCountX() != mCountX
+                    || mOccupiedSnapshot.getCountY() != mCountY) {
+                mOccupiedSnapshot = new GridOccupancy(mCountX, mCountY);
+            }
+            mOccupied.copyTo(mOccupiedSnapshot);
 
-        public String toString() {
-            return "(" + x + ", " + y + ": " + spanX + ", " + spanY + ")";
+            int childCount = mShortcutsAndWidgets.getChildCount();
+            if (mViewCells.length < childCount * 5) {
+                mViewCells = new int[childCount * 5];
+            }
+            for (int i = 0, j = 0; i < childCount; i++) {
+                View child = mShortcutsAndWidgets.getChildAt(i);
+                LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                mViews.add(child);
+                mViewCells[j++] = lp.cellX;
+                mViewCells[j++] = lp.cellY;
+                mViewCells[j++] = lp.cellHSpan;
+                mViewCells[j++] = lp.cellVSpan;
+                mViewCells[j++] = lp.canReorder ? 1 : 0;
+            }
         }
-
     }
 
     /**
@@ -3066,7 +2485,7 @@ public class CellLayout extends ViewGroup {
      * The superset of the above two methods
      */
     boolean findCellForSpanThatIntersectsIgnoring(int[] cellXY, int spanX, int spanY,
-            int intersectX, int intersectY, View ignoreView, boolean occupied[][]) {
+            int intersectX, int intersectY, View ignoreView, GridOccupancy occupied) {
         // mark space take by ignoreView as available (method checks if ignoreView is null)
         markCellsAsUnoccupiedForView(ignoreView, occupied);
 
@@ -3089,25 +2508,18 @@ public class CellLayout extends ViewGroup {
                 endY = Math.min(endY, intersectY + (spanY - 1) + (spanY == 1 ? 1 : 0));
             }
 
-            for (int y = startY; y < endY && !foundCell; y++) {
-                inner:
-                for (int x = startX; x < endX; x++) {
-                    for (int i = 0; i < spanX; i++) {
-                        for (int j = 0; j < spanY; j++) {
-                            if (occupied[x + i][y + j]) {
-                                // small optimization: we can skip to after the column we just found
-                                // an occupied cell
-                                x += i;
-                                continue inner;
-                            }
-                        }
-                    }
+            for (int y = startY; y < endY && !foundCell && startX < endX; y++) {
+                // The columns between startX and endX at which the span fits
+                long fits = occupied.getVacantRegions(y, spanX, spanY) >>> startX;
+                if (endX - startX < Long.SIZE) {
+                    fits &= (1L << (endX - startX)) - 1;
+                }
+                if (fits != 0) {
                     if (cellXY != null) {
-                        cellXY[0] = x;
+                        cellXY[0] = startX + Long.numberOfTrailingZeros(fits);
                         cellXY[1] = y;
                     }
                     foundCell = true;
-                    break;
                 }
             }
             if (intersectX == -1 && intersectY == -1) {
@@ -3154,6 +2566,7 @@ public class CellLayout extends ViewGroup {
         mDragOutlineCurrent = (mDragOutlineCurrent + 1) % mDragOutlineAnims.length;
         revertTempState();
         setIsDragOverlapping(false);
+        mReorderSolutionCache.clear();
     }
 
     /**
@@ -3273,39 +2686,11 @@ public class CellLayout extends ViewGroup {
      */
     public boolean getVacantCell(int[] vacant, int spanX, int spanY) {
 
-        return findVacantCell(vacant, spanX, spanY, mCountX, mCountY, mOccupied);
-    }
-
-    static boolean findVacantCell(int[] vacant, int spanX, int spanY,
-            int xCount, int yCount, boolean[][] occupied) {
-
-        for (int y = 0; (y + spanY) <= yCount; y++) {
-            for (int x = 0; (x + spanX) <= xCount; x++) {
-                boolean available = !occupied[x][y];
-out:            for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !occupied[i][j];
-                        if (!available) break out;
-                    }
-                }
-
-                if (available) {
-                    vacant[0] = x;
-                    vacant[1] = y;
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return mOccupied.findVacantCell(vacant, spanX, spanY);
     }
 
     private void clearOccupiedCells() {
-        for (int x = 0; x < mCountX; x++) {
-            for (int y = 0; y < mCountY; y++) {
-                mOccupied[x][y] = false;
-            }
-        }
+        mOccupied.clear();
     }
 
     public void onMove(View view, int newCellX, int newCellY, int newSpanX, int newSpanY) {
@@ -3316,7 +2701,7 @@ out:            for (int i = x; i < x + spanX; i++) {
     public void markCellsAsOccupiedForView(View view) {
         markCellsAsOccupiedForView(view, mOccupied);
     }
-    public void markCellsAsOccupiedForView(View view, boolean[][] occupied) {
+    public void markCellsAsOccupiedForView(View view, GridOccupancy occupied) {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         markCellsForView(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, occupied, true);
@@ -3325,20 +2710,15 @@ out:            for (int i = x; i < x + spanX; i++) {
     public void markCellsAsUnoccupiedForView(View view) {
         markCellsAsUnoccupiedForView(view, mOccupied);
     }
-    public void markCellsAsUnoccupiedForView(View view, boolean occupied[][]) {
+    public void markCellsAsUnoccupiedForView(View view, GridOccupancy occupied) {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         markCellsForView(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, occupied, false);
     }
 
-    private void markCellsForView(int cellX, int cellY, int spanX, int spanY, boolean[][] occupied,
-            boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                occupied[x][y] = value;
-            }
-        }
+    private void markCellsForView(int cellX, int cellY, int spanX, int spanY,
+            GridOccupancy occupied, boolean value) {
+        occupied.markCells(cellX, cellY, spanX, spanY, value);
     }
 
     public int getDesiredWidth() {
@@ -3353,7 +2733,7 @@ out:            for (int i = x; i < x + spanX; i++) {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+import android.view.View;
+
+import com.android.launcher3.util.Thunk;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the outlines shown where a dragged item would land, on a background thread.
+ *
+ * The outline of an icon only depends on the icon bitmap and the size it is drawn at, so the
+ * outlines of the icons are cached by those, and generated ahead of the drags for the icons on
+ * screen. The outlines of the other views are drawn on the UI thread and only blurred in the
+ * background.
+ *
+ * Must be called on the UI thread. The outlines are shared, the callers must not modify them.
+ */
+public class DragOutlineCache {
+
+    private static final long KEEP_ALIVE_SECONDS = 1;
+    // The outlines are limited to this fraction of the memory class of the app.
+    private static final int MEMORY_CACHE_FRACTION = 32;
+
+    /**
+     * Receives an outline, on the UI thread.
+     */
+    public interface Callback {
+        void onOutlineReady(Bitmap outline);
+    }
+
+    /**
+     * Identifies the outline of an icon: the icon bitmap, by identity, where it is drawn and at
+     * which alpha, and the size of the outline.
+     */
+    private static final class IconKey {
+        final Bitmap icon;
+        final Rect iconBounds;
+        final int alpha;
+        final int width;
+        final int height;
+        private final int mHashCode;
+
+        IconKey(Bitmap icon, Rect iconBounds, int alpha, int width, int height) {
+            this.icon = icon;
+            this.iconBounds = iconBounds;
+            this.alpha = alpha;
+            this.width = width;
+            this.height = height;
+            mHashCode = ((System.identityHashCode(icon) * 31 + iconBounds.hashCode()) * 31
+                    + alpha) * 31 + width * 8191 + height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IconKey)) {
+                return false;
+            }
+            IconKey other = (IconKey) o;
+            return icon == other.icon && iconBounds.equals(other.iconBounds)
+                    && alpha == other.alpha && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * An icon outline being generated.
+     */
+    private final class IconOutlineTask implements Runnable {
+        final IconKey mKey;
+        // The callback waiting for the outline, or null if the outline is prefetched.
+        Callback mCallback;
+
+        IconOutlineTask(IconKey key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap outline = Bitmap.createBitmap(mKey.width, mKey.height,
+                    Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(outline);
+            mIconPaint.setAlpha(mKey.alpha);
+            mCanvas.drawBitmap(mKey.icon, null, mKey.iconBounds, mIconPaint);
+            mOutlineHelper.applyExpensiveOutlineWithBlur(outline, mCanvas, mOutlineColor,
+                    mOutlineColor);
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mOutlines.put(mKey, outline);
+                    mPendingOutlines.remove(mKey);
+                    if (mCallback != null) {
+                        mCallback.onOutlineReady(outline);
+                    }
+                }
+            });
+        }
+    }
+
+    @Thunk final int mOutlineColor;
+    @Thunk final LruCache<IconKey, Bitmap> mOutlines;
+    // The icon outlines being generated. Only accessed on the UI thread.
+    @Thunk final HashMap<IconKey, IconOutlineTask> mPendingOutlines =
+            new HashMap<IconKey, IconOutlineTask>();
+
+    // The tasks, run first to last. The outlines of the drags go before the prefetched ones.
+    // Guarded by itself.
+    @Thunk final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+    private final ThreadPoolExecutor mWorker;
+    @Thunk final Executor mMainThreadExecutor = new MainThreadExecutor();
+
+    /**
+     * Runs the first task. One is posted for every task added to the queue, so it only finds an
+     * empty queue when a task was moved ahead.
+     */
+    private final Runnable mRunNextTask = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (mTasks) {
+                task = mTasks.pollFirst();
+            }
+            if (task != null) {
+                task.run();
+            }
+        }
+    };
+
+    // Only used on the worker thread.
+    @Thunk final HolographicOutlineHelper mOutlineHelper;
+    @Thunk final Canvas mCanvas = new Canvas();
+    @Thunk final Paint mIconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public DragOutlineCache(Context context, int outlineColor) {
+        mOutlineColor = outlineColor;
+        mOutlineHelper = new HolographicOutlineHelper(context);
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mOutlines = new LruCache<IconKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(IconKey key, Bitmap outline) {
+                return outline.getByteCount();
+            }
+        };
+
+        mWorker = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "drag-outline");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        mWorker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Generates the outline of {@param v}, drawn with {@param padding} around it, and hands it
+     * to {@param callback}, right away if it is cached.
+     */
+    public void getOutline(View v, int padding, Callback callback) {
+        IconKey key = getIconKey(v, padding);
+        if (key != null) {
+            Bitmap outline = mOutlines.get(key);
+            if (outline != null) {
+                callback.onOutlineReady(outline);
+            } else {
+                generateIconOutline(key, callback);
+            }
+            return;
+        }
+
+        Bitmap b = Bitmap.createBitmap(v.getWidth() + padding, v.getHeight() + padding,
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(b);
+        Workspace.drawDragView(v, canvas, padding);
+        canvas.setBitmap(null);
+        applyOutline(b, true, callback);
+    }
+
+    private void addTask(Runnable task, boolean first) {
+        synchronized (mTasks) {
+            if (first) {
+                mTasks.addFirst(task);
+            } else {
+                mTasks.addLast(task);
+            }
+        }
+        mWorker.execute(mRunNextTask);
+    }
+
+    /**
+     * Replaces the contents of {@param srcDst} by their outline in the background, and hands it
+     * to {@param callback}. {@param srcDst} must not be used until then.
+     */
+    public void applyOutline(final Bitmap srcDst, final boolean clipAlpha,
+            final Callback callback) {
+        addTask(new Runnable() {
+            @Override
+            public void run() {
+                mOutlineHelper.applyExpensiveOutlineWithBlur(srcDst, mCanvas, mOutlineColor,
+                        mOutlineColor, clipAlpha);
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOutlineReady(srcDst);
+                    }
+                });
+            }
+        }, true);
+    }
+
+    /**
+     * Generates the outlines of the icons of {@param layout} which are not cached yet.
+     */
+    public void prefetch(CellLayout layout, int padding) {
+        ShortcutAndWidgetContainer container = layout.getShortcutsAndWidgets();
+        int childCount = container.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            IconKey key = getIconKey(container.getChildAt(i), padding);
+            if (key != null && mOutlines.get(key) == null) {
+                generateIconOutline(key, null);
+            }
+        }
+    }
+
+    private void generateIconOutline(IconKey key, Callback callback) {
+        IconOutlineTask task = mPendingOutlines.get(key);
+        if (task == null) {
+            task = new IconOutlineTask(key);
+            mPendingOutlines.put(key, task);
+        } else if (callback != null) {
+            // Move the prefetched outline ahead of the others, unless it already started.
+            synchronized (mTasks) {
+                if (!mTasks.remove(task)) {
+                    task.mCallback = callback;
+                    return;
+                }
+            }
+        } else {
+            return;
+        }
+        task.mCallback = callback;
+        addTask(task, callback != null);
+    }
+
+    /**
+     * Returns the key of the outline of {@param v}, or null if it is not a plain icon, whose
+     * outline only depends on its bitmap.
+     */
+    private static IconKey getIconKey(View v, int padding) {
+        if (!(v instanceof BubbleTextView)) {
+            return null;
+        }
+        Drawable d = Workspace.getTextViewIcon((BubbleTextView) v);
+        if (!(d instanceof FastBitmapDrawable) || v.getWidth() <= 0 || v.getHeight() <= 0) {
+            return null;
+        }
+        FastBitmapDrawable icon = (FastBitmapDrawable) d;
+        Bitmap bitmap = icon.getBitmap();
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+
+        // Where Workspace#drawDragView draws the icon.
+        Rect drawBounds = Workspace.getDrawableBounds(d);
+        Rect iconBounds = d.copyBounds();
+        iconBounds.offset(padding / 2 - drawBounds.left, padding / 2 - drawBounds.top);
+        return new IconKey(bitmap, iconBounds, icon.getAlpha(), v.getWidth() + padding,
+                v.getHeight() + padding);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+import com.android.launcher3.util.Thunk;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the drop shadows shown behind the pressed and focused icons, so that pressing an icon
+ * again does not allocate and blur a new shadow.
+ *
+ * The shadow of an icon only depends on the icon bitmap and the geometry of its view, so the
+ * shadows are keyed by those, and shared by the views showing the same icon at the same size.
+ * The shadows of an icon are removed along with the icon from the {@link IconCache}.
+ *
+ * The shadows are looked up and added on the UI thread, and removed from any thread. They are
+ * shared, the callers must not modify them.
+ */
+public class DropShadowCache {
+
+    // The shadows are limited to this fraction of the memory class of the app.
+    private static final int MEMORY_CACHE_FRACTION = 32;
+
+    /**
+     * Identifies the shadow of an icon view: the icon bitmap, by identity, where and how it is
+     * drawn in the view, and the size of the view.
+     */
+    static final class Key {
+        final Bitmap icon;
+        final Rect iconBounds;
+        final Rect padding;
+        final int alpha;
+        final int width;
+        final int height;
+        final int clipBottom;
+        final float scaleX;
+        final float scaleY;
+        private final int mHashCode;
+
+        Key(Bitmap icon, Rect iconBounds, Rect padding, int alpha, int width, int height,
+                int clipBottom, float scaleX, float scaleY) {
+            this.icon = icon;
+            this.iconBounds = iconBounds;
+            this.padding = padding;
+            this.alpha = alpha;
+            this.width = width;
+            this.height = height;
+            this.clipBottom = clipBottom;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            int hashCode = System.identityHashCode(icon);
+            hashCode = hashCode * 31 + iconBounds.hashCode();
+            hashCode = hashCode * 31 + padding.hashCode();
+            hashCode = hashCode * 31 + alpha;
+            hashCode = hashCode * 31 + width * 8191 + height;
+            hashCode = hashCode * 31 + clipBottom;
+            hashCode = hashCode * 31 + Float.floatToIntBits(scaleX);
+            mHashCode = hashCode * 31 + Float.floatToIntBits(scaleY);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return icon == other.icon && iconBounds.equals(other.iconBounds)
+                    && padding.equals(other.padding) && alpha == other.alpha
+                    && width == other.width && height == other.height
+                    && clipBottom == other.clipBottom
+                    && scaleX == other.scaleX && scaleY == other.scaleY;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private final LruCache<Key, Bitmap> mShadows;
+    // The keys of the cached shadows of each icon, by identity, so that they are removed with
+    // the icon without going through the whole cache. Guarded by itself.
+    @Thunk final HashMap<Bitmap, ArrayList<Key>> mKeysByIcon =
+            new HashMap<Bitmap, ArrayList<Key>>();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    public DropShadowCache(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mShadows = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap shadow) {
+                return shadow.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (newValue == null) {
+                    synchronized (mKeysByIcon) {
+                        ArrayList<Key> keys = mKeysByIcon.get(key.icon);
+                        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                            mKeysByIcon.remove(key.icon);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the key of the shadow of {@param view}, drawn clipped above {@param clipBottom},
+     * or null if the shadow does not only depend on the icon of the view and cannot be cached.
+     */
+    static Key getKey(BubbleTextView view, int clipBottom) {
+        Drawable d = view.getIcon();
+        if (!(d instanceof FastBitmapDrawable) || !view.isShadowOfIconOnly()
+                || view.getWidth() <= 0 || view.getHeight() <= 0) {
+            return null;
+        }
+        FastBitmapDrawable icon = (FastBitmapDrawable) d;
+        Bitmap bitmap = icon.getBitmap();
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        Rect padding = new Rect(view.getCompoundPaddingLeft(), view.getExtendedPaddingTop(),
+                view.getCompoundPaddingRight(), view.getExtendedPaddingBottom());
+        return new Key(bitmap, d.copyBounds(), padding, icon.getAlpha(), view.getWidth(),
+                view.getHeight(), clipBottom, view.getScaleX(), view.getScaleY());
+    }
+
+    /**
+     * Returns the cached shadow for {@param key}, or null.
+     */
+    Bitmap get(Key key) {
+        Bitmap shadow = mShadows.get(key);
+        if (shadow != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+        return shadow;
+    }
+
+    void put(Key key, Bitmap shadow) {
+        // A shadow added while its icon is being removed stays in the cache until the LRU
+        // evicts it. It is never returned for another icon, as the keys compare the icons by
+        // identity.
+        synchronized (mKeysByIcon) {
+            ArrayList<Key> keys = mKeysByIcon.get(key.icon);
+            if (keys == null) {
+                keys = new ArrayList<Key>(1);
+                mKeysByIcon.put(key.icon, keys);
+            }
+            if (!keys.contains(key)) {
+                keys.add(key);
+            }
+        }
+        mShadows.put(key, shadow);
+    }
+
+    /**
+     * Removes the shadows of {@param icon}, which is no longer used.
+     */
+    public void removeShadows(Bitmap icon) {
+        ArrayList<Key> keys;
+        synchronized (mKeysByIcon) {
+            keys = mKeysByIcon.remove(icon);
+        }
+        if (keys != null) {
+            for (Key key : keys) {
+                mShadows.remove(key);
+            }
+        }
+    }
+
+    public void evictAll() {
+        mShadows.evictAll();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "DropShadowCache: " + mShadows.size() + "/" + mShadows.maxSize()
+                + " bytes in memory, hits=" + mHitCount.get() + " misses=" + mMissCount.get()
+                + " evictions=" + mShadows.evictionCount());
+    }
+}
@@ -525,6 +525,7 @@ public class Folder extends LinearLayout implements DragSource, View.OnClickList
 
         FolderPagedView pages = (FolderPagedView) mContent;
         pages.verifyVisibleHighResIcons(pages.getNextPage());
+        pages.prefetchHighResIcons(pages.getNextPage());
     }
 
     public void beginExternalDrag(ShortcutInfo item) {
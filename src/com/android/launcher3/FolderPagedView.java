@@ -696,11 +696,22 @@ public class FolderPagedView extends PagedView {
      * Ensures that all the icons on the given page are of high-res
      */
     public void verifyVisibleHighResIcons(int pageNo) {
+        verifyHighResIcons(pageNo, IconUpgradeScheduler.PRIORITY_FOLDER);
+    }
+
+    /**
+     * Loads the high-res icons of the page after {@param pageNo} ahead of it being scrolled to.
+     */
+    public void prefetchHighResIcons(int pageNo) {
+        verifyHighResIcons(pageNo + 1, IconUpgradeScheduler.PRIORITY_PREFETCH);
+    }
+
+    private void verifyHighResIcons(int pageNo, int priority) {
         CellLayout page = getPageAt(pageNo);
         if (page != null) {
             ShortcutAndWidgetContainer parent = page.getShortcutsAndWidgets();
             for (int i = parent.getChildCount() - 1; i >= 0; i--) {
-                ((BubbleTextView) parent.getChildAt(i)).verifyHighRes();
+                ((BubbleTextView) parent.getChildAt(i)).verifyHighRes(priority);
             }
         }
     }
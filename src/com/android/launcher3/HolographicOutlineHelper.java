@@ -43,6 +43,9 @@ public class HolographicOutlineHelper {
     private final BlurMaskFilter mShaowBlurMaskFilter;
     private final int mShadowOffset;
 
+    // The pixels of the bitmap being outlined, kept between outlines as their size rarely changes.
+    private int[] mPixelBuffer = new int[0];
+
     /**
      * Padding used when creating shadow bitmap;
      */
@@ -50,7 +53,11 @@ public class HolographicOutlineHelper {
 
     static HolographicOutlineHelper INSTANCE;
 
-    private HolographicOutlineHelper(Context context) {
+    /**
+     * Creates a helper for a background thread. A helper is not thread safe, {@link #obtain}
+     * returns the one used on the UI thread.
+     */
+    HolographicOutlineHelper(Context context) {
         final float scale = LauncherAppState.getInstance().getScreenDensity();
 
         mMediumOuterBlurMaskFilter = new BlurMaskFilter(scale * 2.0f, BlurMaskFilter.Blur.OUTER);
@@ -91,10 +98,14 @@ public class HolographicOutlineHelper {
         // We start by removing most of the alpha channel so as to ignore shadows, and
         // other types of partial transparency when defining the shape of the object
         if (clipAlpha) {
-            int[] srcBuffer = new int[srcDst.getWidth() * srcDst.getHeight()];
+            final int pixelCount = srcDst.getWidth() * srcDst.getHeight();
+            if (mPixelBuffer.length < pixelCount) {
+                mPixelBuffer = new int[pixelCount];
+            }
+            int[] srcBuffer = mPixelBuffer;
             srcDst.getPixels(srcBuffer,
                     0, srcDst.getWidth(), 0, 0, srcDst.getWidth(), srcDst.getHeight());
-            for (int i = 0; i < srcBuffer.length; i++) {
+            for (int i = 0; i < pixelCount; i++) {
                 final int alpha = srcBuffer[i] >>> 24;
                 if (alpha < 188) {
                     srcBuffer[i] = 0;
@@ -152,7 +163,30 @@ public class HolographicOutlineHelper {
         glowShape.recycle();
     }
 
+    /**
+     * Returns the shadow drawn behind {@param view} when it is pressed or focused. The shadows of
+     * the plain icons are cached and shared, the callers must not modify them.
+     */
     Bitmap createMediumDropShadow(BubbleTextView view) {
+        // The text label is not part of the shadow.
+        final int clipBottom = view.getExtendedPaddingTop() - (int) BubbleTextView.PADDING_V
+                + view.getLayout().getLineTop(0);
+
+        final DropShadowCache cache = LauncherAppState.getInstance().getIconCache()
+                .getDropShadowCache();
+        final DropShadowCache.Key key = DropShadowCache.getKey(view, clipBottom);
+        if (key != null) {
+            Bitmap shadow = cache.get(key);
+            if (shadow == null) {
+                shadow = drawMediumDropShadow(view, clipBottom);
+                cache.put(key, shadow);
+            }
+            return shadow;
+        }
+        return drawMediumDropShadow(view, clipBottom);
+    }
+
+    private Bitmap drawMediumDropShadow(BubbleTextView view, int clipBottom) {
         final Bitmap result = Bitmap.createBitmap(
                 view.getWidth() + shadowBitmapPadding + shadowBitmapPadding,
                 view.getHeight() + shadowBitmapPadding + shadowBitmapPadding + mShadowOffset,
@@ -163,8 +197,7 @@ public class HolographicOutlineHelper {
         final Rect clipRect = sTempRect;
         view.getDrawingRect(sTempRect);
         // adjust the clip rect so that we don't include the text label
-        clipRect.bottom = view.getExtendedPaddingTop() - (int) BubbleTextView.PADDING_V
-                + view.getLayout().getLineTop(0);
+        clipRect.bottom = clipBottom;
 
         // Draw the View into the bitmap.
         // The translate of scrollX and scrollY is necessary when drawing TextViews, because
@@ -34,9 +34,12 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.Pair;
 
 import com.android.launcher3.compat.LauncherActivityInfoCompat;
 import com.android.launcher3.compat.LauncherAppsCompat;
@@ -46,22 +49,40 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.PackageItemInfo;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Icons are kept in two tiers: a memory cache bounded by the total size of the icon bitmaps, and
+ * the persistent {@link IconDB}. Entries evicted from memory are loaded back from the DB when
+ * they are needed again.
+ *
+ * Lookups of icons which are already in memory do not take any IconCache lock, so that they are
+ * not blocked by package updates running on the worker thread. A miss only locks the key being
+ * loaded, and waits for the updates which change the cached packages ({@link #mUpdateLock}).
  */
 public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
-
     // Empty class name is used for storing package default entry.
     private static final String EMPTY_CLASS_NAME = ".";
 
@@ -69,26 +90,149 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 8;
 
+    // The icons kept in memory are limited to this fraction of the memory class of the app.
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    // Number of independently locked segments of the memory cache, and of locks for the misses.
+    private static final int CONCURRENCY_LEVEL = 8;
+
+    // Maximum number of icon rows written to the DB in a single transaction.
+    private static final int DB_WRITE_BATCH_SIZE = 50;
+    private static final int MAX_ICON_ENCODER_THREADS = 4;
+
     @Thunk static class CacheEntry {
         public Bitmap icon;
         public CharSequence title;
         public CharSequence contentDescription;
         public boolean isLowResIcon;
+
+        // The size of this entry in the memory cache. It is set when the entry is added to the
+        // cache, so that it does not change for as long as the entry is cached.
+        int byteCount;
     }
 
-    private final HashMap<UserHandleCompat, Bitmap> mDefaultIcons = new HashMap<>();
+    /**
+     * LRU cache of the entries, sized by the bytes used by their icons. The cache is split in
+     * segments by key, each with its own lock and an equal share of the byte budget. The drop
+     * shadows of the icons are removed along with them.
+     */
+    private static class MemoryCache {
+        private final LruCache<ComponentKey, CacheEntry>[] mSegments;
+
+        @SuppressWarnings("unchecked")
+        public MemoryCache(int maxBytes, final DropShadowCache dropShadows) {
+            mSegments = new LruCache[CONCURRENCY_LEVEL];
+            for (int i = 0; i < mSegments.length; i++) {
+                mSegments[i] = new LruCache<ComponentKey, CacheEntry>(
+                        maxBytes / CONCURRENCY_LEVEL) {
+                    @Override
+                    protected int sizeOf(ComponentKey key, CacheEntry entry) {
+                        return entry.byteCount;
+                    }
+
+                    @Override
+                    protected void entryRemoved(boolean evicted, ComponentKey key,
+                            CacheEntry oldValue, CacheEntry newValue) {
+                        if (oldValue.icon != null
+                                && (newValue == null || newValue.icon != oldValue.icon)) {
+                            dropShadows.removeShadows(oldValue.icon);
+                        }
+                    }
+                };
+            }
+        }
+
+        private LruCache<ComponentKey, CacheEntry> getSegment(ComponentKey key) {
+            return mSegments[(key.hashCode() & Integer.MAX_VALUE) % mSegments.length];
+        }
+
+        public CacheEntry get(ComponentKey key) {
+            return getSegment(key).get(key);
+        }
+
+        public void put(ComponentKey key, CacheEntry entry) {
+            getSegment(key).put(key, entry);
+        }
+
+        public void remove(ComponentKey key) {
+            getSegment(key).remove(key);
+        }
+
+        public void evictAll() {
+            for (LruCache<ComponentKey, CacheEntry> segment : mSegments) {
+                segment.evictAll();
+            }
+        }
+
+        public HashMap<ComponentKey, CacheEntry> snapshot() {
+            HashMap<ComponentKey, CacheEntry> snapshot = new HashMap<>();
+            for (LruCache<ComponentKey, CacheEntry> segment : mSegments) {
+                snapshot.putAll(segment.snapshot());
+            }
+            return snapshot;
+        }
+
+        public int size() {
+            int size = 0;
+            for (LruCache<ComponentKey, CacheEntry> segment : mSegments) {
+                size += segment.size();
+            }
+            return size;
+        }
+
+        public int maxSize() {
+            int maxSize = 0;
+            for (LruCache<ComponentKey, CacheEntry> segment : mSegments) {
+                maxSize += segment.maxSize();
+            }
+            return maxSize;
+        }
+
+        public int evictionCount() {
+            int evictionCount = 0;
+            for (LruCache<ComponentKey, CacheEntry> segment : mSegments) {
+                evictionCount += segment.evictionCount();
+            }
+            return evictionCount;
+        }
+    }
+
+    private final ConcurrentHashMap<UserHandleCompat, Bitmap> mDefaultIcons =
+            new ConcurrentHashMap<>();
     private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
     private final Context mContext;
     private final PackageManager mPackageManager;
     private final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<ComponentKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final MemoryCache mCache;
+    private final DropShadowCache mDropShadowCache;
+    // Entries of packages being installed. They are not persisted in the DB, so they are kept
+    // outside of the memory cache where they could be evicted.
+    private final ConcurrentHashMap<ComponentKey, CacheEntry> mPackageInstallEntries =
+            new ConcurrentHashMap<>();
     private final int mIconDpi;
     private final IconDB mIconDb;
 
-    private final Handler mWorkerHandler;
+    private final IconUpgradeScheduler mIconUpgradeScheduler;
+    // Creates and compresses the icons written by updateDBIcons. Its threads time out when idle.
+    private final ThreadPoolExecutor mIconEncoderExecutor;
+
+    // Held for reading while loading a missing entry, and for writing while changing the entries
+    // of a package, so that a miss never caches an entry which is being removed. The tests hold
+    // it to stand in for a long update.
+    final ReentrantReadWriteLock mUpdateLock = new ReentrantReadWriteLock();
+    // Locks held while loading a missing entry, so that each key is only loaded once.
+    private final Object[] mKeyLocks = new Object[CONCURRENCY_LEVEL];
+
+    // Lookups served from memory, lookups which missed the memory cache, and the misses which
+    // were then found in the DB.
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mDbHitCount = new AtomicInteger();
+    // Icon rows written to the DB by updateDBIcons, and the time spent deleting and writing rows.
+    private final AtomicLong mDbRowsWritten = new AtomicLong();
+    private final AtomicLong mDbWriteMillis = new AtomicLong();
 
     public IconCache(Context context) {
         ActivityManager activityManager =
@@ -100,8 +244,36 @@ public class IconCache {
         mLauncherApps = LauncherAppsCompat.getInstance(mContext);
         mIconDpi = activityManager.getLauncherLargeIconDensity();
         mIconDb = new IconDB(context);
+        mDropShadowCache = new DropShadowCache(context);
+        mCache = new MemoryCache(
+                activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION,
+                mDropShadowCache);
+        for (int i = 0; i < mKeyLocks.length; i++) {
+            mKeyLocks[i] = new Object();
+        }
 
-        mWorkerHandler = new Handler(LauncherModel.sWorkerThread.getLooper());
+        final int encoderThreads = Math.min(MAX_ICON_ENCODER_THREADS,
+                Runtime.getRuntime().availableProcessors());
+        mIconEncoderExecutor = new ThreadPoolExecutor(encoderThreads, encoderThreads, 1,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "icon-encoder-" + mCount.incrementAndGet());
+                    }
+                });
+        mIconEncoderExecutor.allowCoreThreadTimeOut(true);
+
+        mIconUpgradeScheduler = new IconUpgradeScheduler(this, mMainThreadExecutor,
+                context.getResources().getInteger(R.integer.config_iconUpgradeThreads));
+    }
+
+    /**
+     * Returns the cache of the drop shadows of the icons, which are removed with the icons.
+     */
+    public DropShadowCache getDropShadowCache() {
+        return mDropShadowCache;
     }
 
     private Drawable getFullResDefaultActivityIcon() {
@@ -172,16 +344,22 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandleCompat user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandleCompat user) {
+        mUpdateLock.writeLock().lock();
+        try {
+            mCache.remove(new ComponentKey(componentName, user));
+        } finally {
+            mUpdateLock.writeLock().unlock();
+        }
     }
 
     /**
-     * Remove any records for the supplied package name from memory.
+     * Remove any records for the supplied package name from memory. Must be called with the
+     * write lock of {@link #mUpdateLock} held.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandleCompat user) {
         HashSet<ComponentKey> forDeletion = new HashSet<ComponentKey>();
-        for (ComponentKey key: mCache.keySet()) {
+        for (ComponentKey key: mCache.snapshot().keySet()) {
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
                 forDeletion.add(key);
@@ -190,40 +368,75 @@ public class IconCache {
         for (ComponentKey condemned: forDeletion) {
             mCache.remove(condemned);
         }
+        mPackageInstallEntries.remove(getPackageKey(packageName, user));
+    }
+
+    /**
+     * Adds the entry to the memory cache, possibly evicting the least recently used entries.
+     */
+    private void putInMemCache(ComponentKey key, CacheEntry entry) {
+        // Default icons are shared by all the entries using them.
+        entry.byteCount = (entry.icon == null || isDefaultIcon(entry.icon, key.user))
+                ? 0 : entry.icon.getByteCount();
+        mCache.put(key, entry);
+    }
+
+    private static ComponentKey getPackageKey(String packageName, UserHandleCompat user) {
+        return new ComponentKey(new ComponentName(packageName, EMPTY_CLASS_NAME), user);
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandleCompat user) {
-        removeIconsForPkg(packageName, user);
+    public void updateIconsForPkg(String packageName, UserHandleCompat user) {
+        mUpdateLock.writeLock().lock();
         try {
+            removeIconsForPkg(packageName, user);
             PackageInfo info = mPackageManager.getPackageInfo(packageName,
                     PackageManager.GET_UNINSTALLED_PACKAGES);
             long userSerial = mUserManager.getSerialNumberForUser(user);
-            for (LauncherActivityInfoCompat app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial);
+            SQLiteDatabase db = mIconDb.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                List<LauncherActivityInfoCompat> apps =
+                        mLauncherApps.getActivityList(packageName, user);
+                for (LauncherActivityInfoCompat app : apps) {
+                    addIconToDBAndMemCache(app, info, userSerial);
+                }
+                addPackageVersionToDB(db, info, getComponentsHash(apps), userSerial);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
         } catch (NameNotFoundException e) {
             Log.d(TAG, "Package not found", e);
-            return;
+        } finally {
+            mUpdateLock.writeLock().unlock();
         }
     }
 
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandleCompat user) {
-        removeFromMemCacheLocked(packageName, user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.getWritableDatabase().delete(IconDB.TABLE_NAME,
-                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[] {packageName + "/%", Long.toString(userSerial)});
+    public void removeIconsForPkg(String packageName, UserHandleCompat user) {
+        mUpdateLock.writeLock().lock();
+        try {
+            removeFromMemCacheLocked(packageName, user);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            removePackageFromDB(mIconDb.getWritableDatabase(), packageName, userSerial);
+        } finally {
+            mUpdateLock.writeLock().unlock();
+        }
     }
 
     /**
      * Updates the persistent DB, such that only entries corresponding to {@param apps} remain in
      * the DB and are updated.
+     *
+     * The icons are only validated per package, against the version of each package recorded in
+     * {@link IconDB#PACKAGES_TABLE_NAME} when its icons were written. The icons of a package are
+     * only read or written when the package changed. The package default rows of the packages
+     * with no activity are validated against the version stored in the row.
      * @return The set of packages for which icons have updated.
      */
     public HashSet<String> updateDBIcons(UserHandleCompat user, List<LauncherActivityInfoCompat> apps) {
@@ -235,75 +448,263 @@ public class IconCache {
             pkgInfoMap.put(info.packageName, info);
         }
 
-        HashMap<ComponentName, LauncherActivityInfoCompat> componentMap = new HashMap<>();
+        HashMap<String, ArrayList<LauncherActivityInfoCompat>> appsByPackage = new HashMap<>();
         for (LauncherActivityInfoCompat app : apps) {
-            componentMap.put(app.getComponentName(), app);
+            String packageName = app.getComponentName().getPackageName();
+            ArrayList<LauncherActivityInfoCompat> packageApps = appsByPackage.get(packageName);
+            if (packageApps == null) {
+                packageApps = new ArrayList<LauncherActivityInfoCompat>();
+                appsByPackage.put(packageName, packageApps);
+            }
+            packageApps.add(app);
         }
 
-        Cursor c = mIconDb.getReadableDatabase().query(IconDB.TABLE_NAME,
-                new String[] {IconDB.COLUMN_ROWID, IconDB.COLUMN_COMPONENT,
-                    IconDB.COLUMN_LAST_UPDATED, IconDB.COLUMN_VERSION,
-                    IconDB.COLUMN_SYSTEM_STATE},
+        HashMap<String, PackageVersion> versions = new HashMap<String, PackageVersion>();
+        Cursor c = mIconDb.getReadableDatabase().query(IconDB.PACKAGES_TABLE_NAME,
+                new String[] {IconDB.COLUMN_PACKAGE, IconDB.COLUMN_LAST_UPDATED,
+                    IconDB.COLUMN_VERSION, IconDB.COLUMN_SYSTEM_STATE,
+                    IconDB.COLUMN_COMPONENTS_HASH},
                 IconDB.COLUMN_USER + " = ? ",
                 new String[] {Long.toString(userSerial)},
                 null, null, null);
+        try {
+            while (c.moveToNext()) {
+                PackageVersion version = new PackageVersion();
+                version.lastUpdateTime = c.getLong(1);
+                version.versionCode = c.getInt(2);
+                version.systemState = c.getString(3);
+                version.componentsHash = c.getInt(4);
+                versions.put(c.getString(0), version);
+            }
+        } finally {
+            c.close();
+        }
 
-        final int indexComponent = c.getColumnIndex(IconDB.COLUMN_COMPONENT);
-        final int indexLastUpdate = c.getColumnIndex(IconDB.COLUMN_LAST_UPDATED);
-        final int indexVersion = c.getColumnIndex(IconDB.COLUMN_VERSION);
-        final int rowIndex = c.getColumnIndex(IconDB.COLUMN_ROWID);
-        final int systemStateIndex = c.getColumnIndex(IconDB.COLUMN_SYSTEM_STATE);
-
-        HashSet<Integer> itemsToRemove = new HashSet<Integer>();
+        HashSet<String> packagesToRemove = new HashSet<String>();
         HashSet<String> updatedPackages = new HashSet<String>();
+        ArrayList<LauncherActivityInfoCompat> appsToUpdate =
+                new ArrayList<LauncherActivityInfoCompat>();
+        HashMap<String, Integer> packagesToAdd = new HashMap<String, Integer>();
 
-        while (c.moveToNext()) {
-            String cn = c.getString(indexComponent);
-            ComponentName component = ComponentName.unflattenFromString(cn);
-            PackageInfo info = pkgInfoMap.get(component.getPackageName());
+        for (Entry<String, PackageVersion> entry : versions.entrySet()) {
+            String packageName = entry.getKey();
+            PackageInfo info = pkgInfoMap.get(packageName);
             if (info == null) {
-                itemsToRemove.add(c.getInt(rowIndex));
-                continue;
-            }
-            if ((info.applicationInfo.flags & ApplicationInfo.FLAG_IS_DATA_ONLY) != 0) {
+                packagesToRemove.add(packageName);
+            } else if ((info.applicationInfo.flags & ApplicationInfo.FLAG_IS_DATA_ONLY) != 0) {
                 // Application is not present
-                continue;
+            } else if (!appsByPackage.containsKey(packageName)
+                    && !entry.getValue().matches(info, mIconDb.mSystemState, 0)) {
+                // The package no longer has any activity.
+                packagesToRemove.add(packageName);
             }
+        }
 
-            long updateTime = c.getLong(indexLastUpdate);
-            int version = c.getInt(indexVersion);
-            LauncherActivityInfoCompat app = componentMap.remove(component);
-            if (version == info.versionCode && updateTime == info.lastUpdateTime &&
-                    TextUtils.equals(mIconDb.mSystemState, c.getString(systemStateIndex))) {
+        // The package default rows, written for packages with no activity, are not recorded in
+        // the packages table. Validate them against their own version.
+        c = mIconDb.getReadableDatabase().query(IconDB.TABLE_NAME,
+                new String[] {IconDB.COLUMN_COMPONENT, IconDB.COLUMN_LAST_UPDATED,
+                    IconDB.COLUMN_VERSION, IconDB.COLUMN_SYSTEM_STATE},
+                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
+                new String[] {"%/" + EMPTY_CLASS_NAME, Long.toString(userSerial)},
+                null, null, null);
+        try {
+            while (c.moveToNext()) {
+                String component = c.getString(0);
+                String packageName = component.substring(0, component.indexOf('/'));
+                if (versions.containsKey(packageName)) {
+                    // Validated with the other icons of the package.
+                    continue;
+                }
+                PackageInfo info = pkgInfoMap.get(packageName);
+                if (info == null || info.lastUpdateTime != c.getLong(1)
+                        || info.versionCode != c.getInt(2)
+                        || !TextUtils.equals(mIconDb.mSystemState, c.getString(3))) {
+                    packagesToRemove.add(packageName);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        for (Entry<String, ArrayList<LauncherActivityInfoCompat>> entry
+                : appsByPackage.entrySet()) {
+            String packageName = entry.getKey();
+            PackageInfo info = pkgInfoMap.get(packageName);
+            if (info == null) {
                 continue;
             }
-            if (app == null) {
-                itemsToRemove.add(c.getInt(rowIndex));
+            int componentsHash = getComponentsHash(entry.getValue());
+            PackageVersion version = versions.get(packageName);
+            if (version != null
+                    && version.matches(info, mIconDb.mSystemState, componentsHash)) {
                 continue;
             }
-            ContentValues values = updateCacheAndGetContentValues(app);
-            mIconDb.getWritableDatabase().update(IconDB.TABLE_NAME, values,
-                    IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
-                    new String[] {cn, Long.toString(userSerial)});
+            if (version != null) {
+                updatedPackages.add(packageName);
+            }
+            // Replace all the rows of the package.
+            packagesToRemove.add(packageName);
+            appsToUpdate.addAll(entry.getValue());
+            packagesToAdd.put(packageName, componentsHash);
+        }
 
-            updatedPackages.add(component.getPackageName());
+        writeIconsToDB(appsToUpdate, packagesToRemove, packagesToAdd, pkgInfoMap, userSerial);
+        return updatedPackages;
+    }
+
+    /**
+     * Deletes the rows of {@param packagesToRemove}, then adds the icons of {@param apps} to the
+     * DB and the memory cache and records the versions of {@param packagesToAdd}. The icons are
+     * created and compressed on the encoder threads, while the calling thread adds them to the
+     * memory cache and writes the rows in batches of at most {@link #DB_WRITE_BATCH_SIZE}.
+     *
+     * @param packagesToAdd the packages of {@param apps}, with their components hash.
+     */
+    private void writeIconsToDB(ArrayList<LauncherActivityInfoCompat> apps,
+            HashSet<String> packagesToRemove, HashMap<String, Integer> packagesToAdd,
+            HashMap<String, PackageInfo> pkgInfoMap, long userSerial) {
+        if (apps.isEmpty() && packagesToRemove.isEmpty()) {
+            return;
         }
-        c.close();
-        if (!itemsToRemove.isEmpty()) {
-            mIconDb.getWritableDatabase().delete(IconDB.TABLE_NAME,
-                    IconDB.COLUMN_ROWID + " IN ( " + TextUtils.join(", ", itemsToRemove) +" )",
-                    null);
+        final long t = SystemClock.uptimeMillis();
+        final SQLiteDatabase db = mIconDb.getWritableDatabase();
+
+        final ArrayList<Future<Pair<CacheEntry, ContentValues>>> results = new ArrayList<>();
+        if (!apps.isEmpty()) {
+            for (final LauncherActivityInfoCompat app : apps) {
+                results.add(mIconEncoderExecutor.submit(
+                        new Callable<Pair<CacheEntry, ContentValues>>() {
+                    @Override
+                    public Pair<CacheEntry, ContentValues> call() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        return encodeIcon(app);
+                    }
+                }));
+            }
         }
 
-        // Insert remaining apps.
-        for (LauncherActivityInfoCompat app : componentMap.values()) {
-            PackageInfo info = pkgInfoMap.get(app.getComponentName().getPackageName());
-            if (info == null) {
-                continue;
+        if (!packagesToRemove.isEmpty()) {
+            db.beginTransaction();
+            try {
+                for (String packageName : packagesToRemove) {
+                    removePackageFromDB(db, packageName, userSerial);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
-            addIconToDBAndMemCache(app, info, userSerial);
         }
-        return updatedPackages;
+
+        int rowCount = 0;
+        for (int start = 0; start < results.size(); start += DB_WRITE_BATCH_SIZE) {
+            final int end = Math.min(start + DB_WRITE_BATCH_SIZE, results.size());
+            // The icons of the batch, or null for the icons which could not be created.
+            final ArrayList<Pair<CacheEntry, ContentValues>> icons = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                try {
+                    icons.add(results.get(i).get());
+                } catch (InterruptedException | ExecutionException e) {
+                    ComponentName cn = apps.get(i).getComponentName();
+                    Log.e(TAG, "Unable to create icon for " + cn, e);
+                    // Validate the package again next time.
+                    packagesToAdd.remove(cn.getPackageName());
+                    icons.add(null);
+                }
+            }
+
+            mUpdateLock.writeLock().lock();
+            try {
+                for (int i = start; i < end; i++) {
+                    Pair<CacheEntry, ContentValues> icon = icons.get(i - start);
+                    if (icon != null) {
+                        LauncherActivityInfoCompat app = apps.get(i);
+                        putInMemCache(new ComponentKey(app.getComponentName(), app.getUser()),
+                                icon.first);
+                    }
+                }
+            } finally {
+                mUpdateLock.writeLock().unlock();
+            }
+
+            db.beginTransaction();
+            try {
+                for (int i = start; i < end; i++) {
+                    Pair<CacheEntry, ContentValues> icon = icons.get(i - start);
+                    if (icon != null) {
+                        ComponentName cn = apps.get(i).getComponentName();
+                        addIconToDB(db, icon.second, cn, pkgInfoMap.get(cn.getPackageName()),
+                                userSerial);
+                        rowCount++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        // Only record the package versions once all their icons are written.
+        if (!packagesToAdd.isEmpty()) {
+            db.beginTransaction();
+            try {
+                for (Entry<String, Integer> entry : packagesToAdd.entrySet()) {
+                    addPackageVersionToDB(db, pkgInfoMap.get(entry.getKey()), entry.getValue(),
+                            userSerial);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        final long elapsed = Math.max(SystemClock.uptimeMillis() - t, 1);
+        mDbRowsWritten.addAndGet(rowCount);
+        mDbWriteMillis.addAndGet(elapsed);
+        Launcher.addDumpLog(TAG, "Updated " + rowCount + " icons of " + packagesToAdd.size()
+                + " packages and removed " + packagesToRemove.size() + " packages in " + elapsed
+                + "ms (" + (rowCount * 1000 / elapsed) + " rows/s)", true);
+    }
+
+    /**
+     * Deletes the icons and the version of the package from the DB.
+     */
+    private void removePackageFromDB(SQLiteDatabase db, String packageName, long userSerial) {
+        String[] args = new String[] {packageName, Long.toString(userSerial)};
+        db.delete(IconDB.PACKAGES_TABLE_NAME,
+                IconDB.COLUMN_PACKAGE + " = ? AND " + IconDB.COLUMN_USER + " = ?", args);
+        args[0] = packageName + "/%";
+        db.delete(IconDB.TABLE_NAME,
+                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?", args);
+    }
+
+    /**
+     * Records the version of the package whose icons were written to the DB.
+     */
+    private void addPackageVersionToDB(SQLiteDatabase db, PackageInfo info, int componentsHash,
+            long userSerial) {
+        ContentValues values = new ContentValues();
+        values.put(IconDB.COLUMN_PACKAGE, info.packageName);
+        values.put(IconDB.COLUMN_USER, userSerial);
+        values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
+        values.put(IconDB.COLUMN_VERSION, info.versionCode);
+        values.put(IconDB.COLUMN_SYSTEM_STATE, mIconDb.mSystemState);
+        values.put(IconDB.COLUMN_COMPONENTS_HASH, componentsHash);
+        db.insertWithOnConflict(IconDB.PACKAGES_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Returns a hash of the components of the activities, so that activities which are added or
+     * removed without a package update (e.g. by enabling a component) are noticed.
+     */
+    private static int getComponentsHash(List<LauncherActivityInfoCompat> apps) {
+        // The sum does not depend on the order in which the activities are listed.
+        int hash = 0;
+        for (LauncherActivityInfoCompat app : apps) {
+            hash += app.getComponentName().hashCode();
+        }
+        return hash;
     }
 
     private void addIconToDBAndMemCache(LauncherActivityInfoCompat app, PackageInfo info,
@@ -319,81 +720,108 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addIconToDB(mIconDb.getWritableDatabase(), values, key, info, userSerial);
+    }
+
+    private static void addIconToDB(SQLiteDatabase db, ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.getWritableDatabase().insertWithOnConflict(IconDB.TABLE_NAME, null, values,
+        db.insertWithOnConflict(IconDB.TABLE_NAME, null, values,
                 SQLiteDatabase.CONFLICT_REPLACE);
     }
 
+    /**
+     * Must be called with the write lock of {@link #mUpdateLock} held.
+     */
     private ContentValues updateCacheAndGetContentValues(LauncherActivityInfoCompat app) {
+        CacheEntry entry = newCacheEntry(app);
+        putInMemCache(new ComponentKey(app.getComponentName(), app.getUser()), entry);
+
+        return mIconDb.newContentValues(entry.icon, entry.title.toString());
+    }
+
+    /**
+     * Creates the cache entry of {@param app} and its compressed DB row. Does not touch the
+     * caches, so that the encoder threads run it without any lock.
+     */
+    @Thunk Pair<CacheEntry, ContentValues> encodeIcon(LauncherActivityInfoCompat app) {
+        CacheEntry entry = newCacheEntry(app);
+        return Pair.create(entry, mIconDb.newContentValues(entry.icon, entry.title.toString()));
+    }
+
+    private CacheEntry newCacheEntry(LauncherActivityInfoCompat app) {
         CacheEntry entry = new CacheEntry();
         entry.icon = Utilities.createIconBitmap(app.getBadgedIcon(mIconDpi), mContext);
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(new ComponentKey(app.getComponentName(), app.getUser()), entry);
-
-        return mIconDb.newContentValues(entry.icon, entry.title.toString());
+        return entry;
     }
 
     /**
      * Empty out the cache.
      */
-    public synchronized void flush() {
-        mCache.clear();
+    public void flush() {
+        mUpdateLock.writeLock().lock();
+        try {
+            mCache.evictAll();
+            mPackageInstallEntries.clear();
+            mDropShadowCache.evictAll();
+        } finally {
+            mUpdateLock.writeLock().unlock();
+        }
     }
 
     /**
      * Empty out the cache that aren't of the correct grid size
      */
-    public synchronized void flushInvalidIcons(DeviceProfile grid) {
-        Iterator<Entry<ComponentKey, CacheEntry>> it = mCache.entrySet().iterator();
-        while (it.hasNext()) {
-            final CacheEntry e = it.next().getValue();
-            if ((e.icon != null) && (e.icon.getWidth() < grid.iconSizePx
-                    || e.icon.getHeight() < grid.iconSizePx)) {
-                it.remove();
+    public void flushInvalidIcons(DeviceProfile grid) {
+        mUpdateLock.writeLock().lock();
+        try {
+            for (Entry<ComponentKey, CacheEntry> entry : mCache.snapshot().entrySet()) {
+                final CacheEntry e = entry.getValue();
+                if ((e.icon != null) && (e.icon.getWidth() < grid.iconSizePx
+                        || e.icon.getHeight() < grid.iconSizePx)) {
+                    mCache.remove(entry.getKey());
+                }
             }
+        } finally {
+            mUpdateLock.writeLock().unlock();
         }
     }
 
     /**
      * Fetches high-res icon for the provided ItemInfo and updates the caller when done.
-     * @return a request ID that can be used to cancel the request.
+     *
+     * @param priority one of the {@link IconUpgradeScheduler} PRIORITY_ constants.
+     * @return a request that can be used to cancel the load.
      */
-    public IconLoadRequest updateIconInBackground(final BubbleTextView caller, final ItemInfo info) {
-        Runnable request = new Runnable() {
-
-            @Override
-            public void run() {
-                if (info instanceof AppInfo) {
-                    getTitleAndIcon((AppInfo) info, null, false);
-                } else if (info instanceof ShortcutInfo) {
-                    ShortcutInfo st = (ShortcutInfo) info;
-                    getTitleAndIcon(st,
-                            st.promisedIntent != null ? st.promisedIntent : st.intent,
-                            st.user, false);
-                }
-                mMainThreadExecutor.execute(new Runnable() {
+    public IconUpgradeScheduler.Request updateIconInBackground(BubbleTextView caller,
+            ItemInfo info, int priority) {
+        return mIconUpgradeScheduler.schedule(caller, info, priority);
+    }
 
-                    @Override
-                    public void run() {
-                        caller.reapplyItemInfo(info);
-                    }
-                });
-            }
-        };
-        mWorkerHandler.post(request);
-        return new IconLoadRequest(request, mWorkerHandler);
+    /**
+     * Loads the high-res icon of {@param info}. Called on a background thread.
+     */
+    void loadHighResIcon(ItemInfo info) {
+        if (info instanceof AppInfo) {
+            getTitleAndIcon((AppInfo) info, null, false);
+        } else if (info instanceof ShortcutInfo) {
+            ShortcutInfo st = (ShortcutInfo) info;
+            getTitleAndIcon(st, st.promisedIntent != null ? st.promisedIntent : st.intent,
+                    st.user, false);
+        }
     }
 
     /**
      * Fill in "application" with the icon and label for "info."
      */
-    public synchronized void getTitleAndIcon(AppInfo application,
+    public void getTitleAndIcon(AppInfo application,
             LauncherActivityInfoCompat info, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(application.componentName, info,
+        CacheEntry entry = getEntry(application.componentName, info,
                 info == null ? application.user : info.getUser(),
                 false, useLowResIcon);
         application.title = entry.title;
@@ -405,7 +833,7 @@ public class IconCache {
     /**
      * Returns a high res icon for the given intent and user
      */
-    public synchronized Bitmap getIcon(Intent intent, UserHandleCompat user) {
+    public Bitmap getIcon(Intent intent, UserHandleCompat user) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
@@ -414,7 +842,7 @@ public class IconCache {
         }
 
         LauncherActivityInfoCompat launcherActInfo = mLauncherApps.resolveActivity(intent, user);
-        CacheEntry entry = cacheLocked(component, launcherActInfo, user, true, true);
+        CacheEntry entry = getEntry(component, launcherActInfo, user, true, true);
         return entry.icon;
     }
 
@@ -422,7 +850,7 @@ public class IconCache {
      * Fill in {@param shortcutInfo} with the icon and label for {@param intent}. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
+    public void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
             UserHandleCompat user, boolean useLowResIcon) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
@@ -441,10 +869,10 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    public synchronized void getTitleAndIcon(
+    public void getTitleAndIcon(
             ShortcutInfo shortcutInfo, ComponentName component, LauncherActivityInfoCompat info,
             UserHandleCompat user, boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(component, info, user, usePkgIcon, useLowResIcon);
+        CacheEntry entry = getEntry(component, info, user, usePkgIcon, useLowResIcon);
         shortcutInfo.setIcon(entry.icon);
         shortcutInfo.title = entry.title;
         shortcutInfo.usingFallbackIcon = isDefaultIcon(entry.icon, user);
@@ -454,21 +882,28 @@ public class IconCache {
     /**
      * Fill in {@param appInfo} with the icon and label for {@param packageName}
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             String packageName, UserHandleCompat user, boolean useLowResIcon,
             PackageItemInfo infoOut) {
-        CacheEntry entry = getEntryForPackageLocked(packageName, user, useLowResIcon);
+        CacheEntry entry = getEntryForPackage(packageName, user, useLowResIcon);
         infoOut.iconBitmap = entry.icon;
         infoOut.title = entry.title;
         infoOut.usingLowResIcon = entry.isLowResIcon;
         infoOut.contentDescription = entry.contentDescription;
     }
 
-    public synchronized Bitmap getDefaultIcon(UserHandleCompat user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public Bitmap getDefaultIcon(UserHandleCompat user) {
+        Bitmap icon = mDefaultIcons.get(user);
+        if (icon == null) {
+            synchronized (mDefaultIcons) {
+                icon = mDefaultIcons.get(user);
+                if (icon == null) {
+                    icon = makeDefaultIcon(user);
+                    mDefaultIcons.put(user, icon);
+                }
+            }
         }
-        return mDefaultIcons.get(user);
+        return icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandleCompat user) {
@@ -477,44 +912,75 @@ public class IconCache {
 
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
      */
-    private CacheEntry cacheLocked(ComponentName componentName, LauncherActivityInfoCompat info,
+    private CacheEntry getEntry(ComponentName componentName, LauncherActivityInfoCompat info,
             UserHandleCompat user, boolean usePackageIcon, boolean useLowResIcon) {
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
-            entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
+        if (entry != null && (!entry.isLowResIcon || useLowResIcon)) {
+            mHitCount.incrementAndGet();
+            return entry;
+        }
 
-            // Check the DB first.
-            if (!getEntryFromDB(componentName, user, entry, useLowResIcon)) {
-                if (info != null) {
-                    entry.icon = Utilities.createIconBitmap(info.getBadgedIcon(mIconDpi), mContext);
-                } else {
-                    if (usePackageIcon) {
-                        CacheEntry packageEntry = getEntryForPackageLocked(
-                                componentName.getPackageName(), user, false);
-                        if (packageEntry != null) {
-                            if (DEBUG) Log.d(TAG, "using package default icon for " +
-                                    componentName.toShortString());
-                            entry.icon = packageEntry.icon;
-                            entry.title = packageEntry.title;
-                            entry.contentDescription = packageEntry.contentDescription;
-                        }
-                    }
-                    if (entry.icon == null) {
-                        if (DEBUG) Log.d(TAG, "using default icon for " +
+        mUpdateLock.readLock().lock();
+        try {
+            synchronized (mKeyLocks[(cacheKey.hashCode() & Integer.MAX_VALUE)
+                    % mKeyLocks.length]) {
+                // The entry may have been loaded while waiting for the lock.
+                entry = mCache.get(cacheKey);
+                if (entry != null && (!entry.isLowResIcon || useLowResIcon)) {
+                    mHitCount.incrementAndGet();
+                    return entry;
+                }
+                mMissCount.incrementAndGet();
+                entry = loadEntryLocked(cacheKey, info, usePackageIcon, useLowResIcon);
+                putInMemCache(cacheKey, entry);
+                return entry;
+            }
+        } finally {
+            mUpdateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates the entry for a component from the DB or the package manager. Must be called with
+     * the read lock of {@link #mUpdateLock} held.
+     */
+    private CacheEntry loadEntryLocked(ComponentKey cacheKey, LauncherActivityInfoCompat info,
+            boolean usePackageIcon, boolean useLowResIcon) {
+        final ComponentName componentName = cacheKey.componentName;
+        final UserHandleCompat user = cacheKey.user;
+        CacheEntry entry = new CacheEntry();
+
+        // Check the DB first.
+        if (getEntryFromDB(componentName, user, entry, useLowResIcon)) {
+            mDbHitCount.incrementAndGet();
+        } else {
+            if (info != null) {
+                entry.icon = Utilities.createIconBitmap(info.getBadgedIcon(mIconDpi), mContext);
+            } else {
+                if (usePackageIcon) {
+                    CacheEntry packageEntry = getEntryForPackage(
+                            componentName.getPackageName(), user, false);
+                    if (packageEntry != null) {
+                        if (DEBUG) Log.d(TAG, "using package default icon for " +
                                 componentName.toShortString());
-                        entry.icon = getDefaultIcon(user);
+                        entry.icon = packageEntry.icon;
+                        entry.title = packageEntry.title;
+                        entry.contentDescription = packageEntry.contentDescription;
                     }
                 }
+                if (entry.icon == null) {
+                    if (DEBUG) Log.d(TAG, "using default icon for " +
+                            componentName.toShortString());
+                    entry.icon = getDefaultIcon(user);
+                }
             }
+        }
 
-            if (TextUtils.isEmpty(entry.title) && info != null) {
-                entry.title = info.getLabel().toString();
-                entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
-            }
+        if (TextUtils.isEmpty(entry.title) && info != null) {
+            entry.title = info.getLabel().toString();
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
         }
         return entry;
     }
@@ -523,35 +989,55 @@ public class IconCache {
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandleCompat user,
+    public void cachePackageInstallInfo(String packageName, UserHandleCompat user,
             Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
+        mUpdateLock.writeLock().lock();
+        try {
+            removeFromMemCacheLocked(packageName, user);
 
-        CacheEntry entry = getEntryForPackageLocked(packageName, user, false);
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            entry.icon = Utilities.createIconBitmap(icon, mContext);
+            ComponentKey cacheKey = getPackageKey(packageName, user);
+            CacheEntry entry = getEntryForPackage(packageName, user, false);
+            mCache.remove(cacheKey);
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                entry.icon = Utilities.createIconBitmap(icon, mContext);
+            }
+            mPackageInstallEntries.put(cacheKey, entry);
+        } finally {
+            mUpdateLock.writeLock().unlock();
         }
     }
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
      *
+     * Package entries are rarely missing, so unlike {@link #getEntry} two threads may load the
+     * same entry at the same time.
      */
-    private CacheEntry getEntryForPackageLocked(String packageName, UserHandleCompat user,
+    private CacheEntry getEntryForPackage(String packageName, UserHandleCompat user,
             boolean useLowResIcon) {
-        ComponentName cn = new ComponentName(packageName, EMPTY_CLASS_NAME);
-        ComponentKey cacheKey = new ComponentKey(cn, user);
-        CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        ComponentKey cacheKey = getPackageKey(packageName, user);
+        ComponentName cn = cacheKey.componentName;
+        CacheEntry entry = mPackageInstallEntries.get(cacheKey);
+        if (entry == null) {
+            entry = mCache.get(cacheKey);
+        }
+        if (entry != null && (!entry.isLowResIcon || useLowResIcon)) {
+            mHitCount.incrementAndGet();
+            return entry;
+        }
+
+        mUpdateLock.readLock().lock();
+        try {
+            mMissCount.incrementAndGet();
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
-            if (!getEntryFromDB(cn, user, entry, useLowResIcon)) {
+            if (getEntryFromDB(cn, user, entry, useLowResIcon)) {
+                mDbHitCount.incrementAndGet();
+            } else {
                 try {
                     PackageInfo info = mPackageManager.getPackageInfo(packageName, 0);
                     ApplicationInfo appInfo = info.applicationInfo;
@@ -575,8 +1061,11 @@ public class IconCache {
                     if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
                 }
             }
+            putInMemCache(cacheKey, entry);
+            return entry;
+        } finally {
+            mUpdateLock.readLock().unlock();
         }
-        return entry;
     }
 
     /**
@@ -636,25 +1125,40 @@ public class IconCache {
         return false;
     }
 
-    public static class IconLoadRequest {
-        private final Runnable mRunnable;
-        private final Handler mHandler;
-
-        IconLoadRequest(Runnable runnable, Handler handler) {
-            mRunnable = runnable;
-            mHandler = handler;
-        }
+    /**
+     * Prints the memory usage and the hit/miss/eviction counters of the cache.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "IconCache: " + mCache.size() + "/" + mCache.maxSize()
+                + " bytes in memory, " + mPackageInstallEntries.size() + " install entries");
+        writer.println(prefix + "  hits=" + mHitCount.get() + " misses=" + mMissCount.get()
+                + " dbHits=" + mDbHitCount.get() + " evictions=" + mCache.evictionCount());
+        writer.println(prefix + "  dbRowsWritten=" + mDbRowsWritten.get()
+                + " dbWriteMs=" + mDbWriteMillis.get());
+        mDropShadowCache.dump(prefix + "  ", writer);
+    }
 
-        public void cancel() {
-            mHandler.removeCallbacks(mRunnable);
+    /**
+     * The version of a package when its icons were written to the DB.
+     */
+    private static class PackageVersion {
+        long lastUpdateTime;
+        int versionCode;
+        String systemState;
+        int componentsHash;
+
+        boolean matches(PackageInfo info, String currentSystemState, int currentComponentsHash) {
+            return versionCode == info.versionCode && lastUpdateTime == info.lastUpdateTime
+                    && TextUtils.equals(systemState, currentSystemState)
+                    && componentsHash == currentComponentsHash;
         }
     }
 
     private static final class IconDB extends SQLiteOpenHelper {
-        private final static int DB_VERSION = 3;
+        private final static int DB_VERSION = 4;
 
         private final static String TABLE_NAME = "icons";
-        private final static String COLUMN_ROWID = "rowid";
+        private final static String PACKAGES_TABLE_NAME = "packages";
         private final static String COLUMN_COMPONENT = "componentName";
         private final static String COLUMN_USER = "profileId";
         private final static String COLUMN_LAST_UPDATED = "lastUpdated";
@@ -663,6 +1167,8 @@ public class IconCache {
         private final static String COLUMN_ICON_LOW_RES = "icon_low_res";
         private final static String COLUMN_LABEL = "label";
         private final static String COLUMN_SYSTEM_STATE = "system_state";
+        private final static String COLUMN_PACKAGE = "packageName";
+        private final static String COLUMN_COMPONENTS_HASH = "componentsHash";
 
         public String mSystemState;
 
@@ -690,6 +1196,15 @@ public class IconCache {
                     COLUMN_SYSTEM_STATE + " TEXT, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
                     ");");
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + PACKAGES_TABLE_NAME + " (" +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_SYSTEM_STATE + " TEXT, " +
+                    COLUMN_COMPONENTS_HASH + " INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ") " +
+                    ");");
         }
 
         @Override
@@ -708,6 +1223,7 @@ public class IconCache {
 
         private void clearDB(SQLiteDatabase db) {
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + PACKAGES_TABLE_NAME);
             onCreate(db);
         }
 
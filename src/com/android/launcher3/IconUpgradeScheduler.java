@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Intent;
+
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.Thunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the high-res icons of the views showing a low-res icon.
+ *
+ * Requests are served by priority, so that the icons on screen are upgraded before the offscreen
+ * ones, and the most recent request first within a priority. Requests for the same component
+ * are merged into a single load.
+ */
+public class IconUpgradeScheduler {
+
+    /** Icons on the current workspace page. */
+    public static final int PRIORITY_WORKSPACE = 0;
+    /** Icons in the open folder. */
+    public static final int PRIORITY_FOLDER = 1;
+    /** Icons in the visible rows of all apps. */
+    public static final int PRIORITY_ALL_APPS = 2;
+    /** Icons which are not on screen yet. */
+    public static final int PRIORITY_PREFETCH = 3;
+
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+    @Thunk final IconCache mIconCache;
+    @Thunk final Executor mMainThreadExecutor;
+    private final ThreadPoolExecutor mWorkerPool;
+
+    @Thunk final Object mLock = new Object();
+    @Thunk final PriorityQueue<Task> mQueue = new PriorityQueue<Task>();
+    // Tasks which have not started yet, by component.
+    @Thunk final HashMap<ComponentKey, Task> mPendingTasks = new HashMap<ComponentKey, Task>();
+    private long mNextSequence;
+
+    /**
+     * Runs the task with the highest priority. One is posted for every task added to the queue,
+     * so it only finds an empty queue when a task was cancelled.
+     */
+    private final Runnable mRunNextTask = new Runnable() {
+        @Override
+        public void run() {
+            final ArrayList<Request> requests;
+            synchronized (mLock) {
+                Task task = mQueue.poll();
+                if (task == null) {
+                    return;
+                }
+                if (task.key != null) {
+                    mPendingTasks.remove(task.key);
+                }
+                requests = new ArrayList<Request>(task.requests);
+            }
+
+            // Once the first request loaded the icon, the others are served from memory.
+            for (final Request request : requests) {
+                if (request.mCancelled) {
+                    continue;
+                }
+                mIconCache.loadHighResIcon(request.mInfo);
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.mCancelled) {
+                            request.mCaller.reapplyItemInfo(request.mInfo);
+                        }
+                    }
+                });
+            }
+        }
+    };
+
+    public IconUpgradeScheduler(IconCache iconCache, Executor mainThreadExecutor,
+            int threadCount) {
+        mIconCache = iconCache;
+        mMainThreadExecutor = mainThreadExecutor;
+        mWorkerPool = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "icon-upgrade-" + mCount.incrementAndGet());
+                    }
+                });
+        mWorkerPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Loads the high-res icon of {@param info} and applies it to {@param caller} once loaded.
+     *
+     * @param priority one of the PRIORITY_ constants, lower values are loaded first.
+     * @return a request which can be used to cancel the load.
+     */
+    public Request schedule(BubbleTextView caller, ItemInfo info, int priority) {
+        final ComponentKey key = getKey(info);
+        final Request request = new Request(caller, info);
+        synchronized (mLock) {
+            Task task = key == null ? null : mPendingTasks.get(key);
+            if (task == null) {
+                task = new Task(key, priority, mNextSequence++);
+                if (key != null) {
+                    mPendingTasks.put(key, task);
+                }
+                mQueue.add(task);
+                mWorkerPool.execute(mRunNextTask);
+            } else if (priority < task.priority) {
+                // Move the pending task to the higher priority lane.
+                mQueue.remove(task);
+                task.priority = priority;
+                task.sequence = mNextSequence++;
+                mQueue.add(task);
+            }
+            task.requests.add(request);
+            request.mTask = task;
+        }
+        return request;
+    }
+
+    private static ComponentKey getKey(ItemInfo info) {
+        ComponentName component = null;
+        if (info instanceof AppInfo) {
+            component = ((AppInfo) info).componentName;
+        } else if (info instanceof ShortcutInfo) {
+            ShortcutInfo st = (ShortcutInfo) info;
+            Intent intent = st.promisedIntent != null ? st.promisedIntent : st.intent;
+            component = intent == null ? null : intent.getComponent();
+        }
+        return component == null ? null : new ComponentKey(component, info.user);
+    }
+
+    /**
+     * A request to upgrade the icon of a view.
+     */
+    public class Request {
+        @Thunk final BubbleTextView mCaller;
+        @Thunk final ItemInfo mInfo;
+        @Thunk volatile boolean mCancelled;
+        @Thunk Task mTask;
+
+        @Thunk Request(BubbleTextView caller, ItemInfo info) {
+            mCaller = caller;
+            mInfo = info;
+        }
+
+        /**
+         * Cancels the request, e.g. because the view scrolled off screen. The icon is not loaded
+         * if no other view is waiting for it.
+         */
+        public void cancel() {
+            synchronized (mLock) {
+                mCancelled = true;
+                Task task = mTask;
+                if (task != null) {
+                    task.requests.remove(this);
+                    if (task.requests.isEmpty() && mQueue.remove(task) && task.key != null) {
+                        mPendingTasks.remove(task.key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The requests waiting for the icon of a component.
+     */
+    @Thunk static class Task implements Comparable<Task> {
+        final ComponentKey key;
+        final ArrayList<Request> requests = new ArrayList<Request>(1);
+        int priority;
+        long sequence;
+
+        Task(ComponentKey key, int priority, long sequence) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority) {
+                return priority < another.priority ? -1 : 1;
+            }
+            // Most recent first, the latest requests are the most likely to still be on screen.
+            return sequence > another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+}
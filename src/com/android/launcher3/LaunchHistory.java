@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.Thunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The launch frequency and recency of the apps, used to predict the next apps to be launched.
+ *
+ * Every app has a score, the number of times it was launched with each launch weighing half as
+ * much every {@link #HALF_LIFE_MILLIS}. Only the score and the time of the last launch are kept,
+ * and only for the {@link #MAX_ENTRIES} best scored apps, so the memory and the file size do not
+ * depend on the length of the history.
+ *
+ * The history is only accessed on {@link LauncherModel#sWorkerThread}, the scores are handed to
+ * the main thread as a snapshot.
+ */
+public class LaunchHistory {
+    private static final String TAG = "Launcher.LaunchHistory";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x4c4c4853; // LLHS
+    private static final int VERSION = 1;
+
+    private static final int MAX_ENTRIES = 64;
+    private static final long HALF_LIFE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Receives the scores, on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param scores the score of the apps which were launched, by component. Apps which are
+         *        not in the map have no score.
+         */
+        void onScoresUpdated(HashMap<ComponentKey, Float> scores);
+    }
+
+    /**
+     * The launches of an app.
+     */
+    private static class Entry {
+        // The score as of the last launch.
+        float score;
+        long lastLaunchTime;
+
+        Entry(float score, long lastLaunchTime) {
+            this.score = score;
+            this.lastLaunchTime = lastLaunchTime;
+        }
+
+        float getScore(long now) {
+            return (float) (score * Math.pow(2, -(double) (now - lastLaunchTime)
+                    / HALF_LIFE_MILLIS));
+        }
+    }
+
+    @Thunk final Context mContext;
+    @Thunk final Callback mCallback;
+    private final Handler mMainHandler = new Handler();
+    @Thunk final HashMap<ComponentKey, Entry> mEntries = new HashMap<>();
+
+    public LaunchHistory(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+        LauncherModel.sWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                read();
+                publishScores();
+            }
+        });
+    }
+
+    /**
+     * Records a launch of {@param key}, and publishes the updated scores.
+     */
+    public void recordLaunch(final ComponentKey key) {
+        final long now = System.currentTimeMillis();
+        LauncherModel.sWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = mEntries.get(key);
+                if (entry == null) {
+                    if (mEntries.size() >= MAX_ENTRIES) {
+                        removeLowestScore(now);
+                    }
+                    entry = new Entry(0, now);
+                    mEntries.put(key, entry);
+                }
+                entry.score = entry.getScore(now) + 1;
+                entry.lastLaunchTime = now;
+                write();
+                publishScores();
+            }
+        });
+    }
+
+    @Thunk void removeLowestScore(long now) {
+        ComponentKey lowestKey = null;
+        float lowestScore = Float.MAX_VALUE;
+        for (Map.Entry<ComponentKey, Entry> e : mEntries.entrySet()) {
+            float score = e.getValue().getScore(now);
+            if (score < lowestScore) {
+                lowestScore = score;
+                lowestKey = e.getKey();
+            }
+        }
+        mEntries.remove(lowestKey);
+    }
+
+    /**
+     * Hands the scores as of now to the callback. As all the scores decay at the same rate, their
+     * order does not change until the next launch, so they do not need to be published again in
+     * between.
+     */
+    @Thunk void publishScores() {
+        final long now = System.currentTimeMillis();
+        final HashMap<ComponentKey, Float> scores = new HashMap<>(mEntries.size());
+        for (Map.Entry<ComponentKey, Entry> e : mEntries.entrySet()) {
+            scores.put(e.getKey(), e.getValue().getScore(now));
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onScoresUpdated(scores);
+            }
+        });
+    }
+
+    private File getFile() {
+        return new File(mContext.getFilesDir(), LauncherFiles.LAUNCH_HISTORY);
+    }
+
+    @Thunk void read() {
+        final File file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(mContext);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                file.delete();
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ComponentName component = ComponentName.unflattenFromString(in.readUTF());
+                UserHandleCompat user = userManager.getUserForSerialNumber(in.readLong());
+                Entry entry = new Entry(in.readFloat(), in.readLong());
+                if (component != null && user != null) {
+                    mEntries.put(new ComponentKey(component, user), entry);
+                }
+            }
+            if (DEBUG) {
+                Log.d(TAG, "read " + mEntries.size() + " entries");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding corrupt launch history", e);
+            mEntries.clear();
+            file.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        // In case MAX_ENTRIES was lowered since the history was written.
+        long now = System.currentTimeMillis();
+        while (mEntries.size() > MAX_ENTRIES) {
+            removeLowestScore(now);
+        }
+    }
+
+    /**
+     * Writes the history. The file is replaced atomically, so a reader never sees a partially
+     * written history.
+     */
+    @Thunk void write() {
+        final File file = getFile();
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(mContext);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<ComponentKey, Entry> e : mEntries.entrySet()) {
+                out.writeUTF(e.getKey().componentName.flattenToString());
+                out.writeLong(userManager.getSerialNumberForUser(e.getKey().user));
+                out.writeFloat(e.getValue().score);
+                out.writeLong(e.getValue().lastLaunchTime);
+            }
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Unable to rename " + tmpFile + " to " + file);
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write launch history", e);
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
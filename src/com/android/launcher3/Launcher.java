@@ -972,6 +972,7 @@ public class Launcher extends Activity
     protected void onStop() {
         super.onStop();
         FirstFrameAnimatorHelper.setIsVisible(false);
+        mModel.saveWorkspaceSnapshot();
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onStop();
@@ -1096,6 +1097,9 @@ public class Launcher extends Activity
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
 
+        // Write the moves of the items now, the launcher may be killed in the background
+        LauncherModel.commitItemUpdates();
+
         // We call onHide() aggressively. The custom content callbacks should be able to
         // debounce excess onHide calls.
         if (mWorkspace.getCustomContentCallbacks() != null) {
@@ -2714,7 +2718,7 @@ public class Launcher extends Activity
         }
 
         boolean success = startActivitySafely(v, intent, tag);
-        mStats.recordLaunch(intent, shortcut);
+        mStats.recordLaunch(intent, (ItemInfo) tag);
 
         if (success && v instanceof BubbleTextView) {
             mWaitingForResume = (BubbleTextView) v;
@@ -4051,6 +4055,7 @@ public class Launcher extends Activity
         mWorkspace.restoreInstanceStateForRemainingPages();
 
         setWorkspaceLoading(false);
+        mWorkspace.prefetchDragOutlines();
         sendLoadingCompleteBroadcastIfNecessary();
 
         // If we received the result of any pending adds while the loader was running (e.g. the
@@ -4617,6 +4622,8 @@ public class Launcher extends Activity
     @Override
     public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
         super.dump(prefix, fd, writer, args);
+        mIconCache.dump(prefix, writer);
+        LauncherAppState.getInstance().getWidgetCache().dump(prefix, writer);
         synchronized (sDumpLogs) {
             writer.println(" ");
             writer.println("Debug logs: ");
@@ -35,6 +35,7 @@ import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.net.Uri;
@@ -59,6 +60,7 @@ import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.ManagedProfileHeuristic;
 import com.android.launcher3.util.Thunk;
 
@@ -74,9 +76,19 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Maintains in-memory state of the Launcher. It is expected that there should be only one
@@ -98,6 +110,25 @@ public class LauncherModel extends BroadcastReceiver
     private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
     private static final long INVALID_SCREEN_ID = -1L;
 
+    // When true, the workspace rows are read in one pass and then resolved in parallel, one shard
+    // per screen/container. Set to false to fall back to resolving every row on the worker thread.
+    private static final boolean LOAD_WORKSPACE_IN_PARALLEL = true;
+    private static final int MAX_WORKSPACE_LOADER_THREADS = 4;
+
+    // When true, the rows on the current page (and the hotseat) are loaded and bound before the
+    // rest of the workspace is read from the database.
+    private static final boolean BIND_CURRENT_PAGE_FIRST = true;
+
+    // When true, a snapshot of the loaded workspace is written to disk and bound on the next cold
+    // start while the database is being loaded. See WorkspaceSnapshot.
+    private static final boolean USE_WORKSPACE_SNAPSHOT = true;
+
+    // The package events received within this window are processed together.
+    private static final long PACKAGE_OPS_WINDOW_MS = 150;
+
+    // The moves of the items within this window are written together, see journalItemUpdate().
+    private static final long ITEM_UPDATES_WINDOW_MS = 100;
+
     @Thunk final boolean mAppsCanBeOnRemoveableStorage;
     private final boolean mOldContentProviderExists;
 
@@ -107,6 +138,27 @@ public class LauncherModel extends BroadcastReceiver
     @Thunk LoaderTask mLoaderTask;
     @Thunk boolean mIsLoaderTaskRunning;
 
+    // The package ops waiting to be run, as batches of ops which can run together.
+    @Thunk final ArrayList<LinkedHashMap<Pair<String, UserHandleCompat>, Integer>>
+            mPendingPackageOps =
+                    new ArrayList<LinkedHashMap<Pair<String, UserHandleCompat>, Integer>>();
+    @Thunk boolean mPackageOpsFlushScheduled;
+    private final Runnable mFlushPackageOps = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<LinkedHashMap<Pair<String, UserHandleCompat>, Integer>> batches;
+            synchronized (mPendingPackageOps) {
+                batches = new ArrayList<LinkedHashMap<Pair<String, UserHandleCompat>, Integer>>(
+                        mPendingPackageOps);
+                mPendingPackageOps.clear();
+                mPackageOpsFlushScheduled = false;
+            }
+            for (LinkedHashMap<Pair<String, UserHandleCompat>, Integer> batch : batches) {
+                new PackageUpdatedTask(batch).run();
+            }
+        }
+    };
+
     // Specific runnable types that are run on the main thread deferred handler, this allows us to
     // clear all queued binding runnables when the Launcher activity is destroyed.
     private static final int MAIN_THREAD_NORMAL_RUNNABLE = 0;
@@ -120,12 +172,19 @@ public class LauncherModel extends BroadcastReceiver
     }
     @Thunk static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+    // Resolves the workspace shards. Created on the first parallel load, its threads time out
+    // once the load is done.
+    private static ThreadPoolExecutor sShardExecutor;
+
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
     // need to do a requery.  These are only ever touched from the loader thread.
     @Thunk boolean mWorkspaceLoaded;
     @Thunk boolean mAllAppsLoaded;
 
+    // The db generation of the last workspace snapshot written by this process.
+    private long mSnapshotGeneration = -1;
+
     // When we are loading pages synchronously, we can't just post the binding of items on the side
     // pages as this delays the rotation process.  Instead, we wait for a callback from the first
     // draw (in Workspace) to initiate the binding of the remaining side pages.  Any time we start
@@ -147,6 +206,22 @@ public class LauncherModel extends BroadcastReceiver
     // LauncherModel to their ids
     static final HashMap<Long, ItemInfo> sBgItemsIdMap = new HashMap<Long, ItemInfo>();
 
+    // sBgPackageIndex indexes the items of sBgItemsIdMap by the packages they reference, for the
+    // package updates
+    static final PackageItemIndex sBgPackageIndex = new PackageItemIndex();
+
+    // sPendingItemUpdates holds the moves which have not been written to the database yet, by item
+    // id. It is guarded by itself rather than sBgLock, as it is written from the UI thread.
+    private static final LinkedHashMap<Long, PendingItemUpdate> sPendingItemUpdates =
+            new LinkedHashMap<Long, PendingItemUpdate>();
+    private static boolean sItemUpdatesFlushScheduled;
+    private static final Runnable sFlushItemUpdates = new Runnable() {
+        @Override
+        public void run() {
+            flushItemUpdates();
+        }
+    };
+
     // sBgWorkspaceItems is passed to bindItems, which expects a list of all folders and shortcuts
     //       created by LauncherModel that are directly on the home screen (however, no widgets or
     //       shortcuts within folders).
@@ -351,32 +426,21 @@ public class LauncherModel extends BroadcastReceiver
         DeviceProfile grid = app.getDynamicGrid().getDeviceProfile();
         final int xCount = (int) grid.numColumns;
         final int yCount = (int) grid.numRows;
-        boolean[][] occupied = new boolean[xCount][yCount];
+        GridOccupancy occupied = new GridOccupancy(xCount, yCount);
         if (occupiedPos != null) {
             for (Rect r : occupiedPos) {
-                for (int x = r.left; 0 <= x && x < r.right && x < xCount; x++) {
-                    for (int y = r.top; 0 <= y && y < r.bottom && y < yCount; y++) {
-                        occupied[x][y] = true;
-                    }
-                }
+                occupied.markCells(r.left, r.top, r.width(), r.height(), true);
             }
         }
-        return CellLayout.findVacantCell(xy, spanX, spanY, xCount, yCount, occupied);
+        return occupied.findVacantCell(xy, spanX, spanY);
     }
 
     /**
-     * Find a position on the screen for the given size or adds a new screen.
-     * @return screenId and the coordinates for the item.
+     * Loads the position of the items which are on the desktop, by screen. We can't use
+     * sBgItemsIdMap because loadWorkspace() may not have been called.
      */
-    @Thunk static Pair<Long, int[]> findSpaceForItem(
-            Context context,
-            ScreenPosProvider preferredScreen,
-            int fallbackStartScreen,
-            ArrayList<Long> workspaceScreens,
-            ArrayList<Long> addedWorkspaceScreensFinal,
-            int spanX, int spanY) {
-        // Load position of items which are on the desktop. We can't use sBgItemsIdMap because
-        // loadWorkspace() may not have been called.
+    @Thunk static LongSparseArray<ArrayList<Rect>> loadScreenItems(Context context) {
+        flushItemUpdates();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
                 new String[] {
@@ -418,7 +482,21 @@ public class LauncherModel extends BroadcastReceiver
         } finally {
             c.close();
         }
+        return screenItems;
+    }
 
+    /**
+     * Find a position on the screen for the given size or adds a new screen. The position is
+     * added to {@param screenItems}, so that it is not used again for the next items.
+     * @return screenId and the coordinates for the item.
+     */
+    @Thunk static Pair<Long, int[]> findSpaceForItem(
+            ScreenPosProvider preferredScreen,
+            int fallbackStartScreen,
+            LongSparseArray<ArrayList<Rect>> screenItems,
+            ArrayList<Long> workspaceScreens,
+            ArrayList<Long> addedWorkspaceScreensFinal,
+            int spanX, int spanY) {
         // Find appropriate space for the item.
         long screenId = 0;
         int[] cordinates = new int[2];
@@ -460,6 +538,14 @@ public class LauncherModel extends BroadcastReceiver
                 throw new RuntimeException("Can't find space to add the item");
             }
         }
+
+        ArrayList<Rect> items = screenItems.get(screenId);
+        if (items == null) {
+            items = new ArrayList<Rect>();
+            screenItems.put(screenId, items);
+        }
+        items.add(new Rect(cordinates[0], cordinates[1],
+                cordinates[0] + spanX, cordinates[1] + spanY));
         return Pair.create(screenId, cordinates);
     }
 
@@ -482,10 +568,9 @@ public class LauncherModel extends BroadcastReceiver
                 ArrayList<Long> workspaceScreens = loadWorkspaceScreensDb(context);
 
                 // Find appropriate space for the item.
-                Pair<Long, int[]> coords = findSpaceForItem(context, preferredScreen,
-                        fallbackStartScreen, workspaceScreens, addedWorkspaceScreensFinal,
-                        addInfo.spanX,
-                        addInfo.spanY);
+                Pair<Long, int[]> coords = findSpaceForItem(preferredScreen,
+                        fallbackStartScreen, loadScreenItems(context), workspaceScreens,
+                        addedWorkspaceScreensFinal, addInfo.spanX, addInfo.spanY);
                 final long screenId = coords.first;
                 final int[] cordinates = coords.second;
 
@@ -532,20 +617,28 @@ public class LauncherModel extends BroadcastReceiver
                 // can not use sBgWorkspaceScreens because loadWorkspace() may not have been
                 // called.
                 ArrayList<Long> workspaceScreens = loadWorkspaceScreensDb(context);
+                // The items are only written once all of them have a position, so the
+                // positions they take are tracked here rather than read back from the db.
+                LongSparseArray<ArrayList<Rect>> screenItems = loadScreenItems(context);
+                HashSet<String> addedShortcuts = new HashSet<String>();
                 synchronized(sBgLock) {
                     for (ItemInfo item : workspaceApps) {
                         if (!allowDuplicate && item instanceof ShortcutInfo) {
-                            // Short-circuit this logic if the icon exists somewhere on the workspace
+                            // Short-circuit this logic if the icon exists somewhere on the
+                            // workspace, or is already part of this batch
+                            String key = item.title + "|" + item.getIntent().toUri(0) + "|"
+                                    + item.user;
                             if (shortcutExists(context, item.title.toString(),
-                                    item.getIntent(), item.user)) {
+                                    item.getIntent(), item.user)
+                                    || !addedShortcuts.add(key)) {
                                 continue;
                             }
                         }
 
                         // Find appropriate space for the item.
-                        Pair<Long, int[]> coords = findSpaceForItem(context, preferredScreen,
-                                fallbackStartScreen, workspaceScreens, addedWorkspaceScreensFinal,
-                                1, 1);
+                        Pair<Long, int[]> coords = findSpaceForItem(preferredScreen,
+                                fallbackStartScreen, screenItems, workspaceScreens,
+                                addedWorkspaceScreensFinal, 1, 1);
                         long screenId = coords.first;
                         int[] cordinates = coords.second;
 
@@ -558,13 +651,16 @@ public class LauncherModel extends BroadcastReceiver
                             throw new RuntimeException("Unexpected info type");
                         }
 
-                        // Add the shortcut to the db
-                        addItemToDatabase(context, itemInfo,
-                                LauncherSettings.Favorites.CONTAINER_DESKTOP,
-                                screenId, cordinates[0], cordinates[1]);
+                        itemInfo.container = LauncherSettings.Favorites.CONTAINER_DESKTOP;
+                        itemInfo.screenId = screenId;
+                        itemInfo.cellX = cordinates[0];
+                        itemInfo.cellY = cordinates[1];
                         // Save the ShortcutInfo for binding in the workspace
                         addedShortcutsFinal.add(itemInfo);
                     }
+
+                    // Add the shortcuts to the db
+                    addItemsToDatabase(context, addedShortcutsFinal);
                 }
 
                 // Update the workspace screens
@@ -726,34 +822,98 @@ public class LauncherModel extends BroadcastReceiver
         runOnWorkerThread(r);
     }
 
-    static void updateItemsInDatabaseHelper(Context context, final ArrayList<ContentValues> valuesList,
-            final ArrayList<ItemInfo> items, final String callingFunction) {
-        final ContentResolver cr = context.getContentResolver();
+    /**
+     * The values of an item which have not been written to the database yet.
+     */
+    private static class PendingItemUpdate {
+        final ItemInfo item;
+        final ContentValues values = new ContentValues();
+        StackTraceElement[] stackTrace;
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        Runnable r = new Runnable() {
-            public void run() {
-                ArrayList<ContentProviderOperation> ops =
-                        new ArrayList<ContentProviderOperation>();
-                int count = items.size();
-                for (int i = 0; i < count; i++) {
-                    ItemInfo item = items.get(i);
-                    final long itemId = item.id;
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(itemId);
-                    ContentValues values = valuesList.get(i);
+        PendingItemUpdate(ItemInfo item) {
+            this.item = item;
+        }
+    }
 
-                    ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                    updateItemArrays(item, itemId, stackTrace);
+    /**
+     * Writes {@param values} to the row of {@param item} later, along with the other updates
+     * received within {@link #ITEM_UPDATES_WINDOW_MS}. The updates of the same item are merged
+     * into one, and all the updates are written in a single transaction, so that the moves of a
+     * reorder animation do not write the same rows over and over.
+     */
+    private static void journalItemUpdate(ContentValues values, ItemInfo item,
+            StackTraceElement[] stackTrace) {
+        synchronized (sPendingItemUpdates) {
+            PendingItemUpdate update = sPendingItemUpdates.get(item.id);
+            if (update == null) {
+                update = new PendingItemUpdate(item);
+                sPendingItemUpdates.put(item.id, update);
+            }
+            update.values.putAll(values);
+            update.stackTrace = stackTrace;
 
-                }
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            if (!sItemUpdatesFlushScheduled) {
+                sItemUpdatesFlushScheduled = true;
+                sWorker.postDelayed(sFlushItemUpdates, ITEM_UPDATES_WINDOW_MS);
             }
-        };
-        runOnWorkerThread(r);
+        }
+    }
+
+    /**
+     * Drops the pending updates of the items about to be deleted.
+     */
+    private static void cancelItemUpdates(Collection<? extends ItemInfo> items) {
+        synchronized (sPendingItemUpdates) {
+            for (ItemInfo item : items) {
+                sPendingItemUpdates.remove(item.id);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending updates of the items now, e.g. because the launcher is paused and may
+     * be killed.
+     */
+    public static void commitItemUpdates() {
+        synchronized (sPendingItemUpdates) {
+            if (!sItemUpdatesFlushScheduled) {
+                return;
+            }
+            sWorker.removeCallbacks(sFlushItemUpdates);
+            sWorker.post(sFlushItemUpdates);
+        }
+    }
+
+    /**
+     * Writes the pending updates of the items. Must be called on the worker thread, before
+     * reading the positions of the items from the database.
+     */
+    @Thunk static void flushItemUpdates() {
+        final ArrayList<PendingItemUpdate> updates;
+        synchronized (sPendingItemUpdates) {
+            sItemUpdatesFlushScheduled = false;
+            if (sPendingItemUpdates.isEmpty()) {
+                return;
+            }
+            updates = new ArrayList<PendingItemUpdate>(sPendingItemUpdates.values());
+            sPendingItemUpdates.clear();
+        }
+
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(updates.size());
+        for (PendingItemUpdate update : updates) {
+            final Uri uri = LauncherSettings.Favorites.getContentUri(update.item.id);
+            ops.add(ContentProviderOperation.newUpdate(uri).withValues(update.values).build());
+        }
+        try {
+            LauncherAppState.getInstance().getContext().getContentResolver()
+                    .applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to write the moved items", e);
+        }
+        for (PendingItemUpdate update : updates) {
+            updateItemArrays(update.item, update.item.id, update.stackTrace);
+        }
     }
 
     static void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
@@ -777,6 +937,10 @@ public class LauncherModel extends BroadcastReceiver
             // as in Workspace.onDrop. Here, we just add/remove them from the list of items
             // that are on the desktop, as appropriate
             ItemInfo modelItem = sBgItemsIdMap.get(itemId);
+            if (modelItem != null) {
+                // The update may have changed the target of the item
+                sBgPackageIndex.add(modelItem);
+            }
             if (modelItem != null &&
                     (modelItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
                      modelItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT)) {
@@ -822,7 +986,7 @@ public class LauncherModel extends BroadcastReceiver
         values.put(LauncherSettings.Favorites.RANK, item.rank);
         values.put(LauncherSettings.Favorites.SCREEN, item.screenId);
 
-        updateItemInDatabaseHelper(context, values, item, "moveItemInDatabase");
+        journalItemUpdate(values, item, new Throwable().getStackTrace());
     }
 
     /**
@@ -831,8 +995,7 @@ public class LauncherModel extends BroadcastReceiver
      */
     static void moveItemsInDatabase(Context context, final ArrayList<ItemInfo> items,
             final long container, final int screen) {
-
-        ArrayList<ContentValues> contentValues = new ArrayList<ContentValues>();
+        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
@@ -856,9 +1019,8 @@ public class LauncherModel extends BroadcastReceiver
             values.put(LauncherSettings.Favorites.RANK, item.rank);
             values.put(LauncherSettings.Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            journalItemUpdate(values, item, stackTrace);
         }
-        updateItemsInDatabaseHelper(context, contentValues, items, "moveItemInDatabase");
     }
 
     /**
@@ -890,7 +1052,7 @@ public class LauncherModel extends BroadcastReceiver
         values.put(LauncherSettings.Favorites.SPANY, item.spanY);
         values.put(LauncherSettings.Favorites.SCREEN, item.screenId);
 
-        updateItemInDatabaseHelper(context, values, item, "modifyItemInDatabase");
+        journalItemUpdate(values, item, new Throwable().getStackTrace());
     }
 
     /**
@@ -1016,29 +1178,45 @@ public class LauncherModel extends BroadcastReceiver
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
-                    checkItemInfoLocked(item.id, item, stackTrace);
-                    sBgItemsIdMap.put(item.id, item);
-                    switch (item.itemType) {
-                        case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                            sBgFolders.put(item.id, (FolderInfo) item);
-                            // Fall through
-                        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                            if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
-                                    item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                                sBgWorkspaceItems.add(item);
-                            } else {
-                                if (!sBgFolders.containsKey(item.container)) {
-                                    // Adding an item to a folder that doesn't exist.
-                                    String msg = "adding item: " + item + " to a folder that " +
-                                            " doesn't exist";
-                                    Log.e(TAG, msg);
-                                }
-                            }
-                            break;
-                        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
-                            sBgAppWidgets.add((LauncherAppWidgetInfo) item);
-                            break;
+                    addItemToBgDataLocked(item, stackTrace);
+                }
+            }
+        };
+        runOnWorkerThread(r);
+    }
+
+    /**
+     * Adds items to the database in a single transaction, with a single change notification.
+     * The container, screen, cellX and cellY fields of the items must already be set. Also
+     * assigns an ID to the items.
+     */
+    public static void addItemsToDatabase(Context context,
+            final ArrayList<? extends ItemInfo> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final LauncherProvider provider = LauncherAppState.getLauncherProvider();
+        final LauncherProvider.ItemOps ops = new LauncherProvider.ItemOps();
+        for (ItemInfo item : items) {
+            ContentValues values = new ContentValues();
+            item.onAddToDatabase(context, values);
+            item.id = provider.generateNewItemId();
+            values.put(LauncherSettings.Favorites._ID, item.id);
+            ops.insert(values);
+        }
+
+        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        Runnable r = new Runnable() {
+            public void run() {
+                if (provider.applyItemOps(ops) == null) {
+                    Log.e(TAG, "Unable to add " + items.size() + " items to the database");
+                    return;
+                }
+
+                // Lock on mBgLock *after* the db operation
+                synchronized (sBgLock) {
+                    for (ItemInfo item : items) {
+                        addItemToBgDataLocked(item, stackTrace);
                     }
                 }
             }
@@ -1046,6 +1224,37 @@ public class LauncherModel extends BroadcastReceiver
         runOnWorkerThread(r);
     }
 
+    /**
+     * Adds an item which was just inserted in the database to the bg data structures.
+     */
+    @Thunk static void addItemToBgDataLocked(ItemInfo item, StackTraceElement[] stackTrace) {
+        checkItemInfoLocked(item.id, item, stackTrace);
+        sBgItemsIdMap.put(item.id, item);
+        sBgPackageIndex.add(item);
+        switch (item.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                sBgFolders.put(item.id, (FolderInfo) item);
+                // Fall through
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
+                        item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                    sBgWorkspaceItems.add(item);
+                } else {
+                    if (!sBgFolders.containsKey(item.container)) {
+                        // Adding an item to a folder that doesn't exist.
+                        String msg = "adding item: " + item + " to a folder that " +
+                                " doesn't exist";
+                        Log.e(TAG, msg);
+                    }
+                }
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                sBgAppWidgets.add((LauncherAppWidgetInfo) item);
+                break;
+        }
+    }
+
     /**
      * Creates a new unique child id, for a given cell span across all layouts.
      */
@@ -1063,7 +1272,11 @@ public class LauncherModel extends BroadcastReceiver
                 return cn.getPackageName().equals(pn) && info.user.equals(user);
             }
         };
-        return filterItemInfos(sBgItemsIdMap.values(), filter);
+        ArrayList<ItemInfo> items;
+        synchronized (sBgLock) {
+            items = sBgPackageIndex.getItems(pn, user);
+        }
+        return filterItemInfos(items, filter);
     }
 
     /**
@@ -1092,6 +1305,7 @@ public class LauncherModel extends BroadcastReceiver
      */
     static void deleteItemsFromDatabase(Context context, final ArrayList<? extends ItemInfo> items) {
         final ContentResolver cr = context.getContentResolver();
+        cancelItemUpdates(items);
         Runnable r = new Runnable() {
             public void run() {
                 for (ItemInfo item : items) {
@@ -1123,6 +1337,7 @@ public class LauncherModel extends BroadcastReceiver
                                 break;
                         }
                         sBgItemsIdMap.remove(item.id);
+                        sBgPackageIndex.remove(item);
                     }
                 }
             }
@@ -1187,6 +1402,8 @@ public class LauncherModel extends BroadcastReceiver
      */
     public static void deleteFolderContentsFromDatabase(Context context, final FolderInfo info) {
         final ContentResolver cr = context.getContentResolver();
+        cancelItemUpdates(info.contents);
+        cancelItemUpdates(Collections.singletonList(info));
 
         Runnable r = new Runnable() {
             public void run() {
@@ -1204,6 +1421,7 @@ public class LauncherModel extends BroadcastReceiver
                 synchronized (sBgLock) {
                     for (ItemInfo childInfo : info.contents) {
                         sBgItemsIdMap.remove(childInfo.id);
+                        sBgPackageIndex.remove(childInfo);
                     }
                 }
             }
@@ -1416,6 +1634,45 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Writes the {@link WorkspaceSnapshot} used by the next cold start, if the database changed
+     * since the last snapshot was written.
+     */
+    public void saveWorkspaceSnapshot() {
+        if (!USE_WORKSPACE_SNAPSHOT) {
+            return;
+        }
+        // Always post, so that the snapshot is never written in the middle of a load.
+        sWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                saveWorkspaceSnapshotIfStale();
+            }
+        });
+    }
+
+    @Thunk void saveWorkspaceSnapshotIfStale() {
+        if (!mWorkspaceLoaded) {
+            return;
+        }
+        final LauncherProvider provider = LauncherAppState.getLauncherProvider();
+        final long generation = provider.getDbGeneration();
+        if (generation == mSnapshotGeneration) {
+            return;
+        }
+
+        final ArrayList<Long> screenIds;
+        final ArrayList<ItemInfo> items;
+        synchronized (sBgLock) {
+            screenIds = new ArrayList<Long>(sBgWorkspaceScreens);
+            items = new ArrayList<ItemInfo>(sBgItemsIdMap.values());
+        }
+        if (WorkspaceSnapshot.write(mApp.getContext(), mIconCache, generation,
+                provider.getMaxItemId(), screenIds, items)) {
+            mSnapshotGeneration = generation;
+        }
+    }
+
     /**
      * Loads the workspace screen ids in an ordered list.
      */
@@ -1470,6 +1727,16 @@ public class LauncherModel extends BroadcastReceiver
         @Thunk boolean mLoadAndBindStepFinished;
         private int mFlags;
 
+        // The items and screens already bound by loadWorkspace() when binding the current page
+        // first, so that bindWorkspace() only needs to bind the remaining items.
+        private WorkspaceLoadState mFirstPageItems;
+        private ArrayList<Long> mFirstPageScreenIds;
+
+        // Whether each hotseat rank is taken by the all apps button, or null if the launcher is
+        // gone. Read from the callbacks once per load, before the rows are resolved on the shard
+        // threads.
+        private boolean[] mAllAppsButtonRanks;
+
         LoaderTask(Context context, boolean isLaunching, int flags) {
             mContext = context;
             mIsLaunching = isLaunching;
@@ -1493,19 +1760,74 @@ public class LauncherModel extends BroadcastReceiver
             }
 
             if (!mWorkspaceLoaded) {
-                loadWorkspace();
+                final Callbacks callbacks = mCallbacks.get();
+                int firstPage = BIND_CURRENT_PAGE_FIRST && callbacks != null
+                        ? callbacks.getCurrentWorkspaceScreen() : PagedView.INVALID_RESTORE_PAGE;
+                if (USE_WORKSPACE_SNAPSHOT && bindWorkspaceSnapshot()) {
+                    // Every page is already on screen, rebind all of them once loaded.
+                    firstPage = PagedView.INVALID_RESTORE_PAGE;
+                }
+                loadWorkspace(firstPage);
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
                     }
                     mWorkspaceLoaded = true;
                 }
+                saveWorkspaceSnapshot();
             }
 
             // Bind the workspace
             bindWorkspace(-1);
         }
 
+        /**
+         * Binds the {@link WorkspaceSnapshot} written by a previous process, so that the
+         * workspace shows up before the database has been read. The workspace stays locked until
+         * {@link #bindWorkspace} replaces these items with the loaded ones.
+         *
+         * @return whether a snapshot was bound.
+         */
+        private boolean bindWorkspaceSnapshot() {
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null || mFlags != LOADER_FLAG_NONE) {
+                return false;
+            }
+            synchronized (sBgLock) {
+                // Only used on a cold start, reloads in the same process are not worth it.
+                if (!sBgItemsIdMap.isEmpty()) {
+                    return false;
+                }
+            }
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final LauncherProvider provider = LauncherAppState.getLauncherProvider();
+            final WorkspaceSnapshot snapshot = WorkspaceSnapshot.read(mContext, mIconCache,
+                    provider.getDbGeneration(), provider.getMaxItemId());
+            if (snapshot == null || mStopped) {
+                return false;
+            }
+
+            final ArrayList<ItemInfo> workspaceItems = snapshot.workspaceItems;
+            sortWorkspaceItemsSpatially(workspaceItems);
+            Runnable r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.startBinding();
+                    }
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+            bindWorkspaceScreens(oldCallbacks, snapshot.screenIds);
+            bindWorkspaceItems(oldCallbacks, workspaceItems,
+                    new ArrayList<LauncherAppWidgetInfo>(), snapshot.folders, null);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "bound " + workspaceItems.size() + " workspace items from snapshot in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            return true;
+        }
+
         private void waitForIdle() {
             // Wait until the either we're stopped or the other threads are done.
             // This way we don't start loading all apps until the workspace has settled
@@ -1674,6 +1996,22 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
+        /**
+         * Returns whether each hotseat rank is taken by the all apps button, or null if there is
+         * no launcher. Must be called on the loader thread.
+         */
+        private boolean[] getAllAppsButtonRanks(DeviceProfile grid) {
+            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+            if (callbacks == null) {
+                return null;
+            }
+            final boolean[] ranks = new boolean[(int) grid.numHotseatIcons];
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = callbacks.isAllAppsButtonRank(i);
+            }
+            return ranks;
+        }
+
         // check & update map of what's occupied; used to discard overlapping/invalid items
         private boolean checkItemPlacement(HashMap<Long, ItemInfo[][]> occupied, ItemInfo item) {
             LauncherAppState app = LauncherAppState.getInstance();
@@ -1684,8 +2022,10 @@ public class LauncherModel extends BroadcastReceiver
             long containerIndex = item.screenId;
             if (item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                 // Return early if we detect that an item is under the hotseat button
-                if (mCallbacks == null ||
-                        mCallbacks.get().isAllAppsButtonRank((int) item.screenId)) {
+                final boolean[] allAppsButtonRanks = mAllAppsButtonRanks;
+                if (allAppsButtonRanks == null || (item.screenId >= 0
+                        && item.screenId < allAppsButtonRanks.length
+                        && allAppsButtonRanks[(int) item.screenId])) {
                     Log.e(TAG, "Error loading shortcut into hotseat " + item
                             + " into position (" + item.screenId + ":" + item.cellX + ","
                             + item.cellY + ") occupied by all apps");
@@ -1771,14 +2111,23 @@ public class LauncherModel extends BroadcastReceiver
                 sBgAppWidgets.clear();
                 sBgFolders.clear();
                 sBgItemsIdMap.clear();
+                sBgPackageIndex.clear();
                 sBgWorkspaceScreens.clear();
             }
         }
 
-        private void loadWorkspace() {
+        /**
+         * Loads the workspace into the sBg data structures.
+         * @param firstPage if valid, the index of the page whose items, along with the hotseat,
+         *                  are loaded and bound before reading the rest of the workspace.
+         */
+        private void loadWorkspace(int firstPage) {
             // Log to disk
             Launcher.addDumpLog(TAG, "11683562 - loadWorkspace()", true);
 
+            // The pending moves need to be in the database before it is read
+            flushItemUpdates();
+
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
             final Context context = mContext;
@@ -1793,6 +2142,7 @@ public class LauncherModel extends BroadcastReceiver
             DeviceProfile grid = app.getDynamicGrid().getDeviceProfile();
             int countX = (int) grid.numColumns;
             int countY = (int) grid.numRows;
+            mAllAppsButtonRanks = getAllAppsButtonRanks(grid);
 
             if ((mFlags & LOADER_FLAG_CLEAR_WORKSPACE) != 0) {
                 Launcher.addDumpLog(TAG, "loadWorkspace: resetting launcher database", true);
@@ -1809,500 +2159,127 @@ public class LauncherModel extends BroadcastReceiver
                 LauncherAppState.getLauncherProvider().loadDefaultFavoritesIfNecessary();
             }
 
+            final HashSet<String> installingPkgs = PackageInstallerCompat
+                    .getInstance(mContext).updateAndGetActiveSessionCache();
+            final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI;
+            if (DEBUG_LOADERS) Log.d(TAG, "loading model from " + contentUri);
+
+            // Load and bind the items on the first page before reading any other row, and only
+            // query the remaining rows below.
+            String selection = null;
+            WorkspaceLoadState firstPageItems = null;
+            final ArrayList<Long> firstPageScreenIds = firstPage < 0
+                    ? null : loadNonEmptyWorkspaceScreens(context);
+            if (firstPageScreenIds != null && firstPage < firstPageScreenIds.size()) {
+                final long firstScreenId = firstPageScreenIds.get(firstPage);
+                final String firstPageSelection = getPageSelection(firstScreenId);
+                firstPageItems = new WorkspaceLoadState();
+                final Cursor c = contentResolver.query(contentUri, null, firstPageSelection,
+                        null, null);
+                try {
+                    loadWorkspaceRows(c, firstPageItems, manager, launcherApps, installingPkgs,
+                            isSafeMode, isSdCardReady);
+                } finally {
+                    if (c != null) {
+                        c.close();
+                    }
+                }
+                if (mStopped) {
+                    return;
+                }
+                bindFirstWorkspacePage(firstPage, firstPageScreenIds, firstPageItems);
+                // Comparisons with a NULL screen are NULL rather than false, and NOT would drop
+                // those rows.
+                selection = "NOT COALESCE((" + firstPageSelection + "), 0)";
+            }
+
+            // When loading in parallel, the rows are resolved before taking sBgLock so that only
+            // the final merge blocks other users of the bg data structures. If a shard fails, the
+            // rows are loaded serially below.
+            ArrayList<WorkspaceLoadState> shardStates = null;
+            if (LOAD_WORKSPACE_IN_PARALLEL) {
+                final Cursor c = contentResolver.query(contentUri, null, selection, null,
+                        null);
+                try {
+                    shardStates = loadWorkspaceShards(readWorkspaceShards(c), manager,
+                            launcherApps, installingPkgs, isSafeMode, isSdCardReady);
+                } finally {
+                    if (c != null) {
+                        c.close();
+                    }
+                }
+            }
+
             synchronized (sBgLock) {
                 clearSBgDataStructures();
-                final HashSet<String> installingPkgs = PackageInstallerCompat
-                        .getInstance(mContext).updateAndGetActiveSessionCache();
-
-                final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
-                final ArrayList<Long> restoredRows = new ArrayList<Long>();
-                final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI;
-                if (DEBUG_LOADERS) Log.d(TAG, "loading model from " + contentUri);
-                final Cursor c = contentResolver.query(contentUri, null, null, null, null);
 
                 // +1 for the hotseat (it can be larger than the workspace)
                 // Load workspace in reverse order to ensure that latest items are loaded first (and
                 // before any earlier duplicates)
-                final HashMap<Long, ItemInfo[][]> occupied = new HashMap<Long, ItemInfo[][]>();
-
-                try {
-                    final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
-                    final int intentIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.INTENT);
-                    final int titleIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.TITLE);
-                    final int iconTypeIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.ICON_TYPE);
-                    final int iconIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
-                    final int iconPackageIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.ICON_PACKAGE);
-                    final int iconResourceIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.ICON_RESOURCE);
-                    final int containerIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.CONTAINER);
-                    final int itemTypeIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.ITEM_TYPE);
-                    final int appWidgetIdIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.APPWIDGET_ID);
-                    final int appWidgetProviderIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.APPWIDGET_PROVIDER);
-                    final int screenIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.SCREEN);
-                    final int cellXIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.CELLX);
-                    final int cellYIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.CELLY);
-                    final int spanXIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.SPANX);
-                    final int spanYIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.SPANY);
-                    final int rankIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.RANK);
-                    final int restoredIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.RESTORED);
-                    final int profileIdIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.PROFILE_ID);
-                    final int optionsIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.OPTIONS);
-
-                    ShortcutInfo info;
-                    String intentDescription;
-                    LauncherAppWidgetInfo appWidgetInfo;
-                    int container;
-                    long id;
-                    long serialNumber;
-                    Intent intent;
-                    UserHandleCompat user;
-
-                    while (!mStopped && c.moveToNext()) {
+                final WorkspaceLoadState state = new WorkspaceLoadState(sBgItemsIdMap,
+                        sBgWorkspaceItems, sBgAppWidgets, sBgFolders, sPendingPackages);
+                if (firstPageItems != null) {
+                    if (shardStates == null) {
+                        // Resolve the remaining rows on their own like a shard, so that they are
+                        // merged without touching the folders already bound.
+                        final WorkspaceLoadState remainingItems = new WorkspaceLoadState();
+                        final Cursor c = contentResolver.query(contentUri, null, selection,
+                                null, null);
                         try {
-                            int itemType = c.getInt(itemTypeIndex);
-                            boolean restored = 0 != c.getInt(restoredIndex);
-                            boolean allowMissingTarget = false;
+                            loadWorkspaceRows(c, remainingItems, manager, launcherApps,
+                                    installingPkgs, isSafeMode, isSdCardReady);
+                        } finally {
+                            if (c != null) {
+                                c.close();
+                            }
+                        }
+                        shardStates = new ArrayList<WorkspaceLoadState>();
+                        shardStates.add(remainingItems);
+                    }
+                    shardStates.add(firstPageItems);
+                }
+                if (shardStates != null) {
+                    state.merge(shardStates, firstPageItems);
+                } else {
+                    final Cursor c = contentResolver.query(contentUri, null, selection, null,
+                            null);
+                    try {
+                        loadWorkspaceRows(c, state, manager, launcherApps, installingPkgs,
+                                isSafeMode, isSdCardReady);
+                    } finally {
+                        if (c != null) {
+                            c.close();
+                        }
+                    }
+                }
+                final ArrayList<Long> itemsToRemove = state.itemsToRemove;
+                final ArrayList<Long> restoredRows = state.restoredRows;
+                final HashMap<Long, ItemInfo[][]> occupied = state.occupied;
 
-                            switch (itemType) {
-                            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                                id = c.getLong(idIndex);
-                                intentDescription = c.getString(intentIndex);
-                                serialNumber = c.getInt(profileIdIndex);
-                                user = mUserManager.getUserForSerialNumber(serialNumber);
-                                int promiseType = c.getInt(restoredIndex);
-                                int disabledState = 0;
-                                boolean itemReplaced = false;
-                                if (user == null) {
-                                    // User has been deleted remove the item.
-                                    itemsToRemove.add(id);
-                                    continue;
-                                }
-                                try {
-                                    intent = Intent.parseUri(intentDescription, 0);
-                                    ComponentName cn = intent.getComponent();
-                                    if (cn != null && cn.getPackageName() != null) {
-                                        boolean validPkg = launcherApps.isPackageEnabledForProfile(
-                                                cn.getPackageName(), user);
-                                        boolean validComponent = validPkg &&
-                                                launcherApps.isActivityEnabledForProfile(cn, user);
-
-                                        if (validComponent) {
-                                            if (restored) {
-                                                // no special handling necessary for this item
-                                                restoredRows.add(id);
-                                                restored = false;
-                                            }
-                                        } else if (validPkg) {
-                                            intent = null;
-                                            if ((promiseType & ShortcutInfo.FLAG_AUTOINTALL_ICON) != 0) {
-                                                // We allow auto install apps to have their intent
-                                                // updated after an install.
-                                                intent = manager.getLaunchIntentForPackage(
-                                                        cn.getPackageName());
-                                                if (intent != null) {
-                                                    ContentValues values = new ContentValues();
-                                                    values.put(LauncherSettings.Favorites.INTENT,
-                                                            intent.toUri(0));
-                                                    updateItem(id, values);
-                                                }
-                                            }
-
-                                            if (intent == null) {
-                                                // The app is installed but the component is no
-                                                // longer available.
-                                                Launcher.addDumpLog(TAG,
-                                                        "Invalid component removed: " + cn, true);
-                                                itemsToRemove.add(id);
-                                                continue;
-                                            } else {
-                                                // no special handling necessary for this item
-                                                restoredRows.add(id);
-                                                restored = false;
-                                            }
-                                        } else if (restored) {
-                                            // Package is not yet available but might be
-                                            // installed later.
-                                            Launcher.addDumpLog(TAG,
-                                                    "package not yet restored: " + cn, true);
-
-                                            if ((promiseType & ShortcutInfo.FLAG_RESTORE_STARTED) != 0) {
-                                                // Restore has started once.
-                                            } else if (installingPkgs.contains(cn.getPackageName())) {
-                                                // App restore has started. Update the flag
-                                                promiseType |= ShortcutInfo.FLAG_RESTORE_STARTED;
-                                                ContentValues values = new ContentValues();
-                                                values.put(LauncherSettings.Favorites.RESTORED,
-                                                        promiseType);
-                                                updateItem(id, values);
-                                            } else if ((promiseType & ShortcutInfo.FLAG_RESTORED_APP_TYPE) != 0) {
-                                                // This is a common app. Try to replace this.
-                                                int appType = CommonAppTypeParser.decodeItemTypeFromFlag(promiseType);
-                                                CommonAppTypeParser parser = new CommonAppTypeParser(id, appType, context);
-                                                if (parser.findDefaultApp()) {
-                                                    // Default app found. Replace it.
-                                                    intent = parser.parsedIntent;
-                                                    cn = intent.getComponent();
-                                                    ContentValues values = parser.parsedValues;
-                                                    values.put(LauncherSettings.Favorites.RESTORED, 0);
-                                                    updateItem(id, values);
-                                                    restored = false;
-                                                    itemReplaced = true;
-
-                                                } else if (REMOVE_UNRESTORED_ICONS) {
-                                                    Launcher.addDumpLog(TAG,
-                                                            "Unrestored package removed: " + cn, true);
-                                                    itemsToRemove.add(id);
-                                                    continue;
-                                                }
-                                            } else if (REMOVE_UNRESTORED_ICONS) {
-                                                Launcher.addDumpLog(TAG,
-                                                        "Unrestored package removed: " + cn, true);
-                                                itemsToRemove.add(id);
-                                                continue;
-                                            }
-                                        } else if (launcherApps.isAppEnabled(
-                                                manager, cn.getPackageName(),
-                                                PackageManager.GET_UNINSTALLED_PACKAGES)) {
-                                            // Package is present but not available.
-                                            allowMissingTarget = true;
-                                            disabledState = ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
-                                        } else if (!isSdCardReady) {
-                                            // SdCard is not ready yet. Package might get available,
-                                            // once it is ready.
-                                            Launcher.addDumpLog(TAG, "Invalid package: " + cn
-                                                    + " (check again later)", true);
-                                            HashSet<String> pkgs = sPendingPackages.get(user);
-                                            if (pkgs == null) {
-                                                pkgs = new HashSet<String>();
-                                                sPendingPackages.put(user, pkgs);
-                                            }
-                                            pkgs.add(cn.getPackageName());
-                                            allowMissingTarget = true;
-                                            // Add the icon on the workspace anyway.
+                // Break early if we've stopped loading
+                if (mStopped) {
+                    clearSBgDataStructures();
+                    return;
+                }
 
-                                        } else {
-                                            // Do not wait for external media load anymore.
-                                            // Log the invalid package, and remove it
-                                            Launcher.addDumpLog(TAG,
-                                                    "Invalid package removed: " + cn, true);
-                                            itemsToRemove.add(id);
-                                            continue;
-                                        }
-                                    } else if (cn == null) {
-                                        // For shortcuts with no component, keep them as they are
-                                        restoredRows.add(id);
-                                        restored = false;
-                                    }
-                                } catch (URISyntaxException e) {
-                                    Launcher.addDumpLog(TAG,
-                                            "Invalid uri: " + intentDescription, true);
-                                    continue;
-                                }
+                sBgPackageIndex.rebuild(sBgItemsIdMap.values());
 
-                                container = c.getInt(containerIndex);
-                                boolean useLowResIcon = container >= 0 &&
-                                        c.getInt(rankIndex) >= FolderIcon.NUM_ITEMS_IN_PREVIEW;
-
-                                if (itemReplaced) {
-                                    if (user.equals(UserHandleCompat.myUserHandle())) {
-                                        info = getAppShortcutInfo(manager, intent, user, context, null,
-                                                iconIndex, titleIndex, false, useLowResIcon);
-                                    } else {
-                                        // Don't replace items for other profiles.
-                                        itemsToRemove.add(id);
-                                        continue;
-                                    }
-                                } else if (restored) {
-                                    if (user.equals(UserHandleCompat.myUserHandle())) {
-                                        Launcher.addDumpLog(TAG,
-                                                "constructing info for partially restored package",
-                                                true);
-                                        info = getRestoredItemInfo(c, titleIndex, intent,
-                                                promiseType, useLowResIcon);
-                                        intent = getRestoredItemIntent(c, context, intent);
-                                    } else {
-                                        // Don't restore items for other profiles.
-                                        itemsToRemove.add(id);
-                                        continue;
-                                    }
-                                } else if (itemType ==
-                                        LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                    info = getAppShortcutInfo(manager, intent, user, context, c,
-                                            iconIndex, titleIndex, allowMissingTarget, useLowResIcon);
-                                } else {
-                                    info = getShortcutInfo(c, context, iconTypeIndex,
-                                            iconPackageIndex, iconResourceIndex, iconIndex,
-                                            titleIndex);
-
-                                    // App shortcuts that used to be automatically added to Launcher
-                                    // didn't always have the correct intent flags set, so do that
-                                    // here
-                                    if (intent.getAction() != null &&
-                                        intent.getCategories() != null &&
-                                        intent.getAction().equals(Intent.ACTION_MAIN) &&
-                                        intent.getCategories().contains(Intent.CATEGORY_LAUNCHER)) {
-                                        intent.addFlags(
-                                            Intent.FLAG_ACTIVITY_NEW_TASK |
-                                            Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-                                    }
-                                }
-
-                                if (info != null) {
-                                    info.id = id;
-                                    info.intent = intent;
-                                    info.container = container;
-                                    info.screenId = c.getInt(screenIndex);
-                                    info.cellX = c.getInt(cellXIndex);
-                                    info.cellY = c.getInt(cellYIndex);
-                                    info.rank = c.getInt(rankIndex);
-                                    info.spanX = 1;
-                                    info.spanY = 1;
-                                    info.intent.putExtra(ItemInfo.EXTRA_PROFILE, serialNumber);
-                                    info.isDisabled = disabledState;
-                                    if (isSafeMode && !Utilities.isSystemApp(context, intent)) {
-                                        info.isDisabled |= ShortcutInfo.FLAG_DISABLED_SAFEMODE;
-                                    }
-
-                                    // check & update map of what's occupied
-                                    if (!checkItemPlacement(occupied, info)) {
-                                        itemsToRemove.add(id);
-                                        break;
-                                    }
-
-                                    switch (container) {
-                                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                    case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                        sBgWorkspaceItems.add(info);
-                                        break;
-                                    default:
-                                        // Item is in a user folder
-                                        FolderInfo folderInfo =
-                                                findOrMakeFolder(sBgFolders, container);
-                                        folderInfo.add(info);
-                                        break;
-                                    }
-                                    sBgItemsIdMap.put(info.id, info);
-                                } else {
-                                    throw new RuntimeException("Unexpected null ShortcutInfo");
-                                }
-                                break;
-
-                            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                                id = c.getLong(idIndex);
-                                FolderInfo folderInfo = findOrMakeFolder(sBgFolders, id);
-
-                                folderInfo.title = c.getString(titleIndex);
-                                folderInfo.id = id;
-                                container = c.getInt(containerIndex);
-                                folderInfo.container = container;
-                                folderInfo.screenId = c.getInt(screenIndex);
-                                folderInfo.cellX = c.getInt(cellXIndex);
-                                folderInfo.cellY = c.getInt(cellYIndex);
-                                folderInfo.spanX = 1;
-                                folderInfo.spanY = 1;
-                                folderInfo.options = c.getInt(optionsIndex);
-
-                                // check & update map of what's occupied
-                                if (!checkItemPlacement(occupied, folderInfo)) {
-                                    itemsToRemove.add(id);
-                                    break;
-                                }
-
-                                switch (container) {
-                                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                    case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                        sBgWorkspaceItems.add(folderInfo);
-                                        break;
-                                }
-
-                                if (restored) {
-                                    // no special handling required for restored folders
-                                    restoredRows.add(id);
-                                }
-
-                                sBgItemsIdMap.put(folderInfo.id, folderInfo);
-                                sBgFolders.put(folderInfo.id, folderInfo);
-                                break;
-
-                            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
-                            case LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
-                                // Read all Launcher-specific widget details
-                                boolean customWidget = itemType ==
-                                    LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET;
-
-                                int appWidgetId = c.getInt(appWidgetIdIndex);
-                                serialNumber= c.getLong(profileIdIndex);
-                                String savedProvider = c.getString(appWidgetProviderIndex);
-                                id = c.getLong(idIndex);
-                                final ComponentName component =
-                                        ComponentName.unflattenFromString(savedProvider);
-
-                                final int restoreStatus = c.getInt(restoredIndex);
-                                final boolean isIdValid = (restoreStatus &
-                                        LauncherAppWidgetInfo.FLAG_ID_NOT_VALID) == 0;
-
-                                final boolean wasProviderReady = (restoreStatus &
-                                        LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY) == 0;
-
-                                final LauncherAppWidgetProviderInfo provider =
-                                        LauncherModel.getProviderInfo(context,
-                                                ComponentName.unflattenFromString(savedProvider),
-                                                mUserManager.getUserForSerialNumber(serialNumber));
-
-                                final boolean isProviderReady = isValidProvider(provider);
-                                if (!isSafeMode && !customWidget &&
-                                        wasProviderReady && !isProviderReady) {
-                                    String log = "Deleting widget that isn't installed anymore: "
-                                            + "id=" + id + " appWidgetId=" + appWidgetId;
-
-                                    Log.e(TAG, log);
-                                    Launcher.addDumpLog(TAG, log, false);
-                                    itemsToRemove.add(id);
-                                } else {
-                                    if (isProviderReady) {
-                                        appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId,
-                                                provider.provider);
-
-                                        if (!customWidget) {
-                                            int[] minSpan =
-                                                    Launcher.getMinSpanForWidget(context, provider);
-                                            appWidgetInfo.minSpanX = minSpan[0];
-                                            appWidgetInfo.minSpanY = minSpan[1];
-                                        }
-
-                                        int status = restoreStatus;
-                                        if (!wasProviderReady) {
-                                            // If provider was not previously ready, update the
-                                            // status and UI flag.
-
-                                            // Id would be valid only if the widget restore broadcast was received.
-                                            if (isIdValid) {
-                                                status = LauncherAppWidgetInfo.RESTORE_COMPLETED;
-                                            } else {
-                                                status &= ~LauncherAppWidgetInfo
-                                                        .FLAG_PROVIDER_NOT_READY;
-                                            }
-                                        }
-                                        appWidgetInfo.restoreStatus = status;
-                                    } else {
-                                        Log.v(TAG, "Widget restore pending id=" + id
-                                                + " appWidgetId=" + appWidgetId
-                                                + " status =" + restoreStatus);
-                                        appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId,
-                                                component);
-                                        appWidgetInfo.restoreStatus = restoreStatus;
-
-                                        if ((restoreStatus & LauncherAppWidgetInfo.FLAG_RESTORE_STARTED) != 0) {
-                                            // Restore has started once.
-                                        } else if (installingPkgs.contains(component.getPackageName())) {
-                                            // App restore has started. Update the flag
-                                            appWidgetInfo.restoreStatus |=
-                                                    LauncherAppWidgetInfo.FLAG_RESTORE_STARTED;
-                                        } else if (REMOVE_UNRESTORED_ICONS && !isSafeMode) {
-                                            Launcher.addDumpLog(TAG,
-                                                    "Unrestored widget removed: " + component, true);
-                                            itemsToRemove.add(id);
-                                            continue;
-                                        }
-                                    }
-
-                                    appWidgetInfo.id = id;
-                                    appWidgetInfo.screenId = c.getInt(screenIndex);
-                                    appWidgetInfo.cellX = c.getInt(cellXIndex);
-                                    appWidgetInfo.cellY = c.getInt(cellYIndex);
-                                    appWidgetInfo.spanX = c.getInt(spanXIndex);
-                                    appWidgetInfo.spanY = c.getInt(spanYIndex);
-
-                                    if (!customWidget) {
-                                        int[] minSpan = Launcher.getMinSpanForWidget(context, provider);
-                                        appWidgetInfo.minSpanX = minSpan[0];
-                                        appWidgetInfo.minSpanY = minSpan[1];
-                                    }
-
-                                    container = c.getInt(containerIndex);
-                                    if (container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
-                                        container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                                        Log.e(TAG, "Widget found where container != " +
-                                            "CONTAINER_DESKTOP nor CONTAINER_HOTSEAT - ignoring!");
-                                        continue;
-                                    }
-
-                                    appWidgetInfo.container = c.getInt(containerIndex);
-                                    // check & update map of what's occupied
-                                    if (!checkItemPlacement(occupied, appWidgetInfo)) {
-                                        itemsToRemove.add(id);
-                                        break;
-                                    }
-
-                                    if (!customWidget) {
-                                        String providerName =
-                                                appWidgetInfo.providerName.flattenToString();
-                                        if (!providerName.equals(savedProvider) ||
-                                                (appWidgetInfo.restoreStatus != restoreStatus)) {
-                                            ContentValues values = new ContentValues();
-                                            values.put(
-                                                    LauncherSettings.Favorites.APPWIDGET_PROVIDER,
-                                                    providerName);
-                                            values.put(LauncherSettings.Favorites.RESTORED,
-                                                    appWidgetInfo.restoreStatus);
-                                            updateItem(id, values);
-                                        }
-                                    }
-                                    sBgItemsIdMap.put(appWidgetInfo.id, appWidgetInfo);
-                                    sBgAppWidgets.add(appWidgetInfo);
-                                }
-                                break;
-                            }
-                        } catch (Exception e) {
-                            Launcher.addDumpLog(TAG, "Desktop items loading interrupted", e, true);
-                        }
-                    }
-                } finally {
-                    if (c != null) {
-                        c.close();
-                    }
-                }
-
-                // Break early if we've stopped loading
-                if (mStopped) {
-                    clearSBgDataStructures();
-                    return;
-                }
-
-                if (itemsToRemove.size() > 0) {
-                    ContentProviderClient client = contentResolver.acquireContentProviderClient(
-                            contentUri);
-                    // Remove dead items
-                    for (long id : itemsToRemove) {
-                        if (DEBUG_LOADERS) {
-                            Log.d(TAG, "Removed id = " + id);
-                        }
-                        // Don't notify content observers
-                        try {
-                            client.delete(LauncherSettings.Favorites.getContentUri(id), null, null);
-                        } catch (RemoteException e) {
-                            Log.w(TAG, "Could not remove id = " + id);
-                        }
-                    }
-                }
+                if (itemsToRemove.size() > 0) {
+                    ContentProviderClient client = contentResolver.acquireContentProviderClient(
+                            contentUri);
+                    // Remove dead items
+                    for (long id : itemsToRemove) {
+                        if (DEBUG_LOADERS) {
+                            Log.d(TAG, "Removed id = " + id);
+                        }
+                        // Don't notify content observers
+                        try {
+                            client.delete(LauncherSettings.Favorites.getContentUri(id), null, null);
+                        } catch (RemoteException e) {
+                            Log.w(TAG, "Could not remove id = " + id);
+                        }
+                    }
+                }
 
                 if (restoredRows.size() > 0) {
                     ContentProviderClient updater = contentResolver.acquireContentProviderClient(
@@ -2383,7 +2360,571 @@ public class LauncherModel extends BroadcastReceiver
         }
 
         /**
-         * Partially updates the item without any notification. Must be called on the worker thread.
+         * Resolves all the favorites rows in the cursor into {@code state}. This does intent
+         * parsing, package validation and icon lookups for each row, and is safe to run off the
+         * worker thread as long as each caller uses its own {@link WorkspaceLoadState}.
+         */
+        private void loadWorkspaceRows(Cursor c, WorkspaceLoadState state,
+                PackageManager manager, LauncherAppsCompat launcherApps,
+                HashSet<String> installingPkgs, boolean isSafeMode, boolean isSdCardReady) {
+            final Context context = mContext;
+            final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+            final int intentIndex = c.getColumnIndexOrThrow
+                    (LauncherSettings.Favorites.INTENT);
+            final int titleIndex = c.getColumnIndexOrThrow
+                    (LauncherSettings.Favorites.TITLE);
+            final int iconTypeIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.ICON_TYPE);
+            final int iconIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+            final int iconPackageIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.ICON_PACKAGE);
+            final int iconResourceIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.ICON_RESOURCE);
+            final int containerIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.CONTAINER);
+            final int itemTypeIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.ITEM_TYPE);
+            final int appWidgetIdIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.APPWIDGET_ID);
+            final int appWidgetProviderIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.APPWIDGET_PROVIDER);
+            final int screenIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.SCREEN);
+            final int cellXIndex = c.getColumnIndexOrThrow
+                    (LauncherSettings.Favorites.CELLX);
+            final int cellYIndex = c.getColumnIndexOrThrow
+                    (LauncherSettings.Favorites.CELLY);
+            final int spanXIndex = c.getColumnIndexOrThrow
+                    (LauncherSettings.Favorites.SPANX);
+            final int spanYIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.SPANY);
+            final int rankIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.RANK);
+            final int restoredIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.RESTORED);
+            final int profileIdIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.PROFILE_ID);
+            final int optionsIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.OPTIONS);
+
+            ShortcutInfo info;
+            String intentDescription;
+            LauncherAppWidgetInfo appWidgetInfo;
+            int container;
+            long id;
+            long serialNumber;
+            Intent intent;
+            UserHandleCompat user;
+
+            while (!mStopped && c.moveToNext()) {
+                try {
+                    int itemType = c.getInt(itemTypeIndex);
+                    boolean restored = 0 != c.getInt(restoredIndex);
+                    boolean allowMissingTarget = false;
+
+                    switch (itemType) {
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                    case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                        id = c.getLong(idIndex);
+                        intentDescription = c.getString(intentIndex);
+                        serialNumber = c.getInt(profileIdIndex);
+                        user = mUserManager.getUserForSerialNumber(serialNumber);
+                        int promiseType = c.getInt(restoredIndex);
+                        int disabledState = 0;
+                        boolean itemReplaced = false;
+                        if (user == null) {
+                            // User has been deleted remove the item.
+                            state.itemsToRemove.add(id);
+                            continue;
+                        }
+                        try {
+                            intent = Intent.parseUri(intentDescription, 0);
+                            ComponentName cn = intent.getComponent();
+                            if (cn != null && cn.getPackageName() != null) {
+                                boolean validPkg = launcherApps.isPackageEnabledForProfile(
+                                        cn.getPackageName(), user);
+                                boolean validComponent = validPkg &&
+                                        launcherApps.isActivityEnabledForProfile(cn, user);
+
+                                if (validComponent) {
+                                    if (restored) {
+                                        // no special handling necessary for this item
+                                        state.restoredRows.add(id);
+                                        restored = false;
+                                    }
+                                } else if (validPkg) {
+                                    intent = null;
+                                    if ((promiseType & ShortcutInfo.FLAG_AUTOINTALL_ICON) != 0) {
+                                        // We allow auto install apps to have their intent
+                                        // updated after an install.
+                                        intent = manager.getLaunchIntentForPackage(
+                                                cn.getPackageName());
+                                        if (intent != null) {
+                                            ContentValues values = new ContentValues();
+                                            values.put(LauncherSettings.Favorites.INTENT,
+                                                    intent.toUri(0));
+                                            updateItem(id, values);
+                                        }
+                                    }
+
+                                    if (intent == null) {
+                                        // The app is installed but the component is no
+                                        // longer available.
+                                        Launcher.addDumpLog(TAG,
+                                                "Invalid component removed: " + cn, true);
+                                        state.itemsToRemove.add(id);
+                                        continue;
+                                    } else {
+                                        // no special handling necessary for this item
+                                        state.restoredRows.add(id);
+                                        restored = false;
+                                    }
+                                } else if (restored) {
+                                    // Package is not yet available but might be
+                                    // installed later.
+                                    Launcher.addDumpLog(TAG,
+                                            "package not yet restored: " + cn, true);
+
+                                    if ((promiseType & ShortcutInfo.FLAG_RESTORE_STARTED) != 0) {
+                                        // Restore has started once.
+                                    } else if (installingPkgs.contains(cn.getPackageName())) {
+                                        // App restore has started. Update the flag
+                                        promiseType |= ShortcutInfo.FLAG_RESTORE_STARTED;
+                                        ContentValues values = new ContentValues();
+                                        values.put(LauncherSettings.Favorites.RESTORED,
+                                                promiseType);
+                                        updateItem(id, values);
+                                    } else if ((promiseType & ShortcutInfo.FLAG_RESTORED_APP_TYPE) != 0) {
+                                        // This is a common app. Try to replace this.
+                                        int appType = CommonAppTypeParser.decodeItemTypeFromFlag(promiseType);
+                                        CommonAppTypeParser parser = new CommonAppTypeParser(id, appType, context);
+                                        if (parser.findDefaultApp()) {
+                                            // Default app found. Replace it.
+                                            intent = parser.parsedIntent;
+                                            cn = intent.getComponent();
+                                            ContentValues values = parser.parsedValues;
+                                            values.put(LauncherSettings.Favorites.RESTORED, 0);
+                                            updateItem(id, values);
+                                            restored = false;
+                                            itemReplaced = true;
+
+                                        } else if (REMOVE_UNRESTORED_ICONS) {
+                                            Launcher.addDumpLog(TAG,
+                                                    "Unrestored package removed: " + cn, true);
+                                            state.itemsToRemove.add(id);
+                                            continue;
+                                        }
+                                    } else if (REMOVE_UNRESTORED_ICONS) {
+                                        Launcher.addDumpLog(TAG,
+                                                "Unrestored package removed: " + cn, true);
+                                        state.itemsToRemove.add(id);
+                                        continue;
+                                    }
+                                } else if (launcherApps.isAppEnabled(
+                                        manager, cn.getPackageName(),
+                                        PackageManager.GET_UNINSTALLED_PACKAGES)) {
+                                    // Package is present but not available.
+                                    allowMissingTarget = true;
+                                    disabledState = ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
+                                } else if (!isSdCardReady) {
+                                    // SdCard is not ready yet. Package might get available,
+                                    // once it is ready.
+                                    Launcher.addDumpLog(TAG, "Invalid package: " + cn
+                                            + " (check again later)", true);
+                                    HashSet<String> pkgs = state.pendingPackages.get(user);
+                                    if (pkgs == null) {
+                                        pkgs = new HashSet<String>();
+                                        state.pendingPackages.put(user, pkgs);
+                                    }
+                                    pkgs.add(cn.getPackageName());
+                                    allowMissingTarget = true;
+                                    // Add the icon on the workspace anyway.
+
+                                } else {
+                                    // Do not wait for external media load anymore.
+                                    // Log the invalid package, and remove it
+                                    Launcher.addDumpLog(TAG,
+                                            "Invalid package removed: " + cn, true);
+                                    state.itemsToRemove.add(id);
+                                    continue;
+                                }
+                            } else if (cn == null) {
+                                // For shortcuts with no component, keep them as they are
+                                state.restoredRows.add(id);
+                                restored = false;
+                            }
+                        } catch (URISyntaxException e) {
+                            Launcher.addDumpLog(TAG,
+                                    "Invalid uri: " + intentDescription, true);
+                            continue;
+                        }
+
+                        container = c.getInt(containerIndex);
+                        boolean useLowResIcon = container >= 0 &&
+                                c.getInt(rankIndex) >= FolderIcon.NUM_ITEMS_IN_PREVIEW;
+
+                        if (itemReplaced) {
+                            if (user.equals(UserHandleCompat.myUserHandle())) {
+                                info = getAppShortcutInfo(manager, intent, user, context, null,
+                                        iconIndex, titleIndex, false, useLowResIcon);
+                            } else {
+                                // Don't replace items for other profiles.
+                                state.itemsToRemove.add(id);
+                                continue;
+                            }
+                        } else if (restored) {
+                            if (user.equals(UserHandleCompat.myUserHandle())) {
+                                Launcher.addDumpLog(TAG,
+                                        "constructing info for partially restored package",
+                                        true);
+                                info = getRestoredItemInfo(c, titleIndex, intent,
+                                        promiseType, useLowResIcon);
+                                intent = getRestoredItemIntent(c, context, intent);
+                            } else {
+                                // Don't restore items for other profiles.
+                                state.itemsToRemove.add(id);
+                                continue;
+                            }
+                        } else if (itemType ==
+                                LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                            info = getAppShortcutInfo(manager, intent, user, context, c,
+                                    iconIndex, titleIndex, allowMissingTarget, useLowResIcon);
+                        } else {
+                            info = getShortcutInfo(c, context, iconTypeIndex,
+                                    iconPackageIndex, iconResourceIndex, iconIndex,
+                                    titleIndex);
+
+                            // App shortcuts that used to be automatically added to Launcher
+                            // didn't always have the correct intent flags set, so do that
+                            // here
+                            if (intent.getAction() != null &&
+                                intent.getCategories() != null &&
+                                intent.getAction().equals(Intent.ACTION_MAIN) &&
+                                intent.getCategories().contains(Intent.CATEGORY_LAUNCHER)) {
+                                intent.addFlags(
+                                    Intent.FLAG_ACTIVITY_NEW_TASK |
+                                    Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+                            }
+                        }
+
+                        if (info != null) {
+                            info.id = id;
+                            info.intent = intent;
+                            info.container = container;
+                            info.screenId = c.getInt(screenIndex);
+                            info.cellX = c.getInt(cellXIndex);
+                            info.cellY = c.getInt(cellYIndex);
+                            info.rank = c.getInt(rankIndex);
+                            info.spanX = 1;
+                            info.spanY = 1;
+                            info.intent.putExtra(ItemInfo.EXTRA_PROFILE, serialNumber);
+                            info.isDisabled = disabledState;
+                            if (isSafeMode && !Utilities.isSystemApp(context, intent)) {
+                                info.isDisabled |= ShortcutInfo.FLAG_DISABLED_SAFEMODE;
+                            }
+
+                            // check & update map of what's occupied
+                            if (!checkItemPlacement(state.occupied, info)) {
+                                state.itemsToRemove.add(id);
+                                break;
+                            }
+
+                            switch (container) {
+                            case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                            case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                                state.workspaceItems.add(info);
+                                break;
+                            default:
+                                // Item is in a user folder
+                                FolderInfo folderInfo =
+                                        findOrMakeFolder(state.folders, container);
+                                folderInfo.add(info);
+                                break;
+                            }
+                            state.itemsIdMap.put(info.id, info);
+                        } else {
+                            throw new RuntimeException("Unexpected null ShortcutInfo");
+                        }
+                        break;
+
+                    case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                        id = c.getLong(idIndex);
+                        FolderInfo folderInfo = findOrMakeFolder(state.folders, id);
+
+                        folderInfo.title = c.getString(titleIndex);
+                        folderInfo.id = id;
+                        container = c.getInt(containerIndex);
+                        folderInfo.container = container;
+                        folderInfo.screenId = c.getInt(screenIndex);
+                        folderInfo.cellX = c.getInt(cellXIndex);
+                        folderInfo.cellY = c.getInt(cellYIndex);
+                        folderInfo.spanX = 1;
+                        folderInfo.spanY = 1;
+                        folderInfo.options = c.getInt(optionsIndex);
+
+                        // check & update map of what's occupied
+                        if (!checkItemPlacement(state.occupied, folderInfo)) {
+                            state.itemsToRemove.add(id);
+                            break;
+                        }
+
+                        switch (container) {
+                            case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                            case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                                state.workspaceItems.add(folderInfo);
+                                break;
+                        }
+
+                        if (restored) {
+                            // no special handling required for restored folders
+                            state.restoredRows.add(id);
+                        }
+
+                        state.itemsIdMap.put(folderInfo.id, folderInfo);
+                        state.folders.put(folderInfo.id, folderInfo);
+                        break;
+
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                    case LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
+                        // Read all Launcher-specific widget details
+                        boolean customWidget = itemType ==
+                            LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET;
+
+                        int appWidgetId = c.getInt(appWidgetIdIndex);
+                        serialNumber= c.getLong(profileIdIndex);
+                        String savedProvider = c.getString(appWidgetProviderIndex);
+                        id = c.getLong(idIndex);
+                        final ComponentName component =
+                                ComponentName.unflattenFromString(savedProvider);
+
+                        final int restoreStatus = c.getInt(restoredIndex);
+                        final boolean isIdValid = (restoreStatus &
+                                LauncherAppWidgetInfo.FLAG_ID_NOT_VALID) == 0;
+
+                        final boolean wasProviderReady = (restoreStatus &
+                                LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY) == 0;
+
+                        final LauncherAppWidgetProviderInfo provider =
+                                LauncherModel.getProviderInfo(context,
+                                        ComponentName.unflattenFromString(savedProvider),
+                                        mUserManager.getUserForSerialNumber(serialNumber));
+
+                        final boolean isProviderReady = isValidProvider(provider);
+                        if (!isSafeMode && !customWidget &&
+                                wasProviderReady && !isProviderReady) {
+                            String log = "Deleting widget that isn't installed anymore: "
+                                    + "id=" + id + " appWidgetId=" + appWidgetId;
+
+                            Log.e(TAG, log);
+                            Launcher.addDumpLog(TAG, log, false);
+                            state.itemsToRemove.add(id);
+                        } else {
+                            if (isProviderReady) {
+                                appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId,
+                                        provider.provider);
+
+                                if (!customWidget) {
+                                    int[] minSpan =
+                                            Launcher.getMinSpanForWidget(context, provider);
+                                    appWidgetInfo.minSpanX = minSpan[0];
+                                    appWidgetInfo.minSpanY = minSpan[1];
+                                }
+
+                                int status = restoreStatus;
+                                if (!wasProviderReady) {
+                                    // If provider was not previously ready, update the
+                                    // status and UI flag.
+
+                                    // Id would be valid only if the widget restore broadcast was received.
+                                    if (isIdValid) {
+                                        status = LauncherAppWidgetInfo.RESTORE_COMPLETED;
+                                    } else {
+                                        status &= ~LauncherAppWidgetInfo
+                                                .FLAG_PROVIDER_NOT_READY;
+                                    }
+                                }
+                                appWidgetInfo.restoreStatus = status;
+                            } else {
+                                Log.v(TAG, "Widget restore pending id=" + id
+                                        + " appWidgetId=" + appWidgetId
+                                        + " status =" + restoreStatus);
+                                appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId,
+                                        component);
+                                appWidgetInfo.restoreStatus = restoreStatus;
+
+                                if ((restoreStatus & LauncherAppWidgetInfo.FLAG_RESTORE_STARTED) != 0) {
+                                    // Restore has started once.
+                                } else if (installingPkgs.contains(component.getPackageName())) {
+                                    // App restore has started. Update the flag
+                                    appWidgetInfo.restoreStatus |=
+                                            LauncherAppWidgetInfo.FLAG_RESTORE_STARTED;
+                                } else if (REMOVE_UNRESTORED_ICONS && !isSafeMode) {
+                                    Launcher.addDumpLog(TAG,
+                                            "Unrestored widget removed: " + component, true);
+                                    state.itemsToRemove.add(id);
+                                    continue;
+                                }
+                            }
+
+                            appWidgetInfo.id = id;
+                            appWidgetInfo.screenId = c.getInt(screenIndex);
+                            appWidgetInfo.cellX = c.getInt(cellXIndex);
+                            appWidgetInfo.cellY = c.getInt(cellYIndex);
+                            appWidgetInfo.spanX = c.getInt(spanXIndex);
+                            appWidgetInfo.spanY = c.getInt(spanYIndex);
+
+                            if (!customWidget) {
+                                int[] minSpan = Launcher.getMinSpanForWidget(context, provider);
+                                appWidgetInfo.minSpanX = minSpan[0];
+                                appWidgetInfo.minSpanY = minSpan[1];
+                            }
+
+                            container = c.getInt(containerIndex);
+                            if (container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
+                                container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                                Log.e(TAG, "Widget found where container != " +
+                                    "CONTAINER_DESKTOP nor CONTAINER_HOTSEAT - ignoring!");
+                                continue;
+                            }
+
+                            appWidgetInfo.container = c.getInt(containerIndex);
+                            // check & update map of what's occupied
+                            if (!checkItemPlacement(state.occupied, appWidgetInfo)) {
+                                state.itemsToRemove.add(id);
+                                break;
+                            }
+
+                            if (!customWidget) {
+                                String providerName =
+                                        appWidgetInfo.providerName.flattenToString();
+                                if (!providerName.equals(savedProvider) ||
+                                        (appWidgetInfo.restoreStatus != restoreStatus)) {
+                                    ContentValues values = new ContentValues();
+                                    values.put(
+                                            LauncherSettings.Favorites.APPWIDGET_PROVIDER,
+                                            providerName);
+                                    values.put(LauncherSettings.Favorites.RESTORED,
+                                            appWidgetInfo.restoreStatus);
+                                    updateItem(id, values);
+                                }
+                            }
+                            state.itemsIdMap.put(appWidgetInfo.id, appWidgetInfo);
+                            state.appWidgets.add(appWidgetInfo);
+                        }
+                        break;
+                    }
+                } catch (Exception e) {
+                    Launcher.addDumpLog(TAG, "Desktop items loading interrupted", e, true);
+                }
+            }
+        }
+
+        /**
+         * Reads the favorites cursor in a single pass, splitting the rows into one in-memory
+         * cursor per workspace screen, plus one for the hotseat and each folder. Items competing
+         * for the same cells always end up in the same shard, so each shard can check item
+         * placement on its own.
+         */
+        private ArrayList<Cursor> readWorkspaceShards(Cursor c) {
+            final String[] columns = c.getColumnNames();
+            final int containerIndex = c.getColumnIndexOrThrow(
+                    LauncherSettings.Favorites.CONTAINER);
+            final int screenIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+
+            final ArrayList<Cursor> shards = new ArrayList<Cursor>();
+            final LongSparseArray<MatrixCursor> screenShards = new LongSparseArray<MatrixCursor>();
+            final LongSparseArray<MatrixCursor> containerShards =
+                    new LongSparseArray<MatrixCursor>();
+            while (!mStopped && c.moveToNext()) {
+                final long container = c.getLong(containerIndex);
+                final LongSparseArray<MatrixCursor> shardMap;
+                final long shardKey;
+                if (container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                    shardMap = screenShards;
+                    shardKey = c.getLong(screenIndex);
+                } else {
+                    shardMap = containerShards;
+                    shardKey = container;
+                }
+                MatrixCursor shard = shardMap.get(shardKey);
+                if (shard == null) {
+                    shard = new MatrixCursor(columns);
+                    shardMap.put(shardKey, shard);
+                    shards.add(shard);
+                }
+
+                final Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    switch (c.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = c.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = c.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = c.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = c.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                            break;
+                    }
+                }
+                shard.addRow(row);
+            }
+            return shards;
+        }
+
+        /**
+         * Resolves each shard returned by {@link #readWorkspaceShards} on the shared shard threads.
+         * @return the per-shard results, in the order of the shards, or null if a shard failed and
+         * the rows must be loaded serially instead.
+         */
+        private ArrayList<WorkspaceLoadState> loadWorkspaceShards(final ArrayList<Cursor> shards,
+                final PackageManager manager, final LauncherAppsCompat launcherApps,
+                final HashSet<String> installingPkgs, final boolean isSafeMode,
+                final boolean isSdCardReady) {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            if (shards.isEmpty()) {
+                return new ArrayList<WorkspaceLoadState>();
+            }
+
+            final int threadPriority = mIsLaunching
+                    ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND;
+            final ExecutorService executor = getShardExecutor();
+            final ArrayList<Future<WorkspaceLoadState>> results =
+                    new ArrayList<Future<WorkspaceLoadState>>();
+            for (final Cursor shard : shards) {
+                results.add(executor.submit(new Callable<WorkspaceLoadState>() {
+                    @Override
+                    public WorkspaceLoadState call() {
+                        Process.setThreadPriority(threadPriority);
+                        WorkspaceLoadState state = new WorkspaceLoadState();
+                        try {
+                            loadWorkspaceRows(shard, state, manager, launcherApps,
+                                    installingPkgs, isSafeMode, isSdCardReady);
+                        } finally {
+                            shard.close();
+                        }
+                        return state;
+                    }
+                }));
+            }
+
+            final ArrayList<WorkspaceLoadState> states = getShardResults(results);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "resolved " + shards.size() + " workspace shards in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            return states;
+        }
+
+        /**
+         * Partially updates the item without any notification. Must not be called on the main
+         * thread.
          */
         private void updateItem(long itemId, ContentValues update) {
             mContext.getContentResolver().update(
@@ -2584,6 +3125,138 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
+        /**
+         * Returns the selection for all the rows bound with the given screen: the items on the
+         * screen, the hotseat, and the contents of the folders on both.
+         */
+        private String getPageSelection(long screenId) {
+            final String onScreen = LauncherSettings.Favorites.CONTAINER + "="
+                    + LauncherSettings.Favorites.CONTAINER_DESKTOP + " AND "
+                    + LauncherSettings.Favorites.SCREEN + "=" + screenId;
+            final String inHotseat = LauncherSettings.Favorites.CONTAINER + "="
+                    + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+            return inHotseat
+                    + " OR (" + onScreen + ")"
+                    + " OR " + LauncherSettings.Favorites.CONTAINER + " IN (SELECT "
+                    + LauncherSettings.Favorites._ID + " FROM "
+                    + LauncherProvider.TABLE_FAVORITES + " WHERE " + onScreen + ")"
+                    + " OR " + LauncherSettings.Favorites.CONTAINER + " IN (SELECT "
+                    + LauncherSettings.Favorites._ID + " FROM "
+                    + LauncherProvider.TABLE_FAVORITES + " WHERE " + inHotseat + ")";
+        }
+
+        /**
+         * Loads the ordered workspace screens, without the screens that have no items on them.
+         * This is the same set of screens that {@link #loadWorkspace} ends up with, unless some
+         * items fail to load.
+         */
+        private ArrayList<Long> loadNonEmptyWorkspaceScreens(Context context) {
+            final ArrayList<Long> screenIds = loadWorkspaceScreensDb(context);
+            final HashSet<Long> usedScreens = new HashSet<Long>();
+            final Cursor c = context.getContentResolver().query(
+                    LauncherSettings.Favorites.CONTENT_URI,
+                    new String[] { LauncherSettings.Favorites.SCREEN },
+                    LauncherSettings.Favorites.CONTAINER + "=?",
+                    new String[] { Integer.toString(LauncherSettings.Favorites.CONTAINER_DESKTOP) },
+                    null);
+            try {
+                while (c.moveToNext()) {
+                    usedScreens.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            screenIds.retainAll(usedScreens);
+            return screenIds;
+        }
+
+        /**
+         * Binds the screens and the items on the first page, before the rest of the workspace
+         * has been loaded. The remaining items are bound by {@link #bindWorkspace}.
+         */
+        private void bindFirstWorkspacePage(final int firstPage,
+                final ArrayList<Long> orderedScreenIds, WorkspaceLoadState firstPageItems) {
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null) {
+                // This launcher has exited and nobody bothered to tell us.  Just bail.
+                Log.w(TAG, "LoaderTask running with no launcher");
+                return;
+            }
+            mFirstPageItems = firstPageItems;
+            mFirstPageScreenIds = orderedScreenIds;
+
+            final ArrayList<ItemInfo> workspaceItems =
+                    new ArrayList<ItemInfo>(firstPageItems.workspaceItems);
+            sortWorkspaceItemsSpatially(workspaceItems);
+            final HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
+            for (FolderInfo folder : firstPageItems.folders.values()) {
+                if (firstPageItems.itemsIdMap.get(folder.id) == folder) {
+                    folders.put(folder.id, folder);
+                }
+            }
+
+            // Unbind the items from any previous load before starting to bind again
+            unbindWorkspaceItemsOnMainThread();
+            Runnable r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.startBinding();
+                    }
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+
+            bindWorkspaceScreens(oldCallbacks, new ArrayList<Long>(orderedScreenIds));
+            bindWorkspaceItems(oldCallbacks, workspaceItems,
+                    new ArrayList<LauncherAppWidgetInfo>(firstPageItems.appWidgets), folders, null);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "bound " + firstPageItems.itemsIdMap.size() + " items on page "
+                        + firstPage + " before loading the rest of the workspace");
+            }
+        }
+
+        /**
+         * Binds the items which were not bound by {@link #bindFirstWorkspacePage}.
+         */
+        private void bindRemainingWorkspaceItems(final Callbacks oldCallbacks,
+                WorkspaceLoadState firstPageItems, ArrayList<ItemInfo> workspaceItems,
+                ArrayList<LauncherAppWidgetInfo> appWidgets, HashMap<Long, FolderInfo> folders) {
+            final long t = SystemClock.uptimeMillis();
+            final ArrayList<ItemInfo> otherWorkspaceItems = new ArrayList<ItemInfo>();
+            for (ItemInfo info : workspaceItems) {
+                if (info != null && !firstPageItems.itemsIdMap.containsKey(info.id)) {
+                    otherWorkspaceItems.add(info);
+                }
+            }
+            final ArrayList<LauncherAppWidgetInfo> otherAppWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            for (LauncherAppWidgetInfo widget : appWidgets) {
+                if (widget != null && !firstPageItems.itemsIdMap.containsKey(widget.id)) {
+                    otherAppWidgets.add(widget);
+                }
+            }
+            sortWorkspaceItemsSpatially(otherWorkspaceItems);
+
+            // Callbacks.bindFolders() replaces the set of bound folders, so bind all of them.
+            bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, folders, null);
+
+            Runnable r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.finishBindingItems();
+                    }
+                    if (DEBUG_LOADERS) {
+                        Log.d(TAG, "bound remaining workspace items in "
+                                + (SystemClock.uptimeMillis() - t) + "ms");
+                    }
+                    mIsLoadingAndBindingWorkspace = false;
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+        }
+
         /**
          * Binds all loaded data to actual views on the main thread.
          */
@@ -2615,6 +3288,19 @@ public class LauncherModel extends BroadcastReceiver
                 orderedScreenIds.addAll(sBgWorkspaceScreens);
             }
 
+            // If the first page was bound while loading, only bind the rest, unless the loaded
+            // screens turned out to be different from the ones already bound.
+            final WorkspaceLoadState firstPageItems = mFirstPageItems;
+            final ArrayList<Long> firstPageScreenIds = mFirstPageScreenIds;
+            mFirstPageItems = null;
+            mFirstPageScreenIds = null;
+            if (firstPageItems != null && orderedScreenIds.equals(firstPageScreenIds)
+                    && synchronizeBindPage == PagedView.INVALID_RESTORE_PAGE) {
+                bindRemainingWorkspaceItems(oldCallbacks, firstPageItems, workspaceItems,
+                        appWidgets, folders);
+                return;
+            }
+
             final boolean isLoadingSynchronously =
                     synchronizeBindPage != PagedView.INVALID_RESTORE_PAGE;
             int currScreen = isLoadingSynchronously ? synchronizeBindPage :
@@ -2804,7 +3490,11 @@ public class LauncherModel extends BroadcastReceiver
                 if (!updatedPackages.isEmpty()) {
                     final ArrayList<ShortcutInfo> updates = new ArrayList<ShortcutInfo>();
                     synchronized (sBgLock) {
-                        for (ItemInfo info : sBgItemsIdMap.values()) {
+                        LinkedHashSet<ItemInfo> items = new LinkedHashSet<ItemInfo>();
+                        for (String packageName : updatedPackages) {
+                            items.addAll(sBgPackageIndex.getItems(packageName, user));
+                        }
+                        for (ItemInfo info : items) {
                             if (info instanceof ShortcutInfo && user.equals(info.user)
                                     && info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
                                 ShortcutInfo si = (ShortcutInfo) info;
@@ -2886,8 +3576,55 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Queues the ops of {@param task}. The ops received within {@link #PACKAGE_OPS_WINDOW_MS}
+     * are merged by package and user, and run as a single update with a single set of callbacks,
+     * so that a storm of package events, like the updates of an app store, only rebinds once.
+     */
     void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        synchronized (mPendingPackageOps) {
+            LinkedHashMap<Pair<String, UserHandleCompat>, Integer> batch =
+                    mPendingPackageOps.isEmpty() ? null
+                            : mPendingPackageOps.get(mPendingPackageOps.size() - 1);
+            for (Entry<Pair<String, UserHandleCompat>, Integer> e : task.mOps.entrySet()) {
+                Integer pendingOp = batch == null ? null : batch.get(e.getKey());
+                int op = pendingOp == null
+                        ? e.getValue() : mergePackageOps(pendingOp, e.getValue());
+                if (batch == null || op == PackageUpdatedTask.OP_NONE) {
+                    // The ops can't be merged, run them one after the other.
+                    batch = new LinkedHashMap<Pair<String, UserHandleCompat>, Integer>();
+                    mPendingPackageOps.add(batch);
+                    op = e.getValue();
+                }
+                batch.put(e.getKey(), op);
+            }
+            if (!mPackageOpsFlushScheduled) {
+                mPackageOpsFlushScheduled = true;
+                sWorker.postDelayed(mFlushPackageOps, PACKAGE_OPS_WINDOW_MS);
+            }
+        }
+    }
+
+    /**
+     * Returns the op which has the same effect on a package as {@param first} followed by
+     * {@param second}, or OP_NONE if they need to run one after the other.
+     */
+    private static int mergePackageOps(int first, int second) {
+        if (first == second) {
+            return second;
+        }
+        switch (second) {
+            case PackageUpdatedTask.OP_UPDATE:
+                // Adding the package loads its current state.
+                return first == PackageUpdatedTask.OP_ADD ? first : PackageUpdatedTask.OP_NONE;
+            case PackageUpdatedTask.OP_REMOVE:
+                // Whatever happened before, the package is gone.
+                return second;
+            case PackageUpdatedTask.OP_UNAVAILABLE:
+                return first == PackageUpdatedTask.OP_UPDATE ? second : PackageUpdatedTask.OP_NONE;
+            default:
+                return PackageUpdatedTask.OP_NONE;
+        }
     }
 
     @Thunk class AppsAvailabilityCheck extends BroadcastReceiver {
@@ -2932,9 +3669,8 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     private class PackageUpdatedTask implements Runnable {
-        int mOp;
-        String[] mPackages;
-        UserHandleCompat mUser;
+        // The op of each package, by package and user, in the order of the events
+        final LinkedHashMap<Pair<String, UserHandleCompat>, Integer> mOps;
 
         public static final int OP_NONE = 0;
         public static final int OP_ADD = 1;
@@ -2944,56 +3680,38 @@ public class LauncherModel extends BroadcastReceiver
 
 
         public PackageUpdatedTask(int op, String[] packages, UserHandleCompat user) {
-            mOp = op;
-            mPackages = packages;
-            mUser = user;
+            mOps = new LinkedHashMap<Pair<String, UserHandleCompat>, Integer>();
+            for (String packageName : packages) {
+                mOps.put(Pair.create(packageName, user), op);
+            }
+        }
+
+        public PackageUpdatedTask(LinkedHashMap<Pair<String, UserHandleCompat>, Integer> ops) {
+            mOps = ops;
+        }
+
+        /**
+         * Returns the packages of {@param user} to which {@param op} applies.
+         */
+        private String[] getPackages(UserHandleCompat user, int op) {
+            ArrayList<String> packages = new ArrayList<String>();
+            for (Entry<Pair<String, UserHandleCompat>, Integer> e : mOps.entrySet()) {
+                if (e.getValue() == op && user.equals(e.getKey().second)) {
+                    packages.add(e.getKey().first);
+                }
+            }
+            return packages.toArray(new String[packages.size()]);
         }
 
         public void run() {
             final Context context = mApp.getContext();
 
-            final String[] packages = mPackages;
-            final int N = packages.length;
-            switch (mOp) {
-                case OP_ADD: {
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mIconCache.updateIconsForPkg(packages[i], mUser);
-                        mBgAllAppsList.addPackage(context, packages[i], mUser);
-                    }
-
-                    ManagedProfileHeuristic heuristic = ManagedProfileHeuristic.get(context, mUser);
-                    if (heuristic != null) {
-                        heuristic.processPackageAdd(mPackages);
-                    }
-                    break;
-                }
-                case OP_UPDATE:
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
-                        mIconCache.updateIconsForPkg(packages[i], mUser);
-                        mBgAllAppsList.updatePackage(context, packages[i], mUser);
-                        mApp.getWidgetCache().removePackage(packages[i], mUser);
-                    }
-                    break;
-                case OP_REMOVE: {
-                    ManagedProfileHeuristic heuristic = ManagedProfileHeuristic.get(context, mUser);
-                    if (heuristic != null) {
-                        heuristic.processPackageRemoved(mPackages);
-                    }
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
-                        mIconCache.removeIconsForPkg(packages[i], mUser);
-                    }
-                    // Fall through
-                }
-                case OP_UNAVAILABLE:
-                    for (int i=0; i<N; i++) {
-                        if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
-                        mBgAllAppsList.removePackage(packages[i], mUser);
-                        mApp.getWidgetCache().removePackage(packages[i], mUser);
-                    }
-                    break;
+            final LinkedHashSet<UserHandleCompat> users = new LinkedHashSet<UserHandleCompat>();
+            for (Pair<String, UserHandleCompat> key : mOps.keySet()) {
+                users.add(key.second);
+            }
+            for (UserHandleCompat user : users) {
+                updateAllAppsList(context, user);
             }
 
             ArrayList<AppInfo> added = null;
@@ -3019,20 +3737,20 @@ public class LauncherModel extends BroadcastReceiver
                 return;
             }
 
-            final HashMap<ComponentName, AppInfo> addedOrUpdatedApps =
-                    new HashMap<ComponentName, AppInfo>();
+            final HashMap<ComponentKey, AppInfo> addedOrUpdatedApps =
+                    new HashMap<ComponentKey, AppInfo>();
 
             if (added != null) {
                 addAppsToAllApps(context, added);
                 for (AppInfo ai : added) {
-                    addedOrUpdatedApps.put(ai.componentName, ai);
+                    addedOrUpdatedApps.put(new ComponentKey(ai.componentName, ai.user), ai);
                 }
             }
 
             if (modified != null) {
                 final ArrayList<AppInfo> modifiedFinal = modified;
                 for (AppInfo ai : modified) {
-                    addedOrUpdatedApps.put(ai.componentName, ai);
+                    addedOrUpdatedApps.put(new ComponentKey(ai.componentName, ai.user), ai);
                 }
 
                 mHandler.post(new Runnable() {
@@ -3046,198 +3764,308 @@ public class LauncherModel extends BroadcastReceiver
             }
 
             // Update shortcut infos
-            if (mOp == OP_ADD || mOp == OP_UPDATE) {
-                final ArrayList<ShortcutInfo> updatedShortcuts = new ArrayList<ShortcutInfo>();
-                final ArrayList<ShortcutInfo> removedShortcuts = new ArrayList<ShortcutInfo>();
-                final ArrayList<LauncherAppWidgetInfo> widgets = new ArrayList<LauncherAppWidgetInfo>();
+            final HashMap<UserHandleCompat, HashSet<String>> updatedPackages =
+                    new HashMap<UserHandleCompat, HashSet<String>>();
+            for (Entry<Pair<String, UserHandleCompat>, Integer> e : mOps.entrySet()) {
+                if (e.getValue() == OP_ADD || e.getValue() == OP_UPDATE) {
+                    HashSet<String> packageSet = updatedPackages.get(e.getKey().second);
+                    if (packageSet == null) {
+                        packageSet = new HashSet<String>();
+                        updatedPackages.put(e.getKey().second, packageSet);
+                    }
+                    packageSet.add(e.getKey().first);
+                }
+            }
+            if (!updatedPackages.isEmpty()) {
+                updateShortcuts(context, callbacks, updatedPackages, addedOrUpdatedApps);
+            }
 
-                HashSet<String> packageSet = new HashSet<String>(Arrays.asList(packages));
-                synchronized (sBgLock) {
-                    for (ItemInfo info : sBgItemsIdMap.values()) {
-                        if (info instanceof ShortcutInfo && mUser.equals(info.user)) {
-                            ShortcutInfo si = (ShortcutInfo) info;
-                            boolean infoUpdated = false;
-                            boolean shortcutUpdated = false;
-
-                            // Update shortcuts which use iconResource.
-                            if ((si.iconResource != null)
-                                    && packageSet.contains(si.iconResource.packageName)) {
-                                Bitmap icon = Utilities.createIconBitmap(si.iconResource.packageName,
-                                        si.iconResource.resourceName, mIconCache, context);
-                                if (icon != null) {
-                                    si.setIcon(icon);
-                                    si.usingFallbackIcon = false;
-                                    infoUpdated = true;
-                                }
+            for (UserHandleCompat user : users) {
+                // Mark all packages in the broadcast to be removed, and the disabled ones
+                final ArrayList<String> removedPackageNames =
+                        new ArrayList<String>(Arrays.asList(getPackages(user, OP_REMOVE)));
+                for (String packageName : getPackages(user, OP_UPDATE)) {
+                    if (isPackageDisabled(context, packageName, user)) {
+                        removedPackageNames.add(packageName);
+                    }
+                }
+                final ArrayList<String> unavailablePackageNames =
+                        new ArrayList<String>(Arrays.asList(getPackages(user, OP_UNAVAILABLE)));
+
+                final ArrayList<AppInfo> userRemovedApps = new ArrayList<AppInfo>();
+                final ArrayList<AppInfo> userUnavailableApps = new ArrayList<AppInfo>();
+                for (AppInfo a : removedApps) {
+                    if (user.equals(a.user)) {
+                        Integer op = mOps.get(Pair.create(a.componentName.getPackageName(), user));
+                        if (op != null && op == OP_UNAVAILABLE) {
+                            userUnavailableApps.add(a);
+                        } else {
+                            userRemovedApps.add(a);
+                        }
+                    }
+                }
+
+                removeComponents(context, callbacks, user, removedPackageNames, userRemovedApps,
+                        0);
+                removeComponents(context, callbacks, user, unavailablePackageNames,
+                        userUnavailableApps, ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE);
+            }
+
+            final ArrayList<Object> widgetsAndShortcuts =
+                    getSortedWidgetsAndShortcuts(context, true /* refresh */);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callbacks cb = getCallback();
+                    if (callbacks == cb && cb != null) {
+                        callbacks.bindPackagesUpdated(widgetsAndShortcuts);
+                    }
+                }
+            });
+
+            // Write all the logs to disk
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks cb = getCallback();
+                    if (callbacks == cb && cb != null) {
+                        callbacks.dumpLogsToLocalData();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Applies the ops of the packages of {@param user} to the all apps list.
+         */
+        private void updateAllAppsList(Context context, UserHandleCompat user) {
+            String[] packages = getPackages(user, OP_ADD);
+            if (packages.length > 0) {
+                for (int i=0; i<packages.length; i++) {
+                    if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
+                    mIconCache.updateIconsForPkg(packages[i], user);
+                    mBgAllAppsList.addPackage(context, packages[i], user);
+                }
+
+                ManagedProfileHeuristic heuristic = ManagedProfileHeuristic.get(context, user);
+                if (heuristic != null) {
+                    heuristic.processPackageAdd(packages);
+                }
+            }
+
+            packages = getPackages(user, OP_UPDATE);
+            for (int i=0; i<packages.length; i++) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
+                mIconCache.updateIconsForPkg(packages[i], user);
+                mBgAllAppsList.updatePackage(context, packages[i], user);
+                mApp.getWidgetCache().removePackage(packages[i], user);
+            }
+
+            packages = getPackages(user, OP_REMOVE);
+            if (packages.length > 0) {
+                ManagedProfileHeuristic heuristic = ManagedProfileHeuristic.get(context, user);
+                if (heuristic != null) {
+                    heuristic.processPackageRemoved(packages);
+                }
+                for (int i=0; i<packages.length; i++) {
+                    if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
+                    mIconCache.removeIconsForPkg(packages[i], user);
+                    mBgAllAppsList.removePackage(packages[i], user);
+                    mApp.getWidgetCache().removePackage(packages[i], user);
+                }
+            }
+
+            packages = getPackages(user, OP_UNAVAILABLE);
+            for (int i=0; i<packages.length; i++) {
+                if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
+                mBgAllAppsList.removePackage(packages[i], user);
+                mApp.getWidgetCache().removePackage(packages[i], user);
+            }
+        }
+
+        /**
+         * Updates the shortcuts and the widgets of the added or updated packages, in one pass
+         * over the loaded items.
+         *
+         * @param updatedPackages the added or updated packages, by user.
+         */
+        private void updateShortcuts(Context context, final Callbacks callbacks,
+                HashMap<UserHandleCompat, HashSet<String>> updatedPackages,
+                HashMap<ComponentKey, AppInfo> addedOrUpdatedApps) {
+            final HashMap<UserHandleCompat, ArrayList<ShortcutInfo>> updatedShortcuts =
+                    new HashMap<UserHandleCompat, ArrayList<ShortcutInfo>>();
+            final HashMap<UserHandleCompat, ArrayList<ShortcutInfo>> removedShortcuts =
+                    new HashMap<UserHandleCompat, ArrayList<ShortcutInfo>>();
+            for (UserHandleCompat user : updatedPackages.keySet()) {
+                updatedShortcuts.put(user, new ArrayList<ShortcutInfo>());
+                removedShortcuts.put(user, new ArrayList<ShortcutInfo>());
+            }
+            final ArrayList<LauncherAppWidgetInfo> widgets = new ArrayList<LauncherAppWidgetInfo>();
+
+            synchronized (sBgLock) {
+                LinkedHashSet<ItemInfo> items = new LinkedHashSet<ItemInfo>();
+                for (Entry<UserHandleCompat, HashSet<String>> e : updatedPackages.entrySet()) {
+                    for (String packageName : e.getValue()) {
+                        items.addAll(sBgPackageIndex.getItems(packageName, e.getKey()));
+                    }
+                }
+                for (ItemInfo info : items) {
+                    HashSet<String> packageSet = updatedPackages.get(info.user);
+                    if (info instanceof ShortcutInfo) {
+                        ShortcutInfo si = (ShortcutInfo) info;
+                        boolean infoUpdated = false;
+                        boolean shortcutUpdated = false;
+
+                        // Update shortcuts which use iconResource.
+                        if ((si.iconResource != null)
+                                && packageSet.contains(si.iconResource.packageName)) {
+                            Bitmap icon = Utilities.createIconBitmap(si.iconResource.packageName,
+                                    si.iconResource.resourceName, mIconCache, context);
+                            if (icon != null) {
+                                si.setIcon(icon);
+                                si.usingFallbackIcon = false;
+                                infoUpdated = true;
                             }
+                        }
 
-                            ComponentName cn = si.getTargetComponent();
-                            if (cn != null && packageSet.contains(cn.getPackageName())) {
-                                AppInfo appInfo = addedOrUpdatedApps.get(cn);
-
-                                if (si.isPromise()) {
-                                    if (si.hasStatusFlag(ShortcutInfo.FLAG_AUTOINTALL_ICON)) {
-                                        // Auto install icon
-                                        PackageManager pm = context.getPackageManager();
-                                        ResolveInfo matched = pm.resolveActivity(
-                                                new Intent(Intent.ACTION_MAIN)
-                                                .setComponent(cn).addCategory(Intent.CATEGORY_LAUNCHER),
-                                                PackageManager.MATCH_DEFAULT_ONLY);
-                                        if (matched == null) {
-                                            // Try to find the best match activity.
-                                            Intent intent = pm.getLaunchIntentForPackage(
-                                                    cn.getPackageName());
-                                            if (intent != null) {
-                                                cn = intent.getComponent();
-                                                appInfo = addedOrUpdatedApps.get(cn);
-                                            }
-
-                                            if ((intent == null) || (appInfo == null)) {
-                                                removedShortcuts.add(si);
-                                                continue;
-                                            }
-                                            si.promisedIntent = intent;
+                        ComponentName cn = si.getTargetComponent();
+                        if (cn != null && packageSet.contains(cn.getPackageName())) {
+                            AppInfo appInfo = addedOrUpdatedApps.get(new ComponentKey(cn, si.user));
+
+                            if (si.isPromise()) {
+                                if (si.hasStatusFlag(ShortcutInfo.FLAG_AUTOINTALL_ICON)) {
+                                    // Auto install icon
+                                    PackageManager pm = context.getPackageManager();
+                                    ResolveInfo matched = pm.resolveActivity(
+                                            new Intent(Intent.ACTION_MAIN)
+                                            .setComponent(cn).addCategory(Intent.CATEGORY_LAUNCHER),
+                                            PackageManager.MATCH_DEFAULT_ONLY);
+                                    if (matched == null) {
+                                        // Try to find the best match activity.
+                                        Intent intent = pm.getLaunchIntentForPackage(
+                                                cn.getPackageName());
+                                        if (intent != null) {
+                                            cn = intent.getComponent();
+                                            appInfo = addedOrUpdatedApps.get(
+                                                    new ComponentKey(cn, si.user));
                                         }
-                                    }
 
-                                    // Restore the shortcut.
-                                    si.intent = si.promisedIntent;
-                                    si.promisedIntent = null;
-                                    si.status &= ~ShortcutInfo.FLAG_RESTORED_ICON
-                                            & ~ShortcutInfo.FLAG_AUTOINTALL_ICON
-                                            & ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
-                                    if (appInfo != null) {
-                                        si.flags = appInfo.flags;
+                                        if ((intent == null) || (appInfo == null)) {
+                                            removedShortcuts.get(si.user).add(si);
+                                            continue;
+                                        }
+                                        si.promisedIntent = intent;
                                     }
-
-                                    infoUpdated = true;
-                                    si.updateIcon(mIconCache);
                                 }
 
-                                if (appInfo != null && Intent.ACTION_MAIN.equals(si.intent.getAction())
-                                        && si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                    si.updateIcon(mIconCache);
-                                    si.title = appInfo.title.toString();
-                                    si.contentDescription = appInfo.contentDescription;
-                                    infoUpdated = true;
+                                // Restore the shortcut.
+                                si.intent = si.promisedIntent;
+                                si.promisedIntent = null;
+                                si.status &= ~ShortcutInfo.FLAG_RESTORED_ICON
+                                        & ~ShortcutInfo.FLAG_AUTOINTALL_ICON
+                                        & ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
+                                if (appInfo != null) {
+                                    si.flags = appInfo.flags;
                                 }
 
-                                if ((si.isDisabled & ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE) != 0) {
-                                    // Since package was just updated, the target must be available now.
-                                    si.isDisabled &= ~ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
-                                    shortcutUpdated = true;
-                                }
+                                infoUpdated = true;
+                                si.updateIcon(mIconCache);
                             }
 
-                            if (infoUpdated || shortcutUpdated) {
-                                updatedShortcuts.add(si);
+                            if (appInfo != null && Intent.ACTION_MAIN.equals(si.intent.getAction())
+                                    && si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                                si.updateIcon(mIconCache);
+                                si.title = appInfo.title.toString();
+                                si.contentDescription = appInfo.contentDescription;
+                                infoUpdated = true;
                             }
-                            if (infoUpdated) {
-                                updateItemInDatabase(context, si);
-                            }
-                        } else if (info instanceof LauncherAppWidgetInfo) {
-                            LauncherAppWidgetInfo widgetInfo = (LauncherAppWidgetInfo) info;
-                            if (mUser.equals(widgetInfo.user)
-                                    && widgetInfo.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)
-                                    && packageSet.contains(widgetInfo.providerName.getPackageName())) {
-                                widgetInfo.restoreStatus &= ~LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY;
-                                widgets.add(widgetInfo);
-                                updateItemInDatabase(context, widgetInfo);
+
+                            if ((si.isDisabled & ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE) != 0) {
+                                // Since package was just updated, the target must be available now.
+                                si.isDisabled &= ~ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
+                                shortcutUpdated = true;
                             }
                         }
+
+                        if (infoUpdated || shortcutUpdated) {
+                            updatedShortcuts.get(si.user).add(si);
+                        }
+                        if (infoUpdated) {
+                            updateItemInDatabase(context, si);
+                        }
+                    } else if (info instanceof LauncherAppWidgetInfo) {
+                        LauncherAppWidgetInfo widgetInfo = (LauncherAppWidgetInfo) info;
+                        if (widgetInfo.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)
+                                && packageSet.contains(widgetInfo.providerName.getPackageName())) {
+                            widgetInfo.restoreStatus &= ~LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY;
+                            widgets.add(widgetInfo);
+                            updateItemInDatabase(context, widgetInfo);
+                        }
                     }
                 }
+            }
 
-                if (!updatedShortcuts.isEmpty() || !removedShortcuts.isEmpty()) {
+            for (final UserHandleCompat user : updatedPackages.keySet()) {
+                final ArrayList<ShortcutInfo> userUpdatedShortcuts = updatedShortcuts.get(user);
+                final ArrayList<ShortcutInfo> userRemovedShortcuts = removedShortcuts.get(user);
+                if (!userUpdatedShortcuts.isEmpty() || !userRemovedShortcuts.isEmpty()) {
                     mHandler.post(new Runnable() {
 
                         public void run() {
                             Callbacks cb = getCallback();
                             if (callbacks == cb && cb != null) {
                                 callbacks.bindShortcutsChanged(
-                                        updatedShortcuts, removedShortcuts, mUser);
+                                        userUpdatedShortcuts, userRemovedShortcuts, user);
                             }
                         }
                     });
-                    if (!removedShortcuts.isEmpty()) {
-                        deleteItemsFromDatabase(context, removedShortcuts);
-                    }
-                }
-                if (!widgets.isEmpty()) {
-                    mHandler.post(new Runnable() {
-                        public void run() {
-                            Callbacks cb = getCallback();
-                            if (callbacks == cb && cb != null) {
-                                callbacks.bindWidgetsRestored(widgets);
-                            }
-                        }
-                    });
-                }
-            }
-
-            final ArrayList<String> removedPackageNames =
-                    new ArrayList<String>();
-            if (mOp == OP_REMOVE || mOp == OP_UNAVAILABLE) {
-                // Mark all packages in the broadcast to be removed
-                removedPackageNames.addAll(Arrays.asList(packages));
-            } else if (mOp == OP_UPDATE) {
-                // Mark disabled packages in the broadcast to be removed
-                for (int i=0; i<N; i++) {
-                    if (isPackageDisabled(context, packages[i], mUser)) {
-                        removedPackageNames.add(packages[i]);
+                    if (!userRemovedShortcuts.isEmpty()) {
+                        deleteItemsFromDatabase(context, userRemovedShortcuts);
                     }
                 }
             }
-
-            if (!removedPackageNames.isEmpty() || !removedApps.isEmpty()) {
-                final int removeReason;
-                if (mOp == OP_UNAVAILABLE) {
-                    removeReason = ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
-                } else {
-                    // Remove all the components associated with this package
-                    for (String pn : removedPackageNames) {
-                        deletePackageFromDatabase(context, pn, mUser);
-                    }
-                    // Remove all the specific components
-                    for (AppInfo a : removedApps) {
-                        ArrayList<ItemInfo> infos = getItemInfoForComponentName(a.componentName, mUser);
-                        deleteItemsFromDatabase(context, infos);
-                    }
-                    removeReason = 0;
-                }
-
-                // Remove any queued items from the install queue
-                InstallShortcutReceiver.removeFromInstallQueue(context, removedPackageNames, mUser);
-                // Call the components-removed callback
+            if (!widgets.isEmpty()) {
                 mHandler.post(new Runnable() {
                     public void run() {
                         Callbacks cb = getCallback();
                         if (callbacks == cb && cb != null) {
-                            callbacks.bindComponentsRemoved(
-                                    removedPackageNames, removedApps, mUser, removeReason);
+                            callbacks.bindWidgetsRestored(widgets);
                         }
                     }
                 });
             }
+        }
 
-            final ArrayList<Object> widgetsAndShortcuts =
-                    getSortedWidgetsAndShortcuts(context, true /* refresh */);
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Callbacks cb = getCallback();
-                    if (callbacks == cb && cb != null) {
-                        callbacks.bindPackagesUpdated(widgetsAndShortcuts);
-                    }
+        /**
+         * Removes the items of {@param removedPackageNames} and {@param removedApps}, deleting
+         * them from the database unless {@param removeReason} is set.
+         */
+        private void removeComponents(Context context, final Callbacks callbacks,
+                final UserHandleCompat user, final ArrayList<String> removedPackageNames,
+                final ArrayList<AppInfo> removedApps, final int removeReason) {
+            if (removedPackageNames.isEmpty() && removedApps.isEmpty()) {
+                return;
+            }
+            if (removeReason == 0) {
+                // Remove all the components associated with this package
+                for (String pn : removedPackageNames) {
+                    deletePackageFromDatabase(context, pn, user);
                 }
-            });
+                // Remove all the specific components
+                for (AppInfo a : removedApps) {
+                    ArrayList<ItemInfo> infos = getItemInfoForComponentName(a.componentName, user);
+                    deleteItemsFromDatabase(context, infos);
+                }
+            }
 
-            // Write all the logs to disk
+            // Remove any queued items from the install queue
+            InstallShortcutReceiver.removeFromInstallQueue(context, removedPackageNames, user);
+            // Call the components-removed callback
             mHandler.post(new Runnable() {
                 public void run() {
                     Callbacks cb = getCallback();
                     if (callbacks == cb && cb != null) {
-                        callbacks.dumpLogsToLocalData();
+                        callbacks.bindComponentsRemoved(
+                                removedPackageNames, removedApps, user, removeReason);
                     }
                 }
             });
@@ -3464,7 +4292,12 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
-        return filterItemInfos(sBgItemsIdMap.values(), filter);
+        ArrayList<ItemInfo> items;
+        synchronized (sBgLock) {
+            items = sBgPackageIndex.getItems(cname.getPackageName(), user);
+            items.addAll(sBgPackageIndex.getItems(cname.getPackageName(), null));
+        }
+        return filterItemInfos(items, filter);
     }
 
     /**
@@ -3570,6 +4403,135 @@ public class LauncherModel extends BroadcastReceiver
         return info;
     }
 
+    /**
+     * Returns the executor resolving the workspace shards, shared by all the loads.
+     */
+    @Thunk static synchronized ExecutorService getShardExecutor() {
+        if (sShardExecutor == null) {
+            final int threadCount = Math.min(MAX_WORKSPACE_LOADER_THREADS,
+                    Runtime.getRuntime().availableProcessors());
+            sShardExecutor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "launcher-loader-shard");
+                        }
+                    });
+            sShardExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sShardExecutor;
+    }
+
+    /**
+     * Waits for all the shard results, so that every shard is done with its cursor.
+     * @return the results, in the order of the shards, or null if any shard failed. A partial
+     * result must never be merged, as the items of the missing shard would then be dropped from
+     * the model and their screens removed as empty.
+     */
+    static <T> ArrayList<T> getShardResults(ArrayList<Future<T>> results) {
+        final ArrayList<T> states = new ArrayList<T>(results.size());
+        boolean failed = false;
+        for (Future<T> result : results) {
+            try {
+                states.add(result.get());
+            } catch (InterruptedException | ExecutionException e) {
+                Launcher.addDumpLog(TAG, "Desktop items shard failed, loading serially", e, true);
+                failed = true;
+            }
+        }
+        return failed ? null : states;
+    }
+
+    /**
+     * Holds the items resolved from a set of favorites rows. The serial loader resolves directly
+     * into the sBg data structures, while each parallel shard resolves into its own instance,
+     * which is then merged while holding sBgLock.
+     */
+    private static class WorkspaceLoadState {
+        final HashMap<Long, ItemInfo> itemsIdMap;
+        final ArrayList<ItemInfo> workspaceItems;
+        final ArrayList<LauncherAppWidgetInfo> appWidgets;
+        final HashMap<Long, FolderInfo> folders;
+        final HashMap<UserHandleCompat, HashSet<String>> pendingPackages;
+
+        final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
+        final ArrayList<Long> restoredRows = new ArrayList<Long>();
+        final HashMap<Long, ItemInfo[][]> occupied = new HashMap<Long, ItemInfo[][]>();
+
+        WorkspaceLoadState() {
+            this(new HashMap<Long, ItemInfo>(), new ArrayList<ItemInfo>(),
+                    new ArrayList<LauncherAppWidgetInfo>(), new HashMap<Long, FolderInfo>(),
+                    new HashMap<UserHandleCompat, HashSet<String>>());
+        }
+
+        WorkspaceLoadState(HashMap<Long, ItemInfo> itemsIdMap,
+                ArrayList<ItemInfo> workspaceItems, ArrayList<LauncherAppWidgetInfo> appWidgets,
+                HashMap<Long, FolderInfo> folders,
+                HashMap<UserHandleCompat, HashSet<String>> pendingPackages) {
+            this.itemsIdMap = itemsIdMap;
+            this.workspaceItems = workspaceItems;
+            this.appWidgets = appWidgets;
+            this.folders = folders;
+            this.pendingPackages = pendingPackages;
+        }
+
+        /**
+         * Merges the results of the parallel shards into this state. The folders of
+         * {@param boundShard}, if any, are already bound and are never modified.
+         */
+        void merge(ArrayList<WorkspaceLoadState> shards, WorkspaceLoadState boundShard) {
+            for (WorkspaceLoadState shard : shards) {
+                itemsIdMap.putAll(shard.itemsIdMap);
+                workspaceItems.addAll(shard.workspaceItems);
+                appWidgets.addAll(shard.appWidgets);
+                itemsToRemove.addAll(shard.itemsToRemove);
+                restoredRows.addAll(shard.restoredRows);
+                occupied.putAll(shard.occupied);
+
+                for (Entry<UserHandleCompat, HashSet<String>> entry
+                        : shard.pendingPackages.entrySet()) {
+                    HashSet<String> pkgs = pendingPackages.get(entry.getKey());
+                    if (pkgs == null) {
+                        pkgs = new HashSet<String>();
+                        pendingPackages.put(entry.getKey(), pkgs);
+                    }
+                    pkgs.addAll(entry.getValue());
+                }
+
+                // A folder is loaded by the shard of the screen it is on, while its contents are
+                // loaded by the folder's own shard. Keep the instance created from the folder row,
+                // which is the one referenced by the workspace items.
+                for (FolderInfo folder : shard.folders.values()) {
+                    if (shard.itemsIdMap.get(folder.id) == folder) {
+                        folders.put(folder.id, folder);
+                    }
+                }
+            }
+
+            // Move the contents loaded into placeholder folders into the actual folders.
+            for (WorkspaceLoadState shard : shards) {
+                for (Entry<Long, FolderInfo> entry : shard.folders.entrySet()) {
+                    FolderInfo placeholder = entry.getValue();
+                    if (shard.itemsIdMap.get(placeholder.id) == placeholder) {
+                        continue;
+                    }
+                    FolderInfo folder = findOrMakeFolder(folders, entry.getKey());
+                    if (boundShard != null && boundShard.folders.get(folder.id) == folder) {
+                        // The first page selection loads all the contents of its folders.
+                        Log.w(TAG, "Not adding " + placeholder.contents.size()
+                                + " items to bound folder " + folder.id);
+                        continue;
+                    }
+                    if (folder != placeholder) {
+                        for (ShortcutInfo item : placeholder.contents) {
+                            folder.add(item);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Return an existing FolderInfo object if we have encountered this ID previously,
      * or make a new one.
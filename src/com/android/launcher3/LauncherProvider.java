@@ -33,6 +33,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -59,18 +60,22 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Random;
 
 public class LauncherProvider extends ContentProvider {
     private static final String TAG = "Launcher.LauncherProvider";
     private static final boolean LOGD = false;
 
-    private static final int DATABASE_VERSION = 24;
+    static final int DATABASE_VERSION = 25;
 
     static final String OLD_AUTHORITY = "com.android.launcher2.settings";
     static final String AUTHORITY = ProviderConfig.AUTHORITY;
 
     static final String TABLE_FAVORITES = LauncherSettings.Favorites.TABLE_NAME;
     static final String TABLE_WORKSPACE_SCREENS = LauncherSettings.WorkspaceScreens.TABLE_NAME;
+    // A single row holding the generation of the DB, bumped by triggers on the other tables.
+    static final String TABLE_DB_GENERATION = "dbGeneration";
+    private static final String COLUMN_GENERATION = "generation";
     static final String EMPTY_DATABASE_CREATED = "EMPTY_DATABASE_CREATED";
 
     private static final String URI_PARAM_IS_EXTERNAL_ADD = "isExternalAdd";
@@ -89,6 +94,16 @@ public class LauncherProvider extends ContentProvider {
 
     private DatabaseHelper mOpenHelper;
 
+    /**
+     * Set while {@link #applyBatch} runs on a thread, so that its operations notify the
+     * listeners once for the whole batch.
+     */
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
+
+    private static class BatchState {
+        boolean changed;
+    }
+
     @Override
     public boolean onCreate() {
         final Context context = getContext();
@@ -203,16 +218,82 @@ public class LauncherProvider extends ContentProvider {
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        mBatch.set(batch);
+        boolean success = false;
         db.beginTransaction();
         try {
             ContentProviderResult[] result =  super.applyBatch(operations);
             db.setTransactionSuccessful();
+            success = true;
             return result;
         } finally {
             db.endTransaction();
+            mBatch.remove();
+            // The operations only marked the batch as changed, notify once it is committed.
+            if (success && batch.changed) {
+                notifyListeners();
+            }
         }
     }
 
+    /**
+     * Applies {@param ops} to the favorites in a single transaction. Unlike a batch of
+     * {@link ContentProviderOperation}s, the operations do not go through {@link Uri} parsing
+     * and the listeners are notified only once, after the transaction is committed.
+     *
+     * @return the ids of the inserted items, in the order in which they were added to
+     *         {@param ops}, or null if an item could not be inserted, in which case none of the
+     *         operations are applied.
+     */
+    public long[] applyItemOps(ItemOps ops) {
+        long[] ids = new long[ops.mInsertCount];
+        if (ops.mOps.isEmpty()) {
+            return ids;
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int insertIndex = 0;
+        boolean changed = false;
+        db.beginTransaction();
+        try {
+            for (ItemOps.Op op : ops.mOps) {
+                switch (op.type) {
+                    case ItemOps.Op.INSERT:
+                        if (!op.values.containsKey(Favorites._ID)) {
+                            op.values.put(Favorites._ID, mOpenHelper.generateNewItemId());
+                        }
+                        addModifiedTime(op.values);
+                        if (dbInsertAndCheck(mOpenHelper, db, TABLE_FAVORITES, null,
+                                op.values) < 0) {
+                            Log.e(TAG, "Error inserting " + op.values + ", discarding the batch");
+                            return null;
+                        }
+                        ids[insertIndex++] = op.values.getAsLong(Favorites._ID);
+                        changed = true;
+                        break;
+                    case ItemOps.Op.UPDATE:
+                        addModifiedTime(op.values);
+                        changed |= db.update(TABLE_FAVORITES, op.values,
+                                Favorites._ID + "=" + op.id, null) > 0;
+                        break;
+                    case ItemOps.Op.DELETE:
+                        changed |= db.delete(TABLE_FAVORITES,
+                                Favorites._ID + "=" + op.id, null) > 0;
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (changed) {
+            notifyListeners();
+        }
+        return ids;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
@@ -237,6 +318,11 @@ public class LauncherProvider extends ContentProvider {
     }
 
     private void notifyListeners() {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.changed = true;
+            return;
+        }
         // always notify the backup agent
         LauncherBackupAgentHelper.dataChanged(getContext());
         if (mListener != null) {
@@ -252,6 +338,24 @@ public class LauncherProvider extends ContentProvider {
         return mOpenHelper.generateNewItemId();
     }
 
+    /**
+     * @return the largest item id handed out so far.
+     */
+    public long getMaxItemId() {
+        return mOpenHelper.getMaxItemId();
+    }
+
+    /**
+     * Returns a counter which is incremented every time the contents of the database change.
+     * The value is stored in the database and bumped in the same transaction as each change, so
+     * it can be used to check whether data derived from the database in a previous process (such
+     * as the {@link WorkspaceSnapshot}) is still valid.
+     */
+    public long getDbGeneration() {
+        return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                "SELECT " + COLUMN_GENERATION + " FROM " + TABLE_DB_GENERATION, null);
+    }
+
     public void updateMaxItemId(long id) {
         mOpenHelper.updateMaxItemId(id);
     }
@@ -465,6 +569,7 @@ public class LauncherProvider extends ContentProvider {
                     "options INTEGER NOT NULL DEFAULT 0" +
                     ");");
             addWorkspacesTable(db);
+            addGenerationTable(db);
 
             // Database was just created, so wipe any previous widgets
             if (mAppWidgetHost != null) {
@@ -485,6 +590,32 @@ public class LauncherProvider extends ContentProvider {
                     ");");
         }
 
+        /**
+         * Adds the table holding the generation of the DB, and the triggers bumping it on every
+         * change of the other tables. The triggers are dropped with their tables, so this must be
+         * called again whenever the other tables are recreated.
+         */
+        private void addGenerationTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_DB_GENERATION + " (" +
+                    COLUMN_GENERATION + " INTEGER NOT NULL" +
+                    ");");
+            // Starts at a random value, so that a recreated DB does not validate the data
+            // derived from the previous one.
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_GENERATION, new Random().nextLong() & 0xffffffffffffL);
+            db.insertOrThrow(TABLE_DB_GENERATION, null, values);
+
+            for (String table : new String[] {TABLE_FAVORITES, TABLE_WORKSPACE_SCREENS}) {
+                for (String event : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+                    db.execSQL("CREATE TRIGGER " + table + "_generation_" + event +
+                            " AFTER " + event + " ON " + table + " BEGIN " +
+                            "UPDATE " + TABLE_DB_GENERATION + " SET " + COLUMN_GENERATION +
+                            " = " + COLUMN_GENERATION + " + 1; " +
+                            "END;");
+                }
+            }
+        }
+
         private void removeOrphanedItems(SQLiteDatabase db) {
             // Delete items directly on the workspace who's screen id doesn't exist
             //  "DELETE FROM favorites WHERE screen NOT IN (SELECT _id FROM workspaceScreens)
@@ -620,7 +751,9 @@ public class LauncherProvider extends ContentProvider {
                 }
                 case 23:
                     convertShortcutsToLauncherActivities(db);
-                case 24: {
+                case 24:
+                    addGenerationTable(db);
+                case 25: {
                     // DB Upgraded successfully
                     return;
                 }
@@ -645,6 +778,7 @@ public class LauncherProvider extends ContentProvider {
         public void createEmptyDB(SQLiteDatabase db) {
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKSPACE_SCREENS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_DB_GENERATION);
             onCreate(db);
         }
 
@@ -832,6 +966,10 @@ public class LauncherProvider extends ContentProvider {
             mMaxItemId = id + 1;
         }
 
+        public long getMaxItemId() {
+            return mMaxItemId;
+        }
+
         public void checkId(String table, ContentValues values) {
             long id = values.getAsLong(LauncherSettings.BaseLauncherColumns._ID);
             if (table == LauncherProvider.TABLE_WORKSPACE_SCREENS) {
@@ -953,22 +1091,31 @@ public class LauncherProvider extends ContentProvider {
 
         @Thunk int loadFavorites(SQLiteDatabase db, AutoInstallsLayout loader) {
             ArrayList<Long> screenIds = new ArrayList<Long>();
-            // TODO: Use multiple loaders with fall-back and transaction.
-            int count = loader.loadLayout(db, screenIds);
-
-            // Add the screens specified by the items above
-            Collections.sort(screenIds);
-            int rank = 0;
-            ContentValues values = new ContentValues();
-            for (Long id : screenIds) {
-                values.clear();
-                values.put(LauncherSettings.WorkspaceScreens._ID, id);
-                values.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, rank);
-                if (dbInsertAndCheck(this, db, TABLE_WORKSPACE_SCREENS, null, values) < 0) {
-                    throw new RuntimeException("Failed initialize screen table"
-                            + "from default layout");
+            int count;
+            // Import the whole layout in one transaction, rather than committing every item
+            // and screen separately.
+            // TODO: Use multiple loaders with fall-back.
+            db.beginTransaction();
+            try {
+                count = loader.loadLayout(db, screenIds);
+
+                // Add the screens specified by the items above
+                Collections.sort(screenIds);
+                int rank = 0;
+                ContentValues values = new ContentValues();
+                for (Long id : screenIds) {
+                    values.clear();
+                    values.put(LauncherSettings.WorkspaceScreens._ID, id);
+                    values.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, rank);
+                    if (dbInsertAndCheck(this, db, TABLE_WORKSPACE_SCREENS, null, values) < 0) {
+                        throw new RuntimeException("Failed initialize screen table"
+                                + "from default layout");
+                    }
+                    rank++;
                 }
-                rank++;
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
 
             // Ensure that the max ids are initialized
@@ -1295,6 +1442,55 @@ public class LauncherProvider extends ContentProvider {
         return id;
     }
 
+    /**
+     * A list of inserts, updates and deletes of favorites, to be applied together by
+     * {@link LauncherProvider#applyItemOps}.
+     */
+    public static class ItemOps {
+        @Thunk static class Op {
+            static final int INSERT = 0;
+            static final int UPDATE = 1;
+            static final int DELETE = 2;
+
+            final int type;
+            final long id;
+            final ContentValues values;
+
+            Op(int type, long id, ContentValues values) {
+                this.type = type;
+                this.id = id;
+                this.values = values;
+            }
+        }
+
+        @Thunk final ArrayList<Op> mOps = new ArrayList<Op>();
+        @Thunk int mInsertCount;
+
+        /**
+         * Inserts an item. A new id is generated unless {@param values} already contains one.
+         * The id and modification time are added to {@param values}.
+         */
+        public ItemOps insert(ContentValues values) {
+            mOps.add(new Op(Op.INSERT, -1, values));
+            mInsertCount++;
+            return this;
+        }
+
+        public ItemOps update(long id, ContentValues values) {
+            mOps.add(new Op(Op.UPDATE, id, values));
+            return this;
+        }
+
+        public ItemOps delete(long id) {
+            mOps.add(new Op(Op.DELETE, id, null));
+            return this;
+        }
+
+        public int size() {
+            return mOps.size();
+        }
+    }
+
     static class SqlArguments {
         public final String table;
         public final String where;
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.util.Pair;
+
+import com.android.launcher3.compat.UserHandleCompat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * An index of the loaded items by the packages they reference, so that package updates only go
+ * through the items of the package instead of all the items.
+ *
+ * A shortcut is indexed under the package of its target and the package of its icon resource, a
+ * widget under the package of its provider. Folders are not indexed, their contents are indexed
+ * like the other shortcuts.
+ *
+ * The index is not thread safe, it is guarded by {@link LauncherModel#sBgLock} like
+ * {@link LauncherModel#sBgItemsIdMap} which it mirrors.
+ */
+class PackageItemIndex {
+
+    private final HashMap<Pair<String, UserHandleCompat>, ArrayList<ItemInfo>> mItems =
+            new HashMap<Pair<String, UserHandleCompat>, ArrayList<ItemInfo>>();
+    // The keys under which each item was indexed, which may no longer match the item.
+    private final HashMap<ItemInfo, ArrayList<Pair<String, UserHandleCompat>>> mKeys =
+            new HashMap<ItemInfo, ArrayList<Pair<String, UserHandleCompat>>>();
+
+    /**
+     * Indexes {@param item}, or indexes it again if the packages it references changed.
+     */
+    void add(ItemInfo item) {
+        remove(item);
+        ArrayList<Pair<String, UserHandleCompat>> keys = getKeys(item);
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (Pair<String, UserHandleCompat> key : keys) {
+            ArrayList<ItemInfo> items = mItems.get(key);
+            if (items == null) {
+                items = new ArrayList<ItemInfo>(1);
+                mItems.put(key, items);
+            }
+            items.add(item);
+        }
+        mKeys.put(item, keys);
+    }
+
+    void remove(ItemInfo item) {
+        ArrayList<Pair<String, UserHandleCompat>> keys = mKeys.remove(item);
+        if (keys == null) {
+            return;
+        }
+        for (Pair<String, UserHandleCompat> key : keys) {
+            ArrayList<ItemInfo> items = mItems.get(key);
+            if (items != null) {
+                items.remove(item);
+                if (items.isEmpty()) {
+                    mItems.remove(key);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        mItems.clear();
+        mKeys.clear();
+    }
+
+    /**
+     * Replaces the indexed items with {@param items}.
+     */
+    void rebuild(Collection<ItemInfo> items) {
+        clear();
+        for (ItemInfo item : items) {
+            add(item);
+        }
+    }
+
+    /**
+     * Returns the items referencing {@param packageName} for {@param user}. The callers still
+     * need to check how the items reference the package.
+     */
+    ArrayList<ItemInfo> getItems(String packageName, UserHandleCompat user) {
+        ArrayList<ItemInfo> items = mItems.get(Pair.create(packageName, user));
+        return items == null ? new ArrayList<ItemInfo>() : new ArrayList<ItemInfo>(items);
+    }
+
+    private static ArrayList<Pair<String, UserHandleCompat>> getKeys(ItemInfo item) {
+        ArrayList<Pair<String, UserHandleCompat>> keys =
+                new ArrayList<Pair<String, UserHandleCompat>>(2);
+        if (item instanceof ShortcutInfo) {
+            ShortcutInfo si = (ShortcutInfo) item;
+            ComponentName cn = si.getTargetComponent();
+            if (cn != null) {
+                keys.add(Pair.create(cn.getPackageName(), item.user));
+            }
+            if (si.iconResource != null && si.iconResource.packageName != null
+                    && (cn == null || !si.iconResource.packageName.equals(cn.getPackageName()))) {
+                keys.add(Pair.create(si.iconResource.packageName, item.user));
+            }
+        } else if (item instanceof LauncherAppWidgetInfo) {
+            ComponentName provider = ((LauncherAppWidgetInfo) item).providerName;
+            if (provider != null) {
+                keys.add(Pair.create(provider.getPackageName(), item.user));
+            }
+        }
+        return keys;
+    }
+}
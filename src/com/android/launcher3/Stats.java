@@ -17,11 +17,18 @@
 package com.android.launcher3;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.util.Log;
 
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.Thunk;
+
+import java.util.HashMap;
+
 public class Stats {
     private static final boolean DEBUG_BROADCASTS = false;
 
@@ -32,11 +39,21 @@ public class Stats {
     public static final String EXTRA_CELLX = "cellX";
     public static final String EXTRA_CELLY = "cellY";
 
-    private final Launcher mLauncher;
+    @Thunk final Launcher mLauncher;
     private final String mLaunchBroadcastPermission;
+    private final LaunchHistory mLaunchHistory;
 
     public Stats(Launcher launcher) {
         mLauncher = launcher;
+        mLaunchHistory = new LaunchHistory(launcher, new LaunchHistory.Callback() {
+            @Override
+            public void onScoresUpdated(HashMap<ComponentKey, Float> scores) {
+                AppsContainerView appsView = mLauncher.getAppsView();
+                if (appsView != null) {
+                    appsView.setPredictionScores(scores);
+                }
+            }
+        });
         mLaunchBroadcastPermission =
                 launcher.getResources().getString(R.string.receive_launch_broadcasts_permission);
 
@@ -60,13 +77,24 @@ public class Stats {
         recordLaunch(intent, null);
     }
 
-    public void recordLaunch(Intent intent, ShortcutInfo shortcut) {
+    /**
+     * Records a launch of {@param intent}, from {@param info} if it was launched from a shortcut
+     * or from all apps.
+     */
+    public void recordLaunch(Intent intent, ItemInfo info) {
+        ComponentName component = intent.getComponent();
+        if (component != null) {
+            UserHandleCompat user = info != null ? info.user : UserHandleCompat.myUserHandle();
+            mLaunchHistory.recordLaunch(new ComponentKey(component, user));
+        }
+
         intent = new Intent(intent);
         intent.setSourceBounds(null);
 
         final String flat = intent.toUri(0);
         Intent broadcastIntent = new Intent(ACTION_LAUNCH).putExtra(EXTRA_INTENT, flat);
-        if (shortcut != null) {
+        if (info instanceof ShortcutInfo) {
+            ShortcutInfo shortcut = (ShortcutInfo) info;
             broadcastIntent.putExtra(EXTRA_CONTAINER, shortcut.container)
                     .putExtra(EXTRA_SCREEN, shortcut.screenId)
                     .putExtra(EXTRA_CELLX, shortcut.cellX)
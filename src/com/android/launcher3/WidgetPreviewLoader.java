@@ -1,5 +1,6 @@
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -8,6 +9,7 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -23,25 +25,36 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LatencyTracker;
 import com.android.launcher3.util.Thunk;
-import com.android.launcher3.widget.WidgetCell;
 
-import java.lang.ref.WeakReference;
-import java.util.Collections;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class WidgetPreviewLoader {
 
@@ -50,9 +63,137 @@ public class WidgetPreviewLoader {
 
     private static final float WIDGET_PREVIEW_ICON_PADDING_PERCENTAGE = 0.25f;
 
+    // The loaded previews use at most this fraction of the memory class of the device, and the
+    // unused bitmaps kept for reuse at most this fraction of the loaded previews.
+    private static final int MEMORY_CACHE_FRACTION = 16;
+    private static final int BITMAP_POOL_FRACTION = 4;
+
+    private static final int PREVIEW_LOADER_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 1;
+    // Loads not started yet beyond this are dropped, oldest first, and requested again once a
+    // load finishes.
+    static final int MAX_PENDING_LOADS = 48;
+    private static final int MAX_TRACKED_LATENCIES = 256;
+
+    // The previews in the DB are trimmed, least recently used first, past this size.
+    private static final long MAX_DB_BYTES = 10 * 1024 * 1024;
+    // The GC runs in slices of at most this duration when the loader thread is idle, and
+    // removes at most this number of previews at once.
+    private static final long GC_SLICE_MILLIS = 8;
+    private static final int GC_BATCH_SIZE = 20;
+
+    private static final int STAT_MEMORY_HIT = 0;
+    private static final int STAT_DB_HIT = 1;
+    private static final int STAT_GENERATED = 2;
+    private static final int STAT_BITMAP_REUSED = 3;
+    private static final int STAT_BITMAP_ALLOCATED = 4;
+    private static final String[] STAT_NAMES = new String[] {
+            "memoryHits", "dbHits", "generated", "bitmapsReused", "bitmapsAllocated" };
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
-    private final HashMap<WidgetCacheKey, WeakReference<Bitmap>> mLoadedPreviews = new HashMap<>();
-    private Set<Bitmap> mUnusedBitmaps = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    // mLoadedPreviews also guards mCachedPreviews, mPreviewUseCounts and mBitmapPool.
+    @Thunk final LruCache<WidgetCacheKey, Bitmap> mLoadedPreviews;
+    // The values of mLoadedPreviews, to tell whether a released preview is still cached without
+    // going through the whole cache.
+    @Thunk final HashSet<Bitmap> mCachedPreviews = new HashSet<>();
+    // The number of cells showing each preview. A preview is only reused for another one once it
+    // is neither cached nor shown.
+    private final WeakHashMap<Bitmap, Integer> mPreviewUseCounts = new WeakHashMap<>();
+    @Thunk final BitmapPool mBitmapPool;
+
+    // Previews are loaded newest request first. Requests for the same preview share a task, and
+    // a task is dropped once all its requests are cancelled. Both guarded by mLoadQueue.
+    @Thunk final ArrayDeque<PreviewLoadTask> mLoadQueue = new ArrayDeque<>();
+    @Thunk final HashMap<WidgetCacheKey, PreviewLoadTask> mPendingLoads = new HashMap<>();
+    // The requests whose tasks were dropped from the full queue, to be retried by their callers
+    // once a load finishes, so that the retries do not drop each other. Guarded by mLoadQueue.
+    @Thunk final ArrayList<PreviewLoadRequest> mDroppedRequests = new ArrayList<>();
+    private final ThreadPoolExecutor mLoadExecutor;
+
+    /**
+     * Runs the newest task. One is posted for every task added to the queue, so it only finds an
+     * empty queue when a task was cancelled or dropped.
+     */
+    private final Runnable mRunNextLoad = new Runnable() {
+        @Override
+        public void run() {
+            PreviewLoadTask task;
+            synchronized (mLoadQueue) {
+                task = mLoadQueue.pollLast();
+                if (task != null) {
+                    mPendingLoads.remove(task.mKey);
+                }
+            }
+            if (task != null) {
+                task.run();
+            }
+            synchronized (mLoadQueue) {
+                if (!mDroppedRequests.isEmpty()) {
+                    mMainThreadExecutor.execute(mRetryDroppedRequests);
+                }
+            }
+        }
+    };
+
+    /**
+     * Lets the callers of the dropped requests request their previews again. Posted after a load
+     * finishes, once the queue has room. Runs on UI thread.
+     */
+    @Thunk final Runnable mRetryDroppedRequests = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<PreviewLoadRequest> requests;
+            synchronized (mLoadQueue) {
+                if (mDroppedRequests.isEmpty()) {
+                    return;
+                }
+                requests = new ArrayList<>(mDroppedRequests);
+                mDroppedRequests.clear();
+            }
+            for (PreviewLoadRequest request : requests) {
+                request.mCaller.onPreviewDropped(request);
+            }
+        }
+    };
+
+    // Guards the GC state below.
+    @Thunk final Object mGcLock = new Object();
+    // Packages whose previews are still to be removed.
+    @Thunk final ArrayDeque<ObsoletePackage> mObsoletePackages = new ArrayDeque<>();
+    // The rows read from the DB since the last GC slice, to update their access time.
+    @Thunk final HashSet<Long> mAccessedRows = new HashSet<>();
+    // The total size of the previews in the DB, or -1 if it needs to be counted again.
+    @Thunk long mDbBytes = -1;
+    @Thunk boolean mGcScheduled;
+
+    private final MessageQueue.IdleHandler mGcIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            boolean hasMore = runGcSlice();
+            synchronized (mGcLock) {
+                mGcScheduled = false;
+                if (hasMore) {
+                    scheduleGcLocked();
+                }
+            }
+            return false;
+        }
+    };
+
+    @Thunk final Runnable mAddGcIdleHandler = new Runnable() {
+        @Override
+        public void run() {
+            Looper.myQueue().addIdleHandler(mGcIdleHandler);
+        }
+    };
+
+    // The time between requesting a preview and applying it, for the recent loads.
+    @Thunk final LatencyTracker mLatencies = new LatencyTracker(MAX_TRACKED_LATENCIES);
+
+    // Counters of the current scroll session of the widgets list, and since the loader started.
+    private final AtomicIntegerArray mSessionStats = new AtomicIntegerArray(STAT_NAMES.length);
+    private final AtomicIntegerArray mTotalStats = new AtomicIntegerArray(STAT_NAMES.length);
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -68,10 +209,42 @@ public class WidgetPreviewLoader {
         mManager = AppWidgetManagerCompat.getInstance(context);
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
+
+        mLoadExecutor = new ThreadPoolExecutor(PREVIEW_LOADER_THREADS, PREVIEW_LOADER_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "widget-preview-" + mCount.incrementAndGet());
+                    }
+                });
+        mLoadExecutor.allowCoreThreadTimeOut(true);
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mBitmapPool = new BitmapPool(maxBytes / BITMAP_POOL_FRACTION);
+        mLoadedPreviews = new LruCache<WidgetCacheKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(WidgetCacheKey key, Bitmap preview) {
+                return preview.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, WidgetCacheKey key, Bitmap oldPreview,
+                    Bitmap newPreview) {
+                if (oldPreview != newPreview) {
+                    mCachedPreviews.remove(oldPreview);
+                    recycleIfUnusedLocked(oldPreview);
+                }
+            }
+        };
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
+     * Generates the widget preview on the preview loader threads, newest requests first. Must be
      * called on UI thread
      *
      * @param o either {@link LauncherAppWidgetProviderInfo} or {@link ResolveInfo}
@@ -80,22 +253,170 @@ public class WidgetPreviewLoader {
      * @return a request id which can be used to cancel the request.
      */
     public PreviewLoadRequest getPreview(final Object o, int previewWidth, int previewHeight,
-            WidgetCell caller, Bitmap[] immediateResult) {
+            PreviewCallback caller, Bitmap[] immediateResult) {
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = getObjectKey(o, size);
 
         // Check if we have the preview loaded or not.
         synchronized (mLoadedPreviews) {
-            WeakReference<Bitmap> ref = mLoadedPreviews.get(key);
-            if (ref != null && ref.get() != null) {
-                immediateResult[0] = ref.get();
-                return new PreviewLoadRequest(null, key);
+            Bitmap preview = mLoadedPreviews.get(key);
+            if (preview != null) {
+                acquirePreviewLocked(preview);
+                countStat(STAT_MEMORY_HIT);
+                immediateResult[0] = preview;
+                return new PreviewLoadRequest(caller);
+            }
+        }
+
+        PreviewLoadRequest request = new PreviewLoadRequest(caller);
+        synchronized (mLoadQueue) {
+            PreviewLoadTask task = mPendingLoads.get(key);
+            if (task == null) {
+                task = new PreviewLoadTask(key, o, previewWidth, previewHeight);
+                mPendingLoads.put(key, task);
+                mLoadQueue.addLast(task);
+                if (mLoadQueue.size() > MAX_PENDING_LOADS) {
+                    // The oldest requests are the least likely to still be on screen. Their
+                    // callers are still waiting, so they are told to request the preview again.
+                    PreviewLoadTask dropped = mLoadQueue.removeFirst();
+                    mPendingLoads.remove(dropped.mKey);
+                    for (PreviewLoadRequest r : dropped.mRequests) {
+                        r.mTask = null;
+                    }
+                    mDroppedRequests.addAll(dropped.mRequests);
+                    dropped.mRequests.clear();
+                }
+                mLoadExecutor.execute(mRunNextLoad);
+            } else {
+                // Serve the merged request with the newest ones.
+                mLoadQueue.remove(task);
+                mLoadQueue.addLast(task);
+            }
+            task.mRequests.add(request);
+            request.mTask = task;
+        }
+        return request;
+    }
+
+    /**
+     * Applies a loaded preview to the cells waiting for it. The use of the preview held by the
+     * task is handed to the first cell. Called on UI thread.
+     */
+    @Thunk void deliverPreview(PreviewLoadTask task, Bitmap preview) {
+        ArrayList<PreviewLoadRequest> requests;
+        synchronized (mLoadQueue) {
+            requests = new ArrayList<>(task.mRequests);
+            for (PreviewLoadRequest request : requests) {
+                request.mTask = null;
+            }
+            task.mRequests.clear();
+        }
+
+        // Keep the preview even if all the requests were cancelled, in case the cells scroll
+        // back into view.
+        synchronized (mLoadedPreviews) {
+            // Added first, as the cache may evict the preview right away if it is too large.
+            mCachedPreviews.add(preview);
+            mLoadedPreviews.put(task.mKey, preview);
+            if (requests.isEmpty()) {
+                releasePreviewLocked(preview);
+            }
+            for (int i = requests.size(); i > 1; i--) {
+                acquirePreviewLocked(preview);
+            }
+        }
+
+        long now = SystemClock.uptimeMillis();
+        for (PreviewLoadRequest request : requests) {
+            request.mCaller.applyPreview(preview);
+            mLatencies.add(now - request.mRequestTime);
+        }
+    }
+
+    /**
+     * Called when a preview returned by {@link #getPreview} is no longer shown by its caller, so
+     * that its bitmap can be reused once it is evicted from the cache.
+     */
+    public void releasePreview(Bitmap preview) {
+        synchronized (mLoadedPreviews) {
+            releasePreviewLocked(preview);
+        }
+    }
+
+    private void releasePreviewLocked(Bitmap preview) {
+        Integer count = mPreviewUseCounts.get(preview);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mPreviewUseCounts.put(preview, count - 1);
+            return;
+        }
+        mPreviewUseCounts.remove(preview);
+        if (!mCachedPreviews.contains(preview)) {
+            mBitmapPool.put(preview);
+        }
+    }
+
+    @Thunk void acquirePreviewLocked(Bitmap preview) {
+        Integer count = mPreviewUseCounts.get(preview);
+        mPreviewUseCounts.put(preview, count == null ? 1 : count + 1);
+    }
+
+    @Thunk void recycleIfUnusedLocked(Bitmap preview) {
+        if (!mPreviewUseCounts.containsKey(preview)) {
+            mBitmapPool.put(preview);
+        }
+    }
+
+    /**
+     * Starts counting the cache hits and misses of a new scroll session of the widgets list.
+     */
+    public void startScrollSession() {
+        for (int i = 0; i < STAT_NAMES.length; i++) {
+            mSessionStats.set(i, 0);
+        }
+    }
+
+    /**
+     * Ends the scroll session started by {@link #startScrollSession}.
+     */
+    public void endScrollSession() {
+        if (DEBUG) {
+            Log.d(TAG, "Scroll session: " + formatStats(mSessionStats)
+                    + ", preview latency (ms): " + mLatencies);
+        }
+    }
+
+    @Thunk void countStat(int stat) {
+        mSessionStats.incrementAndGet(stat);
+        mTotalStats.incrementAndGet(stat);
+    }
+
+    private static String formatStats(AtomicIntegerArray stats) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STAT_NAMES.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
             }
+            sb.append(STAT_NAMES[i]).append('=').append(stats.get(i));
         }
+        return sb.toString();
+    }
 
-        PreviewLoadTask task = new PreviewLoadTask(key, o, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        return new PreviewLoadRequest(task, key);
+    /**
+     * Prints the memory usage and the hit/miss counters of the loader.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mLoadedPreviews) {
+            writer.println(prefix + "WidgetPreviewLoader: " + mLoadedPreviews.size() + "/"
+                    + mLoadedPreviews.maxSize() + " bytes in memory, "
+                    + mLoadedPreviews.evictionCount() + " evictions, "
+                    + mBitmapPool.getBytes() + " bytes pooled");
+        }
+        writer.println(prefix + "  total: " + formatStats(mTotalStats));
+        writer.println(prefix + "  last scroll session: " + formatStats(mSessionStats));
+        writer.println(prefix + "  preview latency (ms): " + mLatencies);
     }
 
     /**
@@ -103,16 +424,22 @@ public class WidgetPreviewLoader {
      * sizes (landscape vs portrait).
      */
     private static class CacheDb extends SQLiteOpenHelper {
-        private static final int DB_VERSION = 3;
+        private static final int DB_VERSION = 4;
 
         private static final String TABLE_NAME = "shortcut_and_widget_previews";
+        private static final String COLUMN_ROWID = "rowid";
         private static final String COLUMN_COMPONENT = "componentName";
         private static final String COLUMN_USER = "profileId";
         private static final String COLUMN_SIZE = "size";
         private static final String COLUMN_PACKAGE = "packageName";
+        private static final String COLUMN_LAST_ACCESSED = "lastAccessed";
+        private static final String COLUMN_BYTES = "bytes";
+        private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
+
+        // The version of each package when its previews were generated.
+        private static final String TABLE_PACKAGES = "packages";
         private static final String COLUMN_LAST_UPDATED = "lastUpdated";
         private static final String COLUMN_VERSION = "version";
-        private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
 
         public CacheDb(Context context) {
             super(context, LauncherFiles.WIDGET_PREVIEWS_DB, null, DB_VERSION);
@@ -125,11 +452,20 @@ public class WidgetPreviewLoader {
                     COLUMN_USER + " INTEGER NOT NULL, " +
                     COLUMN_SIZE + " TEXT NOT NULL, " +
                     COLUMN_PACKAGE + " TEXT NOT NULL, " +
-                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
-                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_LAST_ACCESSED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
                     COLUMN_PREVIEW_BITMAP + " BLOB, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ", " + COLUMN_SIZE + ") " +
                     ");");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_lru ON " + TABLE_NAME
+                    + " (" + COLUMN_LAST_ACCESSED + ");");
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PACKAGES + " (" +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ") " +
+                    ");");
         }
 
         @Override
@@ -148,6 +484,7 @@ public class WidgetPreviewLoader {
 
         private void clearDB(SQLiteDatabase db) {
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PACKAGES);
             onCreate(db);
         }
     }
@@ -166,20 +503,50 @@ public class WidgetPreviewLoader {
     }
 
     @Thunk void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
+        long userSerial = mUserManager.getSerialNumberForUser(key.user);
+        byte[] data = Utilities.flattenBitmap(preview);
         ContentValues values = new ContentValues();
         values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
-        values.put(CacheDb.COLUMN_USER, mUserManager.getSerialNumberForUser(key.user));
+        values.put(CacheDb.COLUMN_USER, userSerial);
         values.put(CacheDb.COLUMN_SIZE, key.size);
         values.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
-        values.put(CacheDb.COLUMN_VERSION, versions[0]);
-        values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
-        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
+        values.put(CacheDb.COLUMN_LAST_ACCESSED, System.currentTimeMillis());
+        values.put(CacheDb.COLUMN_BYTES, data == null ? 0 : data.length);
+        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, data);
+
+        ContentValues packageValues = new ContentValues();
+        packageValues.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
+        packageValues.put(CacheDb.COLUMN_USER, userSerial);
+        packageValues.put(CacheDb.COLUMN_VERSION, versions[0]);
+        packageValues.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
 
+        SQLiteDatabase db = null;
         try {
-            mDb.getWritableDatabase().insertWithOnConflict(CacheDb.TABLE_NAME, null, values,
+            db = mDb.getWritableDatabase();
+            db.beginTransaction();
+            db.insertWithOnConflict(CacheDb.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.insertWithOnConflict(CacheDb.TABLE_PACKAGES, null, packageValues,
                     SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
         } catch (SQLException e) {
             Log.e(TAG, "Error saving image to DB", e);
+            return;
+        } finally {
+            if (db != null) {
+                db.endTransaction();
+            }
+        }
+
+        synchronized (mGcLock) {
+            if (mDbBytes >= 0 && data != null) {
+                // A replaced row is not subtracted, the GC recounts before evicting.
+                mDbBytes += data.length;
+                if (mDbBytes > MAX_DB_BYTES) {
+                    mDbBytes = -1;
+                    scheduleGcLocked();
+                }
+            }
         }
     }
 
@@ -194,26 +561,36 @@ public class WidgetPreviewLoader {
 
         synchronized (mLoadedPreviews) {
             Set<WidgetCacheKey> keysToRemove = new HashSet<>();
-            for (WidgetCacheKey key : mLoadedPreviews.keySet()) {
+            for (WidgetCacheKey key : mLoadedPreviews.snapshot().keySet()) {
                 if (key.componentName.getPackageName().equals(packageName) && key.user.equals(user)) {
                     keysToRemove.add(key);
                 }
             }
 
+            // The removed previews are recycled once no cell shows them.
             for (WidgetCacheKey key : keysToRemove) {
-                WeakReference<Bitmap> req = mLoadedPreviews.remove(key);
-                if (req != null && req.get() != null) {
-                    mUnusedBitmaps.add(req.get());
-                }
+                mLoadedPreviews.remove(key);
             }
         }
 
+        String[] selectionArgs = new String[] {packageName, Long.toString(userSerial)};
+        String selection = CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?";
+        SQLiteDatabase db = null;
         try {
-            mDb.getWritableDatabase().delete(CacheDb.TABLE_NAME,
-                    CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
-                    new String[] {packageName, Long.toString(userSerial)});
+            db = mDb.getWritableDatabase();
+            db.beginTransaction();
+            db.delete(CacheDb.TABLE_NAME, selection, selectionArgs);
+            db.delete(CacheDb.TABLE_PACKAGES, selection, selectionArgs);
+            db.setTransactionSuccessful();
         } catch (SQLException e) {
             Log.e(TAG, "Unable to delete items from DB", e);
+        } finally {
+            if (db != null) {
+                db.endTransaction();
+            }
+        }
+        synchronized (mGcLock) {
+            mDbBytes = -1;
         }
     }
 
@@ -221,7 +598,10 @@ public class WidgetPreviewLoader {
      * Updates the persistent DB:
      *   1. Any preview generated for an old package version is removed
      *   2. Any preview for an absent package is removed
+     *   3. The least recently used previews are removed while the DB is over its size limit
      * This ensures that we remove entries for packages which changed while the launcher was dead.
+     * Only the package versions are checked here, the previews are removed in small batches
+     * while the loader thread is idle.
      */
     public void removeObsoletePreviews() {
         LongSparseArray<UserHandleCompat> userIdCache = new LongSparseArray<>();
@@ -256,10 +636,11 @@ public class WidgetPreviewLoader {
             packages.add(pkg);
         }
 
-        LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
+        // The packages table has a single row per package, unlike the previews table.
+        ArrayList<ObsoletePackage> packagesToDelete = new ArrayList<>();
         Cursor c = null;
         try {
-            c = mDb.getReadableDatabase().query(CacheDb.TABLE_NAME,
+            c = mDb.getReadableDatabase().query(CacheDb.TABLE_PACKAGES,
                     new String[] {CacheDb.COLUMN_USER, CacheDb.COLUMN_PACKAGE,
                         CacheDb.COLUMN_LAST_UPDATED, CacheDb.COLUMN_VERSION},
                     null, null, null, null, null);
@@ -279,20 +660,7 @@ public class WidgetPreviewLoader {
                 }
 
                 // We need to delete this package.
-                packages = packagesToDelete.get(userId);
-                if (packages == null) {
-                    packages = new HashSet<>();
-                    packagesToDelete.put(userId, packages);
-                }
-                packages.add(pkg);
-            }
-
-            for (int i = 0; i < packagesToDelete.size(); i++) {
-                long userId = packagesToDelete.keyAt(i);
-                UserHandleCompat user = mUserManager.getUserForSerialNumber(userId);
-                for (String pkg : packagesToDelete.valueAt(i)) {
-                    removePackage(pkg, user, userId);
-                }
+                packagesToDelete.add(new ObsoletePackage(pkg, userId));
             }
         } catch (SQLException e) {
             Log.e(TAG, "Error updatating widget previews", e);
@@ -301,6 +669,133 @@ public class WidgetPreviewLoader {
                 c.close();
             }
         }
+
+        synchronized (mGcLock) {
+            mObsoletePackages.addAll(packagesToDelete);
+            // Recount the DB size, in case it grew past the limit while the launcher was dead.
+            mDbBytes = -1;
+            scheduleGcLocked();
+        }
+    }
+
+    /**
+     * Runs a slice of the GC the next time the loader thread is idle.
+     */
+    @Thunk void scheduleGcLocked() {
+        if (!mGcScheduled) {
+            mGcScheduled = true;
+            LauncherModel.sWorker.post(mAddGcIdleHandler);
+        }
+    }
+
+    /**
+     * Runs the GC for at most {@link #GC_SLICE_MILLIS}. Called on the loader thread.
+     *
+     * @return true if there is more to remove.
+     */
+    @Thunk boolean runGcSlice() {
+        long deadline = SystemClock.uptimeMillis() + GC_SLICE_MILLIS;
+        flushAccessTimes();
+
+        while (SystemClock.uptimeMillis() < deadline) {
+            ObsoletePackage obsolete;
+            synchronized (mGcLock) {
+                obsolete = mObsoletePackages.poll();
+            }
+            if (obsolete == null) {
+                break;
+            }
+            UserHandleCompat user = mUserManager.getUserForSerialNumber(obsolete.userSerial);
+            removePackage(obsolete.packageName, user, obsolete.userSerial);
+        }
+        synchronized (mGcLock) {
+            if (!mObsoletePackages.isEmpty()) {
+                return true;
+            }
+        }
+
+        try {
+            SQLiteDatabase db = mDb.getWritableDatabase();
+            long dbBytes;
+            synchronized (mGcLock) {
+                dbBytes = mDbBytes;
+            }
+            if (dbBytes < 0) {
+                dbBytes = DatabaseUtils.longForQuery(db, "SELECT SUM(" + CacheDb.COLUMN_BYTES
+                        + ") FROM " + CacheDb.TABLE_NAME, null);
+            }
+            while (dbBytes > MAX_DB_BYTES && SystemClock.uptimeMillis() < deadline) {
+                long removed = removeLeastRecentlyUsed(db);
+                if (removed < 0) {
+                    // The table is empty, the byte count was stale.
+                    dbBytes = 0;
+                    break;
+                }
+                dbBytes -= removed;
+            }
+            synchronized (mGcLock) {
+                mDbBytes = dbBytes;
+            }
+            return dbBytes > MAX_DB_BYTES;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error trimming widget previews", e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes the {@link #GC_BATCH_SIZE} least recently used previews from the DB.
+     *
+     * @return the number of bytes removed, or -1 if there was no preview to remove.
+     */
+    private long removeLeastRecentlyUsed(SQLiteDatabase db) {
+        StringBuilder rowIds = new StringBuilder();
+        long bytes = 0;
+        Cursor c = db.query(CacheDb.TABLE_NAME,
+                new String[] {CacheDb.COLUMN_ROWID, CacheDb.COLUMN_BYTES},
+                null, null, null, null, CacheDb.COLUMN_LAST_ACCESSED,
+                Integer.toString(GC_BATCH_SIZE));
+        try {
+            while (c.moveToNext()) {
+                if (rowIds.length() > 0) {
+                    rowIds.append(',');
+                }
+                rowIds.append(c.getLong(0));
+                bytes += c.getLong(1);
+            }
+        } finally {
+            c.close();
+        }
+        if (rowIds.length() == 0) {
+            return -1;
+        }
+        db.delete(CacheDb.TABLE_NAME, CacheDb.COLUMN_ROWID + " IN (" + rowIds + ")", null);
+        if (DEBUG) {
+            Log.d(TAG, "Removed least recently used previews: " + rowIds);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the access times of the previews read since the last GC slice.
+     */
+    private void flushAccessTimes() {
+        String rowIds;
+        synchronized (mGcLock) {
+            if (mAccessedRows.isEmpty()) {
+                return;
+            }
+            rowIds = TextUtils.join(",", mAccessedRows);
+            mAccessedRows.clear();
+        }
+        ContentValues values = new ContentValues();
+        values.put(CacheDb.COLUMN_LAST_ACCESSED, System.currentTimeMillis());
+        try {
+            mDb.getWritableDatabase().update(CacheDb.TABLE_NAME, values,
+                    CacheDb.COLUMN_ROWID + " IN (" + rowIds + ")", null);
+        } catch (SQLException e) {
+            Log.e(TAG, "Error updating preview access times", e);
+        }
     }
 
     private Bitmap readFromDb(WidgetCacheKey key, Bitmap recycle) {
@@ -308,7 +803,7 @@ public class WidgetPreviewLoader {
         try {
             cursor = mDb.getReadableDatabase().query(
                     CacheDb.TABLE_NAME,
-                    new String[] { CacheDb.COLUMN_PREVIEW_BITMAP },
+                    new String[] { CacheDb.COLUMN_PREVIEW_BITMAP, CacheDb.COLUMN_ROWID },
                     CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND " + CacheDb.COLUMN_SIZE + " = ?",
                     new String[] {
                             key.componentName.flattenToString(),
@@ -318,6 +813,12 @@ public class WidgetPreviewLoader {
                     null, null, null);
             if (cursor.moveToNext()) {
                 byte[] blob = cursor.getBlob(0);
+                synchronized (mGcLock) {
+                    mAccessedRows.add(cursor.getLong(1));
+                    if (mAccessedRows.size() >= GC_BATCH_SIZE) {
+                        scheduleGcLocked();
+                    }
+                }
                 BitmapFactory.Options opts = new BitmapFactory.Options();
                 opts.inBitmap = recycle;
                 try {
@@ -336,7 +837,7 @@ public class WidgetPreviewLoader {
         return null;
     }
 
-    private Bitmap generatePreview(Object info, Bitmap recycle, int previewWidth, int previewHeight) {
+    Bitmap generatePreview(Object info, Bitmap recycle, int previewWidth, int previewHeight) {
         if (info instanceof LauncherAppWidgetProviderInfo) {
             return generateWidgetPreview((LauncherAppWidgetProviderInfo) info, previewWidth, recycle);
         } else {
@@ -543,83 +1044,134 @@ public class WidgetPreviewLoader {
         }
     }
 
+    /**
+     * Receives the result of a request for a preview. Called on UI thread.
+     */
+    public interface PreviewCallback {
+        void applyPreview(Bitmap preview);
+
+        /**
+         * Called when the load of {@param request} was dropped because the queue was full. The
+         * preview is no longer loaded for this request, and must be requested again if it is
+         * still needed.
+         */
+        void onPreviewDropped(PreviewLoadRequest request);
+    }
+
     /**
      * A request Id which can be used by the client to cancel any request.
      */
     public class PreviewLoadRequest {
 
-        private final PreviewLoadTask mTask;
-        private final WidgetCacheKey mKey;
+        @Thunk final PreviewCallback mCaller;
+        @Thunk final long mRequestTime = SystemClock.uptimeMillis();
+        @Thunk PreviewLoadTask mTask;
 
-        public PreviewLoadRequest(PreviewLoadTask task, WidgetCacheKey key) {
-            mTask = task;
-            mKey = key;
+        @Thunk PreviewLoadRequest(PreviewCallback caller) {
+            mCaller = caller;
         }
 
-        public void cancel(boolean recycleImage) {
-            if (mTask != null) {
-                mTask.cancel(true);
-            }
-
-            if (recycleImage) {
-                synchronized(mLoadedPreviews) {
-                    WeakReference<Bitmap> result = mLoadedPreviews.remove(mKey);
-                    if (result != null && result.get() != null) {
-                        mUnusedBitmaps.add(result.get());
+        /**
+         * Cancels the request. The preview is not loaded if no other cell is waiting for it and
+         * the load has not started yet.
+         */
+        public void cancel() {
+            synchronized (mLoadQueue) {
+                PreviewLoadTask task = mTask;
+                if (task != null) {
+                    task.mRequests.remove(this);
+                    if (task.mRequests.isEmpty() && mLoadQueue.remove(task)) {
+                        mPendingLoads.remove(task.mKey);
                     }
+                    mTask = null;
+                } else {
+                    mDroppedRequests.remove(this);
                 }
             }
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap> {
+    /**
+     * Loads the preview of a component for all the cells waiting for it.
+     */
+    @Thunk class PreviewLoadTask {
 
-        private final WidgetCacheKey mKey;
+        @Thunk final WidgetCacheKey mKey;
         private final Object mInfo;
         private final int mPreviewHeight;
         private final int mPreviewWidth;
-        private final WidgetCell mCaller;
+        // Guarded by mLoadQueue.
+        @Thunk final ArrayList<PreviewLoadRequest> mRequests = new ArrayList<>(1);
 
-        PreviewLoadTask(WidgetCacheKey key, Object info, int previewWidth,
-                int previewHeight, WidgetCell caller) {
+        PreviewLoadTask(WidgetCacheKey key, Object info, int previewWidth, int previewHeight) {
             mKey = key;
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
-            mCaller = caller;
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
                         mKey, mInfo, mPreviewHeight, mPreviewWidth));
             }
         }
 
-        @Override
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
-
-            // TODO(hyunyoungs): Figure out why this path causes concurrency issue.
-            synchronized (mUnusedBitmaps) {
-                // Check if we can use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        break;
+        /**
+         * @return true if all the cells waiting for the preview cancelled their request.
+         */
+        private boolean isCancelled() {
+            synchronized (mLoadQueue) {
+                return mRequests.isEmpty();
+            }
+        }
+
+        void run() {
+            Bitmap preview;
+            synchronized (mLoadedPreviews) {
+                // A previous task may have loaded it since this one was queued. Hold it until it
+                // is delivered, so that it is not reused for another preview if it is evicted.
+                preview = mLoadedPreviews.get(mKey);
+                if (preview != null) {
+                    acquirePreviewLocked(preview);
+                }
+            }
+            if (preview == null) {
+                preview = loadPreview();
+                if (preview != null) {
+                    synchronized (mLoadedPreviews) {
+                        acquirePreviewLocked(preview);
                     }
                 }
+            }
+            if (preview != null) {
+                final Bitmap result = preview;
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverPreview(PreviewLoadTask.this, result);
+                    }
+                });
+            }
+        }
 
-                if (unusedBitmap == null) {
-                    unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
-                } else {
-                    mUnusedBitmaps.remove(unusedBitmap);
-                }
+        private Bitmap loadPreview() {
+            Bitmap unusedBitmap;
+            synchronized (mLoadedPreviews) {
+                unusedBitmap = mBitmapPool.get(mPreviewWidth, mPreviewHeight);
+            }
+            if (unusedBitmap == null) {
+                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
+                countStat(STAT_BITMAP_ALLOCATED);
+            } else {
+                countStat(STAT_BITMAP_REUSED);
             }
             if (isCancelled()) {
+                recycle(unusedBitmap);
                 return null;
             }
             Bitmap preview = readFromDb(mKey, unusedBitmap);
-            if (!isCancelled() && preview == null) {
+            if (preview != null) {
+                countStat(STAT_DB_HIT);
+            } else if (!isCancelled()) {
+                countStat(STAT_GENERATED);
                 // Fetch the version info before we generate the preview, so that, in-case the
                 // app was updated while we are generating the preview, we use the old version info,
                 // which would gets re-written next time.
@@ -633,16 +1185,88 @@ public class WidgetPreviewLoader {
                 }
             }
 
+            if (preview != unusedBitmap) {
+                // The preview was decoded or badged into a new bitmap.
+                recycle(unusedBitmap);
+            }
             return preview;
         }
 
-        @Override
-        protected void onPostExecute(Bitmap result) {
-            synchronized(mLoadedPreviews) {
-                mLoadedPreviews.put(mKey, new WeakReference<Bitmap>(result));
+        private void recycle(Bitmap unusedBitmap) {
+            synchronized (mLoadedPreviews) {
+                mBitmapPool.put(unusedBitmap);
+            }
+        }
+    }
+
+    /**
+     * Bitmaps which are no longer used, by dimensions, to be reused for the next previews of the
+     * same size. The oldest bitmaps are dropped once the pool holds more than its maximum size.
+     */
+    @Thunk static class BitmapPool {
+        private final int mMaxBytes;
+        private final HashMap<Long, ArrayList<Bitmap>> mBitmapsBySize = new HashMap<>();
+        // Oldest first.
+        private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+        private int mBytes;
+
+        BitmapPool(int maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        void put(Bitmap bitmap) {
+            if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                    || bitmap.getByteCount() > mMaxBytes) {
+                return;
+            }
+            Long size = getSizeKey(bitmap.getWidth(), bitmap.getHeight());
+            ArrayList<Bitmap> bitmaps = mBitmapsBySize.get(size);
+            if (bitmaps == null) {
+                bitmaps = new ArrayList<>();
+                mBitmapsBySize.put(size, bitmaps);
+            }
+            bitmaps.add(bitmap);
+            mBitmaps.addLast(bitmap);
+            mBytes += bitmap.getByteCount();
+
+            while (mBytes > mMaxBytes) {
+                Bitmap oldest = mBitmaps.removeFirst();
+                mBitmapsBySize.get(getSizeKey(oldest.getWidth(), oldest.getHeight()))
+                        .remove(oldest);
+                mBytes -= oldest.getByteCount();
             }
+        }
+
+        Bitmap get(int width, int height) {
+            ArrayList<Bitmap> bitmaps = mBitmapsBySize.get(getSizeKey(width, height));
+            if (bitmaps == null || bitmaps.isEmpty()) {
+                return null;
+            }
+            Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+            mBitmaps.removeLastOccurrence(bitmap);
+            mBytes -= bitmap.getByteCount();
+            return bitmap;
+        }
+
+        int getBytes() {
+            return mBytes;
+        }
+
+        private static Long getSizeKey(int width, int height) {
+            return ((long) width << 32) | (height & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * A package whose previews are obsolete.
+     */
+    @Thunk static final class ObsoletePackage {
+        final String packageName;
+        final long userSerial;
 
-            mCaller.applyPreview(result);
+        ObsoletePackage(String packageName, long userSerial) {
+            this.packageName = packageName;
+            this.userSerial = userSerial;
         }
     }
 
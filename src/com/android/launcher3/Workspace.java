@@ -208,8 +208,11 @@ public class Workspace extends SmoothPagedView
     /** Is the user is dragging an item near the edge of a page? */
     private boolean mInScrollArea = false;
 
-    private HolographicOutlineHelper mOutlineHelper;
+    private DragOutlineCache mDragOutlineCache;
+    // The outline of the dragged item, or null while it is generated.
     @Thunk Bitmap mDragOutline = null;
+    // Incremented for every drag, so that the outline generated for a previous drag is ignored.
+    @Thunk int mDragOutlineGeneration;
     private static final Rect sTempRect = new Rect();
     private final int[] mTempXY = new int[2];
     private int[] mTempVisiblePagesRange = new int[2];
@@ -322,7 +325,8 @@ public class Workspace extends SmoothPagedView
         super(context, attrs, defStyle);
         mContentIsRefreshable = false;
 
-        mOutlineHelper = HolographicOutlineHelper.obtain(context);
+        mDragOutlineCache = new DragOutlineCache(context,
+                context.getResources().getColor(R.color.outline_color));
 
         mDragEnforcer = new DropTarget.DragEnforcer(context);
         // With workspace, data is available straight from the get-go
@@ -1232,6 +1236,8 @@ public class Workspace extends SmoothPagedView
             mStripScreensOnPageStopMoving = false;
         }
 
+        prefetchDragOutlines();
+
         if (mShouldSendPageSettled) {
             mLauncherOverlay.onScrollSettled();
             mShouldSendPageSettled = false;
@@ -2036,7 +2042,7 @@ public class Workspace extends SmoothPagedView
     * appearance).
     *
     */
-    private static Rect getDrawableBounds(Drawable d) {
+    static Rect getDrawableBounds(Drawable d) {
         Rect bounds = new Rect();
         d.copyBounds(bounds);
         if (bounds.width() == 0 || bounds.height() == 0) {
@@ -2075,14 +2081,14 @@ public class Workspace extends SmoothPagedView
         mCanvas.setBitmap(null);
 
         // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(b, DRAG_BITMAP_PADDING, iconSize, iconSize, true);
+        createDragOutline(b, DRAG_BITMAP_PADDING, iconSize, iconSize, true);
     }
 
     public void onDragStartedWithItem(PendingAddItemInfo info, Bitmap b, boolean clipAlpha) {
         int[] size = estimateItemSize(info, false);
 
         // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(b, DRAG_BITMAP_PADDING, size[0], size[1], clipAlpha);
+        createDragOutline(b, DRAG_BITMAP_PADDING, size[0], size[1], clipAlpha);
     }
 
     public void exitWidgetResizeMode() {
@@ -2620,7 +2626,7 @@ public class Workspace extends SmoothPagedView
      * @param destCanvas the canvas to draw on
      * @param padding the horizontal and vertical padding to use when drawing
      */
-    private static void drawDragView(View v, Canvas destCanvas, int padding) {
+    static void drawDragView(View v, Canvas destCanvas, int padding) {
         final Rect clipRect = sTempRect;
         v.getDrawingRect(clipRect);
 
@@ -2683,28 +2689,21 @@ public class Workspace extends SmoothPagedView
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
+     * Generates the outline of the dragged view, used to visualize the drop location, in the
+     * background. No outline is shown until it is ready.
      */
-    private Bitmap createDragOutline(View v, int padding) {
-        final int outlineColor = getResources().getColor(R.color.outline_color);
-        final Bitmap b = Bitmap.createBitmap(
-                v.getWidth() + padding, v.getHeight() + padding, Bitmap.Config.ARGB_8888);
-
-        mCanvas.setBitmap(b);
-        drawDragView(v, mCanvas, padding);
-        mOutlineHelper.applyExpensiveOutlineWithBlur(b, mCanvas, outlineColor, outlineColor);
-        mCanvas.setBitmap(null);
-        return b;
+    private void createDragOutline(View v) {
+        mDragOutline = null;
+        mDragOutlineCache.getOutline(v, DRAG_BITMAP_PADDING, newDragOutlineCallback());
     }
 
     /**
-     * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
-     * Responsibility for the bitmap is transferred to the caller.
+     * Generates the outline of the dragged item from its bitmap, scaled to fit in w x h, in the
+     * background. No outline is shown until it is ready.
      */
-    private Bitmap createDragOutline(Bitmap orig, int padding, int w, int h,
+    private void createDragOutline(Bitmap orig, int padding, int w, int h,
             boolean clipAlpha) {
-        final int outlineColor = getResources().getColor(R.color.outline_color);
+        mDragOutline = null;
         final Bitmap b = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
         mCanvas.setBitmap(b);
 
@@ -2719,11 +2718,36 @@ public class Workspace extends SmoothPagedView
         dst.offset((w - scaledWidth) / 2, (h - scaledHeight) / 2);
 
         mCanvas.drawBitmap(orig, src, dst, null);
-        mOutlineHelper.applyExpensiveOutlineWithBlur(b, mCanvas, outlineColor, outlineColor,
-                clipAlpha);
         mCanvas.setBitmap(null);
 
-        return b;
+        mDragOutlineCache.applyOutline(b, clipAlpha, newDragOutlineCallback());
+    }
+
+    private DragOutlineCache.Callback newDragOutlineCallback() {
+        final int generation = ++mDragOutlineGeneration;
+        return new DragOutlineCache.Callback() {
+            @Override
+            public void onOutlineReady(Bitmap outline) {
+                if (generation == mDragOutlineGeneration) {
+                    mDragOutline = outline;
+                }
+            }
+        };
+    }
+
+    /**
+     * Generates the drag outlines of the icons of the current page and of the hotseat in the
+     * background, so that they are ready when the icons are dragged.
+     */
+    void prefetchDragOutlines() {
+        View page = getChildAt(getCurrentPage());
+        if (page instanceof CellLayout) {
+            mDragOutlineCache.prefetch((CellLayout) page, DRAG_BITMAP_PADDING);
+        }
+        Hotseat hotseat = mLauncher.getHotseat();
+        if (hotseat != null) {
+            mDragOutlineCache.prefetch(hotseat.getLayout(), DRAG_BITMAP_PADDING);
+        }
     }
 
     public void startDrag(CellLayout.CellInfo cellInfo) {
@@ -2756,7 +2780,7 @@ public class Workspace extends SmoothPagedView
         child.setPressed(false);
 
         // The outline is used to visualize where the item will land if dropped
-        mDragOutline = createDragOutline(child, DRAG_BITMAP_PADDING);
+        createDragOutline(child);
 
         mLauncher.onDragStarted(child);
         // The drag bitmap follows the touch point around on the screen
@@ -4254,6 +4278,8 @@ public class Workspace extends SmoothPagedView
             mDragInfo.cell.setVisibility(VISIBLE);
         }
         mDragOutline = null;
+        // Drop the outline if it is still being generated.
+        mDragOutlineGeneration++;
         mDragInfo = null;
     }
 
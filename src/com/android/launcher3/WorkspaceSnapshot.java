@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * A compact binary copy of the loaded workspace, used to bind the first frame on a cold start
+ * before {@link LauncherModel} has read the favorites database.
+ *
+ * The snapshot stores the screens, the shortcuts and the folders, along with the icons of the
+ * shortcuts which are not backed by the {@link IconCache}. App icons are looked up in the icon
+ * cache when the snapshot is read. Widgets and items which are still being restored are not
+ * part of the snapshot, they only show up once the database has been loaded.
+ *
+ * A snapshot is only used if it was written against the same database generation and max item
+ * id as the current {@link LauncherProvider}, and with the same grid.
+ */
+public class WorkspaceSnapshot {
+    private static final String TAG = "Launcher.WorkspaceSnapshot";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x4c535750; // LSWP
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final ArrayList<Long> screenIds = new ArrayList<Long>();
+    /** Items on the desktop and the hotseat, including the folders. */
+    final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+    final HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
+
+    private WorkspaceSnapshot() { }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), LauncherFiles.WORKSPACE_SNAPSHOT);
+    }
+
+    /**
+     * Writes a snapshot of the given items. The file is replaced atomically, so a reader never
+     * sees a partially written snapshot.
+     *
+     * @param items the loaded items, as found in {@link LauncherModel#sBgItemsIdMap}.
+     * @return whether the snapshot was written.
+     */
+    static boolean write(Context context, IconCache iconCache, long dbGeneration,
+            long maxItemId, ArrayList<Long> screenIds, Collection<ItemInfo> items) {
+        final long t = DEBUG ? System.currentTimeMillis() : 0;
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        final DeviceProfile grid =
+                LauncherAppState.getInstance().getDynamicGrid().getDeviceProfile();
+
+        // Only keep what can be bound without the database.
+        final ArrayList<ItemInfo> snapshotItems = new ArrayList<ItemInfo>();
+        for (ItemInfo item : items) {
+            if (item instanceof FolderInfo) {
+                snapshotItems.add(item);
+            } else if (item instanceof ShortcutInfo && ((ShortcutInfo) item).status == 0
+                    && ((ShortcutInfo) item).intent != null) {
+                snapshotItems.add(item);
+            }
+        }
+
+        final File file = getFile(context);
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(LauncherProvider.DATABASE_VERSION);
+            out.writeLong(dbGeneration);
+            out.writeLong(maxItemId);
+            out.writeInt((int) grid.numColumns);
+            out.writeInt((int) grid.numRows);
+            out.writeInt((int) grid.numHotseatIcons);
+
+            out.writeInt(screenIds.size());
+            for (Long screenId : screenIds) {
+                out.writeLong(screenId);
+            }
+
+            out.writeInt(snapshotItems.size());
+            for (ItemInfo item : snapshotItems) {
+                out.writeInt(item.itemType);
+                out.writeLong(item.id);
+                out.writeLong(item.container);
+                out.writeLong(item.screenId);
+                out.writeInt(item.cellX);
+                out.writeInt(item.cellY);
+                out.writeInt(item.spanX);
+                out.writeInt(item.spanY);
+                out.writeInt(item.rank);
+                out.writeLong(userManager.getSerialNumberForUser(item.user));
+                writeString(out, item.title == null ? null : item.title.toString());
+
+                if (item instanceof FolderInfo) {
+                    out.writeInt(((FolderInfo) item).options);
+                } else {
+                    ShortcutInfo info = (ShortcutInfo) item;
+                    writeString(out, info.intent.toUri(0));
+                    out.writeInt(info.isDisabled);
+                    if (info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                        // Looked up in the icon cache when reading the snapshot.
+                        out.writeInt(-1);
+                    } else {
+                        Bitmap icon = info.getIcon(iconCache);
+                        byte[] data = icon == null ? null : Utilities.flattenBitmap(icon);
+                        if (data == null) {
+                            out.writeInt(-1);
+                        } else {
+                            out.writeInt(data.length);
+                            out.write(data);
+                        }
+                    }
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Unable to rename " + tmpFile + " to " + file);
+                tmpFile.delete();
+                return false;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "wrote " + snapshotItems.size() + " items in "
+                        + (System.currentTimeMillis() - t) + "ms");
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write workspace snapshot", e);
+            tmpFile.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot, if there is one which is valid for the given database state.
+     *
+     * @return the snapshot or null if there is no usable snapshot.
+     */
+    static WorkspaceSnapshot read(Context context, IconCache iconCache, long dbGeneration,
+            long maxItemId) {
+        final File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        final long t = DEBUG ? System.currentTimeMillis() : 0;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final WorkspaceSnapshot snapshot = parse(context, iconCache, buffer, dbGeneration,
+                    maxItemId);
+            if (DEBUG) {
+                Log.d(TAG, "read " + (snapshot == null ? 0 : snapshot.workspaceItems.size())
+                        + " workspace items in " + (System.currentTimeMillis() - t) + "ms");
+            }
+            return snapshot;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException
+                | URISyntaxException e) {
+            Log.w(TAG, "Discarding corrupt workspace snapshot", e);
+            file.delete();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static WorkspaceSnapshot parse(Context context, IconCache iconCache,
+            MappedByteBuffer buffer, long dbGeneration, long maxItemId)
+            throws URISyntaxException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getInt() != LauncherProvider.DATABASE_VERSION
+                || buffer.getLong() != dbGeneration || buffer.getLong() != maxItemId) {
+            return null;
+        }
+        final DeviceProfile grid =
+                LauncherAppState.getInstance().getDynamicGrid().getDeviceProfile();
+        if (buffer.getInt() != (int) grid.numColumns || buffer.getInt() != (int) grid.numRows
+                || buffer.getInt() != (int) grid.numHotseatIcons) {
+            return null;
+        }
+
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            snapshot.screenIds.add(buffer.getLong());
+        }
+
+        final ArrayList<ShortcutInfo> folderContents = new ArrayList<ShortcutInfo>();
+        count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int itemType = buffer.getInt();
+            final long id = buffer.getLong();
+            final long container = buffer.getLong();
+            final long screenId = buffer.getLong();
+            final int cellX = buffer.getInt();
+            final int cellY = buffer.getInt();
+            final int spanX = buffer.getInt();
+            final int spanY = buffer.getInt();
+            final int rank = buffer.getInt();
+            final UserHandleCompat user = userManager.getUserForSerialNumber(buffer.getLong());
+            final String title = readString(buffer);
+
+            final ItemInfo item;
+            if (itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER) {
+                FolderInfo folder = new FolderInfo();
+                folder.options = buffer.getInt();
+                item = folder;
+            } else {
+                ShortcutInfo info = new ShortcutInfo();
+                info.intent = Intent.parseUri(readString(buffer), 0);
+                info.isDisabled = buffer.getInt();
+                final int iconLength = buffer.getInt();
+                byte[] iconData = null;
+                if (iconLength >= 0) {
+                    iconData = new byte[iconLength];
+                    buffer.get(iconData);
+                }
+                if (user == null) {
+                    // The profile is gone, the loader will remove this item.
+                    continue;
+                }
+
+                Bitmap icon = null;
+                Bitmap decoded = iconData == null ? null
+                        : BitmapFactory.decodeByteArray(iconData, 0, iconData.length);
+                if (decoded != null) {
+                    icon = Utilities.createIconBitmap(decoded, context);
+                } else if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                        && info.intent.getComponent() != null) {
+                    boolean useLowResIcon = container >= 0
+                            && rank >= FolderIcon.NUM_ITEMS_IN_PREVIEW;
+                    iconCache.getTitleAndIcon(info, info.intent.getComponent(), null, user,
+                            true, useLowResIcon);
+                    icon = info.getIcon(iconCache);
+                }
+                if (icon == null) {
+                    icon = iconCache.getDefaultIcon(user);
+                    info.usingFallbackIcon = true;
+                }
+                info.setIcon(icon);
+                if (container >= 0) {
+                    folderContents.add(info);
+                }
+                item = info;
+            }
+            if (user == null) {
+                continue;
+            }
+
+            item.title = title;
+            item.id = id;
+            item.itemType = itemType;
+            item.container = container;
+            item.screenId = screenId;
+            item.cellX = cellX;
+            item.cellY = cellY;
+            item.spanX = spanX;
+            item.spanY = spanY;
+            item.rank = rank;
+            item.user = user;
+            item.contentDescription = userManager.getBadgedLabelForUser(item.title, user);
+            if (container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                    || container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                snapshot.workspaceItems.add(item);
+            }
+            if (item instanceof FolderInfo) {
+                snapshot.folders.put(id, (FolderInfo) item);
+            }
+        }
+
+        for (ShortcutInfo info : folderContents) {
+            FolderInfo folder = snapshot.folders.get(info.container);
+            if (folder != null) {
+                folder.add(info);
+            }
+        }
+        return snapshot;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] data = str.getBytes(UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new String(data, UTF_8);
+    }
+}
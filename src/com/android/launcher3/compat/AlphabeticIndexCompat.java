@@ -4,6 +4,8 @@ import android.content.Context;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -51,6 +53,16 @@ class BaseAlphabeticIndex {
  */
 public class AlphabeticIndexCompat extends BaseAlphabeticIndex {
 
+    // Beyond this number of titles, the cache is cleared rather than grown.
+    private static final int MAX_CACHED_SECTION_NAMES = 2000;
+
+    // The section names of the titles seen so far, by trimmed title. It is shared by the
+    // instances, which are created again with the activity, and cleared when the locale changes.
+    private static final Object sCacheLock = new Object();
+    private static final HashMap<String, String> sSectionNames = new HashMap<>();
+    private static Locale sSectionNamesLocale;
+
+    private final Locale mLocale;
     private Object mAlphabeticIndex;
     private Method mAddLabelsMethod;
     private Method mSetMaxLabelCountMethod;
@@ -60,8 +72,9 @@ public class AlphabeticIndexCompat extends BaseAlphabeticIndex {
 
     public AlphabeticIndexCompat(Context context) {
         super();
+        mLocale = context.getResources().getConfiguration().locale;
         try {
-            Locale curLocale = context.getResources().getConfiguration().locale;
+            Locale curLocale = mLocale;
             Class clazz = Class.forName("libcore.icu.AlphabeticIndex");
             Constructor ctor = clazz.getConstructor(Locale.class);
             mAddLabelsMethod = clazz.getDeclaredMethod("addLabels", Locale.class);
@@ -103,6 +116,49 @@ public class AlphabeticIndexCompat extends BaseAlphabeticIndex {
      * Computes the section name for an given string {@param s}.
      */
     public String computeSectionName(String s) {
+        synchronized (sCacheLock) {
+            return getSectionNameLocked(s.trim());
+        }
+    }
+
+    /**
+     * Computes the section names of {@param titles}, in one pass over the list.
+     */
+    public String[] computeSectionNames(List<String> titles) {
+        String[] sectionNames = new String[titles.size()];
+        synchronized (sCacheLock) {
+            String lastTitle = null;
+            for (int i = 0; i < sectionNames.length; i++) {
+                String title = titles.get(i).trim();
+                if (title.equals(lastTitle)) {
+                    // Sorted lists often repeat titles, e.g. for the apps of each profile.
+                    sectionNames[i] = sectionNames[i - 1];
+                } else {
+                    sectionNames[i] = getSectionNameLocked(title);
+                }
+                lastTitle = title;
+            }
+        }
+        return sectionNames;
+    }
+
+    private String getSectionNameLocked(String title) {
+        if (!mLocale.equals(sSectionNamesLocale)) {
+            sSectionNames.clear();
+            sSectionNamesLocale = mLocale;
+        }
+        String sectionName = sSectionNames.get(title);
+        if (sectionName == null) {
+            if (sSectionNames.size() >= MAX_CACHED_SECTION_NAMES) {
+                sSectionNames.clear();
+            }
+            sectionName = computeSectionNameUncached(title);
+            sSectionNames.put(title, sectionName);
+        }
+        return sectionName;
+    }
+
+    private String computeSectionNameUncached(String s) {
         String sectionName = getBucketLabel(getBucketIndex(s));
         if (sectionName.trim().isEmpty() && s.length() > 0) {
             boolean startsWithDigit = Character.isDigit(Character.codePointAt(s.trim(), 0));
@@ -119,7 +175,7 @@ public class AlphabeticIndexCompat extends BaseAlphabeticIndex {
 
     /**
      * Returns the index of the bucket in which {@param s} should appear.
-     * Function is synchronized because underlying routine walks an iterator
+     * Called with sCacheLock held because underlying routine walks an iterator
      * whose state is maintained inside the index object.
      */
     protected int getBucketIndex(String s) {
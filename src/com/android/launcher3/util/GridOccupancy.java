@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.Arrays;
+
+/**
+ * The occupied cells of a grid, stored as one bit mask per row: bit x of row y is set if the
+ * cell (x, y) is occupied. Whether a span fits is checked a row at a time with mask arithmetic
+ * instead of cell by cell, and none of the queries allocate.
+ *
+ * Grids are limited to {@link #MAX_COUNT_X} columns.
+ */
+public class GridOccupancy {
+
+    public static final int MAX_COUNT_X = Long.SIZE;
+
+    private final int mCountX;
+    private final int mCountY;
+    // The bits of the columns of the grid.
+    private final long mColumnsMask;
+    private final long[] mRows;
+
+    public GridOccupancy(int countX, int countY) {
+        if (countX < 0 || countX > MAX_COUNT_X || countY < 0) {
+            throw new IllegalArgumentException("Invalid grid size " + countX + "x" + countY);
+        }
+        mCountX = countX;
+        mCountY = countY;
+        mColumnsMask = spanMask(countX);
+        mRows = new long[countY];
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * Marks the cells of a span as occupied or vacant. The parts of the span outside of the grid
+     * are ignored, and so is a span with a negative position.
+     */
+    public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0 || cellX >= mCountX || spanX <= 0) return;
+        long mask = (spanMask(spanX) << cellX) & mColumnsMask;
+        int endY = Math.min(cellY + spanY, mCountY);
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mRows, 0);
+    }
+
+    /**
+     * Copies the occupied cells to {@param dest}, which must be the same size.
+     */
+    public void copyTo(GridOccupancy dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
+    }
+
+    /**
+     * @return true if the span is entirely inside the grid and none of its cells are occupied.
+     */
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+        if (x < 0 || y < 0 || spanX <= 0 || spanY <= 0
+                || x + spanX > mCountX || y + spanY > mCountY) {
+            return false;
+        }
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j < y + spanY; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #isRegionVacant(int, int, int, int)}, but only the cells of the span which are
+     * occupied in {@param block} need to be vacant. Cell (i, j) of {@param block} corresponds to
+     * the cell (x + i, y + j) of this grid.
+     */
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY, GridOccupancy block) {
+        if (x < 0 || y < 0 || spanX <= 0 || spanY <= 0
+                || x + spanX > mCountX || y + spanY > mCountY) {
+            return false;
+        }
+        long mask = spanMask(spanX);
+        for (int j = 0; j < spanY; j++) {
+            if (((mRows[y + j] >>> x) & block.mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the columns at which a span starting on row {@param y} fits: bit x of the result is
+     * set if {@link #isRegionVacant(int, int, int, int)} is true for (x, y, spanX, spanY).
+     */
+    public long getVacantRegions(int y, int spanX, int spanY) {
+        if (y < 0 || spanX <= 0 || spanY <= 0 || spanX > mCountX || y + spanY > mCountY) {
+            return 0;
+        }
+        long occupied = 0;
+        for (int j = y; j < y + spanY; j++) {
+            occupied |= mRows[j];
+        }
+        long vacant = ~occupied & mColumnsMask;
+        // Keep the columns followed by spanX - 1 vacant columns. The columns past the grid are
+        // not vacant, so the spans can not extend past the grid.
+        long fits = vacant;
+        for (int i = 1; i < spanX && fits != 0; i++) {
+            fits &= vacant >>> i;
+        }
+        return fits;
+    }
+
+    /**
+     * Finds the first vacant span, scanning the rows from the top and each row from the left.
+     *
+     * @param vacant Holds the x and y coordinate of the vacant span
+     * @return True if a vacant span was found
+     */
+    public boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= mCountY; y++) {
+            long fits = getVacantRegions(y, spanX, spanY);
+            if (fits != 0) {
+                vacant[0] = Long.numberOfTrailingZeros(fits);
+                vacant[1] = y;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GridOccupancy)) {
+            return false;
+        }
+        GridOccupancy other = (GridOccupancy) o;
+        return mCountX == other.mCountX && Arrays.equals(mRows, other.mRows);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mCountX + Arrays.hashCode(mRows);
+    }
+
+    /**
+     * Returns the bits of the span, right aligned.
+     */
+    private static long spanMask(int span) {
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
+    }
+}
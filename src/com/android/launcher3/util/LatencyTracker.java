@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and reports their percentiles.
+ */
+public class LatencyTracker {
+
+    private final long[] mSamples;
+    private int mCount;
+    private int mNext;
+
+    public LatencyTracker(int maxSamples) {
+        mSamples = new long[maxSamples];
+    }
+
+    public synchronized void add(long latency) {
+        mSamples[mNext] = latency;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mCount < mSamples.length) {
+            mCount++;
+        }
+    }
+
+    /**
+     * @return the given percentile of the recent samples, or 0 if there are none.
+     */
+    public synchronized long getPercentile(int percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(mCount - 1, mCount * percentile / 100)];
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99) + " (" + getCount() + " samples)";
+    }
+}
@@ -177,8 +177,12 @@ public class ManagedProfileHeuristic {
     private void saveWorkFolderShortcuts(long workFolderId, int startingRank) {
         for (ItemInfo info : mWorkFolderApps) {
             info.rank = startingRank++;
-            LauncherModel.addItemToDatabase(mContext, info, workFolderId, 0, 0, 0);
+            info.container = workFolderId;
+            info.screenId = 0;
+            info.cellX = 0;
+            info.cellY = 0;
         }
+        LauncherModel.addItemsToDatabase(mContext, mWorkFolderApps);
     }
 
     /**
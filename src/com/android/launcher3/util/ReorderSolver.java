@@ -0,0 +1,866 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Finds how to move the items of a grid out of the way of an item dropped over them, like
+ * {@link com.android.launcher3.CellLayout} does while an item is dragged over it. The items are
+ * only known through their cell and span, so the solver runs without views and can be tested
+ * and benchmarked off device.
+ *
+ * The items in the way are first pushed in the direction of the drag, dragging along the items
+ * they push, then moved as a block to the nearest area they fit in, and finally moved one by one.
+ *
+ * A solver is not thread safe, and reuses its temporary state between solves.
+ *
+ * @param <T> the type of the items
+ */
+public class ReorderSolver<T> {
+
+    /**
+     * The cell and span of an item of the grid.
+     */
+    public static class CellAndSpan {
+        public int x, y;
+        public int spanX, spanY;
+
+        public CellAndSpan() {
+        }
+
+        public CellAndSpan(int x, int y, int spanX, int spanY) {
+            this.x = x;
+            this.y = y;
+            this.spanX = spanX;
+            this.spanY = spanY;
+        }
+
+        public void copy(CellAndSpan copy) {
+            copy.x = x;
+            copy.y = y;
+            copy.spanX = spanX;
+            copy.spanY = spanY;
+        }
+
+        public String toString() {
+            return "(" + x + ", " + y + ": " + spanX + ", " + spanY + ")";
+        }
+    }
+
+    /**
+     * The placement of the items of the grid, which the solver changes into a solution.
+     */
+    public static class ItemConfiguration<T> {
+        public final HashMap<T, CellAndSpan> map = new HashMap<T, CellAndSpan>();
+        private final HashMap<T, CellAndSpan> savedMap = new HashMap<T, CellAndSpan>();
+        // The items which can not be moved.
+        private final HashSet<T> fixedItems = new HashSet<T>();
+        public final ArrayList<T> sortedViews = new ArrayList<T>();
+        // The items which were in the way of the dragged item.
+        public ArrayList<T> intersectingViews;
+        public boolean isSolution = false;
+        public int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+
+        void save() {
+            // Copy current state into savedMap
+            for (T v: map.keySet()) {
+                map.get(v).copy(savedMap.get(v));
+            }
+        }
+
+        void restore() {
+            // Restore current state from savedMap
+            for (T v: savedMap.keySet()) {
+                savedMap.get(v).copy(map.get(v));
+            }
+        }
+
+        public void add(T v, CellAndSpan cs, boolean canReorder) {
+            map.put(v, cs);
+            savedMap.put(v, new CellAndSpan());
+            sortedViews.add(v);
+            if (!canReorder) {
+                fixedItems.add(v);
+            }
+        }
+
+        public boolean canReorder(T v) {
+            return !fixedItems.contains(v);
+        }
+
+        public int area() {
+            return dragViewSpanX * dragViewSpanY;
+        }
+    }
+
+    /**
+     * Cell bounds, with the right and bottom edges excluded.
+     */
+    private static class Bounds {
+        int left, top, right, bottom;
+
+        void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void union(int left, int top, int right, int bottom) {
+            this.left = Math.min(this.left, left);
+            this.top = Math.min(this.top, top);
+            this.right = Math.max(this.right, right);
+            this.bottom = Math.max(this.bottom, bottom);
+        }
+
+        int width() {
+            return right - left;
+        }
+
+        int height() {
+            return bottom - top;
+        }
+    }
+
+    private final int mCountX;
+    private final int mCountY;
+
+    // The cells occupied while a solution is being searched.
+    private final GridOccupancy mTmpOccupied;
+    // The cells occupied by a group of items being pushed together, relative to their bounds.
+    private final GridOccupancy mTmpBlockOccupied;
+    private final ArrayList<T> mIntersectingViews = new ArrayList<T>();
+    private final Bounds mOccupiedRect = new Bounds();
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+
+    // The System.nanoTime() after which the solver stops trying new strategies, or 0 if the
+    // solver is not time bound.
+    private long mDeadlineNanos;
+
+    public ReorderSolver(int countX, int countY) {
+        mCountX = countX;
+        mCountY = countY;
+        mTmpOccupied = new GridOccupancy(countX, countY);
+        mTmpBlockOccupied = new GridOccupancy(countX, countY);
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    /**
+     * Bounds the time taken by the next solves.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} after which the solver gives up on the
+     *        strategies it has not tried yet, or 0 to try all the strategies.
+     */
+    public void setDeadline(long deadlineNanos) {
+        mDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return true if the deadline set by {@link #setDeadline(long)} is past.
+     */
+    public boolean isOverBudget() {
+        return mDeadlineNanos != 0 && System.nanoTime() - mDeadlineNanos > 0;
+    }
+
+    /**
+     * Moves the items of {@param solution} so that the span (cellX, cellY, spanX, spanY) is free
+     * for {@param dragView}. The positions of the items are changed in place, and are only
+     * meaningful if a solution is found.
+     *
+     * @param direction the direction of the drag, with components in {-1, 0, 1}. It is restored
+     *        before returning.
+     * @param dragView the item being dragged, which may be in {@param solution}, or null
+     * @param occupied the cells occupied by the items of {@param solution} other than the
+     *        dragged item. It is not modified.
+     * @return true if a solution was found
+     */
+    public boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, T dragView, GridOccupancy occupied, ItemConfiguration<T> solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+
+        occupied.copyTo(mTmpOccupied);
+        mIntersectingViews.clear();
+        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+        // Mark the desired location of the view currently being dragged.
+        if (dragView != null) {
+            CellAndSpan c = solution.map.get(dragView);
+            if (c != null) {
+                c.x = cellX;
+                c.y = cellY;
+            }
+        }
+        for (T child: solution.map.keySet()) {
+            if (child == dragView) continue;
+            CellAndSpan c = solution.map.get(child);
+            if (intersects(c, mOccupiedRect)) {
+                if (!solution.canReorder(child)) {
+                    return false;
+                }
+                mIntersectingViews.add(child);
+            }
+        }
+
+        solution.intersectingViews = new ArrayList<T>(mIntersectingViews);
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersectingViews, mOccupiedRect, direction, dragView,
+                solution)) {
+            return true;
+        }
+        if (isOverBudget()) {
+            return false;
+        }
+
+        // Next we try moving the views as a block, but without requiring the push mechanic.
+        if (addViewsToTempLocation(mIntersectingViews, mOccupiedRect, direction, solution)) {
+            return true;
+        }
+        if (isOverBudget()) {
+            return false;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (T v : mIntersectingViews) {
+            if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intersects(CellAndSpan c, Bounds r) {
+        return c.x < r.right && r.left < c.x + c.spanX && c.y < r.bottom && r.top < c.y + c.spanY;
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    public static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(deltaY / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the views should move from x, y
+     * @param occupied The cells of the grid which are occupied
+     * @param blockOccupied The cells in the specified block (cellX, cellY, spanX, spanY) which
+     *        are occupied, relative to the block, or null if the whole block is. This is used
+     *        when try to move a group of views.
+     * @param result Array in which to place the result
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result;
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        final int countX = mCountX;
+        final int countY = mCountY;
+
+        for (int y = 0; y < countY - (spanY - 1); y++) {
+            // The columns of this row at which the whole block fits
+            final long fits = blockOccupied == null ?
+                    occupied.getVacantRegions(y, spanX, spanY) : 0;
+            for (int x = 0; x < countX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? (fits & (1L << x)) == 0
+                        : !occupied.isRegionVacant(x, y, spanX, spanY, blockOccupied)) {
+                    continue;
+                }
+
+                float distance = (float)
+                        Math.sqrt((x - cellX) * (x - cellX) + (y - cellY) * (y - cellY));
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                if (Float.compare(distance,  bestDistance) < 0 || (Float.compare(distance,
+                        bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    private void markCells(CellAndSpan c, GridOccupancy occupied, boolean value) {
+        occupied.markCells(c.x, c.y, c.spanX, c.spanY, value);
+    }
+
+    private void markCells(Bounds r, GridOccupancy occupied, boolean value) {
+        occupied.markCells(r.left, r.top, r.width(), r.height(), value);
+    }
+
+    private boolean addViewToTempLocation(T v, Bounds rectOccupiedByPotentialDrop,
+            int[] direction, ItemConfiguration<T> currentState) {
+        CellAndSpan c = currentState.map.get(v);
+        boolean success = false;
+        markCells(c, mTmpOccupied, false);
+        markCells(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(c.x, c.y, c.spanX, c.spanY, direction, mTmpOccupied, null, mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            c.x = mTempLocation[0];
+            c.y = mTempLocation[1];
+            success = true;
+        }
+        markCells(c, mTmpOccupied, true);
+        return success;
+    }
+
+    /**
+     * This helper class defines a cluster of views. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other views. The edges
+     * essentially define a fine-grained boundary around the cluster of views -- like a more
+     * precise version of a bounding box.
+     */
+    private class ViewCluster {
+        final static int LEFT = 0;
+        final static int TOP = 1;
+        final static int RIGHT = 2;
+        final static int BOTTOM = 3;
+
+        ArrayList<T> views;
+        ItemConfiguration<T> config;
+        Bounds boundingRect = new Bounds();
+
+        int[] leftEdge = new int[mCountY];
+        int[] rightEdge = new int[mCountY];
+        int[] topEdge = new int[mCountX];
+        int[] bottomEdge = new int[mCountX];
+        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty, boundingRectDirty;
+
+        public ViewCluster(ArrayList<T> views, ItemConfiguration<T> config) {
+            this.views = new ArrayList<T>(views);
+            this.config = config;
+            resetEdges();
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < mCountX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < mCountY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            leftEdgeDirty = true;
+            rightEdgeDirty = true;
+            bottomEdgeDirty = true;
+            topEdgeDirty = true;
+            boundingRectDirty = true;
+        }
+
+        void computeEdge(int which, int[] edge) {
+            int count = views.size();
+            for (int i = 0; i < count; i++) {
+                CellAndSpan cs = config.map.get(views.get(i));
+                switch (which) {
+                    case LEFT:
+                        int left = cs.x;
+                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
+                            if (left < edge[j] || edge[j] < 0) {
+                                edge[j] = left;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        int right = cs.x + cs.spanX;
+                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
+                            if (right > edge[j]) {
+                                edge[j] = right;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        int top = cs.y;
+                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
+                            if (top < edge[j] || edge[j] < 0) {
+                                edge[j] = top;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        int bottom = cs.y + cs.spanY;
+                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
+                            if (bottom > edge[j]) {
+                                edge[j] = bottom;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isViewTouchingEdge(T v, int whichEdge) {
+            CellAndSpan cs = config.map.get(v);
+
+            int[] edge = getEdge(whichEdge);
+
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
+                        if (edge[i] == cs.x + cs.spanX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
+                        if (edge[i] == cs.x) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
+                        if (edge[i] == cs.y + cs.spanY) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
+                        if (edge[i] == cs.y) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (T v: views) {
+                CellAndSpan c = config.map.get(v);
+                switch (whichEdge) {
+                    case LEFT:
+                        c.x -= delta;
+                        break;
+                    case RIGHT:
+                        c.x += delta;
+                        break;
+                    case TOP:
+                        c.y -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        c.y += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        public void addView(T v) {
+            views.add(v);
+            resetEdges();
+        }
+
+        public Bounds getBoundingRect() {
+            if (boundingRectDirty) {
+                boolean first = true;
+                for (T v: views) {
+                    CellAndSpan c = config.map.get(v);
+                    if (first) {
+                        boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+                        first = false;
+                    } else {
+                        boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+                    }
+                }
+            }
+            return boundingRect;
+        }
+
+        public int[] getEdge(int which) {
+            switch (which) {
+                case LEFT:
+                    return getLeftEdge();
+                case RIGHT:
+                    return getRightEdge();
+                case TOP:
+                    return getTopEdge();
+                case BOTTOM:
+                default:
+                    return getBottomEdge();
+            }
+        }
+
+        public int[] getLeftEdge() {
+            if (leftEdgeDirty) {
+                computeEdge(LEFT, leftEdge);
+            }
+            return leftEdge;
+        }
+
+        public int[] getRightEdge() {
+            if (rightEdgeDirty) {
+                computeEdge(RIGHT, rightEdge);
+            }
+            return rightEdge;
+        }
+
+        public int[] getTopEdge() {
+            if (topEdgeDirty) {
+                computeEdge(TOP, topEdge);
+            }
+            return topEdge;
+        }
+
+        public int[] getBottomEdge() {
+            if (bottomEdgeDirty) {
+                computeEdge(BOTTOM, bottomEdge);
+            }
+            return bottomEdge;
+        }
+
+        PositionComparator comparator = new PositionComparator();
+        class PositionComparator implements Comparator<T> {
+            int whichEdge = 0;
+            public int compare(T left, T right) {
+                CellAndSpan l = config.map.get(left);
+                CellAndSpan r = config.map.get(right);
+                switch (whichEdge) {
+                    case LEFT:
+                        return (r.x + r.spanX) - (l.x + l.spanX);
+                    case RIGHT:
+                        return l.x - r.x;
+                    case TOP:
+                        return (r.y + r.spanY) - (l.y + l.spanY);
+                    case BOTTOM:
+                    default:
+                        return l.y - r.y;
+                }
+            }
+        }
+
+        public void sortConfigurationForEdgePush(int edge) {
+            comparator.whichEdge = edge;
+            Collections.sort(config.sortedViews, comparator);
+        }
+    }
+
+    private boolean pushViewsToTempLocation(ArrayList<T> views, Bounds rectOccupiedByPotentialDrop,
+            int[] direction, T dragView, ItemConfiguration<T> currentState) {
+
+        ViewCluster cluster = new ViewCluster(views, currentState);
+        Bounds clusterRect = cluster.getBoundingRect();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = ViewCluster.LEFT;
+            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
+        } else if (direction[0] > 0) {
+            whichEdge = ViewCluster.RIGHT;
+            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
+        } else if (direction[1] < 0) {
+            whichEdge = ViewCluster.TOP;
+            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
+        } else {
+            whichEdge = ViewCluster.BOTTOM;
+            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        // Mark the occupied state as false for the group of views we want to move.
+        for (T v: views) {
+            markCells(currentState.map.get(v), mTmpOccupied, false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        currentState.save();
+
+        // The pushing algorithm is simplified by considering the views in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the views by their right edge, from right to left.
+        cluster.sortConfigurationForEdgePush(whichEdge);
+
+        while (pushDistance > 0 && !fail) {
+            for (T v: currentState.sortedViews) {
+                // For each view that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that view. If so, we add that view to the
+                // cluster.
+                if (!cluster.views.contains(v) && v != dragView) {
+                    if (cluster.isViewTouchingEdge(v, whichEdge)) {
+                        if (!currentState.canReorder(v)) {
+                            // The push solution includes the all apps button, this is not viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addView(v);
+
+                        // Adding view to cluster, mark it as not occupied.
+                        markCells(currentState.map.get(v), mTmpOccupied, false);
+                    }
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+
+        boolean foundSolution = false;
+        clusterRect = cluster.getBoundingRect();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the grid.
+        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX
+                && clusterRect.top >= 0 && clusterRect.bottom <= mCountY) {
+            foundSolution = true;
+        } else {
+            currentState.restore();
+        }
+
+        // In either case, we set the occupied array as marked for the location of the views
+        for (T v: cluster.views) {
+            markCells(currentState.map.get(v), mTmpOccupied, true);
+        }
+
+        return foundSolution;
+    }
+
+    private boolean addViewsToTempLocation(ArrayList<T> views, Bounds rectOccupiedByPotentialDrop,
+            int[] direction, ItemConfiguration<T> currentState) {
+        if (views.size() == 0) return true;
+
+        boolean success = false;
+        Bounds boundingRect = null;
+        // We construct a rect which represents the entire group of views passed in
+        for (T v: views) {
+            CellAndSpan c = currentState.map.get(v);
+            if (boundingRect == null) {
+                boundingRect = new Bounds();
+                boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+            } else {
+                boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+            }
+        }
+
+        // Mark the occupied state as false for the group of views we want to move.
+        for (T v: views) {
+            markCells(currentState.map.get(v), mTmpOccupied, false);
+        }
+
+        GridOccupancy blockOccupied = mTmpBlockOccupied;
+        blockOccupied.clear();
+        int top = boundingRect.top;
+        int left = boundingRect.left;
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        for (T v: views) {
+            CellAndSpan c = currentState.map.get(v);
+            blockOccupied.markCells(c.x - left, c.y - top, c.spanX, c.spanY, true);
+        }
+
+        markCells(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
+                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
+
+        // If we successfuly found a location by pushing the block of views, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - boundingRect.left;
+            int deltaY = mTempLocation[1] - boundingRect.top;
+            for (T v: views) {
+                CellAndSpan c = currentState.map.get(v);
+                c.x += deltaX;
+                c.y += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the views
+        for (T v: views) {
+            markCells(currentState.map.get(v), mTmpOccupied, true);
+        }
+        return success;
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(ArrayList<T> intersectingViews, Bounds occupied,
+            int[] direction, T ignoreView, ItemConfiguration<T> solution) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[1] = temp;
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[0] = temp;
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[1] = -temp;
+                direction[0] *= -1;
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[0] = -temp;
+                direction[1] *= -1;
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[0] *= -1;
+                direction[1] *= -1;
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                direction[0] = direction[1];
+                direction[1] = temp;
+                return true;
+            }
+
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                    ignoreView, solution)) {
+                temp = -direction[0];
+                direction[0] = -direction[1];
+                direction[1] = temp;
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+        }
+        return false;
+    }
+}
@@ -39,13 +39,15 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.R;
 import com.android.launcher3.WidgetPreviewLoader;
+import com.android.launcher3.WidgetPreviewLoader.PreviewCallback;
 import com.android.launcher3.WidgetPreviewLoader.PreviewLoadRequest;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 
 /**
  * The linear layout used strictly for the widget tray.
  */
-public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
+public class WidgetCell extends LinearLayout
+        implements OnLayoutChangeListener, PreviewCallback {
 
     private static final String TAG = "WidgetCell";
     private static final boolean DEBUG = false;
@@ -66,6 +68,8 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
 
     private WidgetPreviewLoader mWidgetPreviewLoader;
     private PreviewLoadRequest mActiveRequest;
+    // The preview shown by this cell, released to the loader when the image is cleared.
+    private Bitmap mPreview;
 
     public WidgetCell(Context context) {
         this(context, null);
@@ -125,6 +129,7 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
         final TextView name = (TextView) findViewById(R.id.widget_name);
         final TextView dims = (TextView) findViewById(R.id.widget_dims);
         image.setImageDrawable(null);
+        releasePreview();
         name.setText(null);
         dims.setText(null);
     }
@@ -135,14 +140,22 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
             if (image != null) {
                 image.setImageDrawable(null);
             }
+            releasePreview();
         }
 
         if (mActiveRequest != null) {
-            mActiveRequest.cancel(recycleImage);
+            mActiveRequest.cancel();
             mActiveRequest = null;
         }
     }
 
+    private void releasePreview() {
+        if (mPreview != null && mWidgetPreviewLoader != null) {
+            mWidgetPreviewLoader.releasePreview(mPreview);
+        }
+        mPreview = null;
+    }
+
     public void applyFromAppWidgetProviderInfo(LauncherAppWidgetProviderInfo info,
             int maxWidth, WidgetPreviewLoader loader) {
         LauncherAppState app = LauncherAppState.getInstance();
@@ -187,7 +200,10 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
         return maxSize;
     }
 
+    @Override
     public void applyPreview(Bitmap bitmap) {
+        releasePreview();
+        mPreview = bitmap;
         FastBitmapDrawable preview = new FastBitmapDrawable(bitmap);
         final WidgetImageView image =
             (WidgetImageView) findViewById(R.id.widget_preview);
@@ -315,6 +331,14 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
         }
     }
 
+    @Override
+    public void onPreviewDropped(PreviewLoadRequest request) {
+        if (mActiveRequest == request) {
+            mActiveRequest = null;
+            ensurePreview();
+        }
+    }
+
     @Override
     public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft,
             int oldTop, int oldRight, int oldBottom) {
@@ -48,6 +48,7 @@ import com.android.launcher3.R;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.WidgetPreviewLoader;
 import com.android.launcher3.Workspace;
+import com.android.launcher3.util.Thunk;
 
 import java.util.ArrayList;
 
@@ -116,6 +117,20 @@ public class WidgetsContainerView extends FrameLayout implements Insettable, Vie
         mView.setAdapter(mAdapter);
         mView.setLayoutManager(new LinearLayoutManager(getContext()));
         mView.setItemViewCacheSize(WIDGET_CACHE_SIZE);
+        mView.setOnScrollListener(new RecyclerView.OnScrollListener() {
+            private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                // Count the preview cache hits and misses of each fling or drag of the list.
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    getWidgetPreviewLoader().endScrollSession();
+                } else if (mScrollState == RecyclerView.SCROLL_STATE_IDLE) {
+                    getWidgetPreviewLoader().startScrollSession();
+                }
+                mScrollState = newState;
+            }
+        });
 
         mPadding.set(getPaddingLeft(), getPaddingTop(), getPaddingRight(),
                 getPaddingBottom());
@@ -362,7 +377,7 @@ public class WidgetsContainerView extends FrameLayout implements Insettable, Vie
         mWidgets.addWidgetsAndShortcuts(widgetsShortcuts, pm);
     }
 
-    private WidgetPreviewLoader getWidgetPreviewLoader() {
+    @Thunk WidgetPreviewLoader getWidgetPreviewLoader() {
         if (mWidgetPreviewLoader == null) {
             mWidgetPreviewLoader = LauncherAppState.getInstance().getWidgetCache();
         }
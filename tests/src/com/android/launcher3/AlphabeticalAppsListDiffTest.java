@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.launcher3.AlphabeticalAppsList.AdapterItem;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the changes dispatched by {@link AlphabeticalAppsList} turn the old adapter items
+ * into the new ones, including when a section name heads more than one section.
+ */
+@SmallTest
+public final class AlphabeticalAppsListDiffTest extends TestCase {
+
+    private static final String[] SECTION_NAMES = {"A", "B", "C", "…", "•"};
+    private static final int ITERATIONS = 500;
+
+    /**
+     * An app and the name of its section.
+     */
+    private static final class Entry {
+        final String sectionName;
+        final AppInfo app = new AppInfo();
+
+        Entry(String sectionName) {
+            this.sectionName = sectionName;
+        }
+    }
+
+    /**
+     * Applies the changes to a list of keys, the way the adapter does to its items.
+     */
+    private static final class KeyList implements AlphabeticalAppsList.ChangeListener {
+        final ArrayList<Object> keys;
+        final List<Object> newKeys;
+        int insertedCount;
+
+        KeyList(List<Object> oldKeys, List<Object> newKeys) {
+            keys = new ArrayList<Object>(oldKeys);
+            this.newKeys = newKeys;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            assertTrue(positionStart + itemCount <= keys.size());
+            keys.subList(positionStart, positionStart + itemCount).clear();
+        }
+
+        @Override
+        public void onItemMoved(int fromPosition, int toPosition) {
+            keys.add(toPosition, keys.remove(fromPosition));
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            assertTrue(positionStart <= keys.size());
+            keys.addAll(positionStart, newKeys.subList(positionStart, positionStart + itemCount));
+            insertedCount += itemCount;
+        }
+    }
+
+    public void testRepeatedSectionNameInserted() {
+        Entry symbol = new Entry("…");
+        Entry a = new Entry("A");
+        Entry b = new Entry("B");
+        Entry otherSymbol = new Entry("…");
+
+        ArrayList<Entry> oldEntries = new ArrayList<Entry>();
+        Collections.addAll(oldEntries, symbol, a, b);
+        ArrayList<Entry> newEntries = new ArrayList<Entry>();
+        Collections.addAll(newEntries, symbol, a, otherSymbol, b);
+
+        KeyList result = checkDiff(oldEntries, newEntries);
+        // The second header and its app.
+        assertEquals(2, result.insertedCount);
+    }
+
+    public void testRepeatedSectionNameRemoved() {
+        Entry symbol = new Entry("…");
+        Entry a = new Entry("A");
+        Entry otherSymbol = new Entry("…");
+
+        ArrayList<Entry> oldEntries = new ArrayList<Entry>();
+        Collections.addAll(oldEntries, symbol, a, otherSymbol);
+        ArrayList<Entry> newEntries = new ArrayList<Entry>();
+        Collections.addAll(newEntries, symbol, a);
+
+        checkDiff(oldEntries, newEntries);
+    }
+
+    public void testRandomChanges() {
+        Random random = new Random(7);
+        for (int i = 0; i < ITERATIONS; i++) {
+            ArrayList<Entry> oldEntries = new ArrayList<Entry>();
+            int count = random.nextInt(20);
+            for (int j = 0; j < count; j++) {
+                oldEntries.add(newRandomEntry(random));
+            }
+
+            ArrayList<Entry> newEntries = new ArrayList<Entry>(oldEntries);
+            int changes = random.nextInt(5);
+            for (int j = 0; j < changes; j++) {
+                int position = random.nextInt(newEntries.size() + 1);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        newEntries.add(position, newRandomEntry(random));
+                        break;
+                    case 1:
+                        if (position < newEntries.size()) {
+                            newEntries.remove(position);
+                        }
+                        break;
+                    default:
+                        if (position < newEntries.size()) {
+                            newEntries.add(random.nextInt(newEntries.size()),
+                                    newEntries.remove(position));
+                        }
+                        break;
+                }
+            }
+            checkDiff(oldEntries, newEntries);
+        }
+    }
+
+    private static Entry newRandomEntry(Random random) {
+        return new Entry(SECTION_NAMES[random.nextInt(SECTION_NAMES.length)]);
+    }
+
+    /**
+     * Returns the adapter items of {@param entries}, with a header before each run of apps of
+     * the same section, as {@link AlphabeticalAppsList} creates them.
+     */
+    private static List<AdapterItem> createItems(List<Entry> entries) {
+        ArrayList<AdapterItem> items = new ArrayList<AdapterItem>();
+        String lastSectionName = null;
+        int appIndex = 0;
+        for (Entry entry : entries) {
+            if (!entry.sectionName.equals(lastSectionName)) {
+                items.add(AdapterItem.asSection(items.size(), entry.sectionName));
+                lastSectionName = entry.sectionName;
+            }
+            items.add(AdapterItem.asApp(items.size(), entry.sectionName, entry.app, appIndex++));
+        }
+        return items;
+    }
+
+    private static KeyList checkDiff(List<Entry> oldEntries, List<Entry> newEntries) {
+        List<Object> oldKeys = AlphabeticalAppsList.getItemKeys(createItems(oldEntries));
+        List<Object> newKeys = AlphabeticalAppsList.getItemKeys(createItems(newEntries));
+        KeyList result = new KeyList(oldKeys, newKeys);
+        AlphabeticalAppsList.diffItems(oldKeys, newKeys, result);
+        assertEquals(newKeys, result.keys);
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.launcher3.compat.UserHandleCompat;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares sorting apps with the collation keys cached in {@link AppInfo} against collating the
+ * titles on every comparison, as {@link AppNameComparator} used to.
+ */
+@LargeTest
+public final class AppNameComparatorBenchmark extends AndroidTestCase {
+    private static final String TAG = "AppNameComparatorBenchmark";
+
+    private static final int ITERATIONS = 10;
+
+    private static final Locale[] LOCALES = new Locale[] {
+            Locale.US, Locale.GERMANY, Locale.FRANCE, Locale.JAPAN, new Locale("ru", "RU") };
+    // Characters to build titles from, covering the scripts of the locales above.
+    private static final String[] ALPHABETS = new String[] {
+            "abcdefghijklmnopqrstuvwxyz ",
+            "abcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00fc\u00df ",
+            "abcdefghijklmnopqrstuvwxyz\u00e9\u00e8\u00ea\u00e0\u00e7\u00f4 ",
+            "\u3042\u3044\u3046\u3048\u304a\u304b\u304d\u304f\u3051\u3053\u3055\u3057"
+                    + "\u3059\u305b\u305d\u30a2\u30a4\u30a6\u30a8\u30aa\u30ab\u30ad\u30af\u30b1"
+                    + "\u30b3\u6f22\u5b57 ",
+            "\u0430\u0431\u0432\u0433\u0434\u0435\u0451\u0436\u0437\u0438\u0439\u043a"
+                    + "\u043b\u043c\u043d\u043e\u043f\u0440\u0441\u0442\u0443\u0444\u0445\u0446"
+                    + "\u0447\u0448\u0449\u044a\u044b\u044c\u044d\u044e\u044f " };
+
+    public void testSort500() {
+        benchmarkSort(500);
+    }
+
+    public void testSort2000() {
+        benchmarkSort(2000);
+    }
+
+    private void benchmarkSort(int count) {
+        for (int i = 0; i < LOCALES.length; i++) {
+            final Collator collator = Collator.getInstance(LOCALES[i]);
+            ArrayList<AppInfo> apps = createApps(count, ALPHABETS[i], new Random(count + i));
+
+            Comparator<AppInfo> titleComparator = new Comparator<AppInfo>() {
+                @Override
+                public int compare(AppInfo a, AppInfo b) {
+                    return collator.compare(a.title.toString().trim(), b.title.toString().trim());
+                }
+            };
+            Comparator<AppInfo> keyComparator =
+                    new AppNameComparator(getContext(), collator).getComparator();
+
+            long titleNanos = Long.MAX_VALUE;
+            long keyNanos = Long.MAX_VALUE;
+            ArrayList<AppInfo> titleSorted;
+            ArrayList<AppInfo> keySorted = null;
+            // The first run computes the collation keys, the next ones reuse them as later sorts
+            // and insertions of the apps list do.
+            for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+                titleSorted = new ArrayList<>(apps);
+                long start = System.nanoTime();
+                Collections.sort(titleSorted, titleComparator);
+                titleNanos = Math.min(titleNanos, System.nanoTime() - start);
+
+                keySorted = new ArrayList<>(apps);
+                start = System.nanoTime();
+                Collections.sort(keySorted, keyComparator);
+                keyNanos = Math.min(keyNanos, System.nanoTime() - start);
+            }
+
+            Log.d(TAG, LOCALES[i] + " " + count + " apps: collator.compare "
+                    + titleNanos / 1000 + "us, collation keys " + keyNanos / 1000 + "us");
+            for (int j = 1; j < keySorted.size(); j++) {
+                assertTrue(titleComparator.compare(keySorted.get(j - 1), keySorted.get(j)) <= 0);
+            }
+        }
+    }
+
+    private static ArrayList<AppInfo> createApps(int count, String alphabet, Random random) {
+        UserHandleCompat user = UserHandleCompat.myUserHandle();
+        ArrayList<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = 3 + random.nextInt(15);
+            StringBuilder title = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                title.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            AppInfo app = new AppInfo();
+            app.title = title.toString();
+            app.componentName = new ComponentName("com.example.app" + i, "MainActivity");
+            app.user = user;
+            apps.add(app);
+        }
+        return apps;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.launcher3.compat.LauncherActivityInfoCompat;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserHandleCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link IconCache} lookups of cached icons on the UI thread do not wait for the
+ * updates of other packages, as happen during package change storms, and benchmarks them while
+ * the icons are being updated on another thread. The cache uses its own DB. The latencies during
+ * real updates are logged rather than asserted, as they depend on the load of the device.
+ */
+@LargeTest
+public final class IconCacheContentionTest extends AndroidTestCase {
+    private static final String TAG = "IconCacheContentionTest";
+
+    private static final int LOOKUPS = 2000;
+    // Few enough for all the looked up icons to stay in the memory cache.
+    private static final int MAX_LOOKED_UP_APPS = 20;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String DB_PREFIX = "test.";
+
+    private Context mContext;
+    private IconCache mIconCache;
+    private UserHandleCompat mUser;
+    private List<LauncherActivityInfoCompat> mApps;
+    private final ArrayList<LauncherActivityInfoCompat> mLookedUpApps = new ArrayList<>();
+    private final ArrayList<LauncherActivityInfoCompat> mUpdatedApps = new ArrayList<>();
+    private volatile boolean mStopUpdates;
+    private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Keep the icon DB of the launcher out of the updates.
+        mContext = new RenamingDelegatingContext(getContext(), DB_PREFIX);
+        mContext.deleteDatabase(LauncherFiles.APP_ICONS_DB);
+        mIconCache = new IconCache(mContext);
+        mUser = UserHandleCompat.myUserHandle();
+
+        // Split the apps by package: half of the packages are looked up, the other half updated.
+        mApps = LauncherAppsCompat.getInstance(getContext()).getActivityList(null, mUser);
+        HashSet<String> lookedUpPackages = new HashSet<>();
+        boolean lookUp = true;
+        for (LauncherActivityInfoCompat app : mApps) {
+            String packageName = app.getComponentName().getPackageName();
+            if (lookedUpPackages.contains(packageName)) {
+                mLookedUpApps.add(app);
+            } else if (lookUp) {
+                lookedUpPackages.add(packageName);
+                mLookedUpApps.add(app);
+                lookUp = false;
+            } else {
+                mUpdatedApps.add(app);
+                lookUp = true;
+            }
+        }
+        while (mLookedUpApps.size() > MAX_LOOKED_UP_APPS) {
+            mLookedUpApps.remove(mLookedUpApps.size() - 1);
+        }
+
+        // Warm up the cache with the icons which are looked up.
+        for (LauncherActivityInfoCompat app : mLookedUpApps) {
+            lookUp(app);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mIconCache.flush();
+        mContext.deleteDatabase(LauncherFiles.APP_ICONS_DB);
+        super.tearDown();
+    }
+
+    public void testCachedLookupsDoNotWaitForUpdates() throws Exception {
+        if (mLookedUpApps.isEmpty()) {
+            Log.w(TAG, "No app to look up");
+            return;
+        }
+
+        // Holds the update lock, as a long package update would, until the lookups are done.
+        final CountDownLatch lockHeld = new CountDownLatch(1);
+        final CountDownLatch lookupsDone = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                mIconCache.mUpdateLock.writeLock().lock();
+                try {
+                    lockHeld.countDown();
+                    lookupsDone.await();
+                } catch (InterruptedException e) {
+                    // Release the lock.
+                } finally {
+                    mIconCache.mUpdateLock.writeLock().unlock();
+                }
+            }
+        };
+        writer.start();
+        try {
+            assertTrue(lockHeld.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            // Times out if a lookup waits for the writer.
+            long[] latencies = measureLookupsOnUiThread();
+            Log.d(TAG, "lookup latency (ns) while an update holds the lock: p50="
+                    + percentile(latencies, 50) + " p99=" + percentile(latencies, 99));
+        } finally {
+            lookupsDone.countDown();
+            writer.join();
+        }
+    }
+
+    public void testCachedLookupsDuringUpdates() throws Exception {
+        if (mLookedUpApps.isEmpty() || mUpdatedApps.isEmpty()) {
+            Log.w(TAG, "Not enough apps to benchmark the icon cache");
+            return;
+        }
+
+        long[] uncontended = measureLookupsOnUiThread();
+
+        mStopUpdates = false;
+        Thread updater = new Thread() {
+            @Override
+            public void run() {
+                while (!mStopUpdates) {
+                    for (LauncherActivityInfoCompat app : mUpdatedApps) {
+                        mIconCache.updateIconsForPkg(
+                                app.getComponentName().getPackageName(), mUser);
+                        if (mStopUpdates) {
+                            return;
+                        }
+                    }
+                    // The DB rows of the apps which are not in the list are deleted.
+                    mIconCache.updateDBIcons(mUser, mApps);
+                }
+            }
+        };
+        updater.start();
+        long[] contended;
+        try {
+            contended = measureLookupsOnUiThread();
+        } finally {
+            mStopUpdates = true;
+            updater.join();
+        }
+
+        long uncontendedP99 = percentile(uncontended, 99);
+        long contendedP99 = percentile(contended, 99);
+        Log.d(TAG, "lookup latency (ns) uncontended: p50=" + percentile(uncontended, 50)
+                + " p99=" + uncontendedP99 + ", during updates: p50=" + percentile(contended, 50)
+                + " p99=" + contendedP99);
+    }
+
+    private long[] measureLookupsOnUiThread() throws Exception {
+        return mMainThreadExecutor.submit(new Callable<long[]>() {
+            @Override
+            public long[] call() {
+                return measureLookups();
+            }
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private long[] measureLookups() {
+        long[] latencies = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            LauncherActivityInfoCompat app = mLookedUpApps.get(i % mLookedUpApps.size());
+            long start = System.nanoTime();
+            lookUp(app);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void lookUp(LauncherActivityInfoCompat app) {
+        ShortcutInfo info = new ShortcutInfo();
+        mIconCache.getTitleAndIcon(info, app.getComponentName(), app, mUser, false, false);
+        assertNotNull(info.getIcon(mIconCache));
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        return sortedValues[Math.min(sortedValues.length - 1,
+                sortedValues.length * percentile / 100)];
+    }
+}
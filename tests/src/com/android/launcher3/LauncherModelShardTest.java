@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks how the results of the workspace shards are collected by {@link LauncherModel}. When a
+ * shard fails, no partial result may be merged, as the items of the failed shard would be missing
+ * from the model and their screens removed as empty. The loader loads the rows serially instead.
+ */
+@SmallTest
+public final class LauncherModelShardTest extends TestCase {
+
+    private static final int SHARD_COUNT = 4;
+
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testResultsInShardOrder() {
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            results.add(mExecutor.submit(newShard(i, null)));
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), LauncherModel.getShardResults(results));
+    }
+
+    public void testFailedShardDiscardsAllResults() {
+        final AtomicBoolean lastShardDone = new AtomicBoolean();
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+        results.add(mExecutor.submit(newShard(0, null)));
+        results.add(mExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("Shard failed");
+            }
+        }));
+        for (int i = 2; i < SHARD_COUNT; i++) {
+            results.add(mExecutor.submit(newShard(i, i == SHARD_COUNT - 1 ? lastShardDone : null)));
+        }
+
+        assertNull(LauncherModel.getShardResults(results));
+        // The shards after the failed one are still waited for, so that their cursors are closed
+        // before the rows are loaded again.
+        assertTrue(lastShardDone.get());
+    }
+
+    private static Callable<Integer> newShard(final int index, final AtomicBoolean done) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Thread.sleep(10);
+                if (done != null) {
+                    done.set(true);
+                }
+                return index;
+            }
+        };
+    }
+}
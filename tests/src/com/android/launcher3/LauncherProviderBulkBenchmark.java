@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.test.ProviderTestCase2;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+
+import java.util.ArrayList;
+
+/**
+ * Compares importing a layout one item at a time against importing it in a single transaction,
+ * with a batch of {@link ContentProviderOperation}s and with {@link LauncherProvider.ItemOps}.
+ * Runs against an isolated copy of the provider, so the launcher database is not touched.
+ */
+@LargeTest
+public final class LauncherProviderBulkBenchmark extends ProviderTestCase2<LauncherProvider> {
+    private static final String TAG = "LauncherProviderBulkBenchmark";
+
+    private static final int ITEM_COUNT = 500;
+    private static final int ITERATIONS = 5;
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 5;
+
+    private int mNotifications;
+
+    public LauncherProviderBulkBenchmark() {
+        super(LauncherProvider.class, LauncherProvider.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getProvider().setLauncherProviderChangeListener(new LauncherProviderChangeListener() {
+            @Override
+            public void onLauncherProviderChange() {
+                mNotifications++;
+            }
+        });
+    }
+
+    public void testImport500() throws Exception {
+        LauncherProvider provider = getProvider();
+        long singleNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        long itemOpsNanos = Long.MAX_VALUE;
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            clearFavorites();
+            ArrayList<ContentValues> items = createLayout(provider);
+            mNotifications = 0;
+            long start = System.nanoTime();
+            for (ContentValues values : items) {
+                assertNotNull(provider.insert(Favorites.CONTENT_URI, values));
+            }
+            singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+            assertEquals(ITEM_COUNT, mNotifications);
+            assertEquals(ITEM_COUNT, countFavorites());
+
+            clearFavorites();
+            items = createLayout(provider);
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(ITEM_COUNT);
+            for (ContentValues values : items) {
+                operations.add(ContentProviderOperation.newInsert(Favorites.CONTENT_URI)
+                        .withValues(values).build());
+            }
+            mNotifications = 0;
+            start = System.nanoTime();
+            provider.applyBatch(operations);
+            batchNanos = Math.min(batchNanos, System.nanoTime() - start);
+            assertEquals(1, mNotifications);
+            assertEquals(ITEM_COUNT, countFavorites());
+
+            clearFavorites();
+            items = createLayout(null);
+            LauncherProvider.ItemOps ops = new LauncherProvider.ItemOps();
+            for (ContentValues values : items) {
+                ops.insert(values);
+            }
+            mNotifications = 0;
+            start = System.nanoTime();
+            long[] ids = provider.applyItemOps(ops);
+            itemOpsNanos = Math.min(itemOpsNanos, System.nanoTime() - start);
+            assertNotNull(ids);
+            assertEquals(ITEM_COUNT, ids.length);
+            assertEquals(1, mNotifications);
+            assertEquals(ITEM_COUNT, countFavorites());
+        }
+
+        Log.d(TAG, ITEM_COUNT + " items: insert " + singleNanos / 1000 + "us, applyBatch "
+                + batchNanos / 1000 + "us, applyItemOps " + itemOpsNanos / 1000 + "us");
+    }
+
+    public void testItemOpsRollBack() {
+        LauncherProvider provider = getProvider();
+        clearFavorites();
+        ArrayList<ContentValues> items = createLayout(provider);
+        LauncherProvider.ItemOps ops = new LauncherProvider.ItemOps();
+        for (ContentValues values : items) {
+            ops.insert(values);
+        }
+        // A duplicate id fails the insert, which discards the whole batch.
+        ops.insert(new ContentValues(items.get(0)));
+        mNotifications = 0;
+        assertNull(provider.applyItemOps(ops));
+        assertEquals(0, mNotifications);
+        assertEquals(0, countFavorites());
+    }
+
+    /**
+     * Creates the values of a layout of shortcuts filling consecutive screens.
+     *
+     * @param provider the provider generating the ids of the items, or null to leave the items
+     *        without an id.
+     */
+    private static ArrayList<ContentValues> createLayout(LauncherProvider provider) {
+        ArrayList<ContentValues> items = new ArrayList<ContentValues>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            Intent intent = new Intent(Intent.ACTION_MAIN)
+                    .addCategory(Intent.CATEGORY_LAUNCHER)
+                    .setClassName("com.example.app" + i, "com.example.app" + i + ".MainActivity");
+
+            ContentValues values = new ContentValues();
+            if (provider != null) {
+                values.put(Favorites._ID, provider.generateNewItemId());
+            }
+            values.put(Favorites.TITLE, "App " + i);
+            values.put(Favorites.INTENT, intent.toUri(0));
+            values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPLICATION);
+            values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+            values.put(Favorites.SCREEN, i / (COLUMNS * ROWS));
+            values.put(Favorites.CELLX, i % COLUMNS);
+            values.put(Favorites.CELLY, (i / COLUMNS) % ROWS);
+            values.put(Favorites.SPANX, 1);
+            values.put(Favorites.SPANY, 1);
+            items.add(values);
+        }
+        return items;
+    }
+
+    private void clearFavorites() {
+        getProvider().delete(Favorites.CONTENT_URI, null, null);
+    }
+
+    private int countFavorites() {
+        Cursor c = getProvider().query(Favorites.CONTENT_URI, new String[] { Favorites._ID },
+                null, null, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.launcher3.WidgetPreviewLoader.PreviewCallback;
+import com.android.launcher3.WidgetPreviewLoader.PreviewLoadRequest;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link WidgetPreviewLoader} delivers a preview to every caller still waiting for
+ * one, including the callers whose loads were dropped from the full queue.
+ */
+@MediumTest
+public final class WidgetPreviewLoaderQueueTest extends AndroidTestCase {
+    private static final String DB_PREFIX = "test.";
+    private static final int PREVIEW_SIZE = 8;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private WidgetPreviewLoader mLoader;
+    // Holds the loads until all the previews are requested, so that the queue overflows.
+    private final CountDownLatch mLoadsReleased = new CountDownLatch(1);
+    private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Keep the preview DB of the launcher out of the test.
+        mContext = new RenamingDelegatingContext(getContext(), DB_PREFIX);
+        mContext.deleteDatabase(LauncherFiles.WIDGET_PREVIEWS_DB);
+        mLoader = new WidgetPreviewLoader(mContext, null) {
+            @Override
+            Bitmap generatePreview(Object info, Bitmap recycle, int previewWidth,
+                    int previewHeight) {
+                try {
+                    mLoadsReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                recycle.eraseColor(Color.WHITE);
+                return recycle;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLoadsReleased.countDown();
+        mContext.deleteDatabase(LauncherFiles.WIDGET_PREVIEWS_DB);
+        super.tearDown();
+    }
+
+    public void testOverfilledQueueDeliversToEveryCaller() throws Exception {
+        int count = WidgetPreviewLoader.MAX_PENDING_LOADS * 2;
+        final CountDownLatch delivered = new CountDownLatch(count);
+        final ArrayList<Caller> callers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            callers.add(new Caller(newShortcutInfo(i), delivered));
+        }
+
+        // Request from the UI thread, as the cells do.
+        mMainThreadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (Caller caller : callers) {
+                    caller.request();
+                }
+            }
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        mLoadsReleased.countDown();
+
+        assertTrue("Callers left without a preview: " + delivered.getCount(),
+                delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        int dropCount = 0;
+        for (Caller caller : callers) {
+            dropCount += caller.mDropCount;
+        }
+        assertTrue("The queue did not overflow", dropCount > 0);
+    }
+
+    private ResolveInfo newShortcutInfo(int index) {
+        ResolveInfo info = new ResolveInfo();
+        info.activityInfo = new ActivityInfo();
+        info.activityInfo.packageName = getContext().getPackageName();
+        info.activityInfo.name = "Shortcut" + index;
+        return info;
+    }
+
+    /**
+     * A cell waiting for a preview, which requests it again when its load is dropped.
+     */
+    private final class Caller implements PreviewCallback {
+        private final ResolveInfo mInfo;
+        private final CountDownLatch mDelivered;
+        private PreviewLoadRequest mRequest;
+        private Bitmap mPreview;
+        int mDropCount;
+
+        Caller(ResolveInfo info, CountDownLatch delivered) {
+            mInfo = info;
+            mDelivered = delivered;
+        }
+
+        void request() {
+            Bitmap[] immediateResult = new Bitmap[1];
+            mRequest = mLoader.getPreview(mInfo, PREVIEW_SIZE, PREVIEW_SIZE, this,
+                    immediateResult);
+            if (immediateResult[0] != null) {
+                applyPreview(immediateResult[0]);
+            }
+        }
+
+        @Override
+        public void applyPreview(Bitmap preview) {
+            assertNotNull(preview);
+            if (mPreview == null) {
+                mPreview = preview;
+                mDelivered.countDown();
+            }
+        }
+
+        @Override
+        public void onPreviewDropped(PreviewLoadRequest request) {
+            assertSame(mRequest, request);
+            mDropCount++;
+            request();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares the span fit queries of {@link GridOccupancy} against checking a boolean[][] cell by
+ * cell, as CellLayout used to, on grids from 4x4 to 12x12.
+ */
+@LargeTest
+public final class GridOccupancyBenchmark extends AndroidTestCase {
+    private static final String TAG = "GridOccupancyBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+    private static final int MAX_SPAN = 4;
+
+    public void testFindVacantCell() {
+        for (int size = 4; size <= 12; size += 2) {
+            Random random = new Random(size);
+            boolean[][] cells = createCells(size, random);
+            GridOccupancy occupancy = createOccupancy(cells);
+
+            int[] expected = new int[2];
+            int[] actual = new int[2];
+            long cellsNanos = Long.MAX_VALUE;
+            long occupancyNanos = Long.MAX_VALUE;
+            for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+                int spanX = 1 + i % MAX_SPAN;
+                int spanY = 1 + (i / MAX_SPAN) % MAX_SPAN;
+
+                long start = System.nanoTime();
+                boolean expectedFound = findVacantCell(cells, expected, spanX, spanY);
+                long cellsTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                boolean actualFound = occupancy.findVacantCell(actual, spanX, spanY);
+                long occupancyTime = System.nanoTime() - start;
+
+                assertEquals(expectedFound, actualFound);
+                if (expectedFound) {
+                    assertEquals(expected[0], actual[0]);
+                    assertEquals(expected[1], actual[1]);
+                }
+                if (i >= WARMUP_ITERATIONS) {
+                    cellsNanos = Math.min(cellsNanos, cellsTime);
+                    occupancyNanos = Math.min(occupancyNanos, occupancyTime);
+                }
+            }
+            Log.d(TAG, size + "x" + size + " findVacantCell: boolean[][] " + cellsNanos
+                    + "ns, GridOccupancy " + occupancyNanos + "ns");
+        }
+    }
+
+    /**
+     * Checks every position of the grid, like a nearest area search does on every drag over.
+     */
+    public void testAllRegions() {
+        for (int size = 4; size <= 12; size += 2) {
+            Random random = new Random(size);
+            boolean[][] cells = createCells(size, random);
+            GridOccupancy occupancy = createOccupancy(cells);
+
+            long cellsNanos = Long.MAX_VALUE;
+            long occupancyNanos = Long.MAX_VALUE;
+            for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+                int spanX = 1 + i % MAX_SPAN;
+                int spanY = 1 + (i / MAX_SPAN) % MAX_SPAN;
+
+                long start = System.nanoTime();
+                int expected = 0;
+                for (int y = 0; y < size - (spanY - 1); y++) {
+                    for (int x = 0; x < size - (spanX - 1); x++) {
+                        if (isRegionVacant(cells, x, y, spanX, spanY)) {
+                            expected++;
+                        }
+                    }
+                }
+                long cellsTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int actual = 0;
+                for (int y = 0; y < size - (spanY - 1); y++) {
+                    actual += Long.bitCount(occupancy.getVacantRegions(y, spanX, spanY));
+                }
+                long occupancyTime = System.nanoTime() - start;
+
+                assertEquals(expected, actual);
+                if (i >= WARMUP_ITERATIONS) {
+                    cellsNanos = Math.min(cellsNanos, cellsTime);
+                    occupancyNanos = Math.min(occupancyNanos, occupancyTime);
+                }
+            }
+            Log.d(TAG, size + "x" + size + " all regions: boolean[][] " + cellsNanos
+                    + "ns, GridOccupancy " + occupancyNanos + "ns");
+        }
+    }
+
+    /**
+     * Creates a grid with about half of the cells occupied, by spans like those of the items
+     * of a workspace.
+     */
+    private static boolean[][] createCells(int size, Random random) {
+        boolean[][] cells = new boolean[size][size];
+        for (int i = 0; i < size * size / 4; i++) {
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            int spanX = 1 + random.nextInt(2);
+            int spanY = 1 + random.nextInt(2);
+            for (int j = x; j < x + spanX && j < size; j++) {
+                for (int k = y; k < y + spanY && k < size; k++) {
+                    cells[j][k] = true;
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static GridOccupancy createOccupancy(boolean[][] cells) {
+        GridOccupancy occupancy = new GridOccupancy(cells.length, cells[0].length);
+        for (int x = 0; x < cells.length; x++) {
+            for (int y = 0; y < cells[x].length; y++) {
+                occupancy.markCells(x, y, 1, 1, cells[x][y]);
+            }
+        }
+        return occupancy;
+    }
+
+    private static boolean isRegionVacant(boolean[][] cells, int x, int y, int spanX,
+            int spanY) {
+        for (int i = x; i < x + spanX; i++) {
+            for (int j = y; j < y + spanY; j++) {
+                if (cells[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean findVacantCell(boolean[][] cells, int[] vacant, int spanX,
+            int spanY) {
+        for (int y = 0; y + spanY <= cells[0].length; y++) {
+            for (int x = 0; x + spanX <= cells.length; x++) {
+                if (isRegionVacant(cells, x, y, spanX, spanY)) {
+                    vacant[0] = x;
+                    vacant[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3.util;
+
+import com.android.launcher3.util.ReorderSolver.ItemConfiguration;
+import com.android.launcher3.util.ReorderSolverTest.Item;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the time {@link ReorderSolver} takes to find a solution on the grid sizes of the
+ * device profiles, for layouts of increasing density up to full screens, and checks the
+ * solutions it finds. Does not depend on the Android framework, so it also runs on a plain JVM.
+ */
+public final class ReorderSolverBenchmark extends TestCase {
+    private static final String TAG = "ReorderSolverBenchmark";
+
+    /**
+     * Receives the results of the benchmark.
+     */
+    public interface Reporter {
+        void report(String tag, String message);
+    }
+
+    /**
+     * Prints the results to the standard output, which also ends up in the logcat on a device.
+     */
+    public static final Reporter SYSTEM_OUT_REPORTER = new Reporter() {
+        @Override
+        public void report(String tag, String message) {
+            System.out.println(tag + ": " + message);
+        }
+    };
+
+    private Reporter mReporter = SYSTEM_OUT_REPORTER;
+
+    public void setReporter(Reporter reporter) {
+        mReporter = reporter;
+    }
+
+    private static final int WARMUP_ITERATIONS = 500;
+    private static final int ITERATIONS = 2000;
+    private static final float[] DENSITIES = {0.5f, 0.8f, 1f};
+
+    public void testRandomLayouts() {
+        for (int[] size : ReorderSolverTest.GRID_SIZES) {
+            for (float density : DENSITIES) {
+                run(size[0], size[1], density);
+            }
+        }
+    }
+
+    /**
+     * Drops an item over a screen full of 1x1 items but for one cell, which is the worst case
+     * for the solver: no push succeeds, and every item in the way has to be moved individually.
+     */
+    public void testDenseLayouts() {
+        for (int[] size : ReorderSolverTest.GRID_SIZES) {
+            run(size[0], size[1], -1);
+        }
+    }
+
+    /**
+     * @param density the share of the grid covered by items, or -1 for a grid filled with 1x1
+     *        items but for one cell.
+     */
+    private void run(int countX, int countY, float density) {
+        Random random = new Random(countX * 31 + countY);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(countX, countY);
+        long[] times = new long[ITERATIONS];
+        int solutions = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            ArrayList<Item> items;
+            int spanX;
+            int spanY;
+            if (density < 0) {
+                items = ReorderSolverTest.createFullLayout(countX, countY,
+                        random.nextInt(countX), random.nextInt(countY));
+                spanX = spanY = 1;
+            } else {
+                items = ReorderSolverTest.createRandomLayout(countX, countY, density, random);
+                spanX = 1 + random.nextInt(Math.min(countX, 2));
+                spanY = 1 + random.nextInt(Math.min(countY, 2));
+            }
+            int cellX = random.nextInt(countX - spanX + 1);
+            int cellY = random.nextInt(countY - spanY + 1);
+            int[] direction = new int[2];
+            ReorderSolver.computeDirectionVector(random.nextFloat() - 0.5f,
+                    random.nextFloat() - 0.5f, direction);
+            if (direction[0] == 0 && direction[1] == 0) {
+                direction[0] = 1;
+            }
+            ItemConfiguration<Item> solution = ReorderSolverTest.createConfiguration(items);
+            GridOccupancy occupied =
+                    ReorderSolverTest.createOccupancy(countX, countY, solution, null);
+
+            long start = System.nanoTime();
+            boolean found = solver.rearrangementExists(cellX, cellY, spanX, spanY, direction,
+                    null, occupied, solution);
+            long time = System.nanoTime() - start;
+
+            if (found) {
+                ReorderSolverTest.assertValidSolution(countX, countY, items, null, cellX, cellY,
+                        spanX, spanY, solution);
+            }
+            if (i >= WARMUP_ITERATIONS) {
+                times[i - WARMUP_ITERATIONS] = time;
+                if (found) {
+                    solutions++;
+                }
+            }
+        }
+
+        Arrays.sort(times);
+        mReporter.report(TAG, countX + "x" + countY
+                + (density < 0 ? " dense" : " density " + density)
+                + ": median " + times[ITERATIONS / 2] / 1000 + "us, 99th percentile "
+                + times[ITERATIONS * 99 / 100] / 1000 + "us, max "
+                + times[ITERATIONS - 1] / 1000 + "us, solved " + solutions + "/" + ITERATIONS);
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3.util;
+
+import com.android.launcher3.util.ReorderSolver.CellAndSpan;
+import com.android.launcher3.util.ReorderSolver.ItemConfiguration;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks the solutions of {@link ReorderSolver} on random layouts of the grid sizes of the
+ * device profiles. Does not depend on the Android framework, not even for its annotations, so
+ * it also runs on a plain JVM.
+ */
+public final class ReorderSolverTest extends TestCase {
+
+    /**
+     * The workspace grids of the device profiles of DynamicGrid, and the hotseats, as
+     * {columns, rows}.
+     */
+    static final int[][] GRID_SIZES = {
+            {3, 2}, {3, 3}, {4, 3}, {4, 4}, {5, 5}, {6, 5}, {7, 7},
+            {3, 1}, {5, 1}, {7, 1},
+    };
+
+    private static final int[][] DIRECTIONS = {
+            {1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {-1, 1}, {1, -1}, {-1, -1},
+    };
+
+    private static final int LAYOUTS_PER_GRID = 200;
+
+    /**
+     * An item of a test layout.
+     */
+    static final class Item {
+        final int x, y, spanX, spanY;
+        final boolean canReorder;
+
+        Item(int x, int y, int spanX, int spanY, boolean canReorder) {
+            this.x = x;
+            this.y = y;
+            this.spanX = spanX;
+            this.spanY = spanY;
+            this.canReorder = canReorder;
+        }
+    }
+
+    public void testPushesInDirection() {
+        Item a = new Item(0, 0, 1, 1, true);
+        Item b = new Item(1, 0, 1, 1, true);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(4, 1);
+        ItemConfiguration<Item> solution = createConfiguration(a, b);
+
+        int[] direction = {1, 0};
+        assertTrue(solver.rearrangementExists(0, 0, 1, 1, direction, null,
+                createOccupancy(4, 1, solution, null), solution));
+        assertCell(1, 0, solution.map.get(a));
+        assertCell(2, 0, solution.map.get(b));
+    }
+
+    public void testPushesInOppositeDirection() {
+        Item a = new Item(2, 0, 1, 1, true);
+        Item b = new Item(3, 0, 1, 1, true);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(4, 1);
+        ItemConfiguration<Item> solution = createConfiguration(a, b);
+
+        int[] direction = {1, 0};
+        assertTrue(solver.rearrangementExists(2, 0, 1, 1, direction, null,
+                createOccupancy(4, 1, solution, null), solution));
+        assertCell(1, 0, solution.map.get(a));
+        assertCell(3, 0, solution.map.get(b));
+        // The direction is restored for the caller.
+        assertEquals(1, direction[0]);
+        assertEquals(0, direction[1]);
+    }
+
+    public void testFixedItemIsNotMoved() {
+        Item fixed = new Item(1, 0, 1, 1, false);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(3, 1);
+        ItemConfiguration<Item> solution = createConfiguration(fixed);
+
+        assertFalse(solver.rearrangementExists(1, 0, 1, 1, new int[] {1, 0}, null,
+                createOccupancy(3, 1, solution, null), solution));
+    }
+
+    public void testPushStopsAtFixedItem() {
+        Item a = new Item(0, 0, 1, 1, true);
+        Item fixed = new Item(1, 0, 1, 1, false);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(3, 1);
+        ItemConfiguration<Item> solution = createConfiguration(a, fixed);
+
+        // a can not push the fixed item to the right, so it moves past it.
+        assertTrue(solver.rearrangementExists(0, 0, 1, 1, new int[] {1, 0}, null,
+                createOccupancy(3, 1, solution, null), solution));
+        assertCell(2, 0, solution.map.get(a));
+        assertCell(1, 0, solution.map.get(fixed));
+    }
+
+    public void testDraggedItemIsIgnored() {
+        Item dragged = new Item(0, 0, 1, 1, true);
+        Item a = new Item(1, 0, 1, 1, true);
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(2, 1);
+        ItemConfiguration<Item> solution = createConfiguration(dragged, a);
+
+        // Swaps the dragged item with a.
+        assertTrue(solver.rearrangementExists(1, 0, 1, 1, new int[] {1, 0}, dragged,
+                createOccupancy(2, 1, solution, dragged), solution));
+        assertCell(1, 0, solution.map.get(dragged));
+        assertCell(0, 0, solution.map.get(a));
+    }
+
+    public void testFullGrid() {
+        for (int[] size : GRID_SIZES) {
+            ArrayList<Item> items = createFullLayout(size[0], size[1], -1, -1);
+            ItemConfiguration<Item> solution = createConfiguration(items);
+            ReorderSolver<Item> solver = new ReorderSolver<Item>(size[0], size[1]);
+            assertFalse(solver.rearrangementExists(0, 0, 1, 1, new int[] {1, 0}, null,
+                    createOccupancy(size[0], size[1], solution, null), solution));
+        }
+    }
+
+    /**
+     * A grid filled with 1x1 items but for one cell always has a solution for a 1x1 item.
+     */
+    public void testFullGridButOneCell() {
+        Random random = new Random(0);
+        for (int[] size : GRID_SIZES) {
+            int countX = size[0];
+            int countY = size[1];
+            for (int i = 0; i < LAYOUTS_PER_GRID; i++) {
+                ArrayList<Item> items = createFullLayout(countX, countY,
+                        random.nextInt(countX), random.nextInt(countY));
+                ItemConfiguration<Item> solution = createConfiguration(items);
+                ReorderSolver<Item> solver = new ReorderSolver<Item>(countX, countY);
+                int cellX = random.nextInt(countX);
+                int cellY = random.nextInt(countY);
+                int[] direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+                assertTrue(solver.rearrangementExists(cellX, cellY, 1, 1, direction, null,
+                        createOccupancy(countX, countY, solution, null), solution));
+                assertValidSolution(countX, countY, items, null, cellX, cellY, 1, 1, solution);
+            }
+        }
+    }
+
+    public void testRandomLayouts() {
+        Random random = new Random(0);
+        for (int[] size : GRID_SIZES) {
+            int countX = size[0];
+            int countY = size[1];
+            ReorderSolver<Item> solver = new ReorderSolver<Item>(countX, countY);
+            int solutions = 0;
+            for (int i = 0; i < LAYOUTS_PER_GRID; i++) {
+                float density = 0.3f + 0.7f * random.nextFloat();
+                ArrayList<Item> items = createRandomLayout(countX, countY, density, random);
+                // Drag one of the items, or an item from outside of the grid.
+                Item dragged = items.isEmpty() || random.nextBoolean()
+                        ? null : items.get(random.nextInt(items.size()));
+                int spanX = dragged != null ? dragged.spanX : 1 + random.nextInt(countX);
+                int spanY = dragged != null ? dragged.spanY : 1 + random.nextInt(countY);
+                int cellX = random.nextInt(countX - spanX + 1);
+                int cellY = random.nextInt(countY - spanY + 1);
+                int[] direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)].clone();
+                int[] originalDirection = direction.clone();
+
+                ItemConfiguration<Item> solution = createConfiguration(items);
+                GridOccupancy occupied = createOccupancy(countX, countY, solution, dragged);
+                GridOccupancy occupiedCopy = createOccupancy(countX, countY, solution, dragged);
+                if (solver.rearrangementExists(cellX, cellY, spanX, spanY, direction, dragged,
+                        occupied, solution)) {
+                    assertValidSolution(countX, countY, items, dragged, cellX, cellY, spanX,
+                            spanY, solution);
+                    solutions++;
+                }
+                assertEquals(originalDirection[0], direction[0]);
+                assertEquals(originalDirection[1], direction[1]);
+                assertEquals(occupiedCopy, occupied);
+            }
+            // The layouts are not all so dense that nothing can be moved.
+            assertTrue(solutions > 0);
+        }
+    }
+
+    public void testDeadline() {
+        ReorderSolver<Item> solver = new ReorderSolver<Item>(4, 4);
+        assertFalse(solver.isOverBudget());
+        solver.setDeadline(System.nanoTime() - 1);
+        assertTrue(solver.isOverBudget());
+        solver.setDeadline(System.nanoTime() + 60L * 1000 * 1000 * 1000);
+        assertFalse(solver.isOverBudget());
+        solver.setDeadline(0);
+        assertFalse(solver.isOverBudget());
+    }
+
+    /**
+     * Creates a layout of items of random spans, the size of icons and of common widgets,
+     * covering about {@param density} of the grid. About one item in twenty can not be moved,
+     * like the all apps button of the hotseat.
+     */
+    static ArrayList<Item> createRandomLayout(int countX, int countY, float density,
+            Random random) {
+        GridOccupancy occupied = new GridOccupancy(countX, countY);
+        ArrayList<Item> items = new ArrayList<Item>();
+        int target = (int) (density * countX * countY);
+        int area = 0;
+        int[] cell = new int[2];
+        for (int attempt = 0; attempt < 4 * countX * countY && area < target; attempt++) {
+            int spanX = 1;
+            int spanY = 1;
+            if (random.nextInt(4) == 0) {
+                spanX = 1 + random.nextInt(Math.min(countX, 4));
+                spanY = 1 + random.nextInt(Math.min(countY, 3));
+            }
+            int x = random.nextInt(countX - spanX + 1);
+            int y = random.nextInt(countY - spanY + 1);
+            if (!occupied.isRegionVacant(x, y, spanX, spanY)) {
+                if (!occupied.findVacantCell(cell, spanX, spanY)) {
+                    continue;
+                }
+                x = cell[0];
+                y = cell[1];
+            }
+            occupied.markCells(x, y, spanX, spanY, true);
+            items.add(new Item(x, y, spanX, spanY, random.nextInt(20) != 0));
+            area += spanX * spanY;
+        }
+        return items;
+    }
+
+    /**
+     * Creates a layout of 1x1 items in all the cells but (emptyX, emptyY).
+     */
+    static ArrayList<Item> createFullLayout(int countX, int countY, int emptyX, int emptyY) {
+        ArrayList<Item> items = new ArrayList<Item>();
+        for (int y = 0; y < countY; y++) {
+            for (int x = 0; x < countX; x++) {
+                if (x != emptyX || y != emptyY) {
+                    items.add(new Item(x, y, 1, 1, true));
+                }
+            }
+        }
+        return items;
+    }
+
+    static ItemConfiguration<Item> createConfiguration(Item... items) {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (Item item : items) {
+            list.add(item);
+        }
+        return createConfiguration(list);
+    }
+
+    static ItemConfiguration<Item> createConfiguration(ArrayList<Item> items) {
+        ItemConfiguration<Item> config = new ItemConfiguration<Item>();
+        for (Item item : items) {
+            config.add(item, new CellAndSpan(item.x, item.y, item.spanX, item.spanY),
+                    item.canReorder);
+        }
+        return config;
+    }
+
+    /**
+     * Returns the cells occupied by the items of {@param config}, but {@param dragged}, like
+     * CellLayout does while an item is dragged.
+     */
+    static GridOccupancy createOccupancy(int countX, int countY, ItemConfiguration<Item> config,
+            Item dragged) {
+        GridOccupancy occupied = new GridOccupancy(countX, countY);
+        for (Item item : config.map.keySet()) {
+            if (item != dragged) {
+                CellAndSpan c = config.map.get(item);
+                occupied.markCells(c.x, c.y, c.spanX, c.spanY, true);
+            }
+        }
+        return occupied;
+    }
+
+    /**
+     * Checks that {@param solution} places the items over the grid without overlaps, with the
+     * dropped item and the items which cannot be reordered in their cells.
+     */
+    static void assertValidSolution(int countX, int countY, ArrayList<Item> items,
+            Item dragged, int cellX, int cellY, int spanX, int spanY,
+            ItemConfiguration<Item> solution) {
+        GridOccupancy occupied = new GridOccupancy(countX, countY);
+        occupied.markCells(cellX, cellY, spanX, spanY, true);
+        for (Item item : items) {
+            CellAndSpan c = solution.map.get(item);
+            assertEquals(item.spanX, c.spanX);
+            assertEquals(item.spanY, c.spanY);
+            if (item == dragged) {
+                assertCell(cellX, cellY, c);
+                continue;
+            }
+            if (!item.canReorder) {
+                assertCell(item.x, item.y, c);
+            }
+            // Inside of the grid, and neither over the dropped item nor over another item.
+            assertTrue("Overlapping or outside of the grid: " + c,
+                    occupied.isRegionVacant(c.x, c.y, c.spanX, c.spanY));
+            occupied.markCells(c.x, c.y, c.spanX, c.spanY, true);
+        }
+    }
+
+    private static void assertCell(int x, int y, CellAndSpan c) {
+        assertEquals("x of " + c, x, c.x);
+        assertEquals("y of " + c, y, c.y);
+    }
+}